@@ -0,0 +1,190 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waveprotocol.wave.model.document.AnnotationInterval;
+import org.waveprotocol.wave.model.document.RangedAnnotation;
+import org.waveprotocol.wave.model.document.indexed.AnnotationSetSnapshot;
+import org.waveprotocol.wave.model.document.indexed.AnnotationTree;
+import org.waveprotocol.wave.model.document.util.GenericAnnotationIntervalIterable;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the range queries of {@link AnnotationTree} on a tree with random
+ * annotations, and of snapshots of that tree.  Interval queries are compared
+ * against {@link GenericAnnotationIntervalIterable}, which the tree used
+ * before it had its own traversal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationTreeBenchmark {
+
+  private static final String[] VALUES = {"v0", "v1", "v2"};
+  private static final int QUERIES = 256;
+
+  @Param({"100", "1000", "10000"})
+  public int documentSize;
+
+  /** The number of different keys the annotations use. */
+  @Param({"4", "16"})
+  public int keyCount;
+
+  private String[] keyNames;
+  private AnnotationTree<Object> tree;
+  private AnnotationSetSnapshot<Object> snapshot;
+  private final int[] starts = new int[QUERIES];
+  private final int[] ends = new int[QUERIES];
+  private final String[] keys = new String[QUERIES];
+  private int next;
+
+  @Setup
+  public void setUp() throws OperationException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    keyNames = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = "k" + i;
+    }
+    tree = new AnnotationTree<Object>(new Object(), new Object(), null);
+    tree.begin(false);
+    tree.insert(documentSize);
+    tree.finish();
+    for (int i = 0; i < documentSize / 10; i++) {
+      int start = random.nextInt(documentSize);
+      int end = start + 1 + random.nextInt(Math.min(50, documentSize - start));
+      String key = keyNames[random.nextInt(keyCount)];
+      tree.begin(false);
+      if (start > 0) {
+        tree.skip(start);
+      }
+      tree.startAnnotation(key, VALUES[random.nextInt(VALUES.length)]);
+      tree.skip(end - start);
+      tree.endAnnotation(key);
+      tree.finish();
+    }
+    for (int i = 0; i < QUERIES; i++) {
+      starts[i] = random.nextInt(documentSize);
+      ends[i] = starts[i] + 1 + random.nextInt(documentSize - starts[i]);
+      keys[i] = keyNames[random.nextInt(keyCount)];
+    }
+    snapshot = tree.snapshot();
+  }
+
+  /** Finds the first and last changes of an annotation in a random range. */
+  @Benchmark
+  public int annotationChanges() {
+    int i = nextQuery();
+    Object value = tree.getAnnotation(starts[i], keys[i]);
+    return tree.firstAnnotationChange(starts[i], ends[i], keys[i], value)
+        + tree.lastAnnotationChange(starts[i], ends[i], keys[i], value);
+  }
+
+  /** Same as {@link #annotationChanges}, on a snapshot of the tree. */
+  @Benchmark
+  public int snapshotAnnotationChanges() {
+    int i = nextQuery();
+    Object value = snapshot.getAnnotation(starts[i], keys[i]);
+    return snapshot.firstAnnotationChange(starts[i], ends[i], keys[i], value)
+        + snapshot.lastAnnotationChange(starts[i], ends[i], keys[i], value);
+  }
+
+  /** Copies the tree into a new snapshot. */
+  @Benchmark
+  public AnnotationSetSnapshot<Object> takeSnapshot() {
+    return AnnotationSetSnapshot.of(tree);
+  }
+
+  /** Iterates over the ranged annotations of all keys in a random range. */
+  @Benchmark
+  public int rangedAnnotations() {
+    int i = nextQuery();
+    int count = 0;
+    for (RangedAnnotation<Object> annotation : tree.rangedAnnotations(starts[i], ends[i], null)) {
+      count += annotation.end() - annotation.start();
+    }
+    return count;
+  }
+
+  /** Iterates over the annotation intervals of all keys in a random range. */
+  @Benchmark
+  public int annotationIntervals() {
+    int i = nextQuery();
+    int count = 0;
+    for (AnnotationInterval<Object> interval : tree.annotationIntervals(starts[i], ends[i],
+        null)) {
+      count += interval.length();
+    }
+    return count;
+  }
+
+  /** Same as {@link #annotationIntervals}, with the generic iterable. */
+  @Benchmark
+  public int genericAnnotationIntervals() {
+    int i = nextQuery();
+    int count = 0;
+    for (AnnotationInterval<Object> interval : new GenericAnnotationIntervalIterable<Object>(tree,
+        starts[i], ends[i], tree.knownKeysLive())) {
+      count += interval.length();
+    }
+    return count;
+  }
+
+  /** Iterates over the annotation intervals of all keys in the whole tree. */
+  @Benchmark
+  public int allAnnotationIntervals() {
+    int count = 0;
+    for (AnnotationInterval<Object> interval : tree.annotationIntervals(0, documentSize, null)) {
+      count += interval.diffFromLeft().countEntries();
+    }
+    return count;
+  }
+
+  /** Same as {@link #allAnnotationIntervals}, with the generic iterable. */
+  @Benchmark
+  public int genericAllAnnotationIntervals() {
+    int count = 0;
+    for (AnnotationInterval<Object> interval : new GenericAnnotationIntervalIterable<Object>(tree,
+        0, documentSize, tree.knownKeysLive())) {
+      count += interval.diffFromLeft().countEntries();
+    }
+    return count;
+  }
+
+  private int nextQuery() {
+    int i = next;
+    next = (i + 1) % QUERIES;
+    return i;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.waveprotocol.wave.model.document.indexed.AnnotationTree;
+
+import java.util.Random;
+
+/**
+ * Measures the heap retained by an {@link AnnotationTree} with 50,000 random
+ * annotation intervals.  JMH only reports allocation rates, so this is a plain
+ * program; run it with a fixed heap and a serial collector for stable numbers:
+ *
+ * <pre>
+ * java -Xmx2g -XX:+UseSerialGC -cp benchmarks.jar \
+ *     org.waveprotocol.wave.benchmarks.AnnotationTreeHeapBenchmark
+ * </pre>
+ */
+public class AnnotationTreeHeapBenchmark {
+
+  private static final String[] KEYS = {"k0", "k1", "k2", "k3"};
+  private static final String[] VALUES = {"v0", "v1", "v2"};
+  private static final int INTERVALS = 50000;
+  private static final int DOCUMENT_SIZE = INTERVALS * 10;
+  private static final int COPIES = 5;
+
+  public static void main(String[] args) {
+    AnnotationTree<?>[] trees = new AnnotationTree<?>[COPIES];
+    long before = usedHeap();
+    for (int i = 0; i < COPIES; i++) {
+      trees[i] = createTree(new Random(BenchmarkInputs.SEED));
+    }
+    long after = usedHeap();
+    System.out.println("AnnotationTree with " + DOCUMENT_SIZE + " items and " + INTERVALS
+        + " annotation intervals: " + (after - before) / COPIES + " bytes");
+    // Keeps the trees reachable until after the measurement.
+    if (trees[COPIES - 1].size() != DOCUMENT_SIZE) {
+      throw new AssertionError();
+    }
+  }
+
+  /**
+   * Creates a tree with the same shape of annotations as
+   * {@link AnnotationTreeBenchmark} uses.
+   */
+  private static AnnotationTree<Object> createTree(Random random) {
+    AnnotationTree<Object> tree = new AnnotationTree<Object>(new Object(), new Object(), null);
+    tree.begin(false);
+    tree.insert(DOCUMENT_SIZE);
+    tree.finish();
+    for (int i = 0; i < INTERVALS; i++) {
+      int start = random.nextInt(DOCUMENT_SIZE);
+      int end = start + 1 + random.nextInt(Math.min(50, DOCUMENT_SIZE - start));
+      String key = KEYS[random.nextInt(KEYS.length)];
+      tree.begin(false);
+      if (start > 0) {
+        tree.skip(start);
+      }
+      tree.startAnnotation(key, VALUES[random.nextInt(VALUES.length)]);
+      tree.skip(end - start);
+      tree.endAnnotation(key);
+      tree.finish();
+    }
+    return tree;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocInitialization;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationBoundaryMapImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocInitializationBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded random inputs for the benchmarks, so that every run of a benchmark
+ * measures the same work.
+ */
+final class BenchmarkInputs {
+
+  /** The seed of all the random inputs. */
+  static final long SEED = 1;
+
+  /** The annotation keys that documents are annotated with. */
+  private static final String[] ANNOTATION_KEYS = {"style/fontWeight", "style/color", "lang"};
+
+  /**
+   * Creates a document of paragraphs of random text, with random annotations,
+   * of roughly the given number of items.
+   */
+  static BufferedDocInitialization document(Random random, int size) {
+    DocInitializationBuilder builder = new DocInitializationBuilder();
+    builder.elementStart("body", Attributes.EMPTY_MAP);
+    int items = 2;
+    while (items < size) {
+      builder.elementStart("line", Attributes.EMPTY_MAP).elementEnd();
+      String key = ANNOTATION_KEYS[random.nextInt(ANNOTATION_KEYS.length)];
+      boolean annotated = random.nextInt(3) == 0;
+      if (annotated) {
+        builder.annotationBoundary(AnnotationBoundaryMapImpl.builder()
+            .updateValues(key, null, "v" + random.nextInt(3)).build());
+      }
+      int length = 10 + random.nextInt(50);
+      builder.characters(text(random, length));
+      if (annotated) {
+        builder.annotationBoundary(AnnotationBoundaryMapImpl.builder()
+            .initializationEnd(key).build());
+      }
+      items += 2 + length;
+    }
+    builder.elementEnd();
+    return builder.build();
+  }
+
+  /**
+   * Returns a mirror of a document that random operations can be generated
+   * against.
+   */
+  static BootstrapDocument bootstrap(BufferedDocInitialization document) {
+    BootstrapDocument doc = new BootstrapDocument();
+    try {
+      doc.consume(document);
+    } catch (OperationException e) {
+      throw new IllegalStateException("Generated an invalid document", e);
+    }
+    return doc;
+  }
+
+  /**
+   * Generates random operations against a document.
+   *
+   * @param sequential whether each operation applies to the result of the
+   *        previous one, in which case they are applied to {@code doc}, or
+   *        all apply to {@code doc} as it is
+   */
+  static List<BufferedDocOp> operations(Random random, BootstrapDocument doc, int count,
+      boolean sequential) {
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    RandomProviderImpl provider = new RandomProviderImpl(random);
+    List<BufferedDocOp> ops = new ArrayList<BufferedDocOp>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        BufferedDocOp op = DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+        if (sequential) {
+          doc.consume(op);
+        }
+        ops.add(op);
+      }
+    } catch (OperationException e) {
+      throw new IllegalStateException("Generated an invalid operation", e);
+    }
+    return ops;
+  }
+
+  /**
+   * Generates the operations of typing characters one at a time into the text
+   * in the middle of a document, which each apply to the result of the
+   * previous one.
+   */
+  static List<BufferedDocOp> typing(Random random, BootstrapDocument doc, int count) {
+    int pos = doc.length() / 2;
+    while (doc.charAt(pos) == -1) {
+      pos++;
+    }
+    int remaining = doc.length() - pos;
+    String text = text(random, count);
+    List<BufferedDocOp> ops = new ArrayList<BufferedDocOp>(count);
+    for (int i = 0; i < count; i++) {
+      ops.add(new DocOpBuilder()
+          .retain(pos + i)
+          .characters(text.substring(i, i + 1))
+          .retain(remaining)
+          .build());
+    }
+    return ops;
+  }
+
+  static String text(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+
+  private BenchmarkInputs() {
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Composer} on random histories of operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComposerBenchmark {
+
+  private static final int HISTORY_LENGTH = 64;
+
+  @Param({"100", "1000", "10000"})
+  public int documentSize;
+
+  private List<BufferedDocOp> history;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkInputs.SEED);
+    history = BenchmarkInputs.operations(random,
+        BenchmarkInputs.bootstrap(BenchmarkInputs.document(random, documentSize)),
+        HISTORY_LENGTH, true);
+  }
+
+  /** Composes two consecutive operations of the history. */
+  @Benchmark
+  public BufferedDocOp composePair() throws OperationException {
+    int i = next;
+    next = (i + 1) % (HISTORY_LENGTH - 1);
+    return Composer.compose(history.get(i), history.get(i + 1));
+  }
+
+  /** Composes the whole history. */
+  @Benchmark
+  public BufferedDocOp composeHistory() {
+    return Composer.compose(history);
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waveprotocol.wave.model.document.operation.BufferedDocInitialization;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.DocOpInverter;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link DocOpInverter} on random operations and on whole
+ * documents.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocOpInverterBenchmark {
+
+  private static final int OPERATIONS = 64;
+
+  @Param({"100", "1000", "10000"})
+  public int documentSize;
+
+  private BufferedDocInitialization document;
+  private List<BufferedDocOp> ops;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkInputs.SEED);
+    document = BenchmarkInputs.document(random, documentSize);
+    ops = BenchmarkInputs.operations(random, BenchmarkInputs.bootstrap(document), OPERATIONS,
+        true);
+  }
+
+  /** Inverts a random operation on the document. */
+  @Benchmark
+  public BufferedDocOp invertOperation() {
+    int i = next;
+    next = (i + 1) % OPERATIONS;
+    return DocOpInverter.invert(ops.get(i));
+  }
+
+  /** Inverts the initialization of the whole document. */
+  @Benchmark
+  public BufferedDocOp invertDocument() {
+    return DocOpInverter.invert(document);
+  }
+}
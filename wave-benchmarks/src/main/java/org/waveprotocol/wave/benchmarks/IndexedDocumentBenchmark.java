@@ -0,0 +1,141 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.indexed.AnnotationTree;
+import org.waveprotocol.wave.model.document.indexed.IndexedDocumentImpl;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocInitialization;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.raw.impl.Element;
+import org.waveprotocol.wave.model.document.raw.impl.Node;
+import org.waveprotocol.wave.model.document.raw.impl.RawDocumentImpl;
+import org.waveprotocol.wave.model.document.raw.impl.Text;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link IndexedDocumentImpl#consume} with histories of random
+ * operations or of typing, and with whole documents.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexedDocumentBenchmark {
+
+  private static final int OPERATIONS = 64;
+
+  @Param({"100", "1000", "10000"})
+  public int documentSize;
+
+  /** Whether each operation of the history is validated before it is applied. */
+  @Param({"true", "false"})
+  public boolean validate;
+
+  /**
+   * Whether the history is of random operations or of typing one character
+   * at a time.
+   */
+  @Param({"false", "true"})
+  public boolean typing;
+
+  private BufferedDocInitialization initialization;
+  private List<BufferedDocOp> history;
+  private IndexedDocumentImpl<Node, Element, Text, ?> document;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkInputs.SEED);
+    initialization = BenchmarkInputs.document(random, documentSize);
+    BootstrapDocument doc = BenchmarkInputs.bootstrap(initialization);
+    history = typing
+        ? BenchmarkInputs.typing(random, doc, OPERATIONS)
+        : BenchmarkInputs.operations(random, doc, OPERATIONS, true);
+  }
+
+  /**
+   * Starts every invocation of {@link #consumeHistory} and
+   * {@link #consumeHistoryBatched} with a fresh document, since the history
+   * only applies once.
+   */
+  @Setup(Level.Invocation)
+  public void resetDocument() throws OperationException {
+    document = createDocument();
+  }
+
+  /**
+   * Applies a history of operations to the document one at a time, with or
+   * without validating them first.
+   */
+  @Benchmark
+  @OperationsPerInvocation(OPERATIONS)
+  public IndexedDocumentImpl<Node, Element, Text, ?> consumeHistory()
+      throws OperationException {
+    for (BufferedDocOp op : history) {
+      document.consume(op, validate);
+    }
+    return document;
+  }
+
+  /** Applies the same history as a single batch. */
+  @Benchmark
+  @OperationsPerInvocation(OPERATIONS)
+  public IndexedDocumentImpl<Node, Element, Text, ?> consumeHistoryBatched()
+      throws OperationException {
+    document.consumeAll(history, validate);
+    return document;
+  }
+
+  /** Loads the whole document into an empty one. */
+  @Benchmark
+  public IndexedDocumentImpl<Node, Element, Text, ?> consumeDocument()
+      throws OperationException {
+    return createDocument();
+  }
+
+  private IndexedDocumentImpl<Node, Element, Text, ?> createDocument()
+      throws OperationException {
+    IndexedDocumentImpl<Node, Element, Text, ?> doc =
+        new IndexedDocumentImpl<Node, Element, Text, Void>(
+            RawDocumentImpl.PROVIDER.create("doc", Attributes.EMPTY_MAP),
+            new AnnotationTree<Object>("a", "b", null), DocumentSchema.NO_SCHEMA_CONSTRAINTS);
+    doc.consume(initialization);
+    return doc;
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.wave.api.BlipData;
+import com.google.wave.api.event.BlipSubmittedEvent;
+import com.google.wave.api.impl.EventMessageBundle;
+import com.google.wave.api.impl.GsonFactory;
+import com.google.wave.api.impl.WaveletData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the JSON serialization and deserialization of the event bundles
+ * that robots receive, with random blips.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RobotJsonBenchmark {
+
+  private static final String WAVE_ID = "example.com!w+benchmark";
+  private static final String WAVELET_ID = "example.com!conv+root";
+  private static final String ROBOT = "robot@appspot.com";
+  private static final String AUTHOR = "author@example.com";
+
+  @Param({"1", "10", "100"})
+  public int blipCount;
+
+  private EventMessageBundle bundle;
+  private String json;
+  private Gson gson;
+  private Gson lazyGson;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkInputs.SEED);
+    bundle = new EventMessageBundle(ROBOT, "http://example.com/rpc");
+    bundle.setWaveletData(new WaveletData(WAVE_ID, WAVELET_ID, "b0", Arrays.asList(AUTHOR)));
+    List<String> replies = new ArrayList<String>();
+    for (int i = 1; i < blipCount; i++) {
+      replies.add("b" + i);
+    }
+    for (int i = 0; i < blipCount; i++) {
+      String blipId = "b" + i;
+      BlipData blip = new BlipData(WAVE_ID, WAVELET_ID, blipId,
+          "\n" + BenchmarkInputs.text(random, 100 + random.nextInt(400)));
+      blip.setBlipId(blipId);
+      blip.setCreator(AUTHOR);
+      if (i == 0) {
+        blip.setChildBlipIds(replies);
+      } else {
+        blip.setParentBlipId("b0");
+      }
+      bundle.addBlip(blipId, blip);
+    }
+    bundle.addEvent(new BlipSubmittedEvent(null, null, AUTHOR, 1L, "b" + (blipCount - 1)));
+
+    gson = new GsonFactory().create();
+    GsonFactory lazyFactory = new GsonFactory();
+    lazyFactory.setDeserializeBlipsLazily(true);
+    lazyGson = lazyFactory.create();
+    json = gson.toJson(bundle);
+  }
+
+  @Benchmark
+  public String serializeBundle() {
+    return gson.toJson(bundle);
+  }
+
+  @Benchmark
+  public EventMessageBundle deserializeBundle() {
+    return gson.fromJson(json, EventMessageBundle.class);
+  }
+
+  /** Deserializes a bundle without materializing its blips. */
+  @Benchmark
+  public EventMessageBundle deserializeBundleLazily() {
+    return lazyGson.fromJson(json, EventMessageBundle.class);
+  }
+}
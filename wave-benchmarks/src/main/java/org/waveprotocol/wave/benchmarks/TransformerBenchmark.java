@@ -0,0 +1,87 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.Transformer;
+import org.waveprotocol.wave.model.operation.OperationPair;
+import org.waveprotocol.wave.model.operation.TransformException;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Transformer} on pairs of concurrent random operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+
+  private static final int PAIRS = 64;
+
+  @Param({"100", "1000", "10000"})
+  public int documentSize;
+
+  private List<BufferedDocOp> clientOps;
+  private List<BufferedDocOp> serverOps;
+  private Transformer transformer;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkInputs.SEED);
+    BootstrapDocument doc =
+        BenchmarkInputs.bootstrap(BenchmarkInputs.document(random, documentSize));
+    clientOps = BenchmarkInputs.operations(random, doc, PAIRS, false);
+    serverOps = BenchmarkInputs.operations(random, doc, PAIRS, false);
+    transformer = new Transformer();
+  }
+
+  /** Transforms a pair with a new transformer, as the static method does. */
+  @Benchmark
+  public OperationPair<BufferedDocOp> transform() throws TransformException {
+    int i = next;
+    next = (i + 1) % PAIRS;
+    return Transformer.transform(clientOps.get(i), serverOps.get(i));
+  }
+
+  /** Transforms a pair with a transformer that is reused across pairs. */
+  @Benchmark
+  public OperationPair<BufferedDocOp> transformReused() throws TransformException {
+    int i = next;
+    next = (i + 1) % PAIRS;
+    return transformer.transformOperations(clientOps.get(i), serverOps.get(i));
+  }
+}
@@ -304,6 +304,11 @@ public class BootstrapDocument implements ModifiableDocument, AutomatonDocument,
     return -1;
   }
 
+  @Override
+  public Iterable<String> knownAnnotationKeys() {
+    return knownAnnotationKeys;
+  }
+
   private Item currentItem() {
     if (!readIterator.hasNext()) {
       return null;
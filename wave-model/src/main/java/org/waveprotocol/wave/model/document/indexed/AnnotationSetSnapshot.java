@@ -0,0 +1,246 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.indexed;
+
+import org.waveprotocol.wave.model.document.AnnotationCursor;
+import org.waveprotocol.wave.model.document.AnnotationInterval;
+import org.waveprotocol.wave.model.document.RangedAnnotation;
+import org.waveprotocol.wave.model.document.ReadableAnnotationSet;
+import org.waveprotocol.wave.model.document.util.GenericAnnotationCursor;
+import org.waveprotocol.wave.model.document.util.GenericAnnotationIntervalIterable;
+import org.waveprotocol.wave.model.document.util.GenericRangedAnnotationIterable;
+import org.waveprotocol.wave.model.util.CollectionUtils;
+import org.waveprotocol.wave.model.util.Preconditions;
+import org.waveprotocol.wave.model.util.ReadableStringMap;
+import org.waveprotocol.wave.model.util.ReadableStringSet;
+import org.waveprotocol.wave.model.util.StringMap;
+import org.waveprotocol.wave.model.util.StringSet;
+import org.waveprotocol.wave.model.util.ValueUtils;
+
+/**
+ * An immutable copy of the annotations of an annotation set at one point in
+ * time.
+ *
+ * The annotations of each key are stored as a sorted array of runs of equal
+ * values, so point lookups and change searches are binary searches.  Since
+ * nothing is modified after construction, a snapshot may be read from any
+ * number of threads without locking while the set it was taken from continues
+ * to change.
+ *
+ * @see AnnotationTree#snapshot()
+ *
+ * @param <V> the value type
+ */
+public final class AnnotationSetSnapshot<V> implements ReadableAnnotationSet<V> {
+
+  /**
+   * The annotations of one key.  Run i covers the items from starts[i] up to
+   * the start of run i + 1, or the end of the document, and adjacent runs have
+   * different values.
+   */
+  private static final class Runs {
+    final int[] starts;
+    final Object[] values;
+
+    Runs(int[] starts, Object[] values) {
+      this.starts = starts;
+      this.values = values;
+    }
+
+    /** Returns the index of the run containing the item at location. */
+    int runAt(int location) {
+      int low = 0;
+      int high = starts.length - 1;
+      while (low < high) {
+        int middle = (low + high + 1) >>> 1;
+        if (starts[middle] <= location) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return low;
+    }
+
+    int runEnd(int run, int size) {
+      return run + 1 < starts.length ? starts[run + 1] : size;
+    }
+  }
+
+  private final int size;
+  private final StringMap<Runs> runs;
+  private final ReadableStringSet knownKeys;
+
+  private AnnotationSetSnapshot(int size, StringMap<Runs> runs, ReadableStringSet knownKeys) {
+    this.size = size;
+    this.runs = runs;
+    this.knownKeys = knownKeys;
+  }
+
+  /**
+   * Copies the annotations of the given set.  The set must not change while
+   * this method runs.
+   *
+   * @param set the annotation set to copy
+   * @return a snapshot of its current annotations
+   */
+  public static <V> AnnotationSetSnapshot<V> of(final ReadableAnnotationSet<V> set) {
+    final int size = set.size();
+    final StringMap<Runs> runs = CollectionUtils.createStringMap();
+    final StringSet knownKeys = CollectionUtils.createStringSet();
+    set.knownKeys().each(new ReadableStringSet.Proc() {
+      @Override
+      public void apply(String key) {
+        knownKeys.add(key);
+        Runs keyRuns = copyRuns(set, size, key);
+        if (keyRuns != null) {
+          runs.put(key, keyRuns);
+        }
+      }
+    });
+    return new AnnotationSetSnapshot<V>(size, runs, knownKeys);
+  }
+
+  /**
+   * Copies the runs of one key, or returns null if the key has no value
+   * anywhere.
+   */
+  private static <V> Runs copyRuns(ReadableAnnotationSet<V> set, int size, String key) {
+    int[] starts = new int[4];
+    Object[] values = new Object[4];
+    int count = 0;
+    boolean hasValue = false;
+    int location = 0;
+    while (location < size) {
+      V value = set.getAnnotation(location, key);
+      if (count == starts.length) {
+        int[] newStarts = new int[count * 2];
+        System.arraycopy(starts, 0, newStarts, 0, count);
+        starts = newStarts;
+        Object[] newValues = new Object[count * 2];
+        System.arraycopy(values, 0, newValues, 0, count);
+        values = newValues;
+      }
+      starts[count] = location;
+      values[count] = value;
+      count++;
+      hasValue |= value != null;
+      int change = set.firstAnnotationChange(location, size, key, value);
+      location = change != -1 ? change : size;
+    }
+    if (!hasValue) {
+      return null;
+    }
+    int[] trimmedStarts = new int[count];
+    System.arraycopy(starts, 0, trimmedStarts, 0, count);
+    Object[] trimmedValues = new Object[count];
+    System.arraycopy(values, 0, trimmedValues, 0, count);
+    return new Runs(trimmedStarts, trimmedValues);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V getAnnotation(int location, String key) {
+    Preconditions.checkElementIndex(location, size);
+    checkKeyNotNull(key);
+    Runs keyRuns = runs.get(key);
+    return keyRuns != null ? (V) keyRuns.values[keyRuns.runAt(location)] : null;
+  }
+
+  @Override
+  public int firstAnnotationChange(int start, int end, String key, V fromValue) {
+    Preconditions.checkPositionIndexes(start, end, size);
+    checkKeyNotNull(key);
+    if (start == end) {
+      return -1;
+    }
+    Runs keyRuns = runs.get(key);
+    if (keyRuns == null) {
+      return fromValue != null ? start : -1;
+    }
+    int run = keyRuns.runAt(start);
+    int location = start;
+    while (location < end) {
+      if (!ValueUtils.equal(keyRuns.values[run], fromValue)) {
+        return location;
+      }
+      location = keyRuns.runEnd(run, size);
+      run++;
+    }
+    return -1;
+  }
+
+  @Override
+  public int lastAnnotationChange(int start, int end, String key, V fromValue) {
+    Preconditions.checkPositionIndexes(start, end, size);
+    checkKeyNotNull(key);
+    if (start == end) {
+      return -1;
+    }
+    Runs keyRuns = runs.get(key);
+    if (keyRuns == null) {
+      return fromValue != null ? end : -1;
+    }
+    int run = keyRuns.runAt(end - 1);
+    int location = end;
+    while (location > start) {
+      if (!ValueUtils.equal(keyRuns.values[run], fromValue)) {
+        return location;
+      }
+      location = keyRuns.starts[run];
+      run--;
+    }
+    return -1;
+  }
+
+  @Override
+  public void forEachAnnotationAt(final int location, final ReadableStringMap.ProcV<V> callback) {
+    Preconditions.checkElementIndex(location, size);
+    runs.each(new ReadableStringMap.ProcV<Runs>() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public void apply(String key, Runs keyRuns) {
+        V value = (V) keyRuns.values[keyRuns.runAt(location)];
+        if (value != null) {
+          callback.apply(key, value);
+        }
+      }
+    });
+  }
+
+  @Override
+  public AnnotationCursor annotationCursor(int start, int end, ReadableStringSet keys) {
+    Preconditions.checkPositionIndexes(start, end, size);
+    return new GenericAnnotationCursor<V>(this, start, end, keys != null ? keys : knownKeys);
+  }
+
+  @Override
+  public Iterable<AnnotationInterval<V>> annotationIntervals(int start, int end,
+      ReadableStringSet keys) {
+    Preconditions.checkPositionIndexes(start, end, size);
+    return new GenericAnnotationIntervalIterable<V>(this, start, end,
+        keys != null ? keys : knownKeys);
+  }
+
+  @Override
+  public Iterable<RangedAnnotation<V>> rangedAnnotations(int start, int end,
+      ReadableStringSet keys) {
+    Preconditions.checkPositionIndexes(start, end, size);
+    return new GenericRangedAnnotationIterable<V>(this, start, end,
+        keys != null ? keys : knownKeys);
+  }
+
+  @Override
+  public ReadableStringSet knownKeys() {
+    return knownKeys;
+  }
+
+  private void checkKeyNotNull(String key) {
+    Preconditions.checkNotNull(key, "Key must not be null");
+  }
+}
@@ -5,17 +5,19 @@ package org.waveprotocol.wave.model.document.indexed;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.waveprotocol.wave.model.document.AnnotationCursor;
 import org.waveprotocol.wave.model.document.AnnotationInterval;
 import org.waveprotocol.wave.model.document.RangedAnnotation;
 import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
 import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.util.AnnotationIntervalImpl;
 import org.waveprotocol.wave.model.document.util.Annotations;
 import org.waveprotocol.wave.model.document.util.GenericAnnotationCursor;
-import org.waveprotocol.wave.model.document.util.GenericAnnotationIntervalIterable;
 import org.waveprotocol.wave.model.document.util.GenericRangedAnnotationIterable;
 import org.waveprotocol.wave.model.operation.OpCursorException;
 import org.waveprotocol.wave.model.util.CollectionFactory;
@@ -85,6 +87,9 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
 
   private final LinkedList<Notification> queuedNotifications = new LinkedList<Notification>();
 
+  /** The snapshot of the current state, or null if none has been taken since the last change. */
+  private AnnotationSetSnapshot<V> snapshot;
+
   /**
    * Creates a new AnnotationTree with String keys and values of type V.
    *
@@ -173,6 +178,7 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
     }
 
     this.needReverseOp = needReverseOp;
+    snapshot = null;
     openAnnotations.clear();
     itemsDeletedThisRun = 0;
     reverseOpEventsFromDeletions.clear();
@@ -529,11 +535,10 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
   public Iterable<AnnotationInterval<V>> annotationIntervals(int start, int end,
       ReadableStringSet keys) {
     Preconditions.checkPositionIndexes(start, end, size());
-    if (keys == null || tree.knownKeys.isSubsetOf(keys)) {
-      return tree.allAnnotationIntervals(start, end);
-    } else {
-      return new GenericAnnotationIntervalIterable<V>(this, start, end, keys);
+    if (keys == null) {
+      keys = tree.knownKeys;
     }
+    return tree.annotationIntervals(start, end, keys);
   }
 
   @Override
@@ -556,6 +561,25 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
     return tree.knownKeys;
   }
 
+  /**
+   * Returns an immutable copy of the current annotations.  The copy may be
+   * handed to other threads, which can read it without locking while this
+   * tree continues to change.
+   *
+   * The copy is reused until the next change, so taking a snapshot is cheap
+   * unless the tree has changed since the last one.  Like the modifying
+   * methods, this must not be called concurrently with them.
+   *
+   * @return a snapshot of the current annotations
+   */
+  public AnnotationSetSnapshot<V> snapshot() {
+    Preconditions.checkState(cursor == -1, "snapshot() called between begin() and finish()");
+    if (snapshot == null) {
+      snapshot = AnnotationSetSnapshot.of(this);
+    }
+    return snapshot;
+  }
+
   protected void checkKeyNotNull(String key) {
     Preconditions.checkNotNull(key, "Key must not be null");
   }
@@ -648,27 +672,22 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
     private final V anotherValue;
     private List<Node> leavesThatHaveBecomeEmpty = new ArrayList<Node>();
 
-    private int nextId = 0;
-    // We give every node a sequential number for debugging.
-    int createNodeId() {
-      return nextId++;
-    }
-
     Node newLeaf(int subtreeLength) {
-      return new Node(NodeType.LEAF_BLACK, subtreeLength, factory.<V>createStringMap());
+      return new Node(NodeType.LEAF_BLACK, subtreeLength, new SmallStringMap<V>());
     }
 
     Node newInternalNode(int subtreeLength) {
-      return new Node(NodeType.INTERNAL_BLACK, subtreeLength, factory.<V>createStringMap());
+      return new Node(NodeType.INTERNAL_BLACK, subtreeLength, new SmallStringMap<V>());
     }
 
     Node newInternalNode(int subtreeLength, StringMap<V> localMap) {
       return new Node(NodeType.INTERNAL_BLACK, subtreeLength, localMap);
     }
 
-    // Instances would be more compact (no pointer to outer class) if this were
-    // static, but we use things like checkState and the sentinel from the outer
-    // class, so it would be some work to make it static.
+    // Making this class static would drop the pointer to the outer class, but
+    // with compressed references and 8-byte object alignment that does not
+    // make instances any smaller.  Most nodes hold no or few annotations, so
+    // local maps are SmallStringMaps, which allocate nothing until needed.
     private final class Node {
       NodeType type;
       protected int subtreeLength;
@@ -676,7 +695,6 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
       Node left;
       Node right;
       protected StringMap<V> localMap;
-      int id;
 
       // This two-arg constructor would trigger the GWT compiler bug
       // http://code.google.com/p/google-web-toolkit/issues/detail?id=3408 .
@@ -688,7 +706,6 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
         this.subtreeLength = subtreeLength;
         this.localMap = localMap;
         this.type = type;
-        this.id = createNodeId();
       }
 
       // red/unred state
@@ -826,7 +843,7 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
       }
 
       final String id() {
-        return id + ":" + Integer.toHexString(System.identityHashCode(this));
+        return Integer.toHexString(System.identityHashCode(this));
       }
 
       void rebalanceAfterRemoval() {
@@ -1457,7 +1474,7 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
       //   add to e
       // now we have: a = (d intersect b) union (c intersect (b minus d));
       // d = (d minus b) union (c minus (b minus d)); e = e union c, b = (b minus d) minus c
-      final StringMap<V> a1 = factory.createStringMap();
+      final StringMap<V> a1 = new SmallStringMap<V>();
       d0.filter(new StringMap.EntryFilter<V>() {
         @Override
         public boolean apply(String key, V value) {
@@ -1565,11 +1582,19 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
       forEachAnnotationAtRaw(index + 1, callback);
     }
 
-    void collectAllAnnotationsAtRaw(int index, StringMap<V> accu) {
+    void collectAllAnnotationsAtRaw(int index, final StringMap<V> accu) {
       Node node = root();
       int nodeStart = 0;
+      // accu may come from the collection factory, whose putAll() only
+      // accepts maps from that factory.
+      StringMap.ProcV<V> addToAccu = new StringMap.ProcV<V>() {
+        @Override
+        public void apply(String key, V value) {
+          accu.put(key, value);
+        }
+      };
       while (true) {
-        accu.putAll(node.localMap);
+        node.localMap.each(addToAccu);
         if (node.isLeaf()) {
           break;
         }
@@ -1951,7 +1976,7 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
 
       // Produce startAnnotation calls for every annotation change.
       final StringSet open = factory.createStringSet();
-      for (AnnotationInterval<V> i : allAnnotationIntervals(start, end)) {
+      for (AnnotationInterval<V> i : annotationIntervals(start, end, knownKeys)) {
         assert i.end() > start;
         assert i.start() < end;
         final int realStart = Math.max(start, i.start());
@@ -2003,9 +2028,219 @@ public class AnnotationTree<V> implements RawAnnotationSet<V> {
       itemsDeletedThisRun -= length;
     }
 
-    Iterable<AnnotationInterval<V>> allAnnotationIntervals(final int start, final int end) {
-      // TODO(ohler): Implement this more efficiently.
-      return new GenericAnnotationIntervalIterable<V>(AnnotationTree.this, start, end, knownKeys);
+    Iterable<AnnotationInterval<V>> annotationIntervals(final int start, final int end,
+        final ReadableStringSet keys) {
+      assert 0 <= start;
+      assert start <= end;
+      assert end <= length();
+      return new Iterable<AnnotationInterval<V>>() {
+        @Override
+        public Iterator<AnnotationInterval<V>> iterator() {
+          return new AnnotationIntervalIterator(start + 1, end + 1, keys);
+        }
+      };
+    }
+
+    /**
+     * Iterates over the annotation intervals of a set of keys in a single
+     * in-order walk over the tree.
+     *
+     * Since every item has a value for every known key, and each key is stored
+     * exactly once on the path from the root to any leaf, all items below a
+     * node have the same values for the keys stored on the path to that node.
+     * The walk therefore stops descending as soon as the path holds all
+     * requested keys and moves on to the next subtree, rather than looking up
+     * the next change of each key separately.  Adjacent subtrees with the same
+     * values are merged into one interval.
+     *
+     * The tree must not change while the iterator is in use.
+     */
+    private final class AnnotationIntervalIterator implements Iterator<AnnotationInterval<V>> {
+      // Raw indices.
+      private final int end;
+      private int intervalStart;
+
+      // The requested keys that are known, and their positions in the arrays
+      // below.
+      private final String[] keys;
+      private final StringMap<Integer> keyIndices = factory.createStringMap();
+
+      // The node the walk is at, and the values of the requested keys stored
+      // on the path to it.  "resolved" counts the requested keys on the path;
+      // entries of pathValues for other keys are stale.
+      private Node node;
+      private int nodeStart;
+      private final Object[] pathValues;
+      private int resolved;
+
+      // The values of the current interval.
+      private final Object[] values;
+      private final StringMap<V> annotations = factory.createStringMap();
+      private final StringMap<V> diffFromLeft = factory.createStringMap();
+      private AnnotationIntervalImpl<V> interval;
+      private boolean first = true;
+
+      private final StringMap.ProcV<V> enter = new StringMap.ProcV<V>() {
+        @Override
+        public void apply(String key, V value) {
+          Integer index = keyIndices.get(key);
+          if (index != null) {
+            pathValues[index] = value;
+            resolved++;
+          }
+        }
+      };
+
+      private final StringMap.ProcV<V> leave = new StringMap.ProcV<V>() {
+        @Override
+        public void apply(String key, V value) {
+          if (keyIndices.containsKey(key)) {
+            resolved--;
+          }
+        }
+      };
+
+      AnnotationIntervalIterator(int start, int end, ReadableStringSet requestedKeys) {
+        this.end = end;
+        this.intervalStart = start;
+        final List<String> known = new ArrayList<String>();
+        requestedKeys.each(new StringSet.Proc() {
+          @Override
+          public void apply(String key) {
+            if (knownKeys.contains(key)) {
+              keyIndices.put(key, known.size());
+              known.add(key);
+            } else {
+              // Keys that are not in the tree have no value anywhere.
+              annotations.put(key, null);
+            }
+          }
+        });
+        keys = known.toArray(new String[known.size()]);
+        pathValues = new Object[keys.length];
+        values = new Object[keys.length];
+        if (start >= end) {
+          return;
+        }
+
+        node = root();
+        nodeStart = 0;
+        node.localMap.each(enter);
+        while (resolved < keys.length) {
+          int leftLength = node.left.subtreeLength;
+          if (start < nodeStart + leftLength) {
+            node = node.left;
+          } else {
+            nodeStart += leftLength;
+            node = node.right;
+          }
+          node.localMap.each(enter);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+          @SuppressWarnings("unchecked")
+          V value = (V) pathValues[i];
+          values[i] = value;
+          annotations.put(keys[i], value);
+          // The sentinel item has no annotations, so this is null if start
+          // is the first item.
+          if (!valuesEqual(getAnnotationRaw(start - 1, keys[i]), value)) {
+            diffFromLeft.put(keys[i], value);
+          }
+        }
+      }
+
+      /**
+       * Moves the walk to the first subtree after the current one that has the
+       * same value for every requested key.
+       */
+      private void advance() {
+        node.localMap.each(leave);
+        while (!node.isLeftChild()) {
+          nodeStart -= node.parent.left.subtreeLength;
+          node = node.parent;
+          node.localMap.each(leave);
+        }
+        nodeStart += node.subtreeLength;
+        node = node.parent.right;
+        node.localMap.each(enter);
+        while (resolved < keys.length) {
+          node = node.left;
+          node.localMap.each(enter);
+        }
+      }
+
+      private boolean pathValuesDiffer() {
+        for (int i = 0; i < keys.length; i++) {
+          @SuppressWarnings("unchecked")
+          V value = (V) values[i];
+          @SuppressWarnings("unchecked")
+          V pathValue = (V) pathValues[i];
+          if (!valuesEqual(value, pathValue)) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return intervalStart < end;
+      }
+
+      @Override
+      public AnnotationInterval<V> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more intervals");
+        }
+        if (first) {
+          first = false;
+        } else {
+          // The walk is at the first subtree of this interval.
+          diffFromLeft.clear();
+          for (int i = 0; i < keys.length; i++) {
+            @SuppressWarnings("unchecked")
+            V value = (V) values[i];
+            @SuppressWarnings("unchecked")
+            V pathValue = (V) pathValues[i];
+            if (!valuesEqual(value, pathValue)) {
+              values[i] = pathValue;
+              annotations.put(keys[i], pathValue);
+              diffFromLeft.put(keys[i], pathValue);
+            }
+          }
+        }
+        int intervalEnd;
+        while (true) {
+          int subtreeEnd = nodeStart + node.subtreeLength;
+          if (subtreeEnd >= end) {
+            intervalEnd = end;
+            break;
+          }
+          advance();
+          // Leaves that have become empty are only removed at the end of an
+          // update.
+          if (node.subtreeLength > 0 && pathValuesDiffer()) {
+            intervalEnd = nodeStart;
+            break;
+          }
+        }
+
+        // Convert from raw indices.
+        if (interval == null) {
+          interval = new AnnotationIntervalImpl<V>(intervalStart - 1, intervalEnd - 1,
+              annotations, diffFromLeft);
+        } else {
+          interval.set(intervalStart - 1, intervalEnd - 1, annotations, diffFromLeft);
+        }
+        intervalStart = intervalEnd;
+        return interval;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Removing an annotation interval is not supported");
+      }
     }
 
     String toStringForDebugging() {
@@ -63,8 +63,12 @@ public class IndexedDocProvider<N, E extends N, T extends N, D extends RawDocume
     return adapt(substrateProvider.parse("<doc>" + text + "</doc>"), NO_SCHEMA_CONSTRAINTS);
   }
 
-  private static final Object ONE_OBJECT = new Object();
-  private static final Object ANOTHER_OBJECT = new Object();
+  /**
+   * The two distinct values an {@link AnnotationTree} needs, shared by every
+   * annotation tree of an indexed document.
+   */
+  public static final Object ONE_OBJECT = new Object();
+  public static final Object ANOTHER_OBJECT = new Object();
 
   @Override
   public IndexedDocument<N, E, T> build(DocInitialization operation, DocumentSchema schema) {
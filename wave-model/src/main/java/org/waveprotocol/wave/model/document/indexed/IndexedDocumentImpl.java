@@ -22,6 +22,7 @@ import org.waveprotocol.wave.model.document.operation.Nindo.NindoCursor;
 import org.waveprotocol.wave.model.document.operation.NindoValidator;
 import org.waveprotocol.wave.model.document.operation.algorithm.AnnotationsNormalizer;
 import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.document.operation.algorithm.DocOpCollector;
 import org.waveprotocol.wave.model.document.operation.automaton.AutomatonDocument;
 import org.waveprotocol.wave.model.document.operation.automaton.DocOpAutomaton.ViolationCollector;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
@@ -355,6 +356,117 @@ public class IndexedDocumentImpl<N, E extends N, T extends N, V>
     endChange();
   }
 
+  /**
+   * Applies a sequence of operations as a single change.
+   *
+   * The operations are composed first and the composition is applied in one
+   * pass, so the document is traversed once and listeners receive a single
+   * event bundle describing the net change.  Either all operations are
+   * applied or none are.
+   *
+   * @param ops operations to apply, in order
+   * @see #consumeAll(Iterable, boolean)
+   */
+  public void consumeAll(Iterable<? extends DocOp> ops) throws OperationException {
+    consumeAll(ops, performValidation);
+  }
+
+  /**
+   * Applies a sequence of operations as a single change, with or without
+   * validation.
+   *
+   * With validation, a batch is accepted exactly when consuming its
+   * operations one at a time would accept each of them: every operation is
+   * checked against the schema and against the document as the operations
+   * before it leave it, including old attribute and annotation values.
+   * Checking the composition alone is not enough, since an operation may,
+   * for example, insert an element the schema forbids that a later
+   * operation deletes again.  Each operation is checked against a view of
+   * this document with the operations before it applied, so the document is
+   * not copied.
+   *
+   * Without validation, the operations only need to compose.
+   *
+   * @param ops operations to apply, in order
+   * @param validate whether to validate each operation before applying any
+   * @throws OperationException if validation is requested and an operation is
+   *         invalid, or if the operations do not compose; the document is
+   *         left unchanged
+   */
+  public void consumeAll(Iterable<? extends DocOp> ops, boolean validate)
+      throws OperationException {
+    List<BufferedDocOp> buffered = new ArrayList<BufferedDocOp>();
+    for (DocOp op : ops) {
+      buffered.add(DocOpUtil.buffer(op));
+    }
+    if (buffered.isEmpty()) {
+      return;
+    }
+    BufferedDocOp composed;
+    if (validate) {
+      composed = validateAndCompose(buffered);
+    } else {
+      DocOpCollector collector = new DocOpCollector();
+      try {
+        for (BufferedDocOp op : buffered) {
+          collector.add(op);
+        }
+        composed = collector.composeAll();
+      } catch (IllegalArgumentException e) {
+        throw new OperationException("Operations do not compose: " + e.getMessage(), e);
+      }
+    }
+    consume(composed, false);
+  }
+
+  /**
+   * Checks each operation against the document as the operations before it
+   * leave it, without changing this document, and returns the composition of
+   * the operations.
+   *
+   * The composition so far is kept as a stack of partial compositions, each
+   * with a view of the document after it.  An operation is composed into the
+   * partial compositions on top of the stack that are no larger than it, so
+   * that a long batch of small operations is not recomposed from its start
+   * for every operation, and the views stay few deep.  The operations are
+   * valid one after the other, so their compositions are not checked again.
+   */
+  private BufferedDocOp validateAndCompose(List<BufferedDocOp> ops) throws OperationException {
+    if (ops.size() == 1) {
+      maybeThrowOperationExceptionFor(ops.get(0));
+      return ops.get(0);
+    }
+    List<BufferedDocOp> parts = new ArrayList<BufferedDocOp>();
+    List<AutomatonDocument> views = new ArrayList<AutomatonDocument>();
+    views.add(autoDoc);
+    for (int i = 0; i < ops.size(); i++) {
+      BufferedDocOp op = ops.get(i);
+      AutomatonDocument before = views.get(views.size() - 1);
+      if (!DocOpValidator.validate(null, schemaConstraints, before, op).isValid()) {
+        ViolationCollector vc = new ViolationCollector();
+        DocOpValidator.validate(vc, schemaConstraints, before, op);
+        OperationException e = new OperationException(vc);
+        throw new OperationException("Operation " + i + " of the batch is invalid: "
+            + e.getMessage(), e);
+      }
+      BufferedDocOp part = op;
+      while (!parts.isEmpty() && parts.get(parts.size() - 1).size() <= part.size()) {
+        int top = parts.size() - 1;
+        part = Composer.composeUnchecked(parts.remove(top), part);
+        views.remove(top + 1);
+      }
+      parts.add(part);
+      if (i < ops.size() - 1) {
+        views.add(Automatons.afterOperation(views.get(views.size() - 1), part));
+      }
+    }
+    BufferedDocOp composed = parts.get(parts.size() - 1);
+    for (int i = parts.size() - 2; i >= 0; i--) {
+      composed = Composer.composeUnchecked(parts.get(i), composed);
+    }
+    return composed;
+  }
+
   public void maybeThrowOperationExceptionFor(DocOp op) throws OperationException {
     if (!DocOpValidator.validate(null, schemaConstraints, autoDoc, op).isValid()) {
       // Validate again to collect diagnostics (more expensive)
@@ -65,9 +65,6 @@ public class ObservableIndexedDocument<N, E extends N, T extends N, V>
     this.handler = handler;
   }
 
-  private static final Object ONE_OBJECT = new Object();
-  private static final Object ANOTHER_OBJECT = new Object();
-
   /**
    * Calling this constructor (where you don't pass your own annotation set)
    * causes one to built internally.
@@ -82,7 +79,8 @@ public class ObservableIndexedDocument<N, E extends N, T extends N, V>
       DocumentSchema schema) {
     // We have to chain constructors here since we want to access the
     // annotation tree after building it so that we can set its listener
-    this(handler, substrate, new AnnotationTree<Object>(ONE_OBJECT, ANOTHER_OBJECT, null), schema);
+    this(handler, substrate, new AnnotationTree<Object>(
+        IndexedDocProvider.ONE_OBJECT, IndexedDocProvider.ANOTHER_OBJECT, null), schema);
   }
 
   private ObservableIndexedDocument(
@@ -0,0 +1,298 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.indexed;
+
+import org.waveprotocol.wave.model.util.CollectionUtils;
+import org.waveprotocol.wave.model.util.Preconditions;
+import org.waveprotocol.wave.model.util.ReadableStringMap;
+import org.waveprotocol.wave.model.util.ReadableStringSet;
+import org.waveprotocol.wave.model.util.StringMap;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A StringMap for maps that usually hold no or only a few entries, such as
+ * the local maps of the nodes of {@link AnnotationTree}.
+ *
+ * Up to {@link #MAX_INLINE_ENTRIES} entries are kept in a single array of
+ * alternating keys and values, which is only allocated when the first entry
+ * is added.  Larger maps switch to a map from the collection factory.
+ *
+ * @param <V> type of values in the map
+ */
+final class SmallStringMap<V> implements StringMap<V> {
+
+  /** The number of entries above which a factory map is used. */
+  static final int MAX_INLINE_ENTRIES = 8;
+
+  /** Keys at even and values at odd indices, or null if there are none. */
+  private Object[] entries;
+
+  /** The number of entries in the array. */
+  private int size;
+
+  /** The map that holds the entries once there are too many to inline. */
+  private StringMap<V> large;
+
+  private int indexOf(String key) {
+    for (int i = 0; i < size; i++) {
+      Object k = entries[2 * i];
+      if (k == key || k.equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int i) {
+    return (V) entries[2 * i + 1];
+  }
+
+  private void removeAt(int i) {
+    size--;
+    if (size == 0) {
+      entries = null;
+    } else {
+      entries[2 * i] = entries[2 * size];
+      entries[2 * i + 1] = entries[2 * size + 1];
+      entries[2 * size] = null;
+      entries[2 * size + 1] = null;
+    }
+  }
+
+  @Override
+  public void put(String key, V value) {
+    Preconditions.checkNotNull(key, "StringMap cannot contain null keys");
+    if (large != null) {
+      large.put(key, value);
+      return;
+    }
+    int i = indexOf(key);
+    if (i != -1) {
+      entries[2 * i + 1] = value;
+      return;
+    }
+    if (size == MAX_INLINE_ENTRIES) {
+      large = CollectionUtils.createStringMap();
+      for (int j = 0; j < size; j++) {
+        large.put((String) entries[2 * j], valueAt(j));
+      }
+      entries = null;
+      size = 0;
+      large.put(key, value);
+      return;
+    }
+    if (entries == null) {
+      entries = new Object[4];
+    } else if (entries.length == 2 * size) {
+      Object[] newEntries = new Object[4 * size];
+      System.arraycopy(entries, 0, newEntries, 0, 2 * size);
+      entries = newEntries;
+    }
+    entries[2 * size] = key;
+    entries[2 * size + 1] = value;
+    size++;
+  }
+
+  @Override
+  public void remove(String key) {
+    Preconditions.checkNotNull(key, "StringMap cannot contain null keys");
+    if (large != null) {
+      large.remove(key);
+      return;
+    }
+    int i = indexOf(key);
+    if (i != -1) {
+      removeAt(i);
+    }
+  }
+
+  @Override
+  public void putAll(ReadableStringMap<V> pairsToAdd) {
+    pairsToAdd.each(new ProcV<V>() {
+      @Override
+      public void apply(String key, V value) {
+        put(key, value);
+      }
+    });
+  }
+
+  @Override
+  public void putAll(Map<String, V> sourceMap) {
+    for (Map.Entry<String, V> entry : sourceMap.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void clear() {
+    entries = null;
+    size = 0;
+    large = null;
+  }
+
+  @Override
+  public void filter(EntryFilter<? super V> filter) {
+    if (large != null) {
+      large.filter(filter);
+      return;
+    }
+    int i = 0;
+    while (i < size) {
+      if (filter.apply((String) entries[2 * i], valueAt(i))) {
+        i++;
+      } else {
+        removeAt(i);
+      }
+    }
+  }
+
+  @Override
+  public V getExisting(String key) {
+    Preconditions.checkNotNull(key, "StringMap cannot contain null keys");
+    if (large != null) {
+      return large.getExisting(key);
+    }
+    int i = indexOf(key);
+    if (i == -1) {
+      // Not using Preconditions.checkState to avoid unecessary string concatenation
+      throw new IllegalStateException("getExisting: Key '" + key + "' is not in map");
+    }
+    return valueAt(i);
+  }
+
+  @Override
+  public V get(String key, V defaultValue) {
+    Preconditions.checkNotNull(key, "StringMap cannot contain null keys");
+    if (large != null) {
+      return large.get(key, defaultValue);
+    }
+    int i = indexOf(key);
+    return i != -1 ? valueAt(i) : defaultValue;
+  }
+
+  @Override
+  public V get(String key) {
+    return get(key, null);
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    Preconditions.checkNotNull(key, "StringMap cannot contain null keys");
+    if (large != null) {
+      return large.containsKey(key);
+    }
+    return indexOf(key) != -1;
+  }
+
+  @Override
+  public String someKey() {
+    if (large != null) {
+      return large.someKey();
+    }
+    return size > 0 ? (String) entries[0] : null;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    if (large != null) {
+      return large.isEmpty();
+    }
+    return size == 0;
+  }
+
+  @Override
+  public void each(ProcV<? super V> callback) {
+    if (large != null) {
+      large.each(callback);
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      callback.apply((String) entries[2 * i], valueAt(i));
+    }
+  }
+
+  @Override
+  public int countEntries() {
+    if (large != null) {
+      return large.countEntries();
+    }
+    return size;
+  }
+
+  @Override
+  public ReadableStringSet keySet() {
+    return new ReadableStringSet() {
+      @Override
+      public boolean contains(String s) {
+        return containsKey(s);
+      }
+
+      @Override
+      public String someElement() {
+        return someKey();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return SmallStringMap.this.isEmpty();
+      }
+
+      @Override
+      public void each(final Proc callback) {
+        SmallStringMap.this.each(new ProcV<V>() {
+          @Override
+          public void apply(String key, V value) {
+            callback.apply(key);
+          }
+        });
+      }
+
+      @Override
+      public boolean isSubsetOf(final ReadableStringSet other) {
+        final boolean[] subset = {true};
+        each(new Proc() {
+          @Override
+          public void apply(String element) {
+            subset[0] &= other.contains(element);
+          }
+        });
+        return subset[0];
+      }
+
+      @Override
+      public boolean isSubsetOf(final Set<String> other) {
+        final boolean[] subset = {true};
+        each(new Proc() {
+          @Override
+          public void apply(String element) {
+            subset[0] &= other.contains(element);
+          }
+        });
+        return subset[0];
+      }
+
+      @Override
+      public int countEntries() {
+        return SmallStringMap.this.countEntries();
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder("{");
+    each(new ProcV<V>() {
+      @Override
+      public void apply(String key, V value) {
+        if (b.length() > 1) {
+          b.append(", ");
+        }
+        b.append(key).append('=').append(value);
+      }
+    });
+    return b.append('}').toString();
+  }
+}
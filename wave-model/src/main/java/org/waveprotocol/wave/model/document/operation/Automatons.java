@@ -13,7 +13,9 @@ import org.waveprotocol.wave.model.document.util.Point;
 import org.waveprotocol.wave.model.util.Preconditions;
 import org.waveprotocol.wave.model.util.ReadableStringSet.Proc;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Utilities for document automatons
@@ -66,6 +68,31 @@ public class Automatons {
 
       @Override
       public int charAt(int pos) {
+        // Validating a deletion of characters asks for each of them in turn,
+        // so the common cases are answered with a single lookup rather than
+        // by extracting a string.
+        Point<N> point = doc.locate(pos);
+        T text;
+        int offset;
+        if (point.isInTextNode()) {
+          text = doc.asText(point.getContainer());
+          offset = point.getTextOffset();
+        } else {
+          N nodeAfter = point.getNodeAfter();
+          if (nodeAfter == null) {
+            // At the end of an element, so the item here is an element end.
+            return -1;
+          }
+          text = doc.asText(nodeAfter);
+          if (text == null) {
+            // The item here is an element start.
+            return -1;
+          }
+          offset = 0;
+        }
+        if (text != null && offset < doc.getLength(text)) {
+          return doc.getData(text).charAt(offset);
+        }
         String str = DocHelper.getText(doc, pos, pos + 1);
         return str.length() > 0 ? str.charAt(0) : -1;
       }
@@ -126,6 +153,18 @@ public class Automatons {
         return doc.firstAnnotationChange(start, end, key, fromValue);
       }
 
+      @Override
+      public Iterable<String> knownAnnotationKeys() {
+        final List<String> keys = new ArrayList<String>();
+        doc.knownKeys().each(new Proc() {
+          @Override
+          public void apply(String key) {
+            keys.add(key);
+          }
+        });
+        return keys;
+      }
+
       @Override
       public String getAnnotation(int pos, String key) {
         return doc.getAnnotation(pos, key);
@@ -137,4 +176,17 @@ public class Automatons {
       }
     };
   }
+
+  /**
+   * Returns a view of a document with an operation applied to it, without
+   * applying the operation. The view reflects the document as it is when it
+   * is queried, so the document must not change while the view is in use.
+   *
+   * @param doc the document
+   * @param op an operation that is valid against the document
+   * @return an automaton view of the document with the operation applied
+   */
+  public static AutomatonDocument afterOperation(AutomatonDocument doc, DocOp op) {
+    return new OverlayDocument(doc, op);
+  }
 }
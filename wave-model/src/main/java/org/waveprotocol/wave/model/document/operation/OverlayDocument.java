@@ -0,0 +1,454 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation;
+
+import org.waveprotocol.wave.model.document.operation.automaton.AutomatonDocument;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationMap;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationMapImpl;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationsUpdate;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationsUpdateImpl;
+import org.waveprotocol.wave.model.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of a document with an operation applied to it, without
+ * applying the operation.
+ *
+ * The view is a list of the runs of items of the resulting document. Runs the
+ * operation retains are answered by the underlying document, and runs it
+ * inserts are answered from the operation. Building the view takes time in
+ * the size of the operation, and a query looks its position up in the runs
+ * before asking the underlying document.
+ *
+ * Inserted items inherit the annotations of the item before the insertion
+ * point in the underlying document, as they do when the operation is
+ * applied.
+ *
+ * @see Automatons#afterOperation(AutomatonDocument, DocOp)
+ */
+final class OverlayDocument implements AutomatonDocument {
+
+  /** The kinds of runs of items. */
+  private enum Kind {
+    /** Items of the underlying document that the operation retains. */
+    RETAINED,
+    /** An element start that the operation retains with new attributes. */
+    ATTRIBUTES_CHANGED,
+    /** Characters that the operation inserts. */
+    CHARACTERS,
+    /** An element start that the operation inserts. */
+    ELEMENT_START,
+    /** An element end that the operation inserts. */
+    ELEMENT_END
+  }
+
+  /** An element the operation has inserted and not yet ended. */
+  private static final class OpenElement {
+    final String tag;
+    final OpenElement parent;
+
+    OpenElement(String tag, OpenElement parent) {
+      this.tag = tag;
+      this.parent = parent;
+    }
+  }
+
+  /** The annotation changes that are in effect over a run. */
+  private static final class Update {
+    static final Update EMPTY = new Update(AnnotationsUpdateImpl.EMPTY_MAP);
+
+    final AnnotationsUpdate update;
+
+    /** The new values, keyed by annotation key. Values may be null. */
+    final Map<String, String> newValues = new HashMap<String, String>();
+
+    Update(AnnotationsUpdate update) {
+      this.update = update;
+      for (int i = 0; i < update.changeSize(); i++) {
+        newValues.put(update.getChangeKey(i), update.getNewValue(i));
+      }
+    }
+  }
+
+  /** A run of items of the resulting document. */
+  private static final class Run {
+    final Kind kind;
+
+    /** The position of the first item in the resulting document. */
+    final int start;
+
+    final int length;
+
+    /**
+     * For retained items, the position of the first of them in the underlying
+     * document. For inserted items, the insertion point in the underlying
+     * document.
+     */
+    final int basePos;
+
+    /**
+     * The position of the item in the underlying document that inserted items
+     * inherit annotations from, or -1 if there is none.
+     */
+    final int inheritPos;
+
+    final Update update;
+
+    /** The inserted elements that are open before the run. */
+    final OpenElement open;
+
+    /** The inserted characters, or the tag of an inserted element. */
+    final String data;
+
+    /** The attributes of an inserted or changed element start. */
+    final Attributes attributes;
+
+    Run(Kind kind, int start, int length, int basePos, int inheritPos, Update update,
+        OpenElement open, String data, Attributes attributes) {
+      this.kind = kind;
+      this.start = start;
+      this.length = length;
+      this.basePos = basePos;
+      this.inheritPos = inheritPos;
+      this.update = update;
+      this.open = open;
+      this.data = data;
+      this.attributes = attributes;
+    }
+
+    boolean isRetained() {
+      return kind == Kind.RETAINED || kind == Kind.ATTRIBUTES_CHANGED;
+    }
+  }
+
+  private final AutomatonDocument base;
+  private final List<Run> runs = new ArrayList<Run>();
+  private final int[] starts;
+  private final int length;
+
+  /** The annotation keys the operation changes. */
+  private final Set<String> changedKeys = new LinkedHashSet<String>();
+
+  /** Lazily computed union of the underlying document's keys and changedKeys. */
+  private List<String> knownKeys;
+
+  /**
+   * Constructor.
+   *
+   * @param base the underlying document
+   * @param op an operation that is valid against the underlying document
+   */
+  OverlayDocument(AutomatonDocument base, DocOp op) {
+    this.base = base;
+    RunBuilder builder = new RunBuilder();
+    op.apply(builder);
+    this.length = builder.pos;
+    this.starts = new int[runs.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = runs.get(i).start;
+    }
+  }
+
+  /** Collects the runs of the resulting document from the operation. */
+  private final class RunBuilder implements DocOpCursor {
+    int pos = 0;
+    int basePos = 0;
+    int inheritPos = -1;
+    AnnotationsUpdate annotations = AnnotationsUpdateImpl.EMPTY_MAP;
+    Update update = Update.EMPTY;
+    OpenElement open = null;
+
+    private void insert(Kind kind, int count, String data, Attributes attributes) {
+      runs.add(new Run(kind, pos, count, basePos, inheritPos, update, open, data, attributes));
+      pos += count;
+    }
+
+    private void retain(Kind kind, int count, Attributes attributes) {
+      runs.add(new Run(kind, pos, count, basePos, -1, update, null, null, attributes));
+      pos += count;
+      skip(count);
+    }
+
+    private void skip(int count) {
+      basePos += count;
+      inheritPos = basePos - 1;
+    }
+
+    @Override
+    public void annotationBoundary(AnnotationBoundaryMap map) {
+      annotations = annotations.composeWith(map);
+      update = new Update(annotations);
+      for (int i = 0; i < map.changeSize(); i++) {
+        changedKeys.add(map.getChangeKey(i));
+      }
+    }
+
+    @Override
+    public void characters(String chars) {
+      insert(Kind.CHARACTERS, chars.length(), chars, null);
+    }
+
+    @Override
+    public void elementStart(String type, Attributes attrs) {
+      insert(Kind.ELEMENT_START, 1, type, attrs);
+      open = new OpenElement(type, open);
+    }
+
+    @Override
+    public void elementEnd() {
+      insert(Kind.ELEMENT_END, 1, open.tag, null);
+      open = open.parent;
+    }
+
+    @Override
+    public void retain(int itemCount) {
+      retain(Kind.RETAINED, itemCount, null);
+    }
+
+    @Override
+    public void replaceAttributes(Attributes oldAttrs, Attributes newAttrs) {
+      retain(Kind.ATTRIBUTES_CHANGED, 1, newAttrs);
+    }
+
+    @Override
+    public void updateAttributes(AttributesUpdate attrUpdate) {
+      retain(Kind.ATTRIBUTES_CHANGED, 1, base.attributesAt(basePos).updateWith(attrUpdate));
+    }
+
+    @Override
+    public void deleteCharacters(String chars) {
+      skip(chars.length());
+    }
+
+    @Override
+    public void deleteElementStart(String type, Attributes attrs) {
+      skip(1);
+    }
+
+    @Override
+    public void deleteElementEnd() {
+      skip(1);
+    }
+  }
+
+  /** Returns the run that contains the item at the given position. */
+  private int runIndex(int pos) {
+    int low = 0;
+    int high = starts.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (starts[mid] <= pos) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the run that contains the item at the given position, or null at the end. */
+  private Run runAt(int pos) {
+    return pos < length ? runs.get(runIndex(pos)) : null;
+  }
+
+  /** Maps a position within a retained run to the underlying document. */
+  private static int basePos(Run run, int pos) {
+    return run.basePos + pos - run.start;
+  }
+
+  /** Returns the value of an annotation on an item of a run. */
+  private String annotation(Run run, int pos, String key) {
+    if (run.update.newValues.containsKey(key)) {
+      return run.update.newValues.get(key);
+    } else if (run.isRetained()) {
+      return base.getAnnotation(basePos(run, pos), key);
+    } else {
+      return run.inheritPos >= 0 ? base.getAnnotation(run.inheritPos, key) : null;
+    }
+  }
+
+  @Override
+  public String elementStartingAt(int pos) {
+    Run run = runAt(pos);
+    if (run == null) {
+      return null;
+    }
+    switch (run.kind) {
+      case RETAINED:
+      case ATTRIBUTES_CHANGED:
+        return base.elementStartingAt(basePos(run, pos));
+      case ELEMENT_START:
+        return run.data;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public Attributes attributesAt(int pos) {
+    Run run = runAt(pos);
+    if (run == null) {
+      return null;
+    }
+    switch (run.kind) {
+      case RETAINED:
+        return base.attributesAt(basePos(run, pos));
+      case ATTRIBUTES_CHANGED:
+      case ELEMENT_START:
+        return run.attributes;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String elementEndingAt(int pos) {
+    Run run = runAt(pos);
+    if (run == null) {
+      return null;
+    }
+    switch (run.kind) {
+      case RETAINED:
+        return base.elementEndingAt(basePos(run, pos));
+      case ELEMENT_END:
+        return run.data;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public int charAt(int pos) {
+    Run run = runAt(pos);
+    if (run == null) {
+      return -1;
+    }
+    switch (run.kind) {
+      case RETAINED:
+        return base.charAt(basePos(run, pos));
+      case CHARACTERS:
+        return run.data.charAt(pos - run.start);
+      default:
+        return -1;
+    }
+  }
+
+  @Override
+  public String nthEnclosingElementTag(int insertionPoint, int depth) {
+    Run run = runAt(insertionPoint);
+    if (run != null && run.isRetained()) {
+      return base.nthEnclosingElementTag(basePos(run, insertionPoint), depth);
+    }
+    OpenElement open = run != null ? run.open : null;
+    int basePoint = run != null ? run.basePos : base.length();
+    for (; open != null; open = open.parent) {
+      if (depth == 0) {
+        return open.tag;
+      }
+      depth--;
+    }
+    return base.nthEnclosingElementTag(basePoint, depth);
+  }
+
+  @Override
+  public int remainingCharactersInElement(int insertionPoint) {
+    int count = 0;
+    if (insertionPoint >= length) {
+      return count;
+    }
+    for (int i = runIndex(insertionPoint); i < runs.size(); i++) {
+      Run run = runs.get(i);
+      int from = Math.max(insertionPoint, run.start);
+      int available = run.start + run.length - from;
+      if (run.kind == Kind.CHARACTERS) {
+        count += available;
+      } else if (run.kind == Kind.RETAINED) {
+        int remaining = base.remainingCharactersInElement(basePos(run, from));
+        if (remaining < available) {
+          return count + remaining;
+        }
+        count += available;
+      } else {
+        break;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public AnnotationMap annotationsAt(int pos) {
+    Preconditions.checkElementIndex(pos, length);
+    Run run = runAt(pos);
+    AnnotationMap annotations;
+    if (run.isRetained()) {
+      annotations = base.annotationsAt(basePos(run, pos));
+    } else if (run.inheritPos >= 0) {
+      annotations = base.annotationsAt(run.inheritPos);
+    } else {
+      annotations = AnnotationMapImpl.EMPTY_MAP;
+    }
+    return annotations.updateWithNoCompatibilityCheck(run.update.update);
+  }
+
+  @Override
+  public String getAnnotation(int pos, String key) {
+    Preconditions.checkElementIndex(pos, length);
+    return annotation(runAt(pos), pos, key);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public int firstAnnotationChange(int start, int end, String key, String fromValue) {
+    Preconditions.checkPositionIndexes(start, end, length);
+    if (start == end) {
+      return -1;
+    }
+    for (int i = runIndex(start); i < runs.size() && runs.get(i).start < end; i++) {
+      Run run = runs.get(i);
+      int from = Math.max(start, run.start);
+      if (run.isRetained() && !run.update.newValues.containsKey(key)) {
+        int to = Math.min(end, run.start + run.length);
+        int change = base.firstAnnotationChange(
+            basePos(run, from), basePos(run, to), key, fromValue);
+        if (change != -1) {
+          return run.start + change - run.basePos;
+        }
+      } else if (!equal(annotation(run, from, key), fromValue)) {
+        return from;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Iterable<String> knownAnnotationKeys() {
+    if (knownKeys == null) {
+      Set<String> keys = new LinkedHashSet<String>();
+      for (String key : base.knownAnnotationKeys()) {
+        keys.add(key);
+      }
+      keys.addAll(changedKeys);
+      knownKeys = new ArrayList<String>(keys);
+    }
+    return knownKeys;
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  @Override
+  public String toString() {
+    return "OverlayDocument: " + runs.size() + " runs over " + base;
+  }
+}
@@ -83,6 +83,15 @@ public final class AnnotationsNormalizer<T> implements EvaluatingDocOpCursor<T>
     return target.finish();
   }
 
+  /**
+   * Discards all annotation state, so that the normalizer can be used again
+   * after a failure. The target must be reset separately.
+   */
+  void reset() {
+    annotationTracker.clear();
+    annotationChanges.clear();
+  }
+
   @Override
   public void retain(int itemCount) {
     flushAnnotations();
@@ -180,6 +189,10 @@ public final class AnnotationsNormalizer<T> implements EvaluatingDocOpCursor<T>
 //  }
 
   private void flushAnnotations() {
+    if (annotationChanges.isEmpty()) {
+      // The common case, on every retain and insertion.
+      return;
+    }
     final List<AnnotationChange> changes = new ArrayList<AnnotationChange>();
     final List<String> ends = new ArrayList<String>();
     for (Map.Entry<String, AnnotationChangeValues> change : annotationChanges.entrySet()) {
@@ -27,7 +27,9 @@ import org.waveprotocol.wave.model.document.operation.EvaluatingDocOpCursor;
 import org.waveprotocol.wave.model.document.operation.impl.AnnotationBoundaryMapImpl;
 import org.waveprotocol.wave.model.document.operation.impl.AttributesUpdateImpl;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuffer;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpInterner;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.document.operation.impl.UncheckedDocOpBuffer;
 import org.waveprotocol.wave.model.operation.OperationException;
 
 import java.util.ArrayList;
@@ -783,14 +785,15 @@ public final class Composer {
 
   };
 
-  private final EvaluatingDocOpCursor<BufferedDocOp> normalizer =
-      OperationNormalizer.createNormalizer(new DocOpBuffer());
+  private final EvaluatingDocOpCursor<BufferedDocOp> normalizer;
 
   private final Target defaultTarget = new DefaultPreTarget();
 
   private Target target;
 
-  private Composer() {}
+  private Composer(EvaluatingDocOpCursor<BufferedDocOp> target) {
+    normalizer = OperationNormalizer.createNormalizer(target);
+  }
 
   private BufferedDocOp composeOperations(BufferedDocOp op1, BufferedDocOp op2)
       throws OperationException {
@@ -828,8 +831,44 @@ public final class Composer {
    */
   public static BufferedDocOp compose(BufferedDocOp op1, BufferedDocOp op2)
       throws OperationException {
+    return compose(op1, op2, null);
+  }
+
+  /**
+   * Returns the composition of two operations, sharing the attributes and
+   * annotation boundaries of the result through an interner.
+   *
+   * @param op1 the first operation
+   * @param op2 the second operation
+   * @param interner the interner to use, or null to use none
+   * @return the result of the composition
+   * @throws OperationException if applying op1 followed by op2 would be invalid
+   */
+  public static BufferedDocOp compose(BufferedDocOp op1, BufferedDocOp op2,
+      DocOpInterner interner) throws OperationException {
+    try {
+      return new Composer(interner != null ? interner.intern(new DocOpBuffer())
+          : new DocOpBuffer()).composeOperations(op1, op2);
+    } catch (ComposeException e) {
+      throw new OperationException(e.getMessage());
+    }
+  }
+
+  /**
+   * Same as {@link #compose(BufferedDocOp, BufferedDocOp)}, without checking
+   * that the result is well-formed.  Only use this for operations already
+   * known to be valid one after the other, such as operations validated
+   * against the document they apply to.
+   *
+   * @param op1 the first operation
+   * @param op2 the second operation
+   * @return the result of the composition
+   * @throws OperationException if applying op1 followed by op2 would be invalid
+   */
+  public static BufferedDocOp composeUnchecked(BufferedDocOp op1, BufferedDocOp op2)
+      throws OperationException {
     try {
-      return new Composer().composeOperations(op1, op2);
+      return new Composer(new UncheckedDocOpBuffer()).composeOperations(op1, op2);
     } catch (ComposeException e) {
       throw new OperationException(e.getMessage());
     }
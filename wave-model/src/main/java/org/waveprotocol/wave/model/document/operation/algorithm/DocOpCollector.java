@@ -61,7 +61,7 @@ public final class DocOpCollector {
     try {
       return Composer.compose(op1, op2);
     } catch (OperationException e) {
-      throw new IllegalArgumentException();
+      throw new IllegalArgumentException(e.getMessage(), e);
     }
   }
 
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A history of consecutive document operations that keeps the compositions of
+ * aligned blocks of them, so that any range of the history can be composed
+ * with O(log n) compositions.
+ *
+ * Operations are numbered by their position in the history, starting from the
+ * start index given at construction. Level k holds the compositions of the
+ * blocks of 2^k operations that start at multiples of 2^k. A block is composed
+ * from its two halves when its last operation is added, so adding costs an
+ * amortized constant number of compositions. Operations can be dropped from
+ * the front of the history, which keeps the numbering of the others.
+ */
+public final class DocOpComposeTree {
+
+  /**
+   * The composed blocks of one level, from the first retained block on.
+   */
+  private static final class Level {
+
+    /** The blocks, with {@code head} dropped entries at the front. */
+    private final List<BufferedDocOp> blocks = new ArrayList<BufferedDocOp>();
+
+    /** The number of dropped entries at the front of {@code blocks}. */
+    private int head = 0;
+
+    /** The index of the first retained block. */
+    private int first;
+
+    Level(int first) {
+      this.first = first;
+    }
+
+    /** Returns the index one past the last block. */
+    int end() {
+      return first + blocks.size() - head;
+    }
+
+    BufferedDocOp get(int block) {
+      return blocks.get(head + block - first);
+    }
+
+    void add(BufferedDocOp block) {
+      blocks.add(block);
+    }
+
+    /** Drops the blocks before the given block index. */
+    void dropBefore(int block) {
+      if (block <= first) {
+        return;
+      }
+      if (block >= end()) {
+        blocks.clear();
+        head = 0;
+      } else {
+        head += block - first;
+        if (head > blocks.size() / 2) {
+          blocks.subList(0, head).clear();
+          head = 0;
+        }
+      }
+      first = block;
+    }
+  }
+
+  /** The levels of composed blocks; level 0 holds the operations. */
+  private final List<Level> levels = new ArrayList<Level>();
+
+  /** The index of the first retained operation. */
+  private int start;
+
+  /** The index one past the last operation. */
+  private int end;
+
+  /**
+   * Creates an empty history whose first operation has index 0.
+   */
+  public DocOpComposeTree() {
+    this(0);
+  }
+
+  /**
+   * Creates an empty history whose first operation has the given index, such
+   * as the version of the document the operation applies to.
+   *
+   * @param start the index of the first operation
+   */
+  public DocOpComposeTree(int start) {
+    Preconditions.checkArgument(start >= 0, "Negative start index");
+    this.start = start;
+    this.end = start;
+  }
+
+  /**
+   * @return the index of the first retained operation
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * @return the index one past the last operation
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * @return the number of retained operations
+   */
+  public int size() {
+    return end - start;
+  }
+
+  /**
+   * Appends an operation, which must apply to the result of the previous one.
+   * The history is unchanged if the operation does not compose with it.
+   *
+   * @param operation the operation to append
+   * @throws OperationException if the operation does not compose with the
+   *     previous operation
+   */
+  public void add(BufferedDocOp operation) throws OperationException {
+    Preconditions.checkNotNull(operation, "Null operation");
+
+    // Compose the blocks that this operation completes before changing
+    // anything, so that a failed composition leaves the history intact.
+    int index = end;
+    List<BufferedDocOp> completed = new ArrayList<BufferedDocOp>();
+    completed.add(operation);
+    for (int level = 1; level < 31; level++) {
+      int blockSize = 1 << level;
+      int blockStart = index + 1 - blockSize;
+      if (((index + 1) & (blockSize - 1)) != 0 || blockStart < start) {
+        break;
+      }
+      BufferedDocOp left = levels.get(level - 1).get(blockStart >> (level - 1));
+      completed.add(Composer.compose(left, completed.get(level - 1)));
+    }
+
+    for (int level = 0; level < completed.size(); level++) {
+      if (level == levels.size()) {
+        levels.add(new Level(index >> level));
+      }
+      levels.get(level).add(completed.get(level));
+    }
+    end++;
+  }
+
+  /**
+   * Returns a retained operation.
+   *
+   * @param index the index of the operation
+   * @return the operation
+   */
+  public BufferedDocOp get(int index) {
+    Preconditions.checkPositionIndexesInRange(start, index, index + 1, end);
+    return levels.get(0).get(index);
+  }
+
+  /**
+   * Returns the composition of a range of retained operations, using O(log n)
+   * compositions of the stored blocks.
+   *
+   * @param from the index of the first operation of the range
+   * @param to the index one past the last operation of the range
+   * @return the composition, or null if the range is empty
+   */
+  public BufferedDocOp compose(int from, int to) {
+    Preconditions.checkPositionIndexesInRange(start, from, to, end);
+    BufferedDocOp result = null;
+    int position = from;
+    while (position < to) {
+      // Take the largest aligned block that starts here and fits the range.
+      int level = 0;
+      while (level + 1 < levels.size()
+          && (position & ((1 << (level + 1)) - 1)) == 0
+          && to - position >= (1 << (level + 1))) {
+        level++;
+      }
+      BufferedDocOp block = levels.get(level).get(position >> level);
+      result = (result != null) ? compose(result, block) : block;
+      position += 1 << level;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the composition of all retained operations from an index on, for
+   * example everything since a given version.
+   *
+   * @param from the index of the first operation
+   * @return the composition, or null if there are no such operations
+   */
+  public BufferedDocOp composeFrom(int from) {
+    return compose(from, end);
+  }
+
+  /**
+   * Drops the operations before an index, along with the blocks that contain
+   * them. The indexes of the remaining operations are unchanged.
+   *
+   * @param index the index of the first operation to retain
+   */
+  public void truncateBefore(int index) {
+    Preconditions.checkPositionIndexesInRange(start, index, end, end);
+    start = index;
+    for (int level = 0; level < levels.size(); level++) {
+      int blockSize = 1 << level;
+      levels.get(level).dropBefore((index + blockSize - 1) >> level);
+    }
+  }
+
+  private static BufferedDocOp compose(BufferedDocOp op1, BufferedDocOp op2) {
+    try {
+      return Composer.compose(op1, op2);
+    } catch (OperationException e) {
+      // The operations composed when they were added.
+      throw new IllegalStateException("Stored operations do not compose", e);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Composes long sequences of document operations on several threads.
+ *
+ * Composition is associative, so the sequence is split into chunks that are
+ * composed in parallel, and the results are then combined pairwise, one level
+ * at a time, also in parallel. Tasks never wait for each other, so any
+ * executor works, including a bounded pool that the caller shares with other
+ * work.
+ *
+ * This class uses java.util.concurrent, so unlike {@link Composer} it is not
+ * available to GWT code.
+ */
+public final class ParallelComposer {
+
+  /** The default number of operations that are composed by one task. */
+  public static final int DEFAULT_THRESHOLD = 256;
+
+  /**
+   * Composes operations, using the default threshold.
+   *
+   * @param operations the operations to compose, in order
+   * @param executor the executor to run the compositions with
+   * @return the result of the composition, or null if there are no operations
+   * @throws OperationException if the operations do not compose
+   */
+  public static BufferedDocOp compose(List<BufferedDocOp> operations, Executor executor)
+      throws OperationException {
+    return compose(operations, executor, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Composes operations, splitting them into chunks of at most
+   * {@code threshold} operations. Sequences no longer than the threshold are
+   * composed on the calling thread.
+   *
+   * @param operations the operations to compose, in order
+   * @param executor the executor to run the compositions with
+   * @param threshold the maximum number of operations composed by one task
+   * @return the result of the composition, or null if there are no operations
+   * @throws OperationException if the operations do not compose
+   */
+  public static BufferedDocOp compose(List<BufferedDocOp> operations, Executor executor,
+      int threshold) throws OperationException {
+    Preconditions.checkArgument(threshold >= 2, "Threshold must be at least 2");
+    int size = operations.size();
+    if (size <= threshold) {
+      return composeSequentially(operations);
+    }
+
+    List<FutureTask<BufferedDocOp>> level = new ArrayList<FutureTask<BufferedDocOp>>();
+    for (int from = 0; from < size; from += threshold) {
+      final List<BufferedDocOp> chunk = operations.subList(from, Math.min(size, from + threshold));
+      level.add(submit(executor, new Callable<BufferedDocOp>() {
+        @Override
+        public BufferedDocOp call() throws OperationException {
+          return composeSequentially(chunk);
+        }
+      }));
+    }
+
+    while (level.size() > 1) {
+      List<BufferedDocOp> results = await(level);
+      level = new ArrayList<FutureTask<BufferedDocOp>>();
+      for (int i = 0; i + 1 < results.size(); i += 2) {
+        final BufferedDocOp op1 = results.get(i);
+        final BufferedDocOp op2 = results.get(i + 1);
+        level.add(submit(executor, new Callable<BufferedDocOp>() {
+          @Override
+          public BufferedDocOp call() throws OperationException {
+            return Composer.compose(op1, op2);
+          }
+        }));
+      }
+      if (results.size() % 2 != 0) {
+        level.add(done(results.get(results.size() - 1)));
+      }
+    }
+    return await(level).get(0);
+  }
+
+  /**
+   * Composes operations on the calling thread, with the same binary-counter
+   * merging as {@link DocOpCollector}.
+   */
+  private static BufferedDocOp composeSequentially(List<BufferedDocOp> operations)
+      throws OperationException {
+    List<BufferedDocOp> slots = new ArrayList<BufferedDocOp>();
+    for (BufferedDocOp operation : operations) {
+      int i = 0;
+      for (; i < slots.size() && slots.get(i) != null; i++) {
+        operation = Composer.compose(slots.get(i), operation);
+        slots.set(i, null);
+      }
+      if (i == slots.size()) {
+        slots.add(operation);
+      } else {
+        slots.set(i, operation);
+      }
+    }
+    BufferedDocOp result = null;
+    for (BufferedDocOp operation : slots) {
+      if (operation != null) {
+        result = (result != null) ? Composer.compose(operation, result) : operation;
+      }
+    }
+    return result;
+  }
+
+  private static FutureTask<BufferedDocOp> submit(Executor executor,
+      Callable<BufferedDocOp> callable) {
+    FutureTask<BufferedDocOp> task = new FutureTask<BufferedDocOp>(callable);
+    executor.execute(task);
+    return task;
+  }
+
+  private static FutureTask<BufferedDocOp> done(BufferedDocOp result) {
+    FutureTask<BufferedDocOp> task = new FutureTask<BufferedDocOp>(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, result);
+    task.run();
+    return task;
+  }
+
+  /**
+   * Waits for the tasks of a level, and returns their results in order.
+   */
+  private static List<BufferedDocOp> await(List<FutureTask<BufferedDocOp>> tasks)
+      throws OperationException {
+    List<BufferedDocOp> results = new ArrayList<BufferedDocOp>(tasks.size());
+    try {
+      for (FutureTask<BufferedDocOp> task : tasks) {
+        results.add(task.get());
+      }
+    } catch (InterruptedException e) {
+      cancel(tasks);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while composing operations", e);
+    } catch (ExecutionException e) {
+      cancel(tasks);
+      Throwable cause = e.getCause();
+      if (cause instanceof OperationException) {
+        throw (OperationException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException("Failed to compose operations", cause);
+    }
+    return results;
+  }
+
+  private static void cancel(List<FutureTask<BufferedDocOp>> tasks) {
+    for (FutureTask<BufferedDocOp> task : tasks) {
+      task.cancel(true);
+    }
+  }
+
+  private ParallelComposer() {
+  }
+}
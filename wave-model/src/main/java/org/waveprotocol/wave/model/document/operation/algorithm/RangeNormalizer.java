@@ -33,6 +33,11 @@ public final class RangeNormalizer<T> implements EvaluatingDocOpCursor<T> {
 
     abstract void flush();
 
+    /**
+     * Discards the cached range without writing it out.
+     */
+    void clear() {}
+
     public void skip(int distance) {
       flush();
       cache = skipCache;
@@ -71,6 +76,11 @@ public final class RangeNormalizer<T> implements EvaluatingDocOpCursor<T> {
       cache = emptyCache;
     }
 
+    @Override
+    void clear() {
+      distance = 0;
+    }
+
     @Override
     public void skip(int distance) {
       this.distance += distance;
@@ -80,15 +90,20 @@ public final class RangeNormalizer<T> implements EvaluatingDocOpCursor<T> {
 
   private final Cache charactersCache = new Cache() {
 
-    StringBuilder characters = new StringBuilder();
+    final StringBuilder characters = new StringBuilder();
 
     @Override
     public void flush() {
       target.characters(characters.toString());
-      characters = new StringBuilder();
+      characters.setLength(0);
       cache = emptyCache;
     }
 
+    @Override
+    void clear() {
+      characters.setLength(0);
+    }
+
     @Override
     public void characters(String characters) {
       this.characters.append(characters);
@@ -98,15 +113,20 @@ public final class RangeNormalizer<T> implements EvaluatingDocOpCursor<T> {
 
   private final Cache deleteCharactersCache = new Cache() {
 
-    StringBuilder characters = new StringBuilder();
+    final StringBuilder characters = new StringBuilder();
 
     @Override
     public void flush() {
       target.deleteCharacters(characters.toString());
-      characters = new StringBuilder();
+      characters.setLength(0);
       cache = emptyCache;
     }
 
+    @Override
+    void clear() {
+      characters.setLength(0);
+    }
+
     @Override
     public void deleteCharacters(String characters) {
       this.characters.append(characters);
@@ -127,6 +147,15 @@ public final class RangeNormalizer<T> implements EvaluatingDocOpCursor<T> {
     return target.finish();
   }
 
+  /**
+   * Discards any cached range, so that the normalizer can be used again after
+   * a failure. The target must be reset separately.
+   */
+  void reset() {
+    cache.clear();
+    cache = emptyCache;
+  }
+
   @Override
   public void retain(int itemCount) {
     cache.skip(itemCount);
@@ -0,0 +1,307 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.document.operation.DocOpCursor;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A pre-pass of {@link Transformer} that transforms the common pairs of
+ * operations that do not interact: operations that change disjoint parts of
+ * the document, insertions against insertions, and annotation changes against
+ * text edits that do not cross the annotation boundaries.
+ *
+ * Both operations are walked once, side by side, and each component is copied
+ * to its own result while the other result retains over it, or skips it if it
+ * is a deletion. As soon as the operations interact in a way that needs the
+ * general algorithm, such as deletions that overlap, insertions into deleted
+ * elements, concurrent annotation changes or annotation boundaries that touch
+ * the edits of the other operation, the pre-pass gives up and the caller
+ * starts over with the general algorithm. The results are identical to those
+ * of the general algorithm.
+ *
+ * An instance is reusable but not thread-safe, like the {@link Transformer}
+ * that owns it.
+ */
+final class TransformFastPath {
+
+  /**
+   * The state of the walk over one of the two operations.
+   */
+  private static final class Side {
+
+    /** The keys of the annotations that the operation changes at the current position. */
+    final Set<String> openKeys = new HashSet<String>();
+
+    BufferedDocOp op;
+    DocOpCursor output;
+
+    /** The index of the current component. */
+    int index;
+
+    /** The number of items of the current component that were already consumed. */
+    int consumed;
+
+    /** The last position at which the operation inserted, or -1. */
+    int insertPosition;
+
+    /** The last position at which the operation has an annotation boundary, or -1. */
+    int boundaryPosition;
+
+    /** The position at which the last deleted range of the operation ended, or -1. */
+    int deletionEnd;
+
+    void reset(BufferedDocOp op, DocOpCursor output) {
+      this.op = op;
+      this.output = output;
+      openKeys.clear();
+      index = 0;
+      consumed = 0;
+      insertPosition = -1;
+      boundaryPosition = -1;
+      deletionEnd = -1;
+    }
+
+    DocOpComponentType type() {
+      return index < op.size() ? op.getType(index) : null;
+    }
+
+    void advance() {
+      index++;
+      consumed = 0;
+    }
+
+    /**
+     * Returns the number of items of the original document that remain to be
+     * consumed by the current component.
+     */
+    int remaining(DocOpComponentType type) {
+      if (type == DocOpComponentType.RETAIN) {
+        return op.getRetainItemCount(index) - consumed;
+      } else if (type == DocOpComponentType.DELETE_CHARACTERS) {
+        return op.getDeleteCharactersString(index).length() - consumed;
+      } else {
+        return 1;
+      }
+    }
+
+    /**
+     * Consumes {@code count} items of the current component, which must be a
+     * deletion or an attribute change, and writes them to the output.
+     */
+    void consume(DocOpComponentType type, int count) {
+      if (type == DocOpComponentType.DELETE_CHARACTERS) {
+        String chars = op.getDeleteCharactersString(index);
+        output.deleteCharacters(consumed == 0 && count == chars.length()
+            ? chars : chars.substring(consumed, consumed + count));
+      } else {
+        op.applyComponent(index, output);
+      }
+    }
+
+    void updateOpenKeys(AnnotationBoundaryMap map) {
+      for (int i = 0; i < map.endSize(); i++) {
+        openKeys.remove(map.getEndKey(i));
+      }
+      for (int i = 0; i < map.changeSize(); i++) {
+        openKeys.add(map.getChangeKey(i));
+      }
+    }
+  }
+
+  private final Side client = new Side();
+  private final Side server = new Side();
+
+  /**
+   * Transforms a pair of operations, if they do not interact.
+   *
+   * @param clientOp the operation from the client
+   * @param serverOp the operation from the server
+   * @param clientOutput receives the transformed client operation
+   * @param serverOutput receives the transformed server operation
+   * @return true if the pair was transformed, or false if the general
+   *         algorithm must be used, in which case the outputs are left in an
+   *         undefined state
+   */
+  boolean transform(BufferedDocOp clientOp, BufferedDocOp serverOp,
+      DocOpCursor clientOutput, DocOpCursor serverOutput) {
+    client.reset(clientOp, clientOutput);
+    server.reset(serverOp, serverOutput);
+    try {
+      return walk();
+    } finally {
+      client.reset(null, null);
+      server.reset(null, null);
+    }
+  }
+
+  private boolean walk() {
+    // The position in the original document.
+    int position = 0;
+    while (true) {
+      DocOpComponentType clientType = client.type();
+      DocOpComponentType serverType = server.type();
+      // At any position, insertions go first, the client's before the
+      // server's, then annotation boundaries, and only then are items of the
+      // original document consumed.
+      if (isInsertion(clientType)) {
+        if (!insert(client, server, clientType, position)) {
+          return false;
+        }
+      } else if (isInsertion(serverType)) {
+        if (!insert(server, client, serverType, position)) {
+          return false;
+        }
+      } else if (clientType == DocOpComponentType.ANNOTATION_BOUNDARY) {
+        if (!annotate(client, server, position)) {
+          return false;
+        }
+      } else if (serverType == DocOpComponentType.ANNOTATION_BOUNDARY) {
+        if (!annotate(server, client, position)) {
+          return false;
+        }
+      } else if (clientType == null || serverType == null) {
+        // The operations must end together; if they don't, the general
+        // algorithm reports the mismatch.
+        return clientType == serverType;
+      } else {
+        int count = Math.min(client.remaining(clientType), server.remaining(serverType));
+        if (clientType == DocOpComponentType.RETAIN) {
+          if (serverType == DocOpComponentType.RETAIN) {
+            client.output.retain(count);
+            server.output.retain(count);
+          } else if (!modify(server, client, serverType, count, position)) {
+            return false;
+          }
+        } else if (serverType != DocOpComponentType.RETAIN
+            || !modify(client, server, clientType, count, position)) {
+          // Both operations modify the same item.
+          return false;
+        }
+        position += count;
+        skip(client, clientType, count);
+        skip(server, serverType, count);
+      }
+    }
+  }
+
+  /**
+   * Copies an insertion of one side, and makes the other side retain over it.
+   */
+  private boolean insert(Side side, Side other, DocOpComponentType type,
+      int position) {
+    if (other.deletionEnd == position && isDeletion(other.type())) {
+      // Inserted into a range that the other side deletes.
+      return false;
+    }
+    side.insertPosition = position;
+    if (conflictsAt(position)) {
+      return false;
+    }
+    side.op.applyComponent(side.index, side.output);
+    other.output.retain(type == DocOpComponentType.CHARACTERS
+        ? side.op.getCharactersString(side.index).length() : 1);
+    side.advance();
+    return true;
+  }
+
+  /**
+   * Copies an annotation boundary of one side, if the other side neither
+   * changes annotations nor deletes at the same place.
+   */
+  private boolean annotate(Side side, Side other, int position) {
+    if (!other.openKeys.isEmpty() || other.deletionEnd == position) {
+      return false;
+    }
+    side.boundaryPosition = position;
+    if (conflictsAt(position)) {
+      return false;
+    }
+    AnnotationBoundaryMap map = side.op.getAnnotationBoundary(side.index);
+    side.updateOpenKeys(map);
+    side.output.annotationBoundary(map);
+    side.advance();
+    return true;
+  }
+
+  /**
+   * Copies a deletion or attribute change of one side over a range that the
+   * other side retains.
+   */
+  private static boolean modify(Side side, Side other, DocOpComponentType type, int count,
+      int position) {
+    if (isDeletion(type)) {
+      if (other.boundaryPosition == position) {
+        return false;
+      }
+      side.deletionEnd = position + count;
+    } else {
+      other.output.retain(count);
+    }
+    side.consume(type, count);
+    return true;
+  }
+
+  /**
+   * Moves past {@code count} items of the current component of a side.
+   */
+  private static void skip(Side side, DocOpComponentType type, int count) {
+    side.consumed += count;
+    if (side.remaining(type) == 0) {
+      side.advance();
+    }
+  }
+
+  /**
+   * Checks the combinations of insertions and annotation boundaries at the
+   * same position whose order the general algorithm decides differently.
+   */
+  private boolean conflictsAt(int position) {
+    if (client.boundaryPosition == position && server.boundaryPosition == position) {
+      return true;
+    }
+    return conflictsAt(client, server, position) || conflictsAt(server, client, position);
+  }
+
+  /**
+   * Checks whether one side has both an insertion and an annotation boundary
+   * at a position where the other side inserts. The general algorithm orders
+   * the components of the first side among the insertions of the other side
+   * in a way that depends on which side is the client.
+   */
+  private static boolean conflictsAt(Side side, Side other, int position) {
+    return side.boundaryPosition == position && side.insertPosition == position
+        && other.insertPosition == position;
+  }
+
+  private static boolean isInsertion(DocOpComponentType type) {
+    return type == DocOpComponentType.CHARACTERS || type == DocOpComponentType.ELEMENT_START
+        || type == DocOpComponentType.ELEMENT_END;
+  }
+
+  private static boolean isDeletion(DocOpComponentType type) {
+    return type == DocOpComponentType.DELETE_CHARACTERS
+        || type == DocOpComponentType.DELETE_ELEMENT_START
+        || type == DocOpComponentType.DELETE_ELEMENT_END;
+  }
+}
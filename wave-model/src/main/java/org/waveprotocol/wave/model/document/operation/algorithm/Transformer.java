@@ -26,6 +26,7 @@ import org.waveprotocol.wave.model.document.operation.EvaluatingDocOpCursor;
 import org.waveprotocol.wave.model.document.operation.impl.AnnotationBoundaryMapImpl;
 import org.waveprotocol.wave.model.document.operation.impl.AttributesUpdateImpl;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuffer;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpInterner;
 import org.waveprotocol.wave.model.operation.OperationPair;
 import org.waveprotocol.wave.model.operation.TransformException;
 
@@ -39,6 +40,16 @@ import java.util.Set;
 /**
  * A utility class for transforming document operations.
  *
+ * An instance can be used for any number of transformations, one at a time,
+ * and reuses its internal state and buffers between them, which saves most of
+ * the allocations of the static {@link #transform} methods. Instances are not
+ * thread-safe, so code that transforms on several threads should keep one
+ * instance per thread.
+ *
+ * Pairs of operations that do not interact, which are most of them in
+ * practice, are first tried with a cheaper single pass, see
+ * {@link TransformFastPath}.
+ *
  * TODO: Make detection of illegal transformations more thorough.
  * TODO: Reorganise this class to be a little less klunky.
  */
@@ -67,6 +78,12 @@ public final class Transformer {
       this.processor = processor;
     }
 
+    final void reset() {
+      active.clear();
+      maps.clear();
+      processor.reset();
+    }
+
     final void buffer(AnnotationBoundaryMap map) {
       maps.add(map);
     }
@@ -143,6 +160,11 @@ public final class Transformer {
       unsynced.clear();
     }
 
+    void reset() {
+      active.clear();
+      unsynced.clear();
+    }
+
     AnnotationBoundaryMap toSynced(Map<String, ValueUpdate> toCombine) {
       // TODO: This seems pretty awkward. Perhaps we should give
       // AnnotationBoundaryMapImpl an easier builder to use.
@@ -672,6 +694,11 @@ public final class Transformer {
      */
     private RangeCache rangeCache = retainCache;
 
+    /**
+     * The cache for element end deletions, which holds no state of its own.
+     */
+    private final RangeCache deleteElementEndCache = new DeleteElementEndCache();
+
     /**
      * The current depth of element deletions.
      */
@@ -690,6 +717,14 @@ public final class Transformer {
       this.otherTarget = otherTarget;
     }
 
+    /**
+     * Clears the state of a previous transformation.
+     */
+    void reset() {
+      rangeCache = retainCache;
+      depth = 0;
+    }
+
     public BufferedDocOp finish() {
       annotationTracker.flush();
       return targetDocument.finish();
@@ -758,7 +793,7 @@ public final class Transformer {
     @Override
     public void deleteElementEnd() {
       if (resolveRange(1, deleteElementEndResolver) == 0) {
-        rangeCache = new DeleteElementEndCache();
+        rangeCache = deleteElementEndCache;
       }
     }
 
@@ -847,134 +882,208 @@ public final class Transformer {
 
   }
 
-  private final EvaluatingDocOpCursor<BufferedDocOp> clientOperation =
-      OperationNormalizer.createNormalizer(new DocOpBuffer());
-  private final EvaluatingDocOpCursor<BufferedDocOp> serverOperation =
-      OperationNormalizer.createNormalizer(new DocOpBuffer());
+  private final DocOpBuffer clientBuffer = new DocOpBuffer();
+  private final DocOpBuffer serverBuffer = new DocOpBuffer();
 
-  private final AnnotationProcessor clientAnnotationProcessor =
-      new AnnotationProcessor(clientOperation);
+  private final RangeNormalizer<BufferedDocOp> clientRangeNormalizer;
+  private final RangeNormalizer<BufferedDocOp> serverRangeNormalizer;
 
-  private final AnnotationProcessor serverAnnotationProcessor =
-      new AnnotationProcessor(serverOperation);
+  private final AnnotationsNormalizer<BufferedDocOp> clientOperation;
+  private final AnnotationsNormalizer<BufferedDocOp> serverOperation;
 
-  private final AnnotationTracker clientAnnotationTracker =
-      new AnnotationTracker(clientAnnotationProcessor) {
+  private final AnnotationProcessor clientAnnotationProcessor;
+  private final AnnotationProcessor serverAnnotationProcessor;
 
-    @Override
-    void processUpdate(AnnotationBoundaryMap map) {
-      // TODO: This seems pretty awkward. Perhaps we should give
-      // AnnotationBoundaryMapImpl an easier builder to use.
-      List<String> clientEndKeys = new ArrayList<String>();
-      List<String> clientChangeKeys = new ArrayList<String>();
-      List<String> clientChangeOldValues = new ArrayList<String>();
-      List<String> clientChangeNewValues = new ArrayList<String>();
-      List<String> serverEndKeys = new ArrayList<String>();
-      List<String> serverChangeKeys = new ArrayList<String>();
-      List<String> serverChangeOldValues = new ArrayList<String>();
-      List<String> serverChangeNewValues = new ArrayList<String>();
-      for (int i = 0; i < map.endSize(); ++i) {
-        String key = map.getEndKey(i);
-        ValueUpdate serverValues = serverAnnotationTracker.active.get(key);
-        clientEndKeys.add(key);
-        if (serverValues != null) {
-          serverChangeKeys.add(key);
-          serverChangeOldValues.add(serverValues.oldValue);
-          serverChangeNewValues.add(serverValues.newValue);
+  private final AnnotationTracker clientAnnotationTracker;
+  private final AnnotationTracker serverAnnotationTracker;
+
+  private final PositionTracker positionTracker = new PositionTracker();
+  private final RelativePosition clientPosition = positionTracker.getClientPosition();
+  private final RelativePosition serverPosition = positionTracker.getServerPosition();
+
+  /** The target responsible for processing components of the client operation. */
+  private final Target clientTarget;
+
+  /** The target responsible for processing components of the server operation. */
+  private final Target serverTarget;
+
+  /** The pre-pass for pairs that do not interact, or null if it is disabled. */
+  private final TransformFastPath fastPath;
+
+  /**
+   * Creates a transformer.
+   */
+  public Transformer() {
+    this(null);
+  }
+
+  /**
+   * Creates a transformer that shares the attributes and annotation
+   * boundaries of the operations it produces through an interner.
+   *
+   * @param interner the interner to use, or null to use none
+   */
+  public Transformer(DocOpInterner interner) {
+    this(interner, true);
+  }
+
+  /**
+   * Creates a transformer, optionally without the pre-pass for pairs of
+   * operations that do not interact, so that tests can compare the two.
+   */
+  Transformer(DocOpInterner interner, boolean useFastPath) {
+    fastPath = useFastPath ? new TransformFastPath() : null;
+    // The same chain as OperationNormalizer.createNormalizer(), kept so that
+    // each part can be reset.
+    clientRangeNormalizer = new RangeNormalizer<BufferedDocOp>(
+        interner != null ? interner.intern(clientBuffer) : clientBuffer);
+    serverRangeNormalizer = new RangeNormalizer<BufferedDocOp>(
+        interner != null ? interner.intern(serverBuffer) : serverBuffer);
+    clientOperation = new AnnotationsNormalizer<BufferedDocOp>(clientRangeNormalizer);
+    serverOperation = new AnnotationsNormalizer<BufferedDocOp>(serverRangeNormalizer);
+
+    clientAnnotationProcessor = new AnnotationProcessor(clientOperation);
+    serverAnnotationProcessor = new AnnotationProcessor(serverOperation);
+
+    clientAnnotationTracker = new AnnotationTracker(clientAnnotationProcessor) {
+
+      @Override
+      void processUpdate(AnnotationBoundaryMap map) {
+        // TODO: This seems pretty awkward. Perhaps we should give
+        // AnnotationBoundaryMapImpl an easier builder to use.
+        List<String> clientEndKeys = new ArrayList<String>();
+        List<String> clientChangeKeys = new ArrayList<String>();
+        List<String> clientChangeOldValues = new ArrayList<String>();
+        List<String> clientChangeNewValues = new ArrayList<String>();
+        List<String> serverEndKeys = new ArrayList<String>();
+        List<String> serverChangeKeys = new ArrayList<String>();
+        List<String> serverChangeOldValues = new ArrayList<String>();
+        List<String> serverChangeNewValues = new ArrayList<String>();
+        for (int i = 0; i < map.endSize(); ++i) {
+          String key = map.getEndKey(i);
+          ValueUpdate serverValues = serverAnnotationTracker.active.get(key);
+          clientEndKeys.add(key);
+          if (serverValues != null) {
+            serverChangeKeys.add(key);
+            serverChangeOldValues.add(serverValues.oldValue);
+            serverChangeNewValues.add(serverValues.newValue);
+          }
         }
-      }
-      for (int i = 0; i < map.changeSize(); ++i) {
-        String key = map.getChangeKey(i);
-        String oldValue = map.getOldValue(i);
-        String newValue = map.getNewValue(i);
-        ValueUpdate serverValues = serverAnnotationTracker.active.get(key);
-        clientChangeKeys.add(key);
-        clientChangeNewValues.add(newValue);
-        if (serverValues != null) {
-          clientChangeOldValues.add(serverValues.newValue);
-          serverEndKeys.add(key);
-        } else {
-          clientChangeOldValues.add(oldValue);
+        for (int i = 0; i < map.changeSize(); ++i) {
+          String key = map.getChangeKey(i);
+          String oldValue = map.getOldValue(i);
+          String newValue = map.getNewValue(i);
+          ValueUpdate serverValues = serverAnnotationTracker.active.get(key);
+          clientChangeKeys.add(key);
+          clientChangeNewValues.add(newValue);
+          if (serverValues != null) {
+            clientChangeOldValues.add(serverValues.newValue);
+            serverEndKeys.add(key);
+          } else {
+            clientChangeOldValues.add(oldValue);
+          }
         }
+        clientAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
+            clientEndKeys.toArray(new String[0]),
+            clientChangeKeys.toArray(new String[0]),
+            clientChangeOldValues.toArray(new String[0]),
+            clientChangeNewValues.toArray(new String[0])));
+        serverAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
+            serverEndKeys.toArray(new String[0]),
+            serverChangeKeys.toArray(new String[0]),
+            serverChangeOldValues.toArray(new String[0]),
+            serverChangeNewValues.toArray(new String[0])));
       }
-      clientAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
-          clientEndKeys.toArray(new String[0]),
-          clientChangeKeys.toArray(new String[0]),
-          clientChangeOldValues.toArray(new String[0]),
-          clientChangeNewValues.toArray(new String[0])));
-      serverAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
-          serverEndKeys.toArray(new String[0]),
-          serverChangeKeys.toArray(new String[0]),
-          serverChangeOldValues.toArray(new String[0]),
-          serverChangeNewValues.toArray(new String[0])));
-    }
 
-    @Override
-    AnnotationTracker opposingTracker() {
-      return serverAnnotationTracker;
-    }
+      @Override
+      AnnotationTracker opposingTracker() {
+        return serverAnnotationTracker;
+      }
 
-  };
+    };
 
-  private final AnnotationTracker serverAnnotationTracker =
-      new AnnotationTracker(serverAnnotationProcessor) {
+    serverAnnotationTracker = new AnnotationTracker(serverAnnotationProcessor) {
 
-    @Override
-    void processUpdate(AnnotationBoundaryMap map) {
-      // TODO: This seems pretty awkward. Perhaps we should give
-      // AnnotationBoundaryMapImpl an easier builder to use.
-      List<String> serverEndKeys = new ArrayList<String>();
-      List<String> serverChangeKeys = new ArrayList<String>();
-      List<String> serverChangeOldValues = new ArrayList<String>();
-      List<String> serverChangeNewValues = new ArrayList<String>();
-      List<String> clientEndKeys = new ArrayList<String>();
-      List<String> clientChangeKeys = new ArrayList<String>();
-      List<String> clientChangeOldValues = new ArrayList<String>();
-      List<String> clientChangeNewValues = new ArrayList<String>();
-      for (int i = 0; i < map.endSize(); ++i) {
-        String key = map.getEndKey(i);
-        ValueUpdate clientValues = clientAnnotationTracker.active.get(key);
-        if (clientValues != null) {
-          clientChangeKeys.add(key);
-          clientChangeOldValues.add(clientValues.oldValue);
-          clientChangeNewValues.add(clientValues.newValue);
-        } else {
-          serverEndKeys.add(key);
+      @Override
+      void processUpdate(AnnotationBoundaryMap map) {
+        // TODO: This seems pretty awkward. Perhaps we should give
+        // AnnotationBoundaryMapImpl an easier builder to use.
+        List<String> serverEndKeys = new ArrayList<String>();
+        List<String> serverChangeKeys = new ArrayList<String>();
+        List<String> serverChangeOldValues = new ArrayList<String>();
+        List<String> serverChangeNewValues = new ArrayList<String>();
+        List<String> clientEndKeys = new ArrayList<String>();
+        List<String> clientChangeKeys = new ArrayList<String>();
+        List<String> clientChangeOldValues = new ArrayList<String>();
+        List<String> clientChangeNewValues = new ArrayList<String>();
+        for (int i = 0; i < map.endSize(); ++i) {
+          String key = map.getEndKey(i);
+          ValueUpdate clientValues = clientAnnotationTracker.active.get(key);
+          if (clientValues != null) {
+            clientChangeKeys.add(key);
+            clientChangeOldValues.add(clientValues.oldValue);
+            clientChangeNewValues.add(clientValues.newValue);
+          } else {
+            serverEndKeys.add(key);
+          }
         }
-      }
-      for (int i = 0; i < map.changeSize(); ++i) {
-        String key = map.getChangeKey(i);
-        String oldValue = map.getOldValue(i);
-        String newValue = map.getNewValue(i);
-        ValueUpdate clientValues = clientAnnotationTracker.active.get(key);
-        if (clientValues != null) {
-          clientChangeKeys.add(key);
-          clientChangeOldValues.add(newValue);
-          clientChangeNewValues.add(clientValues.newValue);
-        } else {
-          serverChangeKeys.add(key);
-          serverChangeOldValues.add(oldValue);
-          serverChangeNewValues.add(newValue);
+        for (int i = 0; i < map.changeSize(); ++i) {
+          String key = map.getChangeKey(i);
+          String oldValue = map.getOldValue(i);
+          String newValue = map.getNewValue(i);
+          ValueUpdate clientValues = clientAnnotationTracker.active.get(key);
+          if (clientValues != null) {
+            clientChangeKeys.add(key);
+            clientChangeOldValues.add(newValue);
+            clientChangeNewValues.add(clientValues.newValue);
+          } else {
+            serverChangeKeys.add(key);
+            serverChangeOldValues.add(oldValue);
+            serverChangeNewValues.add(newValue);
+          }
         }
+        serverAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
+            serverEndKeys.toArray(new String[0]),
+            serverChangeKeys.toArray(new String[0]),
+            serverChangeOldValues.toArray(new String[0]),
+            serverChangeNewValues.toArray(new String[0])));
+        clientAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
+            clientEndKeys.toArray(new String[0]),
+            clientChangeKeys.toArray(new String[0]),
+            clientChangeOldValues.toArray(new String[0]),
+            clientChangeNewValues.toArray(new String[0])));
       }
-      serverAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
-          serverEndKeys.toArray(new String[0]),
-          serverChangeKeys.toArray(new String[0]),
-          serverChangeOldValues.toArray(new String[0]),
-          serverChangeNewValues.toArray(new String[0])));
-      clientAnnotationProcessor.process(new AnnotationBoundaryMapImpl(
-          clientEndKeys.toArray(new String[0]),
-          clientChangeKeys.toArray(new String[0]),
-          clientChangeOldValues.toArray(new String[0]),
-          clientChangeNewValues.toArray(new String[0])));
-    }
 
-    @Override
-    AnnotationTracker opposingTracker() {
-      return clientAnnotationTracker;
-    }
+      @Override
+      AnnotationTracker opposingTracker() {
+        return clientAnnotationTracker;
+      }
 
-  };
+    };
+
+    clientTarget = new Target(clientOperation, clientPosition, clientAnnotationTracker);
+    serverTarget = new Target(serverOperation, serverPosition, serverAnnotationTracker);
+    clientTarget.setOtherTarget(serverTarget);
+    serverTarget.setOtherTarget(clientTarget);
+  }
+
+  /**
+   * Clears the state of a previous transformation, which may have failed
+   * part way through.
+   */
+  private void reset() {
+    clientBuffer.reset();
+    serverBuffer.reset();
+    clientRangeNormalizer.reset();
+    serverRangeNormalizer.reset();
+    clientOperation.reset();
+    serverOperation.reset();
+    clientAnnotationTracker.reset();
+    serverAnnotationTracker.reset();
+    positionTracker.position = 0;
+    clientTarget.reset();
+    serverTarget.reset();
+  }
 
   /**
    * Transform a pair of operations.
@@ -987,21 +1096,15 @@ public final class Transformer {
    */
   public OperationPair<BufferedDocOp> transformOperations(BufferedDocOp clientOp,
       BufferedDocOp serverOp) throws TransformException {
+    reset();
+    if (fastPath != null) {
+      if (fastPath.transform(clientOp, serverOp, clientOperation, serverOperation)) {
+        return new OperationPair<BufferedDocOp>(clientOperation.finish(),
+            serverOperation.finish());
+      }
+      reset();
+    }
     try {
-      PositionTracker positionTracker = new PositionTracker();
-
-      RelativePosition clientPosition = positionTracker.getClientPosition();
-      RelativePosition serverPosition = positionTracker.getServerPosition();
-
-      // The target responsible for processing components of the client operation.
-      Target clientTarget = new Target(clientOperation, clientPosition, clientAnnotationTracker);
-
-      // The target responsible for processing components of the server operation.
-      Target serverTarget = new Target(serverOperation, serverPosition, serverAnnotationTracker);
-
-      clientTarget.setOtherTarget(serverTarget);
-      serverTarget.setOtherTarget(clientTarget);
-
       // Incrementally apply the two operations in a linearly-ordered interleaving
       // fashion.
       int clientIndex = 0;
@@ -1042,4 +1145,20 @@ public final class Transformer {
     return new Transformer().transformOperations(clientOp, serverOp);
   }
 
+  /**
+   * Transform a pair of operations, sharing the attributes and annotation
+   * boundaries of the results through an interner.
+   *
+   * @param clientOp The operation from the client.
+   * @param serverOp The operation from the server.
+   * @param interner The interner to use, or null to use none.
+   * @return The transformed pair of operations.
+   * @throws TransformException if a problem was encountered during the
+   *         transformation process.
+   */
+  public static OperationPair<BufferedDocOp> transform(BufferedDocOp clientOp,
+      BufferedDocOp serverOp, DocOpInterner interner) throws TransformException {
+    return new Transformer(interner).transformOperations(clientOp, serverOp);
+  }
+
 }
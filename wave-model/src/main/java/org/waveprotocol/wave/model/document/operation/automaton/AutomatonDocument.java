@@ -71,4 +71,10 @@ public interface AutomatonDocument {
    */
   int firstAnnotationChange(int start, int end, String key, String fromValue);
 
+  /**
+   * Returns every annotation key that may have a non-null value somewhere in
+   * the document.  The result may include keys that are no longer used.
+   */
+  Iterable<String> knownAnnotationKeys();
+
 }
\ No newline at end of file
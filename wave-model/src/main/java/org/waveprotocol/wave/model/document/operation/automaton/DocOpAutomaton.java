@@ -28,6 +28,7 @@ import org.waveprotocol.wave.model.util.Utf16Util;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -137,7 +138,7 @@ public final class DocOpAutomaton {
 
     public ValidationResult mergeWith(ValidationResult other) {
       Preconditions.checkNotNull(other, "Null ValidationResult");
-      return ValidationResult.values()[Math.min(this.ordinal(), other.ordinal())];
+      return this.ordinal() <= other.ordinal() ? this : other;
     }
   }
 
@@ -386,14 +387,25 @@ public final class DocOpAutomaton {
     return addViolation(v, illFormedOperation("attribute change inside insert or delete"));
   }
 
+  // The messages of retainPastEnd(), missingRetainToEnd() and
+  // cannotDeleteSoManyCharacters() are only built when they are collected,
+  // since checking the well-formedness of an operation against the empty
+  // document runs into them for every retain and deletion.
+
   private ValidationResult retainPastEnd(ViolationCollector v, int expectedLength,
       int retainItemCount) {
+    if (v == null) {
+      return ValidationResult.INVALID_DOCUMENT;
+    }
     return addViolation(v, invalidOperation("retain past end of document, document length "
         + expectedLength + ", retain item count " + retainItemCount));
   }
 
   private ValidationResult missingRetainToEnd(ViolationCollector v,
       int expectedLength, int actualLength) {
+    if (v == null) {
+      return ValidationResult.INVALID_DOCUMENT;
+    }
     return addViolation(v, invalidOperation("operation shorter than document, document length "
         + expectedLength + ", length of input of operation " + actualLength));
   }
@@ -513,6 +525,9 @@ public final class DocOpAutomaton {
 
   private ValidationResult cannotDeleteSoManyCharacters(ViolationCollector v,
       int available, String chars) {
+    if (v == null) {
+      return ValidationResult.INVALID_DOCUMENT;
+    }
     int attempted = chars.length();
     return addViolation(v, invalidOperation("cannot delete " + attempted + " characters,"
         + " only " + available + " available"));
@@ -666,8 +681,13 @@ public final class DocOpAutomaton {
   private int deletionStackDepth = 0;
   private AnnotationsUpdateImpl annotationsUpdate = new AnnotationsUpdateImpl();
   private boolean afterAnnotationBoundary = false;
-  // This can become null if the operation is invalid.
+  // This can become null if the operation is invalid.  Only deletions need
+  // it, so it is computed from the position and annotations update it was
+  // last reset at when a deletion first asks for it.
   private AnnotationMap targetAnnotationsForDeletion = EMPTY_ANNOTATIONS;
+  private boolean targetAnnotationsForDeletionKnown = true;
+  private int deletionTargetPos = 0;
+  private AnnotationsUpdateImpl deletionTargetUpdate = annotationsUpdate;
 
 
   // more state to track just to be able to produce better diagnostic messages
@@ -727,6 +747,11 @@ public final class DocOpAutomaton {
       // if (fromValue != null && end > start): can't happen since end == start == 0
       return -1;
     }
+
+    @Override
+    public Iterable<String> knownAnnotationKeys() {
+      return Collections.emptyList();
+    }
   };
 
   /**
@@ -762,6 +787,9 @@ public final class DocOpAutomaton {
     this.nextRequiredElement = other.nextRequiredElement;
     this.resultingPos = other.resultingPos;
     this.targetAnnotationsForDeletion = other.targetAnnotationsForDeletion;
+    this.targetAnnotationsForDeletionKnown = other.targetAnnotationsForDeletionKnown;
+    this.deletionTargetPos = other.deletionTargetPos;
+    this.deletionTargetUpdate = other.deletionTargetUpdate;
   }
 
   // current state primitive readers
@@ -1046,21 +1074,35 @@ public final class DocOpAutomaton {
   private static final AnnotationMap EMPTY_ANNOTATIONS = AnnotationMapImpl.EMPTY_MAP;
 
   public AnnotationMap inheritedAnnotations() {
-    if (effectivePos == 0 || effectivePos > doc.length()) {
+    return inheritedAnnotations(effectivePos);
+  }
+
+  private AnnotationMap inheritedAnnotations(int pos) {
+    if (pos == 0 || pos > doc.length()) {
       return EMPTY_ANNOTATIONS;
     } else {
-      int posToInheritFrom = effectivePos - 1;
+      int posToInheritFrom = pos - 1;
       return doc.annotationsAt(posToInheritFrom);
     }
   }
 
   private void updateDeletionTargetAnnotations() {
-    if (effectivePos > doc.length()) {
-      targetAnnotationsForDeletion = null;
-    } else {
-      targetAnnotationsForDeletion =
-          inheritedAnnotations().updateWithNoCompatibilityCheck(annotationsUpdate);
+    targetAnnotationsForDeletionKnown = false;
+    deletionTargetPos = effectivePos;
+    deletionTargetUpdate = annotationsUpdate;
+  }
+
+  private AnnotationMap targetAnnotationsForDeletion() {
+    if (!targetAnnotationsForDeletionKnown) {
+      if (deletionTargetPos > doc.length()) {
+        targetAnnotationsForDeletion = null;
+      } else {
+        targetAnnotationsForDeletion = inheritedAnnotations(deletionTargetPos)
+            .updateWithNoCompatibilityCheck(deletionTargetUpdate);
+      }
+      targetAnnotationsForDeletionKnown = true;
     }
+    return targetAnnotationsForDeletion;
   }
 
   private ValidationResult checkAnnotationsForInsertion(ViolationCollector v) {
@@ -1141,6 +1183,7 @@ public final class DocOpAutomaton {
 
 
   private ValidationResult checkAnnotationsForDeletion(ViolationCollector v, int itemCount) {
+    AnnotationMap targetAnnotationsForDeletion = targetAnnotationsForDeletion();
     if (targetAnnotationsForDeletion == null) {
       // Invalid operation, nothing to check.
       return valid();
@@ -1162,7 +1205,11 @@ public final class DocOpAutomaton {
         return newAnnotationsIncorrectForDeletion(v);
       }
     }
-    // TODO: Find a way to speed this up.
+    if (!annotationsMissingForDeletion(itemCount, targetAnnotationsForDeletion)) {
+      return valid();
+    }
+    // Walk the deleted items one by one to report the same violation that a
+    // position-by-position check finds first.
     for (int offset = 0; offset < itemCount; offset++) {
       int pos = effectivePos + offset;
       Map<String, String> annotationsHere = doc.annotationsAt(pos);
@@ -1192,6 +1239,30 @@ public final class DocOpAutomaton {
   }
 
 
+  /**
+   * Returns whether some deleted item carries a value, for a key not covered by
+   * the annotations update, that differs from the value the deletion requires.
+   * Each key is checked across the whole range at once, rather than looking up
+   * all annotations item by item.
+   */
+  private boolean annotationsMissingForDeletion(int itemCount,
+      AnnotationMap targetAnnotationsForDeletion) {
+    int end = effectivePos + itemCount;
+    for (String key : doc.knownAnnotationKeys()) {
+      if (!annotationsUpdate.containsKey(key) && doc.firstAnnotationChange(effectivePos, end,
+          key, targetAnnotationsForDeletion.get(key)) != -1) {
+        return true;
+      }
+    }
+    for (String key : targetAnnotationsForDeletion.keySet()) {
+      if (!annotationsUpdate.containsKey(key) && doc.firstAnnotationChange(effectivePos, end,
+          key, targetAnnotationsForDeletion.get(key)) != -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private ValidationResult checkAttributesWellFormed(Attributes attr, ViolationCollector v) {
     if (attr == null) { return nullAttributes(v); }
     String previousKey = null;
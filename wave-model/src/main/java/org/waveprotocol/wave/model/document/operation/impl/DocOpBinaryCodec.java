@@ -0,0 +1,598 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.AttributesUpdate;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpCursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, versioned binary format for document operations.
+ *
+ * A stream starts with the format version. Each operation is a sequence of
+ * components, each a tag byte followed by its arguments, and ends with a
+ * zero tag. Counts, lengths and retains are unsigned varints. Text is UTF-8.
+ * Element types, attribute names and annotation keys are interned: the first
+ * occurrence in a stream is written in full, and later ones refer to it by
+ * index, so a stream of many operations only spells out each name once.
+ * Attribute and annotation values are written in full, and may be null.
+ *
+ * The {@link Reader} drives a {@link DocOpCursor} directly from the stream,
+ * without building intermediate component objects. It treats its input as
+ * untrusted: malformed input is reported as an {@link IOException}, and
+ * buffers grow with the bytes actually read rather than being sized from
+ * the lengths in the stream. This class uses java.io, so it is not available
+ * to GWT code.
+ */
+public final class DocOpBinaryCodec {
+
+  /** The version of the format that is written. */
+  public static final int VERSION = 1;
+
+  private static final int END = 0;
+  private static final int RETAIN = 1;
+  private static final int CHARACTERS = 2;
+  private static final int DELETE_CHARACTERS = 3;
+  private static final int ELEMENT_START = 4;
+  private static final int ELEMENT_END = 5;
+  private static final int DELETE_ELEMENT_START = 6;
+  private static final int DELETE_ELEMENT_END = 7;
+  private static final int REPLACE_ATTRIBUTES = 8;
+  private static final int UPDATE_ATTRIBUTES = 9;
+  private static final int ANNOTATION_BOUNDARY = 10;
+
+  private static final String UTF_8 = "UTF-8";
+
+  /** The largest buffer allocated before its bytes have been read. */
+  private static final int MAX_READ_CHUNK = 8192;
+
+  /**
+   * Writes document operations, and other values that share its string table,
+   * to a stream.
+   */
+  public static final class Writer {
+
+    private final OutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    /** Carries an {@link IOException} out of a cursor callback. */
+    @SuppressWarnings("serial")
+    private static final class WriteFailure extends RuntimeException {
+      WriteFailure(IOException cause) {
+        super(cause);
+      }
+    }
+
+    private final DocOpCursor cursor = new DocOpCursor() {
+      @Override
+      public void retain(int itemCount) {
+        try {
+          writeTag(RETAIN);
+          writeVarint(itemCount);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void characters(String chars) {
+        try {
+          writeTag(CHARACTERS);
+          writeString(chars);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void deleteCharacters(String chars) {
+        try {
+          writeTag(DELETE_CHARACTERS);
+          writeString(chars);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void elementStart(String type, Attributes attrs) {
+        try {
+          writeTag(ELEMENT_START);
+          writeInterned(type);
+          writeAttributes(attrs);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void elementEnd() {
+        try {
+          writeTag(ELEMENT_END);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void deleteElementStart(String type, Attributes attrs) {
+        try {
+          writeTag(DELETE_ELEMENT_START);
+          writeInterned(type);
+          writeAttributes(attrs);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void deleteElementEnd() {
+        try {
+          writeTag(DELETE_ELEMENT_END);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void replaceAttributes(Attributes oldAttrs, Attributes newAttrs) {
+        try {
+          writeTag(REPLACE_ATTRIBUTES);
+          writeAttributes(oldAttrs);
+          writeAttributes(newAttrs);
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void updateAttributes(AttributesUpdate attrUpdate) {
+        try {
+          writeTag(UPDATE_ATTRIBUTES);
+          writeVarint(attrUpdate.changeSize());
+          for (int i = 0; i < attrUpdate.changeSize(); i++) {
+            writeInterned(attrUpdate.getChangeKey(i));
+            writeNullableString(attrUpdate.getOldValue(i));
+            writeNullableString(attrUpdate.getNewValue(i));
+          }
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+
+      @Override
+      public void annotationBoundary(AnnotationBoundaryMap map) {
+        try {
+          writeTag(ANNOTATION_BOUNDARY);
+          writeVarint(map.endSize());
+          for (int i = 0; i < map.endSize(); i++) {
+            writeInterned(map.getEndKey(i));
+          }
+          writeVarint(map.changeSize());
+          for (int i = 0; i < map.changeSize(); i++) {
+            writeInterned(map.getChangeKey(i));
+            writeNullableString(map.getOldValue(i));
+            writeNullableString(map.getNewValue(i));
+          }
+        } catch (IOException e) {
+          throw new WriteFailure(e);
+        }
+      }
+    };
+
+    /**
+     * Creates a writer, and writes the format version.
+     *
+     * @param out the stream to write to
+     */
+    public Writer(OutputStream out) throws IOException {
+      this.out = out;
+      writeVarint(VERSION);
+    }
+
+    /**
+     * Writes a document operation.
+     */
+    public void writeDocOp(DocOp op) throws IOException {
+      try {
+        op.apply(cursor);
+      } catch (WriteFailure e) {
+        throw (IOException) e.getCause();
+      }
+      writeTag(END);
+    }
+
+    /**
+     * Writes a non-negative integer as an unsigned varint.
+     */
+    public void writeVarint(int value) throws IOException {
+      if (value < 0) {
+        throw new IllegalArgumentException("Negative value: " + value);
+      }
+      while ((value & ~0x7F) != 0) {
+        out.write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+
+    /**
+     * Writes a string that is likely to recur, such as a name, through the
+     * string table.
+     */
+    public void writeInterned(String s) throws IOException {
+      Integer index = strings.get(s);
+      if (index != null) {
+        writeVarint(index + 1);
+      } else {
+        writeVarint(0);
+        writeString(s);
+        strings.put(s, strings.size());
+      }
+    }
+
+    /**
+     * Writes a string in full.
+     */
+    public void writeString(String s) throws IOException {
+      byte[] bytes = s.getBytes(UTF_8);
+      writeVarint(bytes.length);
+      out.write(bytes);
+    }
+
+    /**
+     * Flushes the underlying stream.
+     */
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    private void writeTag(int tag) throws IOException {
+      out.write(tag);
+    }
+
+    private void writeNullableString(String s) throws IOException {
+      if (s == null) {
+        writeVarint(0);
+      } else {
+        byte[] bytes = s.getBytes(UTF_8);
+        writeVarint(bytes.length + 1);
+        out.write(bytes);
+      }
+    }
+
+    private void writeAttributes(Attributes attrs) throws IOException {
+      writeVarint(attrs.size());
+      for (Map.Entry<String, String> entry : attrs.entrySet()) {
+        writeInterned(entry.getKey());
+        writeString(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Reads document operations, and other values that share its string table,
+   * from a stream written by a {@link Writer}.
+   */
+  public static final class Reader {
+
+    private final InputStream in;
+    private final DocOpInterner interner;
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * Creates a reader, and reads the format version.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the stream is of an unsupported version
+     */
+    public Reader(InputStream in) throws IOException {
+      this(in, null);
+    }
+
+    /**
+     * Creates a reader that shares the attributes and annotation boundaries
+     * it reads through an interner, and reads the format version.
+     *
+     * @param in the stream to read from
+     * @param interner the interner to use, or null to use none
+     * @throws IOException if the stream is of an unsupported version
+     */
+    public Reader(InputStream in, DocOpInterner interner) throws IOException {
+      this.in = in;
+      this.interner = interner;
+      int version = readVarint();
+      if (version != VERSION) {
+        throw new IOException("Unsupported document operation format version: " + version);
+      }
+    }
+
+    /**
+     * Reads a document operation, and applies its components to a cursor as
+     * they are read.  The sequence of components is not checked, since the
+     * cursor sees each component before the operation ends.
+     *
+     * @param cursor the cursor to apply the components to
+     * @throws IOException if the stream is malformed, or holds malformed
+     *         attributes or annotation boundaries
+     */
+    public void readDocOp(DocOpCursor cursor) throws IOException {
+      while (true) {
+        int tag = readByte();
+        switch (tag) {
+          case END:
+            return;
+          case RETAIN:
+            cursor.retain(readVarint());
+            break;
+          case CHARACTERS:
+            cursor.characters(readString());
+            break;
+          case DELETE_CHARACTERS:
+            cursor.deleteCharacters(readString());
+            break;
+          case ELEMENT_START:
+            cursor.elementStart(readInterned(), readAttributes());
+            break;
+          case ELEMENT_END:
+            cursor.elementEnd();
+            break;
+          case DELETE_ELEMENT_START:
+            cursor.deleteElementStart(readInterned(), readAttributes());
+            break;
+          case DELETE_ELEMENT_END:
+            cursor.deleteElementEnd();
+            break;
+          case REPLACE_ATTRIBUTES:
+            cursor.replaceAttributes(readAttributes(), readAttributes());
+            break;
+          case UPDATE_ATTRIBUTES:
+            cursor.updateAttributes(readAttributesUpdate());
+            break;
+          case ANNOTATION_BOUNDARY:
+            cursor.annotationBoundary(readAnnotationBoundary());
+            break;
+          default:
+            throw new IOException("Unknown document operation component tag: " + tag);
+        }
+      }
+    }
+
+    /**
+     * Reads a document operation.
+     *
+     * @throws IOException if the stream is malformed, or holds an operation
+     *         that is not well-formed
+     */
+    public BufferedDocOp readDocOp() throws IOException {
+      DocOpBuffer buffer = new DocOpBuffer();
+      readDocOp(buffer);
+      try {
+        return buffer.finish();
+      } catch (IllegalStateException e) {
+        throw malformed("document operation", e);
+      }
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @throws IOException if the varint is malformed or exceeds
+     *         {@link Integer#MAX_VALUE}
+     */
+    public int readVarint() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 28; shift += 7) {
+        int b = readByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      // The fifth byte holds the top three bits of a non-negative int.
+      int b = readByte();
+      if ((b & ~0x07) != 0) {
+        throw new IOException("Malformed or out of range varint");
+      }
+      return value | (b << 28);
+    }
+
+    /**
+     * Reads a string written by {@link Writer#writeInterned(String)}.
+     */
+    public String readInterned() throws IOException {
+      int ref = readVarint();
+      if (ref == 0) {
+        String s = readString();
+        strings.add(s);
+        return s;
+      } else if (ref <= strings.size()) {
+        return strings.get(ref - 1);
+      }
+      throw new IOException("Unknown string reference: " + ref);
+    }
+
+    /**
+     * Reads a string written by {@link Writer#writeString(String)}.
+     */
+    public String readString() throws IOException {
+      return readUtf8(readVarint());
+    }
+
+    private String readNullableString() throws IOException {
+      int length = readVarint();
+      return length == 0 ? null : readUtf8(length - 1);
+    }
+
+    private String readUtf8(int length) throws IOException {
+      if (length <= MAX_READ_CHUNK) {
+        byte[] bytes = new byte[length];
+        readFully(bytes, length);
+        return new String(bytes, UTF_8);
+      }
+      // Only trust a large length as far as the stream backs it up.
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_READ_CHUNK);
+      byte[] chunk = new byte[MAX_READ_CHUNK];
+      for (int remaining = length; remaining > 0; ) {
+        int n = Math.min(remaining, chunk.length);
+        readFully(chunk, n);
+        bytes.write(chunk, 0, n);
+        remaining -= n;
+      }
+      return bytes.toString(UTF_8);
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+      int read = 0;
+      while (read < length) {
+        int n = in.read(bytes, read, length - read);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        read += n;
+      }
+    }
+
+    private int readByte() throws IOException {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      return b;
+    }
+
+    private Attributes readAttributes() throws IOException {
+      int size = readVarint();
+      if (size == 0) {
+        return Attributes.EMPTY_MAP;
+      }
+      List<String> pairs = new ArrayList<String>();
+      for (int i = 0; i < size; i++) {
+        pairs.add(readInterned());
+        pairs.add(readString());
+      }
+      Attributes attrs;
+      try {
+        attrs = new AttributesImpl(pairs.toArray(new String[pairs.size()]));
+      } catch (RuntimeException e) {
+        throw malformed("attributes", e);
+      }
+      return interner != null ? interner.intern(attrs) : attrs;
+    }
+
+    private AttributesUpdate readAttributesUpdate() throws IOException {
+      int size = readVarint();
+      if (size == 0) {
+        return AttributesUpdateImpl.EMPTY_MAP;
+      }
+      List<String> triples = new ArrayList<String>();
+      for (int i = 0; i < size; i++) {
+        triples.add(readInterned());
+        triples.add(readNullableString());
+        triples.add(readNullableString());
+      }
+      try {
+        return new AttributesUpdateImpl(triples.toArray(new String[triples.size()]));
+      } catch (RuntimeException e) {
+        throw malformed("attributes update", e);
+      }
+    }
+
+    private AnnotationBoundaryMap readAnnotationBoundary() throws IOException {
+      int endSize = readVarint();
+      List<String> endKeys = new ArrayList<String>();
+      for (int i = 0; i < endSize; i++) {
+        endKeys.add(readInterned());
+      }
+      int changeSize = readVarint();
+      List<String> changeKeys = new ArrayList<String>();
+      List<String> oldValues = new ArrayList<String>();
+      List<String> newValues = new ArrayList<String>();
+      for (int i = 0; i < changeSize; i++) {
+        changeKeys.add(readInterned());
+        oldValues.add(readNullableString());
+        newValues.add(readNullableString());
+      }
+      AnnotationBoundaryMap map;
+      try {
+        map = new AnnotationBoundaryMapImpl(
+            endKeys.toArray(new String[endKeys.size()]),
+            changeKeys.toArray(new String[changeKeys.size()]),
+            oldValues.toArray(new String[oldValues.size()]),
+            newValues.toArray(new String[newValues.size()]));
+      } catch (RuntimeException e) {
+        throw malformed("annotation boundary", e);
+      }
+      return interner != null ? interner.intern(map) : map;
+    }
+
+    /**
+     * Returns an exception reporting that a value read from the stream was
+     * rejected, such as attributes with duplicate or unsorted names.
+     */
+    private static IOException malformed(String what, RuntimeException cause) {
+      IOException e = new IOException("Malformed " + what + ": " + cause.getMessage());
+      e.initCause(cause);
+      return e;
+    }
+  }
+
+  /**
+   * Encodes a single document operation.
+   *
+   * @param op the operation
+   * @return the encoded operation, including the format version
+   */
+  public static byte[] encode(DocOp op) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      new Writer(out).writeDocOp(op);
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to memory failed", e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a single document operation written by {@link #encode(DocOp)}.
+   *
+   * @param bytes the encoded operation
+   * @return the operation
+   * @throws IOException if the bytes are not a valid encoding
+   */
+  public static BufferedDocOp decode(byte[] bytes) throws IOException {
+    return new Reader(new ByteArrayInputStream(bytes)).readDocOp();
+  }
+
+  private DocOpBinaryCodec() {
+  }
+}
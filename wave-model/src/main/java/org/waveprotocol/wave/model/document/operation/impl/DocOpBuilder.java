@@ -45,6 +45,26 @@ public class DocOpBuilder {
 
   private final ArrayList<DocOpComponent> accu = new ArrayList<DocOpComponent>();
 
+  /** Interns attributes and annotation boundaries, if not null. */
+  private final DocOpInterner interner;
+
+  /**
+   * Creates a builder.
+   */
+  public DocOpBuilder() {
+    this(null);
+  }
+
+  /**
+   * Creates a builder that shares attributes and annotation boundaries
+   * through an interner.
+   *
+   * @param interner the interner to use, or null to use none
+   */
+  public DocOpBuilder(DocOpInterner interner) {
+    this.interner = interner;
+  }
+
   /**
    * Constructs an operation from this builder's state.
    *
@@ -63,7 +83,7 @@ public class DocOpBuilder {
   }
 
   public final DocOpBuilder annotationBoundary(AnnotationBoundaryMap map) {
-    accu.add(new AnnotationBoundary(map));
+    accu.add(new AnnotationBoundary(interner != null ? interner.intern(map) : map));
     return this;
   }
   public final DocOpBuilder characters(String s) {
@@ -75,7 +95,7 @@ public class DocOpBuilder {
     return this;
   }
   public final DocOpBuilder elementStart(String type, Attributes attrs) {
-    accu.add(new ElementStart(type, attrs));
+    accu.add(new ElementStart(type, intern(attrs)));
     return this;
   }
   public final DocOpBuilder deleteCharacters(String s) {
@@ -91,15 +111,19 @@ public class DocOpBuilder {
     return this;
   }
   public final DocOpBuilder deleteElementStart(String type, Attributes attrs) {
-    accu.add(new DeleteElementStart(type, attrs));
+    accu.add(new DeleteElementStart(type, intern(attrs)));
     return this;
   }
   public final DocOpBuilder replaceAttributes(Attributes oldAttrs, Attributes newAttrs) {
-    accu.add(new ReplaceAttributes(oldAttrs, newAttrs));
+    accu.add(new ReplaceAttributes(intern(oldAttrs), intern(newAttrs)));
     return this;
   }
   public final DocOpBuilder updateAttributes(AttributesUpdate update) {
     accu.add(new UpdateAttributes(update));
     return this;
   }
+
+  private Attributes intern(Attributes attrs) {
+    return interner != null ? interner.intern(attrs) : attrs;
+  }
 }
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.AttributesUpdate;
+import org.waveprotocol.wave.model.document.operation.EvaluatingDocOpCursor;
+import org.waveprotocol.wave.model.util.Preconditions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares identical attribute maps and annotation boundary maps between
+ * operation components.
+ *
+ * Documents tend to repeat a handful of attribute maps and annotation keys,
+ * such as those of line elements and style annotations, across most of their
+ * operations. Interning them keeps one instance of each in memory, and lets
+ * comparisons of interned values succeed on reference equality.
+ *
+ * Interning is opt-in: pass an interner to {@link DocOpBuilder},
+ * {@link DocOpBinaryCodec.Reader}, or the composer and transformer, or wrap a
+ * cursor with {@link #intern(EvaluatingDocOpCursor)}. An interner is not
+ * thread-safe. It holds at most a fixed number of values, and starts afresh
+ * when it is full, so that a long-lived interner does not grow without bound.
+ */
+public final class DocOpInterner {
+
+  /** The default maximum number of values of each kind that are held. */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * Wraps an annotation boundary map, to give it value equality.
+   */
+  private static final class BoundaryKey {
+    private final AnnotationBoundaryMap map;
+    private final int hashCode;
+
+    BoundaryKey(AnnotationBoundaryMap map) {
+      this.map = map;
+      int hash = map.endSize();
+      for (int i = 0; i < map.endSize(); i++) {
+        hash = 31 * hash + map.getEndKey(i).hashCode();
+      }
+      for (int i = 0; i < map.changeSize(); i++) {
+        hash = 31 * hash + map.getChangeKey(i).hashCode();
+        hash = 31 * hash + hashCode(map.getOldValue(i));
+        hash = 31 * hash + hashCode(map.getNewValue(i));
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BoundaryKey)) {
+        return false;
+      }
+      AnnotationBoundaryMap other = ((BoundaryKey) obj).map;
+      if (map.endSize() != other.endSize() || map.changeSize() != other.changeSize()) {
+        return false;
+      }
+      for (int i = 0; i < map.endSize(); i++) {
+        if (!map.getEndKey(i).equals(other.getEndKey(i))) {
+          return false;
+        }
+      }
+      for (int i = 0; i < map.changeSize(); i++) {
+        if (!map.getChangeKey(i).equals(other.getChangeKey(i))
+            || !equal(map.getOldValue(i), other.getOldValue(i))
+            || !equal(map.getNewValue(i), other.getNewValue(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int hashCode(String s) {
+      return s == null ? 0 : s.hashCode();
+    }
+
+    private static boolean equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  /**
+   * A cursor that interns the attributes and annotation boundaries passed to
+   * it before forwarding them to another cursor.
+   */
+  private final class InterningCursor<T> implements EvaluatingDocOpCursor<T> {
+    private final EvaluatingDocOpCursor<T> target;
+
+    InterningCursor(EvaluatingDocOpCursor<T> target) {
+      this.target = target;
+    }
+
+    @Override
+    public T finish() {
+      return target.finish();
+    }
+
+    @Override
+    public void annotationBoundary(AnnotationBoundaryMap map) {
+      target.annotationBoundary(intern(map));
+    }
+
+    @Override
+    public void characters(String chars) {
+      target.characters(chars);
+    }
+
+    @Override
+    public void elementStart(String type, Attributes attrs) {
+      target.elementStart(type, intern(attrs));
+    }
+
+    @Override
+    public void elementEnd() {
+      target.elementEnd();
+    }
+
+    @Override
+    public void retain(int itemCount) {
+      target.retain(itemCount);
+    }
+
+    @Override
+    public void deleteCharacters(String chars) {
+      target.deleteCharacters(chars);
+    }
+
+    @Override
+    public void deleteElementStart(String type, Attributes attrs) {
+      target.deleteElementStart(type, intern(attrs));
+    }
+
+    @Override
+    public void deleteElementEnd() {
+      target.deleteElementEnd();
+    }
+
+    @Override
+    public void replaceAttributes(Attributes oldAttrs, Attributes newAttrs) {
+      target.replaceAttributes(intern(oldAttrs), intern(newAttrs));
+    }
+
+    @Override
+    public void updateAttributes(AttributesUpdate attrUpdate) {
+      target.updateAttributes(attrUpdate);
+    }
+  }
+
+  private final int capacity;
+  private final Map<Attributes, Attributes> attributes = new HashMap<Attributes, Attributes>();
+  private final Map<BoundaryKey, AnnotationBoundaryMap> boundaries =
+      new HashMap<BoundaryKey, AnnotationBoundaryMap>();
+
+  /**
+   * Creates an interner with the default capacity.
+   */
+  public DocOpInterner() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an interner.
+   *
+   * @param capacity the maximum number of values of each kind to hold
+   */
+  public DocOpInterner(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+    this.capacity = capacity;
+    // The empty values are the most common of all.
+    attributes.put(Attributes.EMPTY_MAP, Attributes.EMPTY_MAP);
+    boundaries.put(new BoundaryKey(AnnotationBoundaryMapImpl.EMPTY_MAP),
+        AnnotationBoundaryMapImpl.EMPTY_MAP);
+  }
+
+  /**
+   * Returns the shared instance of an attribute map.
+   *
+   * @param attrs an immutable attribute map
+   * @return an equal attribute map, which is the same instance for all equal
+   *         maps interned since the interner was last full
+   */
+  public Attributes intern(Attributes attrs) {
+    Attributes shared = attributes.get(attrs);
+    if (shared == null) {
+      if (attributes.size() >= capacity) {
+        attributes.clear();
+      }
+      attributes.put(attrs, attrs);
+      shared = attrs;
+    }
+    return shared;
+  }
+
+  /**
+   * Returns the shared instance of an annotation boundary map.
+   *
+   * @param map an immutable annotation boundary map
+   * @return an equal map, which is the same instance for all equal maps
+   *         interned since the interner was last full
+   */
+  public AnnotationBoundaryMap intern(AnnotationBoundaryMap map) {
+    BoundaryKey key = new BoundaryKey(map);
+    AnnotationBoundaryMap shared = boundaries.get(key);
+    if (shared == null) {
+      if (boundaries.size() >= capacity) {
+        boundaries.clear();
+      }
+      boundaries.put(key, map);
+      shared = map;
+    }
+    return shared;
+  }
+
+  /**
+   * Returns a cursor that interns the attributes and annotation boundaries
+   * passed to it before forwarding them to a target cursor.
+   *
+   * @param target the cursor to forward to
+   */
+  public <T> EvaluatingDocOpCursor<T> intern(EvaluatingDocOpCursor<T> target) {
+    return new InterningCursor<T>(target);
+  }
+
+  /**
+   * @return the number of values held, of both kinds
+   */
+  public int size() {
+    return attributes.size() + boundaries.size();
+  }
+}
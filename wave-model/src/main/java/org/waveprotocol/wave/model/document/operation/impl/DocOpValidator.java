@@ -59,6 +59,16 @@ public final class DocOpValidator {
   public static boolean isWellFormed(ViolationCollector v, DocOp op) {
     if (op instanceof BufferedDocOpImpl) {
       return isWellFormed(v, (BufferedDocOpImpl) op);
+    } else if (op instanceof PackedBufferedDocOp) {
+      PackedBufferedDocOp packed = (PackedBufferedDocOp) op;
+      if (packed.isKnownToBeWellFormed()) {
+        return true;
+      } else if (isWellFormedRaw(v, packed)) {
+        packed.markWellFormed();
+        return true;
+      } else {
+        return false;
+      }
     } else {
       return isWellFormedRaw(v, op);
     }
@@ -0,0 +1,394 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.AttributesUpdate;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.document.operation.DocOpCursor;
+import org.waveprotocol.wave.model.document.operation.automaton.DocOpAutomaton.ViolationCollector;
+import org.waveprotocol.wave.model.util.Preconditions;
+
+/**
+ * Package-private. A buffered doc op that stores its components in a few
+ * flat arrays rather than as one object per component: component types in a
+ * byte[], retain counts, text lengths and offsets in an int[], and the text
+ * of all character components in one shared char[]. Element types,
+ * attributes, attribute updates and annotation boundaries are kept by
+ * reference.
+ *
+ * Use {@link UncheckedDocOpBuffer#finishPacked()} or
+ * {@link UncheckedDocOpBuffer#finishPackedUnchecked()} to construct one.
+ */
+final class PackedBufferedDocOp implements BufferedDocOp {
+
+  private static final byte ANNOTATION_BOUNDARY = 0;
+  private static final byte CHARACTERS = 1;
+  private static final byte ELEMENT_START = 2;
+  private static final byte ELEMENT_END = 3;
+  private static final byte RETAIN = 4;
+  private static final byte DELETE_CHARACTERS = 5;
+  private static final byte DELETE_ELEMENT_START = 6;
+  private static final byte DELETE_ELEMENT_END = 7;
+  private static final byte REPLACE_ATTRIBUTES = 8;
+  private static final byte UPDATE_ATTRIBUTES = 9;
+
+  /** The component types, indexed by the codes above. */
+  private static final DocOpComponentType[] TYPES = {
+      DocOpComponentType.ANNOTATION_BOUNDARY,
+      DocOpComponentType.CHARACTERS,
+      DocOpComponentType.ELEMENT_START,
+      DocOpComponentType.ELEMENT_END,
+      DocOpComponentType.RETAIN,
+      DocOpComponentType.DELETE_CHARACTERS,
+      DocOpComponentType.DELETE_ELEMENT_START,
+      DocOpComponentType.DELETE_ELEMENT_END,
+      DocOpComponentType.REPLACE_ATTRIBUTES,
+      DocOpComponentType.UPDATE_ATTRIBUTES};
+
+  private static final char[] EMPTY_CHARS = new char[0];
+  private static final Object[] EMPTY_REFS = new Object[0];
+
+  /**
+   * Accumulates components into the packed form.
+   */
+  static final class Builder implements DocOpCursor {
+    private byte[] types = new byte[8];
+    private int[] sizes = new int[16];
+    private int size = 0;
+    private char[] chars = new char[16];
+    private int charCount = 0;
+    private Object[] refs = new Object[8];
+    private int refCount = 0;
+
+    @Override
+    public void annotationBoundary(AnnotationBoundaryMap map) {
+      addRefs(ANNOTATION_BOUNDARY, map, null, 1);
+    }
+
+    @Override
+    public void characters(String s) {
+      addText(CHARACTERS, s);
+    }
+
+    @Override
+    public void elementStart(String type, Attributes attrs) {
+      addRefs(ELEMENT_START, type, attrs, 2);
+    }
+
+    @Override
+    public void elementEnd() {
+      add(ELEMENT_END, 0, 0);
+    }
+
+    @Override
+    public void retain(int itemCount) {
+      add(RETAIN, itemCount, 0);
+    }
+
+    @Override
+    public void deleteCharacters(String s) {
+      addText(DELETE_CHARACTERS, s);
+    }
+
+    @Override
+    public void deleteElementStart(String type, Attributes attrs) {
+      addRefs(DELETE_ELEMENT_START, type, attrs, 2);
+    }
+
+    @Override
+    public void deleteElementEnd() {
+      add(DELETE_ELEMENT_END, 0, 0);
+    }
+
+    @Override
+    public void replaceAttributes(Attributes oldAttrs, Attributes newAttrs) {
+      addRefs(REPLACE_ATTRIBUTES, oldAttrs, newAttrs, 2);
+    }
+
+    @Override
+    public void updateAttributes(AttributesUpdate update) {
+      addRefs(UPDATE_ATTRIBUTES, update, null, 1);
+    }
+
+    /**
+     * Builds the op, with arrays trimmed to their contents.
+     *
+     * Behaviour is undefined if this builder is used after calling this method.
+     */
+    PackedBufferedDocOp build() {
+      byte[] finalTypes = new byte[size];
+      System.arraycopy(types, 0, finalTypes, 0, size);
+      int[] finalSizes = new int[size * 2];
+      System.arraycopy(sizes, 0, finalSizes, 0, size * 2);
+      char[] finalChars = EMPTY_CHARS;
+      if (charCount > 0) {
+        finalChars = new char[charCount];
+        System.arraycopy(chars, 0, finalChars, 0, charCount);
+      }
+      Object[] finalRefs = EMPTY_REFS;
+      if (refCount > 0) {
+        finalRefs = new Object[refCount];
+        System.arraycopy(refs, 0, finalRefs, 0, refCount);
+      }
+      return new PackedBufferedDocOp(finalTypes, finalSizes, finalChars, finalRefs);
+    }
+
+    private void addText(byte type, String s) {
+      int length = s.length();
+      if (charCount + length > chars.length) {
+        char[] grown = new char[Math.max(chars.length * 2, charCount + length)];
+        System.arraycopy(chars, 0, grown, 0, charCount);
+        chars = grown;
+      }
+      s.getChars(0, length, chars, charCount);
+      add(type, length, charCount);
+      charCount += length;
+    }
+
+    private void addRefs(byte type, Object first, Object second, int count) {
+      if (refCount + count > refs.length) {
+        Object[] grown = new Object[refs.length * 2];
+        System.arraycopy(refs, 0, grown, 0, refCount);
+        refs = grown;
+      }
+      add(type, 0, refCount);
+      refs[refCount++] = first;
+      if (count > 1) {
+        refs[refCount++] = second;
+      }
+    }
+
+    private void add(byte type, int componentSize, int offset) {
+      if (size == types.length) {
+        byte[] grownTypes = new byte[size * 2];
+        System.arraycopy(types, 0, grownTypes, 0, size);
+        types = grownTypes;
+        int[] grownSizes = new int[size * 4];
+        System.arraycopy(sizes, 0, grownSizes, 0, size * 2);
+        sizes = grownSizes;
+      }
+      types[size] = type;
+      sizes[size * 2] = componentSize;
+      sizes[size * 2 + 1] = offset;
+      size++;
+    }
+  }
+
+  private boolean knownToBeWellFormed = false;
+
+  /**
+   * Creates a new packed doc op, checking that it is well-formed.
+   *
+   * @param builder builder holding the op components
+   */
+  static PackedBufferedDocOp create(Builder builder) {
+    PackedBufferedDocOp op = createUnchecked(builder);
+    if (!DocOpValidator.isWellFormed(null, op)) {
+      // Check again, collecting violations this time.
+      ViolationCollector v = new ViolationCollector();
+      DocOpValidator.isWellFormed(v, op);
+      Preconditions.illegalState("Attempt to build ill-formed operation (" + v + "): " + op);
+    }
+    assert op.knownToBeWellFormed;
+    return op;
+  }
+
+  /**
+   * Creates a new packed doc op without checking for well-formedness.
+   *
+   * @param builder builder holding the op components
+   */
+  static PackedBufferedDocOp createUnchecked(Builder builder) {
+    return builder.build();
+  }
+
+  /** Component types, as indexes into {@link #TYPES}. */
+  private final byte[] types;
+
+  /**
+   * Two entries per component. The first is the retain item count or text
+   * length, and zero for other components. The second is the offset into
+   * {@link #chars} for text, and into {@link #refs} otherwise.
+   */
+  private final int[] sizes;
+
+  /** The text of all character and delete characters components. */
+  private final char[] chars;
+
+  /** Element types, attributes, attribute updates and annotation boundaries. */
+  private final Object[] refs;
+
+  private PackedBufferedDocOp(byte[] types, int[] sizes, char[] chars, Object[] refs) {
+    this.types = types;
+    this.sizes = sizes;
+    this.chars = chars;
+    this.refs = refs;
+  }
+
+  @Override
+  public int size() {
+    return types.length;
+  }
+
+  @Override
+  public DocOpComponentType getType(int i) {
+    return TYPES[types[i]];
+  }
+
+  @Override
+  public void applyComponent(int i, DocOpCursor cursor) {
+    int offset = sizes[i * 2 + 1];
+    switch (types[i]) {
+      case ANNOTATION_BOUNDARY:
+        cursor.annotationBoundary((AnnotationBoundaryMap) refs[offset]);
+        break;
+      case CHARACTERS:
+        cursor.characters(new String(chars, offset, sizes[i * 2]));
+        break;
+      case ELEMENT_START:
+        cursor.elementStart((String) refs[offset], (Attributes) refs[offset + 1]);
+        break;
+      case ELEMENT_END:
+        cursor.elementEnd();
+        break;
+      case RETAIN:
+        cursor.retain(sizes[i * 2]);
+        break;
+      case DELETE_CHARACTERS:
+        cursor.deleteCharacters(new String(chars, offset, sizes[i * 2]));
+        break;
+      case DELETE_ELEMENT_START:
+        cursor.deleteElementStart((String) refs[offset], (Attributes) refs[offset + 1]);
+        break;
+      case DELETE_ELEMENT_END:
+        cursor.deleteElementEnd();
+        break;
+      case REPLACE_ATTRIBUTES:
+        cursor.replaceAttributes((Attributes) refs[offset], (Attributes) refs[offset + 1]);
+        break;
+      case UPDATE_ATTRIBUTES:
+        cursor.updateAttributes((AttributesUpdate) refs[offset]);
+        break;
+      default:
+        throw new AssertionError("Unknown component type code " + types[i]);
+    }
+  }
+
+  @Override
+  public void apply(DocOpCursor cursor) {
+    for (int i = 0; i < types.length; i++) {
+      applyComponent(i, cursor);
+    }
+  }
+
+  @Override
+  public String getCharactersString(int i) {
+    check(i, CHARACTERS);
+    return new String(chars, sizes[i * 2 + 1], sizes[i * 2]);
+  }
+
+  @Override
+  public String getDeleteCharactersString(int i) {
+    check(i, DELETE_CHARACTERS);
+    return new String(chars, sizes[i * 2 + 1], sizes[i * 2]);
+  }
+
+  @Override
+  public Attributes getReplaceAttributesNewAttributes(int i) {
+    check(i, REPLACE_ATTRIBUTES);
+    return (Attributes) refs[sizes[i * 2 + 1] + 1];
+  }
+
+  @Override
+  public Attributes getReplaceAttributesOldAttributes(int i) {
+    check(i, REPLACE_ATTRIBUTES);
+    return (Attributes) refs[sizes[i * 2 + 1]];
+  }
+
+  @Override
+  public int getRetainItemCount(int i) {
+    check(i, RETAIN);
+    return sizes[i * 2];
+  }
+
+  @Override
+  public AnnotationBoundaryMap getAnnotationBoundary(int i) {
+    check(i, ANNOTATION_BOUNDARY);
+    return (AnnotationBoundaryMap) refs[sizes[i * 2 + 1]];
+  }
+
+  @Override
+  public Attributes getDeleteElementStartAttributes(int i) {
+    check(i, DELETE_ELEMENT_START);
+    return (Attributes) refs[sizes[i * 2 + 1] + 1];
+  }
+
+  @Override
+  public String getDeleteElementStartTag(int i) {
+    check(i, DELETE_ELEMENT_START);
+    return (String) refs[sizes[i * 2 + 1]];
+  }
+
+  @Override
+  public Attributes getElementStartAttributes(int i) {
+    check(i, ELEMENT_START);
+    return (Attributes) refs[sizes[i * 2 + 1] + 1];
+  }
+
+  @Override
+  public String getElementStartTag(int i) {
+    check(i, ELEMENT_START);
+    return (String) refs[sizes[i * 2 + 1]];
+  }
+
+  @Override
+  public AttributesUpdate getUpdateAttributesUpdate(int i) {
+    check(i, UPDATE_ATTRIBUTES);
+    return (AttributesUpdate) refs[sizes[i * 2 + 1]];
+  }
+
+  /**
+   * @return true if the op is known to be well-formed.
+   *   false implies nothing in particular.
+   */
+  boolean isKnownToBeWellFormed() {
+    return knownToBeWellFormed;
+  }
+
+  /**
+   * Should only be called by the validator.
+   * Caches the knowledge of well-formedness.
+   */
+  void markWellFormed() {
+    knownToBeWellFormed = true;
+  }
+
+  private void check(int i, byte expectedType) {
+    if (types[i] != expectedType) {
+      Preconditions.illegalArgument("Component " + i + " is not of type ' "
+          + TYPES[expectedType] + "', it is '" + TYPES[types[i]] + "'");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return DocOpUtil.toConciseString(this);
+  }
+}
@@ -83,6 +83,43 @@ public class UncheckedDocOpBuffer implements EvaluatingDocOpCursor<BufferedDocOp
     return BufferedDocOpImpl.createUnchecked(accu.toArray(EMPTY_ARRAY));
   }
 
+  /**
+   * Finish with a well formedness check, returning the operation in a packed
+   * representation that keeps its components in a few flat arrays instead of
+   * one object per component. It takes less memory and is faster to apply
+   * when the operation is long-lived, e.g. held in a history.
+   *
+   * Behaviour is undefined if this buffer is used after calling this method.
+   */
+  public final BufferedDocOp finishPacked() {
+    return PackedBufferedDocOp.create(pack());
+  }
+
+  /**
+   * Same as {@link #finishPacked()}, without the well formedness check.
+   *
+   * @see #finishUnchecked()
+   */
+  public final BufferedDocOp finishPackedUnchecked() {
+    return PackedBufferedDocOp.createUnchecked(pack());
+  }
+
+  /**
+   * Discards all buffered components, so that this buffer can be used again,
+   * including after a call to one of the finish methods.
+   */
+  public final void reset() {
+    accu.clear();
+  }
+
+  private PackedBufferedDocOp.Builder pack() {
+    PackedBufferedDocOp.Builder builder = new PackedBufferedDocOp.Builder();
+    for (DocOpComponent component : accu) {
+      component.apply(builder);
+    }
+    return builder;
+  }
+
   @Override
   public final void annotationBoundary(AnnotationBoundaryMap map) {
     accu.add(new AnnotationBoundary(map));
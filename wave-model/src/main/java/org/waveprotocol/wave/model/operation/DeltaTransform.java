@@ -0,0 +1,285 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.operation;
+
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.document.operation.algorithm.Transformer;
+import org.waveprotocol.wave.model.operation.wave.RemoveParticipant;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletDocumentOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transforms a client delta against a history of concurrent server deltas,
+ * with the same results as transforming every pair of operations with
+ * {@link Transform}.
+ *
+ * Operations on different documents, and document operations against
+ * participant operations, transform to themselves, so such pairs are skipped.
+ * Document operations are transformed in their unwrapped form, and are only
+ * wrapped in a {@link WaveletDocumentOperation} once, at the end.
+ */
+public final class DeltaTransform {
+
+  /**
+   * The result of transforming a client delta against a server history.
+   */
+  public static final class Result {
+
+    private final WaveletDelta clientDelta;
+    private final List<WaveletDelta> serverDeltas;
+
+    /**
+     * Constructs a result.
+     *
+     * @param clientDelta The transformed client delta.
+     * @param serverDeltas The transformed server deltas.
+     */
+    Result(WaveletDelta clientDelta, List<WaveletDelta> serverDeltas) {
+      this.clientDelta = clientDelta;
+      this.serverDeltas = serverDeltas;
+    }
+
+    /**
+     * @return The client delta, transformed to apply after the server deltas.
+     */
+    public WaveletDelta clientDelta() {
+      return clientDelta;
+    }
+
+    /**
+     * @return The server deltas, transformed to apply after the client delta.
+     */
+    public List<WaveletDelta> serverDeltas() {
+      return serverDeltas;
+    }
+  }
+
+  /**
+   * The operations of a client delta, while they are being transformed.
+   */
+  private static final class ClientOps {
+
+    private final ParticipantId author;
+    private final List<WaveletOperation> originals;
+
+    /** The document ids of the document operations, or null for other ops. */
+    private final String[] documentIds;
+
+    /** The transformed document operations, or null for other ops. */
+    private final BufferedDocOp[] documentOps;
+
+    /** The transformed other operations, or null for document operations. */
+    private final WaveletOperation[] otherOps;
+
+    /** The indexes of the document operations, by document id. */
+    private final Map<String, List<Integer>> indexesByDocument =
+        new HashMap<String, List<Integer>>();
+
+    /** The indexes of the other operations. */
+    private final List<Integer> otherIndexes = new ArrayList<Integer>();
+
+    ClientOps(WaveletDelta delta) {
+      author = delta.getAuthor();
+      originals = delta.getOperations();
+      int size = originals.size();
+      documentIds = new String[size];
+      documentOps = new BufferedDocOp[size];
+      otherOps = new WaveletOperation[size];
+      for (int i = 0; i < size; ++i) {
+        WaveletOperation op = originals.get(i);
+        if (op instanceof WaveletDocumentOperation) {
+          WaveletDocumentOperation docOp = (WaveletDocumentOperation) op;
+          documentIds[i] = docOp.getDocumentId();
+          documentOps[i] = docOp.getOperation();
+          List<Integer> indexes = indexesByDocument.get(documentIds[i]);
+          if (indexes == null) {
+            indexes = new ArrayList<Integer>();
+            indexesByDocument.put(documentIds[i], indexes);
+          }
+          indexes.add(i);
+        } else {
+          otherOps[i] = op;
+          otherIndexes.add(i);
+        }
+      }
+    }
+
+    /**
+     * @return Whether the client delta has an operation on the given document.
+     */
+    boolean touches(String documentId) {
+      return indexesByDocument.containsKey(documentId);
+    }
+
+    /**
+     * Transforms the client operations on a document against a server
+     * operation on the same document.
+     *
+     * @return The transformed server operation.
+     */
+    BufferedDocOp transformDocument(String documentId, BufferedDocOp serverOp)
+        throws TransformException {
+      for (int index : indexesByDocument.get(documentId)) {
+        OperationPair<BufferedDocOp> pair = Transformer.transform(documentOps[index], serverOp);
+        documentOps[index] = pair.clientOp();
+        serverOp = pair.serverOp();
+      }
+      return serverOp;
+    }
+
+    /**
+     * Transforms the client operations against a server operation that is not
+     * a document operation.
+     *
+     * @return The transformed server operation.
+     */
+    WaveletOperation transformOther(WaveletOperation serverOp, ParticipantId serverAuthor)
+        throws TransformException {
+      // Transform would throw this for every pair, document operations included.
+      if (!originals.isEmpty() && serverOp instanceof RemoveParticipant
+          && ((RemoveParticipant) serverOp).getParticipantId().equals(author)) {
+        throw new RemovedAuthorException(author.getAddress());
+      }
+      for (int index : otherIndexes) {
+        OperationPair<WaveletOperation> pair =
+            Transform.transform(otherOps[index], author, serverOp, serverAuthor);
+        otherOps[index] = pair.clientOp();
+        serverOp = pair.serverOp();
+      }
+      return serverOp;
+    }
+
+    /**
+     * @return The transformed client delta.
+     */
+    WaveletDelta toDelta() {
+      List<WaveletOperation> ops = new ArrayList<WaveletOperation>(originals.size());
+      for (int i = 0; i < originals.size(); ++i) {
+        if (documentIds[i] == null) {
+          ops.add(otherOps[i]);
+        } else if (documentOps[i] == ((WaveletDocumentOperation) originals.get(i)).getOperation()) {
+          ops.add(originals.get(i));
+        } else {
+          ops.add(new WaveletDocumentOperation(documentIds[i], documentOps[i]));
+        }
+      }
+      return new WaveletDelta(author, ops);
+    }
+  }
+
+  /**
+   * Transforms a client delta against a history of server deltas.
+   *
+   * @param clientDelta The client's delta.
+   * @param serverDeltas The server deltas that are concurrent with the client
+   *     delta, in the order they were applied.
+   * @return The client delta transformed to apply after the server deltas, and
+   *     the server deltas transformed to apply after the client delta.
+   * @throws TransformException if a problem was encountered during the
+   *         transformation.
+   */
+  public static Result transform(WaveletDelta clientDelta, List<WaveletDelta> serverDeltas)
+      throws TransformException {
+    ClientOps client = new ClientOps(clientDelta);
+    List<WaveletDelta> transformedDeltas = new ArrayList<WaveletDelta>(serverDeltas.size());
+    for (WaveletDelta serverDelta : serverDeltas) {
+      List<WaveletOperation> serverOps = serverDelta.getOperations();
+      List<WaveletOperation> transformedOps = new ArrayList<WaveletOperation>(serverOps.size());
+      boolean changed = false;
+      for (WaveletOperation serverOp : serverOps) {
+        WaveletOperation transformedOp = serverOp;
+        if (serverOp instanceof WaveletDocumentOperation) {
+          WaveletDocumentOperation docOp = (WaveletDocumentOperation) serverOp;
+          String documentId = docOp.getDocumentId();
+          if (client.touches(documentId)) {
+            transformedOp = new WaveletDocumentOperation(documentId,
+                client.transformDocument(documentId, docOp.getOperation()));
+          }
+        } else {
+          transformedOp = client.transformOther(serverOp, serverDelta.getAuthor());
+        }
+        changed |= transformedOp != serverOp;
+        transformedOps.add(transformedOp);
+      }
+      transformedDeltas.add(
+          changed ? new WaveletDelta(serverDelta.getAuthor(), transformedOps) : serverDelta);
+    }
+    return new Result(client.toDelta(), transformedDeltas);
+  }
+
+  /**
+   * Transforms a client delta against a history of server deltas, when the
+   * transformed history is not needed. The server operations on each document
+   * that the client delta touches are composed first, so each client
+   * operation is transformed once per document rather than once per server
+   * operation.
+   *
+   * @param clientDelta The client's delta.
+   * @param serverDeltas The server deltas that are concurrent with the client
+   *     delta, in the order they were applied.
+   * @return The client delta transformed to apply after the server deltas.
+   * @throws TransformException if a problem was encountered during the
+   *         transformation.
+   */
+  public static WaveletDelta transformClientDelta(WaveletDelta clientDelta,
+      List<WaveletDelta> serverDeltas) throws TransformException {
+    ClientOps client = new ClientOps(clientDelta);
+
+    // Document operations commute with the other operations, so the server
+    // operations on each document can be gathered, and the others transformed
+    // in order.
+    Map<String, List<BufferedDocOp>> runs = new LinkedHashMap<String, List<BufferedDocOp>>();
+    for (WaveletDelta serverDelta : serverDeltas) {
+      for (WaveletOperation serverOp : serverDelta.getOperations()) {
+        if (serverOp instanceof WaveletDocumentOperation) {
+          WaveletDocumentOperation docOp = (WaveletDocumentOperation) serverOp;
+          String documentId = docOp.getDocumentId();
+          if (client.touches(documentId)) {
+            List<BufferedDocOp> run = runs.get(documentId);
+            if (run == null) {
+              run = new ArrayList<BufferedDocOp>();
+              runs.put(documentId, run);
+            }
+            run.add(docOp.getOperation());
+          }
+        } else {
+          client.transformOther(serverOp, serverDelta.getAuthor());
+        }
+      }
+    }
+
+    for (Map.Entry<String, List<BufferedDocOp>> entry : runs.entrySet()) {
+      List<BufferedDocOp> run = entry.getValue();
+      BufferedDocOp composed = run.size() == 1 ? run.get(0) : Composer.compose(run);
+      client.transformDocument(entry.getKey(), composed);
+    }
+    return client.toDelta();
+  }
+
+  private DeltaTransform() {
+  }
+}
@@ -99,6 +99,9 @@ public class OpComparators {
       if (b == null) {
         return false;
       }
+      if (a == b) {
+        return true;
+      }
 
       if (a.size() != b.size()) {
         return false;
@@ -159,6 +162,10 @@ public class OpComparators {
     }
 
   private boolean equal(AnnotationBoundaryMap a, AnnotationBoundaryMap b) {
+      if (a == b) {
+        // Interned maps are commonly shared.
+        return true;
+      }
       int changeSize = a.changeSize();
       if (changeSize != b.changeSize()) {
         return false;
@@ -207,10 +214,13 @@ public class OpComparators {
     }
 
     private boolean equal(Map<String, String> a, Map<String, String> b) {
-      return a.equals(Preconditions.checkNotNull(b, "b"));
+      return a == b || a.equals(Preconditions.checkNotNull(b, "b"));
     }
 
     private boolean equal(AttributesUpdate a, AttributesUpdate b) {
+      if (a == b) {
+        return true;
+      }
       int changeSize = a.changeSize();
       if (changeSize != b.changeSize()) {
         return false;
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.wave.model.operation.wave;
+
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBinaryCodec;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary format for {@link WaveletDelta}s, built on
+ * {@link DocOpBinaryCodec}.
+ *
+ * A delta is its author, the number of operations, and the operations, each a
+ * tag followed by its arguments. Document ids and participant addresses go
+ * through the string table of the underlying writer, so a log of deltas
+ * written to one stream spells out each of them only once.
+ */
+public final class WaveletDeltaBinaryCodec {
+
+  private static final int DOCUMENT_OPERATION = 1;
+  private static final int ADD_PARTICIPANT = 2;
+  private static final int REMOVE_PARTICIPANT = 3;
+  private static final int NO_OP = 4;
+
+  /**
+   * Writes a delta.
+   *
+   * @param writer the writer to write to
+   * @param delta the delta
+   */
+  public static void writeDelta(DocOpBinaryCodec.Writer writer, WaveletDelta delta)
+      throws IOException {
+    writer.writeInterned(delta.getAuthor().getAddress());
+    List<WaveletOperation> ops = delta.getOperations();
+    writer.writeVarint(ops.size());
+    for (WaveletOperation op : ops) {
+      if (op instanceof WaveletDocumentOperation) {
+        WaveletDocumentOperation documentOp = (WaveletDocumentOperation) op;
+        writer.writeVarint(DOCUMENT_OPERATION);
+        writer.writeInterned(documentOp.getDocumentId());
+        writer.writeDocOp(documentOp.getOperation());
+      } else if (op instanceof AddParticipant) {
+        writer.writeVarint(ADD_PARTICIPANT);
+        writer.writeInterned(((AddParticipant) op).getParticipantId().getAddress());
+      } else if (op instanceof RemoveParticipant) {
+        writer.writeVarint(REMOVE_PARTICIPANT);
+        writer.writeInterned(((RemoveParticipant) op).getParticipantId().getAddress());
+      } else if (op instanceof NoOp) {
+        writer.writeVarint(NO_OP);
+      } else {
+        throw new IllegalArgumentException("Unsupported wavelet operation: " + op);
+      }
+    }
+  }
+
+  /**
+   * Reads a delta written by {@link #writeDelta}.
+   *
+   * @param reader the reader to read from
+   * @return the delta
+   * @throws IOException if the stream is not a valid encoding
+   */
+  public static WaveletDelta readDelta(DocOpBinaryCodec.Reader reader) throws IOException {
+    ParticipantId author = new ParticipantId(reader.readInterned());
+    int size = reader.readVarint();
+    // The size comes from the stream, so it does not size the list.
+    List<WaveletOperation> ops = new ArrayList<WaveletOperation>();
+    for (int i = 0; i < size; i++) {
+      int tag = reader.readVarint();
+      switch (tag) {
+        case DOCUMENT_OPERATION:
+          String documentId = reader.readInterned();
+          ops.add(new WaveletDocumentOperation(documentId, reader.readDocOp()));
+          break;
+        case ADD_PARTICIPANT:
+          ops.add(new AddParticipant(new ParticipantId(reader.readInterned())));
+          break;
+        case REMOVE_PARTICIPANT:
+          ops.add(new RemoveParticipant(new ParticipantId(reader.readInterned())));
+          break;
+        case NO_OP:
+          ops.add(NoOp.INSTANCE);
+          break;
+        default:
+          throw new IOException("Unknown wavelet operation tag: " + tag);
+      }
+    }
+    return new WaveletDelta(author, ops);
+  }
+
+  /**
+   * Encodes a single delta.
+   *
+   * @param delta the delta
+   * @return the encoded delta, including the format version
+   */
+  public static byte[] encode(WaveletDelta delta) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      writeDelta(new DocOpBinaryCodec.Writer(out), delta);
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to memory failed", e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a single delta written by {@link #encode(WaveletDelta)}.
+   *
+   * @param bytes the encoded delta
+   * @return the delta
+   * @throws IOException if the bytes are not a valid encoding
+   */
+  public static WaveletDelta decode(byte[] bytes) throws IOException {
+    return readDelta(new DocOpBinaryCodec.Reader(new ByteArrayInputStream(bytes)));
+  }
+
+  private WaveletDeltaBinaryCodec() {
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.wave.data.impl;
+
+import org.waveprotocol.wave.model.document.indexed.AnnotationTree;
+import org.waveprotocol.wave.model.document.indexed.IndexedDocProvider;
+import org.waveprotocol.wave.model.document.indexed.IndexedDocumentImpl;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.document.raw.impl.Element;
+import org.waveprotocol.wave.model.document.raw.impl.Node;
+import org.waveprotocol.wave.model.document.raw.impl.RawDocumentImpl;
+import org.waveprotocol.wave.model.document.raw.impl.Text;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link WaveletData} that keeps its documents as indexed documents, and
+ * applies each document operation to them in place.
+ *
+ * Unlike {@link WaveletDataImpl}, which composes the whole document with every
+ * operation, a modification here only costs time in the size of the
+ * operation. The {@link BufferedDocOp} form of a document is only built when
+ * it is read through {@link #getDocuments()}, and it is cached until the
+ * document is modified again.
+ *
+ * Every operation is validated against its document before it is applied, so
+ * a failed modification leaves the document unchanged. This is stricter than
+ * {@link WaveletDataImpl}, which only requires that the operation composes
+ * with the document: an operation that composes but is not valid against the
+ * document, such as one with mismatched annotation old values,
+ * is accepted there and rejected here.
+ */
+public class IndexedWaveletDataImpl implements WaveletData {
+
+  /** Id of the wave to which this wavelet belongs. */
+  private final WaveId waveId;
+
+  /** The identifier of this wavelet. */
+  private final WaveletId waveletId;
+
+  /** The list of participants in this wavelet. */
+  private final List<ParticipantId> participants;
+
+  /** The non-empty documents in this wave, indexed by their identifier. */
+  private final Map<String, IndexedDocumentImpl<Node, Element, Text, ?>> documents;
+
+  /** The cached snapshots of the documents that have not changed since. */
+  private final Map<String, BufferedDocOp> snapshots;
+
+  /** The read-only view of the document snapshots. */
+  private final Map<String, BufferedDocOp> documentsView;
+
+  /**
+   * Creates a new wavelet.
+   *
+   * @param waveId            id of the wave containing the wavelet
+   * @param id                id of the wavelet
+   * @throws IllegalArgumentException if the waveletName is bad.
+   */
+  public IndexedWaveletDataImpl(WaveId waveId, WaveletId id) {
+    if (id == null) {
+      throw new IllegalArgumentException("id cannot be null");
+    } else if (waveId == null) {
+      throw new IllegalArgumentException("wave id cannot be null");
+    }
+
+    this.waveletId = id;
+    this.waveId = waveId;
+    this.participants = new ArrayList<ParticipantId>();
+    this.documents = new HashMap<String, IndexedDocumentImpl<Node, Element, Text, ?>>();
+    this.snapshots = new HashMap<String, BufferedDocOp>();
+    this.documentsView = Collections.unmodifiableMap(new SnapshotMap());
+  }
+
+  /**
+   * Returns the snapshot of a document, building it if it is not cached.
+   *
+   * @param documentId the id of the document.
+   * @return the snapshot, or {@code null} if the document is empty.
+   */
+  private BufferedDocOp getSnapshot(String documentId) {
+    BufferedDocOp snapshot = snapshots.get(documentId);
+    if (snapshot == null) {
+      IndexedDocumentImpl<Node, Element, Text, ?> doc = documents.get(documentId);
+      if (doc == null) {
+        return null;
+      }
+      snapshot = DocOpUtil.buffer(doc.asOperation());
+      snapshots.put(documentId, snapshot);
+    }
+    return snapshot;
+  }
+
+  @Override
+  public Map<String, BufferedDocOp> getDocuments() {
+    return documentsView;
+  }
+
+  @Override
+  public List<ParticipantId> getParticipants() {
+    return Collections.unmodifiableList(participants);
+  }
+
+  @Override
+  public WaveletName getWaveletName() {
+    return WaveletName.of(waveId, waveletId);
+  }
+
+  @Override
+  public boolean addParticipant(ParticipantId p) {
+    return (participants.contains(p) ? false : participants.add(p));
+  }
+
+  @Override
+  public boolean removeParticipant(ParticipantId p) {
+    return participants.remove(p);
+  }
+
+  @Override
+  public boolean modifyDocument(String documentId, BufferedDocOp operation)
+      throws OperationException {
+    IndexedDocumentImpl<Node, Element, Text, ?> doc = documents.get(documentId);
+    if (doc == null) {
+      doc = new IndexedDocumentImpl<Node, Element, Text, Void>(
+          RawDocumentImpl.PROVIDER.create("doc", Attributes.EMPTY_MAP),
+          new AnnotationTree<Object>(
+              IndexedDocProvider.ONE_OBJECT, IndexedDocProvider.ANOTHER_OBJECT, null),
+          DocumentSchema.NO_SCHEMA_CONSTRAINTS);
+    }
+
+    // Validate regardless of IndexedDocumentImpl.performValidation, so the
+    // document is left unchanged if the operation fails.
+    doc.consume(operation, true);
+    snapshots.remove(documentId);
+    if (doc.size() == 0) {
+      documents.remove(documentId);
+    } else {
+      documents.put(documentId, doc);
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "Wavelet State = " + waveId + " " + waveletId + " " + documents;
+  }
+
+  /**
+   * A map view of the document snapshots, which builds each snapshot when it
+   * is first read.
+   */
+  private class SnapshotMap extends AbstractMap<String, BufferedDocOp> {
+
+    @Override
+    public BufferedDocOp get(Object key) {
+      return key instanceof String ? getSnapshot((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return documents.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return documents.size();
+    }
+
+    @Override
+    public Set<Entry<String, BufferedDocOp>> entrySet() {
+      return new AbstractSet<Entry<String, BufferedDocOp>>() {
+        @Override
+        public Iterator<Entry<String, BufferedDocOp>> iterator() {
+          final Iterator<String> ids = documents.keySet().iterator();
+          return new Iterator<Entry<String, BufferedDocOp>>() {
+            @Override
+            public boolean hasNext() {
+              return ids.hasNext();
+            }
+
+            @Override
+            public Entry<String, BufferedDocOp> next() {
+              String id = ids.next();
+              return new SnapshotEntry(id, getSnapshot(id));
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return documents.size();
+        }
+      };
+    }
+  }
+
+  /**
+   * An entry of {@link SnapshotMap}.
+   */
+  private static final class SnapshotEntry implements Map.Entry<String, BufferedDocOp> {
+    private final String documentId;
+    private final BufferedDocOp snapshot;
+
+    SnapshotEntry(String documentId, BufferedDocOp snapshot) {
+      this.documentId = documentId;
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public String getKey() {
+      return documentId;
+    }
+
+    @Override
+    public BufferedDocOp getValue() {
+      return snapshot;
+    }
+
+    @Override
+    public BufferedDocOp setValue(BufferedDocOp value) {
+      throw new UnsupportedOperationException("Attempt to modify an immutable map entry.");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+      return documentId.equals(entry.getKey())
+          && (snapshot == null ? entry.getValue() == null : snapshot.equals(entry.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      return documentId.hashCode() ^ (snapshot == null ? 0 : snapshot.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return documentId + "=" + snapshot;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.indexed;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.RangedAnnotation;
+import org.waveprotocol.wave.model.document.ReadableAnnotationSet;
+import org.waveprotocol.wave.model.util.ReadableStringMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link AnnotationSetSnapshot}.
+ *
+ */
+public class AnnotationSetSnapshotTest extends TestCase {
+
+  private static final String[] KEYS = {"a", "b", "c"};
+  private static final String[] VALUES = {null, "1", "2"};
+
+  private AnnotationTree<Object> tree;
+  private Random random;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tree = new AnnotationTree<Object>("x", "y", null);
+    random = new Random(7);
+    tree.begin(false);
+    tree.insert(200);
+    tree.finish();
+    for (int i = 0; i < 100; i++) {
+      randomChange();
+    }
+  }
+
+  public void testMatchesTree() {
+    checkMatchesTree(tree.snapshot());
+  }
+
+  public void testUnaffectedByLaterChanges() {
+    AnnotationSetSnapshot<Object> snapshot = tree.snapshot();
+    List<String> before = rangedAnnotations(snapshot);
+    for (int i = 0; i < 50; i++) {
+      randomChange();
+    }
+    assertEquals(before, rangedAnnotations(snapshot));
+    checkMatchesTree(tree.snapshot());
+  }
+
+  public void testReusedUntilChanged() {
+    AnnotationSetSnapshot<Object> snapshot = tree.snapshot();
+    assertSame(snapshot, tree.snapshot());
+    randomChange();
+    assertNotSame(snapshot, tree.snapshot());
+  }
+
+  public void testNotAllowedWhileChanging() {
+    tree.begin(false);
+    try {
+      tree.snapshot();
+      fail("Should have failed since the tree is being changed.");
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    tree.skip(tree.size());
+    tree.finish();
+  }
+
+  public void testEmptySet() {
+    AnnotationSetSnapshot<Object> snapshot =
+        new AnnotationTree<Object>("x", "y", null).snapshot();
+    assertEquals(0, snapshot.size());
+    assertEquals(-1, snapshot.firstAnnotationChange(0, 0, "a", "1"));
+    assertEquals(-1, snapshot.lastAnnotationChange(0, 0, "a", "1"));
+    assertFalse(snapshot.rangedAnnotations(0, 0, null).iterator().hasNext());
+  }
+
+  /** Annotates, inserts or deletes a random range of the tree. */
+  private void randomChange() {
+    int size = tree.size();
+    int start = random.nextInt(size);
+    int length = 1 + random.nextInt(Math.min(30, size - start));
+    tree.begin(false);
+    if (start > 0) {
+      tree.skip(start);
+    }
+    int remaining;
+    switch (random.nextInt(4)) {
+      case 0:
+        tree.insert(length);
+        remaining = size - start;
+        break;
+      case 1:
+        if (length < size) {
+          tree.delete(length);
+          remaining = size - start - length;
+          break;
+        }
+        // Fall through rather than deleting everything.
+      default:
+        String key = KEYS[random.nextInt(KEYS.length)];
+        tree.startAnnotation(key, VALUES[random.nextInt(VALUES.length)]);
+        tree.skip(length);
+        tree.endAnnotation(key);
+        remaining = size - start - length;
+        break;
+    }
+    if (remaining > 0) {
+      tree.skip(remaining);
+    }
+    tree.finish();
+  }
+
+  private void checkMatchesTree(AnnotationSetSnapshot<Object> snapshot) {
+    int size = tree.size();
+    assertEquals(size, snapshot.size());
+    for (int location = 0; location < size; location++) {
+      for (String key : KEYS) {
+        assertEquals(tree.getAnnotation(location, key), snapshot.getAnnotation(location, key));
+      }
+      assertEquals(annotationsAt(tree, location), annotationsAt(snapshot, location));
+    }
+    for (int i = 0; i < 500; i++) {
+      int start = random.nextInt(size + 1);
+      int end = start + random.nextInt(size - start + 1);
+      String key = KEYS[random.nextInt(KEYS.length)];
+      String value = VALUES[random.nextInt(VALUES.length)];
+      assertEquals(tree.firstAnnotationChange(start, end, key, value),
+          snapshot.firstAnnotationChange(start, end, key, value));
+      assertEquals(tree.lastAnnotationChange(start, end, key, value),
+          snapshot.lastAnnotationChange(start, end, key, value));
+    }
+    assertEquals(rangedAnnotations(tree), rangedAnnotations(snapshot));
+  }
+
+  private static Map<String, Object> annotationsAt(ReadableAnnotationSet<Object> set,
+      int location) {
+    final Map<String, Object> annotations = new HashMap<String, Object>();
+    set.forEachAnnotationAt(location, new ReadableStringMap.ProcV<Object>() {
+      @Override
+      public void apply(String key, Object value) {
+        if (value != null) {
+          annotations.put(key, value);
+        }
+      }
+    });
+    return annotations;
+  }
+
+  private static List<String> rangedAnnotations(ReadableAnnotationSet<Object> set) {
+    List<String> result = new ArrayList<String>();
+    for (RangedAnnotation<Object> annotation : set.rangedAnnotations(0, set.size(), null)) {
+      if (annotation.value() != null) {
+        result.add(annotation.key() + "=" + annotation.value()
+            + "@[" + annotation.start() + "," + annotation.end() + ")");
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.indexed;
+
+import org.waveprotocol.wave.model.document.AnnotationInterval;
+import org.waveprotocol.wave.model.document.util.AnnotationIntervalImpl;
+import org.waveprotocol.wave.model.document.util.AnnotationIntervalIterableTest;
+import org.waveprotocol.wave.model.document.util.GenericAnnotationIntervalIterable;
+import org.waveprotocol.wave.model.util.ReadableStringSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link AnnotationTree#annotationIntervals}.
+ *
+ */
+public class AnnotationTreeIntervalIterableTest
+    extends AnnotationIntervalIterableTest<AnnotationTree<Object>> {
+
+  private static final String[] KEYS = {"a", "b", "c", "d", "e"};
+  private static final String[] VALUES = {null, "1", "2"};
+
+  @Override
+  protected Iterable<AnnotationInterval<Object>> getIterable(AnnotationTree<Object> set, int start,
+      int end, ReadableStringSet keys) {
+    return set.annotationIntervals(start, end, keys);
+  }
+
+  @Override
+  protected AnnotationTree<Object> getNewSet() {
+    return new AnnotationTree<Object>("a", "b", null);
+  }
+
+  public void testMatchesGenericIterable() {
+    Random random = new Random(3);
+    AnnotationTree<Object> tree = getNewSet();
+    tree.begin(false);
+    tree.insert(300);
+    tree.finish();
+    ReadableStringSet[] keySets = {
+        strs(), strs("a"), strs("a", "c"), strs("b", "d", "e", "unknown"), strs(KEYS)};
+    for (int i = 0; i < 200; i++) {
+      int start = random.nextInt(tree.size());
+      int end = start + 1 + random.nextInt(Math.min(40, tree.size() - start));
+      String key = KEYS[random.nextInt(KEYS.length)];
+      tree.begin(false);
+      if (start > 0) {
+        tree.skip(start);
+      }
+      tree.startAnnotation(key, VALUES[random.nextInt(VALUES.length)]);
+      tree.skip(end - start);
+      tree.endAnnotation(key);
+      tree.finish();
+
+      for (int j = 0; j < 5; j++) {
+        int queryStart = random.nextInt(tree.size() + 1);
+        int queryEnd = queryStart + random.nextInt(tree.size() - queryStart + 1);
+        ReadableStringSet keys = keySets[random.nextInt(keySets.length)];
+        expectIntervals(tree.annotationIntervals(queryStart, queryEnd, keys),
+            copy(new GenericAnnotationIntervalIterable<Object>(tree, queryStart, queryEnd, keys)));
+      }
+    }
+    expectIntervals(tree.annotationIntervals(0, tree.size(), null),
+        copy(new GenericAnnotationIntervalIterable<Object>(tree, 0, tree.size(),
+            tree.knownKeys())));
+  }
+
+  private static List<AnnotationInterval<Object>> copy(
+      Iterable<AnnotationInterval<Object>> intervals) {
+    List<AnnotationInterval<Object>> copies = new ArrayList<AnnotationInterval<Object>>();
+    for (AnnotationInterval<Object> interval : intervals) {
+      copies.add(new AnnotationIntervalImpl<Object>(interval));
+    }
+    return copies;
+  }
+}
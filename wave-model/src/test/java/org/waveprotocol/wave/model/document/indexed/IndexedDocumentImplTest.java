@@ -9,6 +9,7 @@ import org.waveprotocol.wave.model.document.AnnotationInterval;
 import org.waveprotocol.wave.model.document.DocumentTestCases;
 import org.waveprotocol.wave.model.document.MutableDocument;
 import org.waveprotocol.wave.model.document.RangedAnnotation;
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
 import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMapBuilder;
 import org.waveprotocol.wave.model.document.operation.Attributes;
 import org.waveprotocol.wave.model.document.operation.Automatons;
@@ -18,11 +19,14 @@ import org.waveprotocol.wave.model.document.operation.Nindo;
 import org.waveprotocol.wave.model.document.operation.algorithm.DocOpInverter;
 import org.waveprotocol.wave.model.document.operation.automaton.DocOpAutomaton.ViolationCollector;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
 import org.waveprotocol.wave.model.document.operation.impl.AttributesImpl;
 import org.waveprotocol.wave.model.document.operation.impl.DocInitializationBuilder;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpValidator;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpValidatorTest;
 import org.waveprotocol.wave.model.document.raw.TextNodeOrganiser;
 import org.waveprotocol.wave.model.document.raw.impl.Element;
 import org.waveprotocol.wave.model.document.raw.impl.Node;
@@ -34,12 +38,17 @@ import org.waveprotocol.wave.model.document.util.ContextProviders.TestDocumentCo
 import org.waveprotocol.wave.model.document.util.DocProviders;
 import org.waveprotocol.wave.model.document.util.LocalDocument;
 import org.waveprotocol.wave.model.document.util.XmlStringBuilder;
+import org.waveprotocol.wave.model.operation.OpComparators;
 import org.waveprotocol.wave.model.operation.OperationException;
 import org.waveprotocol.wave.model.operation.OperationRuntimeException;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Tests for IndexedDocumentImpl.
@@ -1386,6 +1395,103 @@ public class IndexedDocumentImplTest extends TestCase {
     }
   }
 
+  public void testConsumeAllMatchesSequentialConsume() throws OperationException {
+    DocInitialization init = new DocInitializationBuilder()
+        .elementStart("p", Attributes.EMPTY_MAP).characters("abc").elementEnd()
+        .build();
+    BootstrapDocument bootstrap = new BootstrapDocument();
+    bootstrap.consume(init);
+    RandomProviderImpl random = new RandomProviderImpl(new Random(3));
+    List<BufferedDocOp> history = new ArrayList<BufferedDocOp>();
+    for (int i = 0; i < 100; i++) {
+      BufferedDocOp op = DocOpUtil.buffer(RandomDocOpGenerator.generate(
+          random, new RandomDocOpGenerator.Parameters(), bootstrap));
+      bootstrap.consume(op);
+      history.add(op);
+    }
+
+    IndexedDocumentImpl<Node, Element, Text, ?> sequential = createAnnotatedDocument(init);
+    for (BufferedDocOp op : history) {
+      sequential.consume(op);
+    }
+    IndexedDocumentImpl<Node, Element, Text, ?> batched = createAnnotatedDocument(init);
+    batched.consumeAll(history);
+
+    assertTrue(OpComparators.equalDocuments(sequential.asOperation(), batched.asOperation()));
+  }
+
+  public void testConsumeAllAppliesNothingOnFailure() throws OperationException {
+    IndexedDocumentImpl<Node, Element, Text, ?> doc = doParseDocument("<p>abc</p>");
+    String before = doc.toXmlString();
+    try {
+      doc.consumeAll(Arrays.asList(
+          new DocOpBuilder().retain(1).characters("x").retain(4).build(),
+          new DocOpBuilder().retain(3).build()));
+      fail("Should have failed since the second operation does not match the document size.");
+    } catch (OperationException expected) {
+      // Expected.
+    }
+    assertEquals(before, doc.toXmlString());
+  }
+
+  public void testConsumeAllValidatesEachOperationAgainstSchema() throws OperationException {
+    // The first operation inserts an element the schema forbids, and the
+    // second deletes it again, so only their composition is valid.
+    List<BufferedDocOp> ops = Arrays.asList(
+        new DocOpBuilder().retain(3).elementStart("p", Attributes.EMPTY_MAP).elementEnd()
+            .retain(1).build(),
+        new DocOpBuilder().retain(3).deleteElementStart("p", Attributes.EMPTY_MAP)
+            .deleteElementEnd().retain(1).build());
+    IndexedDocumentImpl<Node, Element, Text, ?> doc =
+        new IndexedDocumentImpl<Node, Element, Text, Void>(
+            RawDocumentImpl.PROVIDER.parse("<doc><body><line></line></body></doc>"),
+            new AnnotationTree<Object>("a", "b", null), DocOpValidatorTest.TEST_CONSTRAINTS);
+    try {
+      doc.consumeAll(ops, true);
+      fail("Should have failed since the first operation violates the schema.");
+    } catch (OperationException expected) {
+      // Expected.
+    }
+    // Without validation the operations only need to compose.
+    doc.consumeAll(ops, false);
+    assertEquals("<body><line/></body>", doc.toXmlString());
+  }
+
+  public void testConsumeAllValidatesEachOperationsOldValues() throws OperationException {
+    // The second operation claims a wrong old value for the annotation the
+    // first one sets.
+    List<BufferedDocOp> ops = Arrays.asList(
+        new DocOpBuilder().retain(1)
+            .annotationBoundary(new AnnotationBoundaryMapBuilder().change("a", null, "1").build())
+            .retain(3)
+            .annotationBoundary(new AnnotationBoundaryMapBuilder().end("a").build())
+            .retain(1).build(),
+        new DocOpBuilder().retain(1)
+            .annotationBoundary(new AnnotationBoundaryMapBuilder().change("a", "2", "3").build())
+            .retain(3)
+            .annotationBoundary(new AnnotationBoundaryMapBuilder().end("a").build())
+            .retain(1).build());
+    IndexedDocumentImpl<Node, Element, Text, ?> doc = doParseDocument("<p>abc</p>");
+    String before = doc.toXmlString();
+    try {
+      doc.consumeAll(ops, true);
+      fail("Should have failed since the second operation has a wrong old value.");
+    } catch (OperationException expected) {
+      // Expected.
+    }
+    assertEquals(before, doc.toXmlString());
+  }
+
+  private static IndexedDocumentImpl<Node, Element, Text, ?> createAnnotatedDocument(
+      DocInitialization init) throws OperationException {
+    IndexedDocumentImpl<Node, Element, Text, ?> doc =
+        new IndexedDocumentImpl<Node, Element, Text, Void>(
+            RawDocumentImpl.PROVIDER.create("doc", Attributes.EMPTY_MAP),
+            new AnnotationTree<Object>("a", "b", null), DocumentSchema.NO_SCHEMA_CONSTRAINTS);
+    doc.consume(init);
+    return doc;
+  }
+
   public void testSplitTextNeverReturnsSibling() {
     TestDocumentContext<Node, Element, Text> cxt = ContextProviders.createTestPojoContext(
         DocProviders.POJO.parse("ab").asOperation(),
@@ -19,6 +19,7 @@ import org.waveprotocol.wave.model.document.operation.Nindo;
 import org.waveprotocol.wave.model.document.operation.Nindo.Builder;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
 import org.waveprotocol.wave.model.document.operation.impl.AttributesImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
 import org.waveprotocol.wave.model.document.raw.impl.Element;
 import org.waveprotocol.wave.model.document.raw.impl.Node;
 import org.waveprotocol.wave.model.document.raw.impl.RawDocumentImpl;
@@ -119,6 +120,29 @@ public class ObservableIndexedDocumentTest extends TestCase {
     deletions.clear();
   }
 
+  public void testConsumeAllNotifiesOnce() throws OperationException {
+    final List<EventBundle<Node, Element, Text>> bundles =
+        new ArrayList<EventBundle<Node, Element, Text>>();
+    ObservableIndexedDocument<Node, Element, Text, Void> observed =
+        new ObservableIndexedDocument<Node, Element, Text, Void>(
+            new DocumentHandler<Node, Element, Text>() {
+              @Override
+              public void onDocumentEvents(EventBundle<Node, Element, Text> eventBundle) {
+                bundles.add(eventBundle);
+              }
+            },
+            DocProviders.ROJO.parse("<d><p>abc</p></d>"), null,
+            DocumentSchema.NO_SCHEMA_CONSTRAINTS);
+
+    observed.consumeAll(Arrays.asList(
+        new DocOpBuilder().retain(1).characters("x").retain(4).build(),
+        new DocOpBuilder().retain(2).characters("y").retain(4).build()));
+
+    assertEquals(1, bundles.size());
+    assertEquals(Arrays.asList(ti(1, "xy")), bundles.get(0).getEventComponents());
+    assertEquals("<p>xyabc</p>", observed.toXmlString());
+  }
+
   private <E> List<E> elements(ReadableDocument<? super E, E, ?> doc) {
     return elementsInner(doc, doc.getDocumentElement());
   }
@@ -0,0 +1,123 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.indexed;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.util.ReadableStringMap;
+import org.waveprotocol.wave.model.util.StringMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link SmallStringMap}.
+ *
+ */
+public class SmallStringMapTest extends TestCase {
+
+  public void testEmpty() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    assertTrue(map.isEmpty());
+    assertEquals(0, map.countEntries());
+    assertNull(map.someKey());
+    assertNull(map.get("a"));
+    assertEquals(Integer.valueOf(5), map.get("a", 5));
+    assertFalse(map.containsKey("a"));
+    assertTrue(map.keySet().isEmpty());
+  }
+
+  public void testPutReplaceAndRemove() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    map.put("a", 1);
+    map.put("b", 2);
+    map.put("a", 3);
+    assertEquals(2, map.countEntries());
+    assertEquals(Integer.valueOf(3), map.getExisting("a"));
+    assertEquals(Integer.valueOf(2), map.get("b"));
+    map.remove("a");
+    map.remove("c");
+    assertEquals(singleton("b", 2), toMap(map));
+    map.remove("b");
+    assertTrue(map.isEmpty());
+  }
+
+  public void testNullValues() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    map.put("a", null);
+    assertTrue(map.containsKey("a"));
+    assertNull(map.get("a", 5));
+  }
+
+  public void testGrowsPastInlineLimit() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    Map<String, Integer> expected = new HashMap<String, Integer>();
+    for (int i = 0; i < SmallStringMap.MAX_INLINE_ENTRIES * 2; i++) {
+      map.put("k" + i, i);
+      expected.put("k" + i, i);
+      assertEquals(expected, toMap(map));
+      assertTrue(map.keySet().contains("k" + i));
+    }
+    for (int i = 0; i < SmallStringMap.MAX_INLINE_ENTRIES * 2; i += 2) {
+      map.remove("k" + i);
+      expected.remove("k" + i);
+    }
+    assertEquals(expected, toMap(map));
+  }
+
+  public void testFilter() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    for (int i = 0; i < 5; i++) {
+      map.put("k" + i, i);
+    }
+    map.filter(new StringMap.EntryFilter<Integer>() {
+      @Override
+      public boolean apply(String key, Integer value) {
+        return value == 3;
+      }
+    });
+    assertEquals(singleton("k3", 3), toMap(map));
+  }
+
+  public void testPutAll() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    map.put("a", 1);
+    StringMap<Integer> other = new SmallStringMap<Integer>();
+    other.put("a", 2);
+    other.put("b", 3);
+    map.putAll(other);
+    Map<String, Integer> expected = new HashMap<String, Integer>();
+    expected.put("a", 2);
+    expected.put("b", 3);
+    assertEquals(expected, toMap(map));
+  }
+
+  public void testGetExistingFailsForMissingKey() {
+    StringMap<Integer> map = new SmallStringMap<Integer>();
+    map.put("a", 1);
+    try {
+      map.getExisting("b");
+      fail("Should have failed since the key is not in the map.");
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+  }
+
+  private static Map<String, Integer> singleton(String key, Integer value) {
+    Map<String, Integer> map = new HashMap<String, Integer>();
+    map.put(key, value);
+    return map;
+  }
+
+  private static Map<String, Integer> toMap(ReadableStringMap<Integer> map) {
+    final Map<String, Integer> result = new HashMap<String, Integer>();
+    map.each(new ReadableStringMap.ProcV<Integer>() {
+      @Override
+      public void apply(String key, Integer value) {
+        result.put(key, value);
+      }
+    });
+    assertEquals(result.size(), map.countEntries());
+    return result;
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.document.operation.automaton.AutomatonDocument;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.document.operation.impl.AttributesImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocInitializationBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link OverlayDocument}.
+ *
+ */
+public class OverlayDocumentTest extends TestCase {
+
+  public void testInsertedItems() throws OperationException {
+    BootstrapDocument base = document(new DocInitializationBuilder()
+        .elementStart("p", Attributes.EMPTY_MAP)
+        .annotationBoundary(new AnnotationBoundaryMapBuilder().change("a", null, "1").build())
+        .characters("ab")
+        .annotationBoundary(new AnnotationBoundaryMapBuilder().end("a").build())
+        .elementEnd()
+        .build());
+    DocOp op = new DocOpBuilder()
+        .retain(2)
+        .elementStart("q", new AttributesImpl("x", "1"))
+        .characters("c")
+        .elementEnd()
+        .retain(2)
+        .build();
+
+    AutomatonDocument overlay = Automatons.afterOperation(base, op);
+    assertEquals(7, overlay.length());
+    assertEquals("p", overlay.elementStartingAt(0));
+    assertEquals('a', overlay.charAt(1));
+    assertEquals("q", overlay.elementStartingAt(2));
+    assertEquals(new AttributesImpl("x", "1"), overlay.attributesAt(2));
+    assertEquals('c', overlay.charAt(3));
+    assertEquals("q", overlay.nthEnclosingElementTag(3, 0));
+    assertEquals("p", overlay.nthEnclosingElementTag(3, 1));
+    assertEquals("q", overlay.elementEndingAt(4));
+    assertEquals('b', overlay.charAt(5));
+    assertEquals("p", overlay.elementEndingAt(6));
+    assertEquals(1, overlay.remainingCharactersInElement(5));
+    // The inserted items inherit the annotation of the 'a' before them.
+    assertEquals("1", overlay.getAnnotation(3, "a"));
+    assertEquals(-1, overlay.firstAnnotationChange(1, 6, "a", "1"));
+    assertEquals(6, overlay.firstAnnotationChange(1, 7, "a", "1"));
+    assertMatches(applied(base, op), overlay);
+  }
+
+  public void testChangedAttributesAndAnnotations() throws OperationException {
+    BootstrapDocument base = document(new DocInitializationBuilder()
+        .elementStart("p", new AttributesImpl("x", "1"))
+        .characters("abc")
+        .elementEnd()
+        .build());
+    DocOp op = new DocOpBuilder()
+        .replaceAttributes(new AttributesImpl("x", "1"), new AttributesImpl("y", "2"))
+        .deleteCharacters("a")
+        .annotationBoundary(new AnnotationBoundaryMapBuilder().change("b", null, "2").build())
+        .retain(1)
+        .annotationBoundary(new AnnotationBoundaryMapBuilder().end("b").build())
+        .retain(2)
+        .build();
+
+    AutomatonDocument overlay = Automatons.afterOperation(base, op);
+    assertEquals(4, overlay.length());
+    assertEquals(new AttributesImpl("y", "2"), overlay.attributesAt(0));
+    assertEquals('b', overlay.charAt(1));
+    assertEquals("2", overlay.getAnnotation(1, "b"));
+    assertNull(overlay.getAnnotation(2, "b"));
+    assertEquals(2, overlay.firstAnnotationChange(1, 4, "b", "2"));
+    assertTrue(keys(overlay).contains("b"));
+    assertMatches(applied(base, op), overlay);
+  }
+
+  public void testMatchesAppliedRandomOperations() throws OperationException {
+    for (int seed = 0; seed < 20; seed++) {
+      RandomProviderImpl random = new RandomProviderImpl(new Random(seed));
+      RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+      BootstrapDocument base = new BootstrapDocument();
+      for (int i = 0; i < 5; i++) {
+        base.consume(RandomDocOpGenerator.generate(random, parameters, base));
+      }
+
+      // Compose a few operations, as a batch of them would be.
+      BootstrapDocument expected = copy(base);
+      BufferedDocOp composed = null;
+      for (int i = 0; i < 1 + seed % 4; i++) {
+        BufferedDocOp op =
+            DocOpUtil.buffer(RandomDocOpGenerator.generate(random, parameters, expected));
+        expected.consume(op);
+        composed = composed == null ? op : Composer.compose(composed, op);
+      }
+
+      assertMatches(expected, Automatons.afterOperation(base, composed));
+    }
+  }
+
+  private static void assertMatches(BootstrapDocument expected, AutomatonDocument overlay) {
+    int length = expected.length();
+    assertEquals(length, overlay.length());
+    for (int pos = 0; pos < length; pos++) {
+      assertEquals(expected.elementStartingAt(pos), overlay.elementStartingAt(pos));
+      assertEquals(expected.attributesAt(pos), overlay.attributesAt(pos));
+      assertEquals(expected.elementEndingAt(pos), overlay.elementEndingAt(pos));
+      assertEquals(expected.charAt(pos), overlay.charAt(pos));
+      assertEquals(expected.annotationsAt(pos), overlay.annotationsAt(pos));
+    }
+    for (int point = 0; point <= length; point++) {
+      for (int depth = 0; depth < 3; depth++) {
+        assertEquals(expected.nthEnclosingElementTag(point, depth),
+            overlay.nthEnclosingElementTag(point, depth));
+      }
+    }
+    Set<String> keys = keys(expected);
+    assertEquals(keys, keys(overlay));
+    for (String key : keys) {
+      for (int start = 0; start < length; start++) {
+        String value = expected.getAnnotation(start, key);
+        assertEquals(value, overlay.getAnnotation(start, key));
+        for (int end = start; end <= length; end += 3) {
+          assertEquals(expected.firstAnnotationChange(start, end, key, value),
+              overlay.firstAnnotationChange(start, end, key, value));
+          assertEquals(expected.firstAnnotationChange(start, end, key, null),
+              overlay.firstAnnotationChange(start, end, key, null));
+        }
+      }
+    }
+    // Last, since BootstrapDocument loses track of the enclosing elements
+    // after this query.
+    for (int point = 0; point <= length; point++) {
+      assertEquals(expected.remainingCharactersInElement(point),
+          overlay.remainingCharactersInElement(point));
+    }
+  }
+
+  private static Set<String> keys(AutomatonDocument doc) {
+    Set<String> keys = new HashSet<String>();
+    for (String key : doc.knownAnnotationKeys()) {
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  private static BootstrapDocument document(DocInitialization init) throws OperationException {
+    BootstrapDocument doc = new BootstrapDocument();
+    doc.consume(init);
+    return doc;
+  }
+
+  private static BootstrapDocument copy(BootstrapDocument doc) throws OperationException {
+    return document(doc.asOperation());
+  }
+
+  private static BootstrapDocument applied(BootstrapDocument doc, DocOp op)
+      throws OperationException {
+    BootstrapDocument result = copy(doc);
+    result.consume(op);
+    return result;
+  }
+}
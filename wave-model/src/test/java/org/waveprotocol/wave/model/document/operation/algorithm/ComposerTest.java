@@ -4,9 +4,14 @@ package org.waveprotocol.wave.model.document.operation.algorithm;
 
 import junit.framework.TestCase;
 
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.operation.OpComparators;
 import org.waveprotocol.wave.model.operation.OperationException;
 
+import java.util.List;
+import java.util.Random;
+
 /**
  * @author ohler@google.com (Christian Ohler)
  */
@@ -27,4 +32,15 @@ public class ComposerTest extends TestCase {
     }
   }
 
+  public void testComposeUncheckedMatchesCompose() throws OperationException {
+    List<BufferedDocOp> history = ParallelComposerTest.randomHistory(new Random(3), 50);
+    BufferedDocOp checked = history.get(0);
+    BufferedDocOp unchecked = history.get(0);
+    for (BufferedDocOp op : history.subList(1, history.size())) {
+      checked = Composer.compose(checked, op);
+      unchecked = Composer.composeUnchecked(unchecked, op);
+      assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(checked, unchecked));
+    }
+  }
+
 }
@@ -0,0 +1,109 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link DocOpComposeTree}.
+ *
+ */
+public class DocOpComposeTreeTest extends TestCase {
+
+  private final List<BufferedDocOp> ops = new ArrayList<BufferedDocOp>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // A history of single character insertions into an empty document.
+    Random random = new Random(3);
+    for (int length = 0; length < 70; length++) {
+      int position = random.nextInt(length + 1);
+      DocOpBuilder builder = new DocOpBuilder();
+      if (position > 0) {
+        builder.retain(position);
+      }
+      builder.characters(Character.toString((char) ('a' + random.nextInt(26))));
+      if (length > position) {
+        builder.retain(length - position);
+      }
+      ops.add(builder.build());
+    }
+  }
+
+  public void testComposeMatchesSequentialComposition() throws OperationException {
+    DocOpComposeTree tree = new DocOpComposeTree();
+    for (BufferedDocOp op : ops) {
+      tree.add(op);
+    }
+    assertEquals(ops.size(), tree.size());
+    for (int from = 0; from < ops.size(); from++) {
+      for (int to = from + 1; to <= ops.size(); to++) {
+        assertComposition(from, to, tree.compose(from, to));
+      }
+    }
+    assertNull(tree.compose(5, 5));
+  }
+
+  public void testTruncationKeepsIndexes() throws OperationException {
+    DocOpComposeTree tree = new DocOpComposeTree(100);
+    for (int i = 0; i < 40; i++) {
+      tree.add(ops.get(i));
+    }
+    tree.truncateBefore(113);
+    assertEquals(113, tree.getStart());
+    assertEquals(140, tree.getEnd());
+    assertSame(ops.get(13), tree.get(113));
+
+    for (int i = 40; i < ops.size(); i++) {
+      tree.add(ops.get(i));
+    }
+    for (int from = 113; from < 170; from++) {
+      assertComposition(from - 100, 70, tree.composeFrom(from));
+    }
+
+    try {
+      tree.compose(112, 120);
+      fail("Should have failed since the range starts before the history.");
+    } catch (IndexOutOfBoundsException expected) {
+      // Expected.
+    }
+
+    tree.truncateBefore(170);
+    assertEquals(0, tree.size());
+    assertNull(tree.composeFrom(170));
+  }
+
+  public void testFailedAddLeavesHistoryUnchanged() throws OperationException {
+    DocOpComposeTree tree = new DocOpComposeTree();
+    tree.add(ops.get(0));
+    try {
+      tree.add(ops.get(5));
+      fail("Should have failed since the operation does not apply to the document.");
+    } catch (OperationException expected) {
+      // Expected.
+    }
+    assertEquals(1, tree.size());
+    tree.add(ops.get(1));
+    assertComposition(0, 2, tree.composeFrom(0));
+  }
+
+  private void assertComposition(int from, int to, BufferedDocOp actual)
+      throws OperationException {
+    BufferedDocOp expected = ops.get(from);
+    for (int i = from + 1; i < to; i++) {
+      expected = Composer.compose(expected, ops.get(i));
+    }
+    assertTrue("Composition of [" + from + ", " + to + ")",
+        OpComparators.SYNTACTIC_IDENTITY.equal(expected, actual));
+  }
+}
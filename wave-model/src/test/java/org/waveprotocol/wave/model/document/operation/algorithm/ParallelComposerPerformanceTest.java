@@ -0,0 +1,62 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import org.junit.Ignore;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Code that times {@link ParallelComposer} against {@link Composer} on random
+ * histories of growing length, for profiling purposes.  Not really a test case.
+ *
+ */
+// Not really a test case, but presubmit fails without this annotation.
+@Ignore
+public class ParallelComposerPerformanceTest {
+
+  static final int[] HISTORY_LENGTHS = {1000, 10000, 100000};
+  static final int ITERATIONS = 5;
+
+  public void testPerformance() throws OperationException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Random random = new Random(2);
+      for (int length : HISTORY_LENGTHS) {
+        List<BufferedDocOp> history = ParallelComposerTest.randomHistory(random, length);
+
+        // Warm up.
+        Composer.compose(history);
+        ParallelComposer.compose(history, executor);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+          Composer.compose(history);
+        }
+        long sequential = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+          ParallelComposer.compose(history, executor);
+        }
+        long parallel = System.nanoTime() - start;
+
+        System.err.println("ops=" + length + " threads=" + threads
+            + " sequential=" + (sequential / ITERATIONS / 1000000) + "ms"
+            + " parallel=" + (parallel / ITERATIONS / 1000000) + "ms");
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public static void main(String[] args) throws OperationException {
+    new ParallelComposerPerformanceTest().testPerformance();
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocInitialization;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for {@link ParallelComposer}.
+ *
+ */
+public class ParallelComposerTest extends TestCase {
+
+  private ExecutorService executor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    executor = Executors.newFixedThreadPool(3);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  /**
+   * Generates a random history of operations with
+   * {@link RandomDocOpGenerator}, starting with the initialization of a small
+   * document.
+   */
+  static List<BufferedDocOp> randomHistory(Random random, int size) throws OperationException {
+    List<BufferedDocOp> history = new ArrayList<BufferedDocOp>(size);
+    BufferedDocOp initialization = new DocOpBuilder()
+        .elementStart("blip", Attributes.EMPTY_MAP)
+        .elementStart("p", Attributes.EMPTY_MAP)
+        .characters("abc")
+        .elementEnd()
+        .elementEnd()
+        .build();
+    history.add(initialization);
+
+    BootstrapDocument doc = new BootstrapDocument();
+    doc.consume(initialization);
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    RandomProviderImpl provider = new RandomProviderImpl(random);
+    while (history.size() < size) {
+      BufferedDocOp op = DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      doc.consume(op);
+      history.add(op);
+    }
+    return history;
+  }
+
+  public void testMatchesSequentialComposition() throws OperationException {
+    List<BufferedDocOp> history = randomHistory(new Random(5), 300);
+    // Different groupings may place annotation boundaries differently, so the
+    // resulting documents are compared rather than the operations.
+    DocInitialization expected = DocOpUtil.asInitialization(Composer.compose(history));
+    for (int threshold : new int[] {2, 7, 64, 300}) {
+      assertTrue("threshold " + threshold, OpComparators.equalDocuments(expected,
+          DocOpUtil.asInitialization(ParallelComposer.compose(history, executor, threshold))));
+    }
+  }
+
+  public void testEmptySequence() throws OperationException {
+    assertNull(ParallelComposer.compose(Collections.<BufferedDocOp>emptyList(), executor));
+  }
+
+  public void testMismatchedOperationsFail() {
+    List<BufferedDocOp> ops = new ArrayList<BufferedDocOp>();
+    for (int i = 0; i < 20; i++) {
+      ops.add(new DocOpBuilder().retain(1).build());
+    }
+    ops.add(new DocOpBuilder().build());
+    try {
+      ParallelComposer.compose(ops, executor, 4);
+      fail("Should have failed since the last operation does not match the document length.");
+    } catch (OperationException expected) {
+      // Expected.
+    }
+  }
+}
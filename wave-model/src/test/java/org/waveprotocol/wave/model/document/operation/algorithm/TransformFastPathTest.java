@@ -0,0 +1,171 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationBoundaryMapImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuffer;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.OperationPair;
+import org.waveprotocol.wave.model.operation.TransformException;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link TransformFastPath}.
+ *
+ */
+public class TransformFastPathTest extends TestCase {
+
+  private static final String TEXT = "abcdefghijklmnopqrst";
+
+  private final Transformer general = new Transformer(null, false);
+  private final Transformer fast = new Transformer(null, true);
+  private final TransformFastPath fastPath = new TransformFastPath();
+
+  public void testInsertionsAtTheSamePositionPutTheClientFirst() throws TransformException {
+    BufferedDocOp client = typing(3, 'x');
+    BufferedDocOp server = typing(3, 'y');
+    assertTrue(appliesTo(client, server));
+    OperationPair<BufferedDocOp> pair = assertMatchesGeneral(client, server);
+    assertEquals(DocOpUtil.toConciseString(new DocOpBuilder()
+        .retain(3).characters("x").retain(18).build()),
+        DocOpUtil.toConciseString(pair.clientOp()));
+    assertEquals(DocOpUtil.toConciseString(new DocOpBuilder()
+        .retain(4).characters("y").retain(17).build()),
+        DocOpUtil.toConciseString(pair.serverOp()));
+  }
+
+  public void testAnnotationAgainstTextEdits() throws TransformException {
+    BufferedDocOp annotation = annotating(4, 10, "b", "1");
+    for (int position = 0; position <= TEXT.length(); position++) {
+      assertTrue(appliesTo(annotation, typing(position, 'x')));
+      assertMatchesGeneral(annotation, typing(position, 'x'));
+      assertMatchesGeneral(typing(position, 'x'), annotation);
+    }
+    assertTrue(appliesTo(annotation, deleting(6, 2)));
+    assertMatchesGeneral(annotation, deleting(6, 2));
+    assertMatchesGeneral(deleting(6, 2), annotation);
+  }
+
+  public void testInteractingPairsFallBack() throws TransformException {
+    // Overlapping deletions.
+    assertFalse(appliesTo(deleting(2, 4), deleting(4, 4)));
+    assertMatchesGeneral(deleting(2, 4), deleting(4, 4));
+    // A deletion across an annotation boundary.
+    assertFalse(appliesTo(annotating(4, 10, "b", "1"), deleting(2, 4)));
+    assertMatchesGeneral(annotating(4, 10, "b", "1"), deleting(2, 4));
+    // Overlapping annotation changes.
+    assertFalse(appliesTo(annotating(4, 10, "b", "1"), annotating(8, 14, "b", "2")));
+    assertMatchesGeneral(annotating(4, 10, "b", "1"), annotating(8, 14, "b", "2"));
+  }
+
+  public void testMatchesGeneralAlgorithmOnTextEdits() throws TransformException {
+    Random random = new Random(7);
+    int applied = 0;
+    for (int i = 0; i < 2000; i++) {
+      BufferedDocOp client = randomTextEdit(random);
+      BufferedDocOp server = randomTextEdit(random);
+      if (appliesTo(client, server)) {
+        applied++;
+      }
+      assertMatchesGeneral(client, server);
+    }
+    assertTrue("Fast path applied to " + applied + " pairs", applied > 1000);
+  }
+
+  public void testMatchesGeneralAlgorithmOnRandomOperations()
+      throws OperationException, TransformException {
+    BootstrapDocument doc = new BootstrapDocument();
+    doc.consume(new DocOpBuilder().characters(TEXT).build());
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    RandomProviderImpl provider = new RandomProviderImpl(new Random(11));
+    for (int i = 0; i < 500; i++) {
+      BufferedDocOp clientOp =
+          DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      BufferedDocOp serverOp =
+          DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      OperationPair<BufferedDocOp> pair = assertMatchesGeneral(clientOp, serverOp);
+      doc.consume(serverOp);
+      doc.consume(pair.clientOp());
+    }
+  }
+
+  private boolean appliesTo(BufferedDocOp client, BufferedDocOp server) {
+    return fastPath.transform(client, server, new DocOpBuffer(), new DocOpBuffer());
+  }
+
+  private OperationPair<BufferedDocOp> assertMatchesGeneral(BufferedDocOp client,
+      BufferedDocOp server) throws TransformException {
+    OperationPair<BufferedDocOp> expected = general.transformOperations(client, server);
+    OperationPair<BufferedDocOp> actual = fast.transformOperations(client, server);
+    String message = DocOpUtil.toConciseString(client) + " against "
+        + DocOpUtil.toConciseString(server);
+    assertTrue(message,
+        OpComparators.SYNTACTIC_IDENTITY.equal(expected.clientOp(), actual.clientOp()));
+    assertTrue(message,
+        OpComparators.SYNTACTIC_IDENTITY.equal(expected.serverOp(), actual.serverOp()));
+    return actual;
+  }
+
+  private static BufferedDocOp randomTextEdit(Random random) {
+    int from = random.nextInt(TEXT.length());
+    switch (random.nextInt(3)) {
+      case 0:
+        return typing(random.nextInt(TEXT.length() + 1), (char) ('u' + random.nextInt(6)));
+      case 1:
+        return deleting(from, 1 + random.nextInt(Math.min(3, TEXT.length() - from)));
+      default:
+        int to = from + 1 + random.nextInt(TEXT.length() - from);
+        return annotating(from, to, random.nextBoolean() ? "b" : "i",
+            Integer.toString(random.nextInt(2)));
+    }
+  }
+
+  private static BufferedDocOp typing(int position, char c) {
+    DocOpBuilder builder = new DocOpBuilder();
+    if (position > 0) {
+      builder.retain(position);
+    }
+    builder.characters(Character.toString(c));
+    if (position < TEXT.length()) {
+      builder.retain(TEXT.length() - position);
+    }
+    return builder.build();
+  }
+
+  private static BufferedDocOp deleting(int from, int length) {
+    DocOpBuilder builder = new DocOpBuilder();
+    if (from > 0) {
+      builder.retain(from);
+    }
+    builder.deleteCharacters(TEXT.substring(from, from + length));
+    if (from + length < TEXT.length()) {
+      builder.retain(TEXT.length() - from - length);
+    }
+    return builder.build();
+  }
+
+  private static BufferedDocOp annotating(int from, int to, String key, String value) {
+    DocOpBuilder builder = new DocOpBuilder();
+    if (from > 0) {
+      builder.retain(from);
+    }
+    builder.annotationBoundary(
+        AnnotationBoundaryMapImpl.builder().updateValues(key, null, value).build());
+    builder.retain(to - from);
+    builder.annotationBoundary(AnnotationBoundaryMapImpl.builder().initializationEnd(key).build());
+    if (to < TEXT.length()) {
+      builder.retain(TEXT.length() - to);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.algorithm;
+
+import org.junit.Ignore;
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.TransformException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/**
+ * Code that compares the time and allocation of transforming with a reused
+ * {@link Transformer} against the static {@link Transformer#transform}, for
+ * profiling purposes.  Not really a test case.
+ *
+ * Allocation is measured with the per-thread allocation counter of HotSpot
+ * JVMs, which is looked up reflectively so that this compiles on any JVM, and
+ * is not reported on other JVMs.  TransformerBenchmark in wave-benchmarks,
+ * run with "-prof gc", measures the same with JMH.
+ *
+ */
+// Not really a test case, but presubmit fails without this annotation.
+@Ignore
+public class TransformerPerformanceTest {
+
+  static final int PAIRS = 2000;
+  static final int ITERATIONS = 20;
+  static final int DOCUMENT_LENGTH = 5000;
+
+  public void testPerformance() throws OperationException, TransformException {
+    BufferedDocOp[] clientOps = new BufferedDocOp[PAIRS];
+    BufferedDocOp[] serverOps = new BufferedDocOp[PAIRS];
+
+    // Concurrent typing into a long document, the bulk of a server's load.
+    Random random = new Random(23);
+    for (int i = 0; i < PAIRS; i++) {
+      clientOps[i] = typing(random);
+      serverOps[i] = typing(random);
+    }
+    measure("typing", clientOps, serverOps);
+
+    // Concurrent random edits to a short document.
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    for (int i = 0; i < PAIRS; i++) {
+      BootstrapDocument doc = new BootstrapDocument();
+      doc.consume(new DocOpBuilder().characters("the quick brown fox jumps").build());
+      RandomProviderImpl provider = new RandomProviderImpl(random);
+      clientOps[i] = DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      serverOps[i] = DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+    }
+    measure("random", clientOps, serverOps);
+  }
+
+  private static BufferedDocOp typing(Random random) {
+    int position = random.nextInt(DOCUMENT_LENGTH);
+    return new DocOpBuilder()
+        .retain(position + 1)
+        .characters(Character.toString((char) ('a' + random.nextInt(26))))
+        .retain(DOCUMENT_LENGTH - position)
+        .build();
+  }
+
+  private static void measure(String workload, BufferedDocOp[] clientOps,
+      BufferedDocOp[] serverOps) throws TransformException {
+    Transformer transformer = new Transformer();
+    for (int round = 0; round < 3; round++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+        for (int i = 0; i < PAIRS; i++) {
+          Transformer.transform(clientOps[i], serverOps[i]);
+        }
+      }
+      report(workload + " static", System.nanoTime() - start, allocatedBytes() - allocated);
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+        for (int i = 0; i < PAIRS; i++) {
+          transformer.transformOperations(clientOps[i], serverOps[i]);
+        }
+      }
+      report(workload + " reused", System.nanoTime() - start, allocatedBytes() - allocated);
+    }
+  }
+
+  private static void report(String name, long elapsed, long allocated) {
+    long transforms = (long) ITERATIONS * PAIRS;
+    System.err.println(name + ": " + (elapsed / transforms) + " ns/transform, "
+        + (allocated >= 0 ? (allocated / transforms) + " bytes/transform" : "allocation n/a"));
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread, or a
+   * negative number if the JVM does not count them.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    try {
+      Class<?> hotSpotBean = Class.forName("com.sun.management.ThreadMXBean");
+      if (!hotSpotBean.isInstance(bean)) {
+        return -1;
+      }
+      Method method = hotSpotBean.getMethod("getThreadAllocatedBytes", long.class);
+      return (Long) method.invoke(bean, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  public static void main(String[] args) throws OperationException, TransformException {
+    new TransformerPerformanceTest().testPerformance();
+  }
+}
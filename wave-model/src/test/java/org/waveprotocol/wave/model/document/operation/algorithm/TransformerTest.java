@@ -5,9 +5,19 @@ package org.waveprotocol.wave.model.document.operation.algorithm;
 
 import junit.framework.TestCase;
 
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.OperationPair;
 import org.waveprotocol.wave.model.operation.TransformException;
 
+import java.util.Random;
+
 /**
 *
  */
@@ -22,4 +32,42 @@ public class TransformerTest extends TestCase {
     }
   }
 
+  public void testReusedInstanceMatchesStaticTransform()
+      throws OperationException, TransformException {
+    Transformer transformer = new Transformer();
+    BootstrapDocument doc = new BootstrapDocument();
+    doc.consume(new DocOpBuilder().characters("abc").build());
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    RandomProviderImpl provider = new RandomProviderImpl(new Random(19));
+    for (int i = 0; i < 300; i++) {
+      BufferedDocOp clientOp =
+          DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      BufferedDocOp serverOp =
+          DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      OperationPair<BufferedDocOp> expected = Transformer.transform(clientOp, serverOp);
+      OperationPair<BufferedDocOp> actual = transformer.transformOperations(clientOp, serverOp);
+      assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(expected.clientOp(), actual.clientOp()));
+      assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(expected.serverOp(), actual.serverOp()));
+      doc.consume(serverOp);
+      doc.consume(actual.clientOp());
+    }
+  }
+
+  public void testReusedInstanceRecoversFromFailure() throws TransformException {
+    Transformer transformer = new Transformer();
+    try {
+      transformer.transformOperations(new DocOpBuilder().retain(1).characters("a").build(),
+          new DocOpBuilder().build());
+      fail();
+    } catch (TransformException e) {
+      // ok
+    }
+    OperationPair<BufferedDocOp> pair = transformer.transformOperations(
+        new DocOpBuilder().characters("a").build(), new DocOpBuilder().characters("b").build());
+    assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(
+        new DocOpBuilder().characters("a").retain(1).build(), pair.clientOp()));
+    assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(
+        new DocOpBuilder().retain(1).characters("b").build(), pair.serverOp()));
+  }
+
 }
@@ -0,0 +1,203 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link DocOpBinaryCodec}.
+ *
+ */
+public class DocOpBinaryCodecTest extends TestCase {
+
+  public void testRoundTripsAllComponents() throws IOException {
+    BufferedDocOp op = new DocOpBuilder()
+        .annotationBoundary(new AnnotationBoundaryMapImpl(
+            new String[] {}, new String[] {"b", "c"}, new String[] {null, "1"},
+            new String[] {"2", null}))
+        .retain(300)
+        .characters("h\u00e9llo \u4e16\u754c")
+        .deleteCharacters("x")
+        .elementStart("p", new AttributesImpl("k", "v", "l", ""))
+        .elementEnd()
+        .deleteElementStart("p", Attributes.EMPTY_MAP)
+        .deleteElementEnd()
+        .replaceAttributes(new AttributesImpl("k", "v"), new AttributesImpl("k", "w"))
+        .updateAttributes(new AttributesUpdateImpl("k", null, "v", "l", "w", null))
+        .annotationBoundary(new AnnotationBoundaryMapImpl(
+            new String[] {"b", "c"}, new String[] {}, new String[] {}, new String[] {}))
+        .build();
+    assertRoundTrip(op);
+    assertRoundTrip(new DocOpBuilder().build());
+    assertRoundTrip(DocOpUtil.buffer(DocOpUtilTest.TEST_DOC1));
+  }
+
+  public void testRoundTripsRandomOperationsOnOneStream()
+      throws IOException, OperationException {
+    List<BufferedDocOp> ops = randomOperations(new Random(11), 200);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DocOpBinaryCodec.Writer writer = new DocOpBinaryCodec.Writer(out);
+    for (BufferedDocOp op : ops) {
+      writer.writeDocOp(op);
+    }
+
+    DocOpBinaryCodec.Reader reader =
+        new DocOpBinaryCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+    for (BufferedDocOp op : ops) {
+      assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(op, reader.readDocOp()));
+    }
+  }
+
+  public void testDecoderDrivesCursorDirectly() throws IOException {
+    BufferedDocOp op = new DocOpBuilder().retain(2).characters("ab").retain(1).build();
+    DocOpBinaryCodec.Reader reader =
+        new DocOpBinaryCodec.Reader(new ByteArrayInputStream(DocOpBinaryCodec.encode(op)));
+    DocOpBuffer buffer = new DocOpBuffer();
+    reader.readDocOp(buffer);
+    assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(op, buffer.finish()));
+  }
+
+  public void testInternsNames() throws IOException {
+    BufferedDocOp op = new DocOpBuilder()
+        .elementStart("paragraph", new AttributesImpl("alignment", "l"))
+        .elementEnd()
+        .build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DocOpBinaryCodec.Writer writer = new DocOpBinaryCodec.Writer(out);
+    writer.writeDocOp(op);
+    int first = out.size();
+    writer.writeDocOp(op);
+    int second = out.size() - first;
+    // Element start tag, type reference, attribute count, key reference,
+    // value length and byte, element end tag and operation end tag.
+    assertEquals(8, second);
+  }
+
+  public void testRejectsUnknownVersion() {
+    byte[] bytes = DocOpBinaryCodec.encode(new DocOpBuilder().retain(1).build());
+    bytes[0] = (byte) (DocOpBinaryCodec.VERSION + 1);
+    try {
+      DocOpBinaryCodec.decode(bytes);
+      fail("Should have failed since the version is unknown.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsTruncatedInput() {
+    byte[] bytes = DocOpBinaryCodec.encode(new DocOpBuilder().characters("abc").build());
+    byte[] truncated = new byte[bytes.length - 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    try {
+      DocOpBinaryCodec.decode(truncated);
+      fail("Should have failed since the input is truncated.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testRoundTripsLargeValues() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      text.append("wave\u00e9");
+    }
+    assertRoundTrip(new DocOpBuilder().characters(text.toString()).retain(Integer.MAX_VALUE)
+        .build());
+  }
+
+  public void testRejectsOutOfRangeVarint() {
+    // Version, retain tag, and a varint of 2^32 - 1.
+    byte[] bytes = {DocOpBinaryCodec.VERSION, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, 0x0F, 0};
+    try {
+      DocOpBinaryCodec.decode(bytes);
+      fail("Should have failed since the varint does not fit in an int.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsLengthBeyondInput() {
+    // Version, characters tag, and a length of Integer.MAX_VALUE with no text.
+    byte[] bytes = {DocOpBinaryCodec.VERSION, 2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, 0x07};
+    try {
+      DocOpBinaryCodec.decode(bytes);
+      fail("Should have failed since the input is shorter than the length.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsIllFormedOperation() throws IOException {
+    byte[] bytes = DocOpBinaryCodec.encode(new DocOpBuilder().elementEnd().buildUnchecked());
+    try {
+      DocOpBinaryCodec.decode(bytes);
+      fail("Should have failed since the operation ends an element it does not start.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsDuplicateAttributeNames() {
+    // Version, element start tag, new name "p", two attributes with the new
+    // name "a" and then the name "a" again, element end tag and operation end
+    // tag.
+    byte[] bytes = {DocOpBinaryCodec.VERSION, 4, 0, 1, 'p', 2, 0, 1, 'a', 1, 'v', 2, 1, 'w',
+        5, 0};
+    try {
+      DocOpBinaryCodec.decode(bytes);
+      fail("Should have failed since the attribute name is repeated.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testRejectsDuplicateAnnotationKeys() {
+    // Version, annotation boundary tag, no end keys, two changes of the new
+    // name "a" and then of the name "a" again, retain tag, one item and
+    // operation end tag.
+    byte[] bytes = {DocOpBinaryCodec.VERSION, 10, 0, 2, 0, 1, 'a', 0, 2, '1', 1, 0, 2, '2',
+        1, 1, 0};
+    try {
+      DocOpBinaryCodec.decode(bytes);
+      fail("Should have failed since the annotation key is changed twice.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  private static void assertRoundTrip(BufferedDocOp op) throws IOException {
+    assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(op,
+        DocOpBinaryCodec.decode(DocOpBinaryCodec.encode(op))));
+  }
+
+  private static List<BufferedDocOp> randomOperations(Random random, int count)
+      throws OperationException {
+    List<BufferedDocOp> ops = new ArrayList<BufferedDocOp>(count);
+    BootstrapDocument doc = new BootstrapDocument();
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    RandomProviderImpl provider = new RandomProviderImpl(random);
+    for (int i = 0; i < count; i++) {
+      BufferedDocOp op = DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      doc.consume(op);
+      ops.add(op);
+    }
+    return ops;
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import org.junit.Ignore;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Code that measures the heap retained by a large set of loaded operations,
+ * decoded with and without a {@link DocOpInterner}, for profiling purposes.
+ * Not really a test case.
+ *
+ */
+// Not really a test case, but presubmit fails without this annotation.
+@Ignore
+public class DocOpInternerPerformanceTest {
+
+  static final int OPS = 200000;
+
+  static final String[] LINE_TYPES = {"h1", "h2", "li", "li", "li"};
+  static final String[] ANNOTATION_KEYS = {"style/fontWeight", "link/manual", "conv/title"};
+
+  public void testPerformance() throws IOException {
+    byte[] log = encodeLog(new Random(17));
+    for (int round = 0; round < 2; round++) {
+      for (boolean interning : new boolean[] {false, true}) {
+        long before = usedMemory();
+        BufferedDocOp[] ops = decodeLog(log, interning ? new DocOpInterner() : null);
+        long retained = usedMemory() - before;
+        System.err.println((interning ? "interned: " : "plain:    ")
+            + (retained / ops.length) + " bytes/op");
+      }
+    }
+  }
+
+  /**
+   * Encodes a log of operations that each add an annotated line, as a
+   * stand-in for the history of a large set of wavelets.
+   */
+  private static byte[] encodeLog(Random random) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DocOpBinaryCodec.Writer writer = new DocOpBinaryCodec.Writer(out);
+    for (int i = 0; i < OPS; i++) {
+      String key = ANNOTATION_KEYS[random.nextInt(ANNOTATION_KEYS.length)];
+      writer.writeDocOp(new DocOpBuilder()
+          .retain(1 + random.nextInt(1000))
+          .elementStart("line",
+              new AttributesImpl("t", LINE_TYPES[random.nextInt(LINE_TYPES.length)]))
+          .elementEnd()
+          .annotationBoundary(AnnotationBoundaryMapImpl.builder()
+              .updateValues(key, null, "true").build())
+          .characters("text " + i)
+          .annotationBoundary(AnnotationBoundaryMapImpl.builder()
+              .initializationEnd(key).build())
+          .retain(1 + random.nextInt(1000))
+          .build());
+    }
+    return out.toByteArray();
+  }
+
+  private static BufferedDocOp[] decodeLog(byte[] log, DocOpInterner interner)
+      throws IOException {
+    DocOpBinaryCodec.Reader reader =
+        new DocOpBinaryCodec.Reader(new ByteArrayInputStream(log), interner);
+    BufferedDocOp[] ops = new BufferedDocOp[OPS];
+    for (int i = 0; i < OPS; i++) {
+      ops[i] = reader.readDocOp();
+    }
+    return ops;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  public static void main(String[] args) throws IOException {
+    new DocOpInternerPerformanceTest().testPerformance();
+  }
+}
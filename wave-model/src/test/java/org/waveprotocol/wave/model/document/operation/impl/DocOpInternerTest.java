@@ -0,0 +1,118 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.document.operation.algorithm.Transformer;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.OperationPair;
+import org.waveprotocol.wave.model.operation.TransformException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link DocOpInterner}.
+ *
+ */
+public class DocOpInternerTest extends TestCase {
+
+  private final DocOpInterner interner = new DocOpInterner();
+
+  public void testInternsEqualValues() {
+    Attributes attrs = interner.intern(new AttributesImpl("t", "h1", "i", "1"));
+    assertSame(attrs, interner.intern(new AttributesImpl("i", "1", "t", "h1")));
+    assertNotSame(attrs, interner.intern(new AttributesImpl("t", "h2", "i", "1")));
+    assertSame(Attributes.EMPTY_MAP, interner.intern(new AttributesImpl()));
+
+    AnnotationBoundaryMap map = interner.intern(boldStart());
+    assertSame(map, interner.intern(boldStart()));
+    assertNotSame(map, interner.intern(new AnnotationBoundaryMapImpl(
+        new String[] {}, new String[] {"style/fontWeight"}, new String[] {"bold"},
+        new String[] {null})));
+    assertSame(AnnotationBoundaryMapImpl.EMPTY_MAP,
+        interner.intern(AnnotationBoundaryMapImpl.builder().build()));
+  }
+
+  public void testStartsAfreshWhenFull() {
+    DocOpInterner small = new DocOpInterner(2);
+    Attributes first = small.intern(new AttributesImpl("a", "1"));
+    small.intern(new AttributesImpl("a", "2"));
+    assertNotSame(first, small.intern(new AttributesImpl("a", "1")));
+    assertTrue(small.size() <= 4);
+  }
+
+  public void testBuilderSharesValues() {
+    BufferedDocOp op1 = lineOp(new DocOpBuilder(interner));
+    BufferedDocOp op2 = lineOp(new DocOpBuilder(interner));
+    assertSame(op1.getElementStartAttributes(1), op2.getElementStartAttributes(1));
+    assertSame(op1.getAnnotationBoundary(3), op2.getAnnotationBoundary(3));
+    assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(op1, lineOp(new DocOpBuilder())));
+  }
+
+  public void testComposerAndTransformerShareValues()
+      throws OperationException, TransformException {
+    BufferedDocOp insert = new DocOpBuilder().retain(1).characters("x").retain(7).build();
+    BufferedDocOp composed1 = Composer.compose(lineOp(new DocOpBuilder()), insert, interner);
+    BufferedDocOp composed2 = Composer.compose(lineOp(new DocOpBuilder()), insert, interner);
+    assertSame(firstAttributes(composed1), firstAttributes(composed2));
+
+    BufferedDocOp server = new DocOpBuilder().retain(1).characters("y").build();
+    OperationPair<BufferedDocOp> pair1 =
+        Transformer.transform(lineOp(new DocOpBuilder()), server, interner);
+    OperationPair<BufferedDocOp> pair2 =
+        Transformer.transform(lineOp(new DocOpBuilder()), server, interner);
+    assertSame(firstAttributes(pair1.clientOp()), firstAttributes(pair2.clientOp()));
+  }
+
+  public void testBinaryReaderSharesValues() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DocOpBinaryCodec.Writer writer = new DocOpBinaryCodec.Writer(out);
+    writer.writeDocOp(lineOp(new DocOpBuilder()));
+    writer.writeDocOp(lineOp(new DocOpBuilder()));
+    DocOpBinaryCodec.Reader reader =
+        new DocOpBinaryCodec.Reader(new ByteArrayInputStream(out.toByteArray()), interner);
+    BufferedDocOp op1 = reader.readDocOp();
+    BufferedDocOp op2 = reader.readDocOp();
+    assertSame(op1.getElementStartAttributes(1), op2.getElementStartAttributes(1));
+    assertSame(op1.getAnnotationBoundary(3), op2.getAnnotationBoundary(3));
+  }
+
+  private static Attributes firstAttributes(BufferedDocOp op) {
+    for (int i = 0; i < op.size(); i++) {
+      if (op.getType(i) == DocOpComponentType.ELEMENT_START) {
+        return op.getElementStartAttributes(i);
+      }
+    }
+    throw new AssertionError("No element start in " + op);
+  }
+
+  private static AnnotationBoundaryMap boldStart() {
+    return new AnnotationBoundaryMapImpl(new String[] {}, new String[] {"style/fontWeight"},
+        new String[] {null}, new String[] {"bold"});
+  }
+
+  /**
+   * Builds an op that inserts an annotated line after the first item of a
+   * document.
+   */
+  private static BufferedDocOp lineOp(DocOpBuilder builder) {
+    return builder
+        .retain(1)
+        .elementStart("line", new AttributesImpl("t", "h1"))
+        .elementEnd()
+        .annotationBoundary(boldStart())
+        .characters("title")
+        .annotationBoundary(new AnnotationBoundaryMapImpl(new String[] {"style/fontWeight"},
+            new String[] {}, new String[] {}, new String[] {}))
+        .build();
+  }
+}
@@ -490,6 +490,65 @@ public final class DocOpValidatorTest extends TestCase {
     });
   }
 
+  public void testDeletionAnnotationsWithinRange() throws OperationException {
+    // annotations are needed for keys that only appear after the start of the
+    // deleted range
+    doTest(new TestData() {
+      @Override
+      public boolean build(DocInitializationCursor d, DocOpCursor m) {
+        d.characters("ab");
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationValues("a", "1").build());
+        d.characters("c");
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationEnd("a").build());
+        d.characters("d");
+        m.retain(1);
+        m.deleteCharacters("bcd");
+        return false;
+      }
+    });
+    // (positive case)
+    doTest(new TestData() {
+      @Override
+      public boolean build(DocInitializationCursor d, DocOpCursor m) {
+        d.characters("ab");
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationValues("a", "1").build());
+        d.characters("c");
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationEnd("a").build());
+        d.characters("d");
+        m.retain(1);
+        m.deleteCharacters("b");
+        m.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().updateValues("a", "1", null).build());
+        m.deleteCharacters("c");
+        m.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationEnd("a").build());
+        m.deleteCharacters("d");
+        return true;
+      }
+    });
+    // keys that are present throughout the range but change value
+    doTest(new TestData() {
+      @Override
+      public boolean build(DocInitializationCursor d, DocOpCursor m) {
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationValues("a", "1").build());
+        d.characters("ab");
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationValues("a", "2").build());
+        d.characters("c");
+        d.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationEnd("a").build());
+        m.retain(1);
+        m.deleteCharacters("bc");
+        return false;
+      }
+    });
+  }
+
   public void testRequiredTag() throws OperationException {
     // ok
     doTest(new TestData() {
@@ -0,0 +1,174 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import org.junit.Ignore;
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.AttributesUpdate;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpCursor;
+
+import java.util.Random;
+
+/**
+ * Code that compares the memory footprint and apply throughput of
+ * {@link PackedBufferedDocOp} with {@link BufferedDocOpImpl}, for profiling
+ * purposes.  Not really a test case.
+ *
+ */
+// Not really a test case, but presubmit fails without this annotation.
+@Ignore
+public class PackedBufferedDocOpPerformanceTest {
+
+  static final int TYPING_OPS = 20000;
+  static final int DOCUMENTS = 200;
+  static final int LINES_PER_DOCUMENT = 200;
+  static final int APPLY_ITERATIONS = 50;
+
+  /** A cursor that touches every component, so that apply is not optimized away. */
+  private static final class CountingCursor implements DocOpCursor {
+    long count;
+
+    @Override
+    public void annotationBoundary(AnnotationBoundaryMap map) {
+      count += map.changeSize();
+    }
+
+    @Override
+    public void characters(String chars) {
+      count += chars.length();
+    }
+
+    @Override
+    public void elementStart(String type, Attributes attrs) {
+      count += attrs.size();
+    }
+
+    @Override
+    public void elementEnd() {
+      count++;
+    }
+
+    @Override
+    public void retain(int itemCount) {
+      count += itemCount;
+    }
+
+    @Override
+    public void deleteCharacters(String chars) {
+      count += chars.length();
+    }
+
+    @Override
+    public void deleteElementStart(String type, Attributes attrs) {
+      count += attrs.size();
+    }
+
+    @Override
+    public void deleteElementEnd() {
+      count++;
+    }
+
+    @Override
+    public void replaceAttributes(Attributes oldAttrs, Attributes newAttrs) {
+      count += newAttrs.size();
+    }
+
+    @Override
+    public void updateAttributes(AttributesUpdate attrUpdate) {
+      count += attrUpdate.changeSize();
+    }
+  }
+
+  public void testPerformance() {
+    for (int round = 0; round < 3; round++) {
+      for (boolean packed : new boolean[] {false, true}) {
+        measure("typing", false, packed);
+        measure("documents", true, packed);
+      }
+    }
+  }
+
+  private static void measure(String shape, boolean documents, boolean packed) {
+    long before = usedMemory();
+    BufferedDocOp[] ops = documents
+        ? documents(new Random(7), packed) : typingOps(new Random(7), packed);
+    long footprint = usedMemory() - before;
+
+    CountingCursor cursor = new CountingCursor();
+    long components = 0;
+    long start = System.nanoTime();
+    for (int iteration = 0; iteration < APPLY_ITERATIONS; iteration++) {
+      for (BufferedDocOp op : ops) {
+        op.apply(cursor);
+        components += op.size();
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    System.err.println(shape + (packed ? " packed: " : " component: ")
+        + (footprint / ops.length) + " bytes/op, "
+        + (elapsed / components) + " ns/component (" + cursor.count + ")");
+  }
+
+  /**
+   * Builds ops shaped like the bulk of a history: a retain, a short insertion
+   * or an annotated paragraph, and a trailing retain.
+   */
+  private static BufferedDocOp[] typingOps(Random random, boolean packed) {
+    AnnotationBoundaryMap start = new AnnotationBoundaryMapImpl(
+        new String[] {}, new String[] {"style/bold"}, new String[] {null}, new String[] {"true"});
+    AnnotationBoundaryMap end = new AnnotationBoundaryMapImpl(
+        new String[] {"style/bold"}, new String[] {}, new String[] {}, new String[] {});
+    BufferedDocOp[] ops = new BufferedDocOp[TYPING_OPS];
+    for (int i = 0; i < TYPING_OPS; i++) {
+      DocOpBuffer buffer = new DocOpBuffer();
+      buffer.retain(1 + random.nextInt(1000));
+      if (random.nextInt(4) == 0) {
+        buffer.elementStart("line", new AttributesImpl("t", "h1"));
+        buffer.elementEnd();
+        buffer.annotationBoundary(start);
+        buffer.characters("paragraph " + i);
+        buffer.annotationBoundary(end);
+      } else {
+        buffer.characters(Character.toString((char) ('a' + random.nextInt(26))));
+      }
+      buffer.retain(1 + random.nextInt(1000));
+      ops[i] = packed ? buffer.finishPacked() : buffer.finish();
+    }
+    return ops;
+  }
+
+  /**
+   * Builds initializations of documents with many short lines, like snapshots
+   * or long compositions.
+   */
+  private static BufferedDocOp[] documents(Random random, boolean packed) {
+    BufferedDocOp[] ops = new BufferedDocOp[DOCUMENTS];
+    for (int i = 0; i < DOCUMENTS; i++) {
+      DocOpBuffer buffer = new DocOpBuffer();
+      buffer.elementStart("body", Attributes.EMPTY_MAP);
+      for (int line = 0; line < LINES_PER_DOCUMENT; line++) {
+        buffer.elementStart("line", Attributes.EMPTY_MAP);
+        buffer.elementEnd();
+        buffer.characters("line " + line + " of " + random.nextInt(1000));
+      }
+      buffer.elementEnd();
+      ops[i] = packed ? buffer.finishPacked() : buffer.finish();
+    }
+    return ops;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  public static void main(String[] args) {
+    new PackedBufferedDocOpPerformanceTest().testPerformance();
+  }
+}
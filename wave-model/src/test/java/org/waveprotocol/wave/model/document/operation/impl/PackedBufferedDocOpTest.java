@@ -0,0 +1,92 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.bootstrap.BootstrapDocument;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.document.operation.debug.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.document.operation.debug.RandomProviderImpl;
+import org.waveprotocol.wave.model.operation.OpComparators;
+import org.waveprotocol.wave.model.operation.OperationException;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link PackedBufferedDocOp}.
+ *
+ */
+public class PackedBufferedDocOpTest extends TestCase {
+
+  public void testAccessors() {
+    AttributesImpl attrs = new AttributesImpl("k", "v");
+    AttributesUpdateImpl update = new AttributesUpdateImpl("k", "v", "w");
+    AnnotationBoundaryMapImpl boundary = new AnnotationBoundaryMapImpl(
+        new String[] {}, new String[] {"a"}, new String[] {null}, new String[] {"1"});
+    UncheckedDocOpBuffer buffer = new UncheckedDocOpBuffer();
+    buffer.annotationBoundary(boundary);
+    buffer.retain(3);
+    buffer.characters("hello");
+    buffer.deleteCharacters("");
+    buffer.deleteCharacters("bye");
+    buffer.elementStart("p", attrs);
+    buffer.elementEnd();
+    buffer.deleteElementStart("q", Attributes.EMPTY_MAP);
+    buffer.deleteElementEnd();
+    buffer.replaceAttributes(Attributes.EMPTY_MAP, attrs);
+    buffer.updateAttributes(update);
+    BufferedDocOp op = buffer.finishPackedUnchecked();
+
+    assertEquals(11, op.size());
+    assertSame(boundary, op.getAnnotationBoundary(0));
+    assertEquals(3, op.getRetainItemCount(1));
+    assertEquals("hello", op.getCharactersString(2));
+    assertEquals("", op.getDeleteCharactersString(3));
+    assertEquals("bye", op.getDeleteCharactersString(4));
+    assertEquals("p", op.getElementStartTag(5));
+    assertSame(attrs, op.getElementStartAttributes(5));
+    assertEquals(DocOpComponentType.ELEMENT_END, op.getType(6));
+    assertEquals("q", op.getDeleteElementStartTag(7));
+    assertSame(Attributes.EMPTY_MAP, op.getDeleteElementStartAttributes(7));
+    assertEquals(DocOpComponentType.DELETE_ELEMENT_END, op.getType(8));
+    assertSame(Attributes.EMPTY_MAP, op.getReplaceAttributesOldAttributes(9));
+    assertSame(attrs, op.getReplaceAttributesNewAttributes(9));
+    assertSame(update, op.getUpdateAttributesUpdate(10));
+
+    try {
+      op.getCharactersString(1);
+      fail("Should have failed since component 1 is a retain.");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  public void testMatchesComponentRepresentation() throws OperationException {
+    BootstrapDocument doc = new BootstrapDocument();
+    RandomDocOpGenerator.Parameters parameters = new RandomDocOpGenerator.Parameters();
+    RandomProviderImpl provider = new RandomProviderImpl(new Random(13));
+    for (int i = 0; i < 200; i++) {
+      BufferedDocOp op = DocOpUtil.buffer(RandomDocOpGenerator.generate(provider, parameters, doc));
+      DocOpBuffer buffer = new DocOpBuffer();
+      op.apply(buffer);
+      BufferedDocOp packed = buffer.finishPacked();
+      assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(op, packed));
+      assertEquals(op.toString(), packed.toString());
+      doc.consume(packed);
+    }
+  }
+
+  public void testCheckedFinishRejectsIllFormedOperations() {
+    DocOpBuffer buffer = new DocOpBuffer();
+    buffer.elementEnd();
+    try {
+      buffer.finishPacked();
+      fail("Should have failed since the operation is ill-formed.");
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.operation;
+
+import org.junit.Ignore;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Code that times {@link DeltaTransform} against the pairwise loop over
+ * {@link Transform}, for growing server histories, for profiling purposes.
+ * Not really a test case.
+ *
+ */
+// Not really a test case, but presubmit fails without this annotation.
+@Ignore
+public class DeltaTransformPerformanceTest {
+
+  static final int[] HISTORY_LENGTHS = {10, 100, 1000, 5000};
+  static final int DELTA_SIZE = 5;
+  static final int ITERATIONS = 20;
+
+  private static final ParticipantId CLIENT = new ParticipantId("client@example.com");
+  private static final ParticipantId SERVER = new ParticipantId("server@example.com");
+
+  public void testPerformance() throws TransformException {
+    Random random = new Random(2);
+    for (int historyLength : HISTORY_LENGTHS) {
+      WaveletDelta clientDelta =
+          new DeltaTransformTest.DeltaGenerator(random, "c").delta(CLIENT, DELTA_SIZE);
+      List<WaveletDelta> serverDeltas = new DeltaTransformTest.DeltaGenerator(random, "s")
+          .history(SERVER, historyLength, DELTA_SIZE);
+
+      // Warm up.
+      pairwiseTransform(clientDelta, serverDeltas);
+      DeltaTransform.transform(clientDelta, serverDeltas);
+      DeltaTransform.transformClientDelta(clientDelta, serverDeltas);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        pairwiseTransform(clientDelta, serverDeltas);
+      }
+      long pairwise = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        DeltaTransform.transform(clientDelta, serverDeltas);
+      }
+      long delta = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        DeltaTransform.transformClientDelta(clientDelta, serverDeltas);
+      }
+      long composed = System.nanoTime() - start;
+
+      System.err.println("history=" + historyLength
+          + " pairwise=" + (pairwise / ITERATIONS / 1000) + "us"
+          + " transform=" + (delta / ITERATIONS / 1000) + "us"
+          + " transformClientDelta=" + (composed / ITERATIONS / 1000) + "us");
+    }
+  }
+
+  private static void pairwiseTransform(WaveletDelta clientDelta, List<WaveletDelta> serverDeltas)
+      throws TransformException {
+    List<WaveletOperation> clientOps =
+        new ArrayList<WaveletOperation>(clientDelta.getOperations());
+    for (WaveletDelta serverDelta : serverDeltas) {
+      for (WaveletOperation serverOp : serverDelta.getOperations()) {
+        for (int i = 0; i < clientOps.size(); ++i) {
+          OperationPair<WaveletOperation> pair = Transform.transform(clientOps.get(i),
+              clientDelta.getAuthor(), serverOp, serverDelta.getAuthor());
+          clientOps.set(i, pair.clientOp());
+          serverOp = pair.serverOp();
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws TransformException {
+    new DeltaTransformPerformanceTest().testPerformance();
+  }
+}
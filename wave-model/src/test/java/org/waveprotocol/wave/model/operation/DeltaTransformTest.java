@@ -0,0 +1,265 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.operation;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.RemoveParticipant;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletDocumentOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link DeltaTransform}.
+ *
+ */
+public class DeltaTransformTest extends TestCase {
+
+  private static final String DOMAIN = "example.com";
+  private static final WaveId WAVE_ID = new WaveId(DOMAIN, "hello");
+  private static final WaveletId WAVELET_ID = new WaveletId(DOMAIN, "world");
+  private static final List<String> DOC_IDS = Arrays.asList("a", "b", "c", "d");
+  private static final String INITIAL_CONTENT = "0123456789";
+
+  private static final ParticipantId CLIENT = new ParticipantId("client@" + DOMAIN);
+  private static final ParticipantId SERVER = new ParticipantId("server@" + DOMAIN);
+
+  /**
+   * Generates random deltas of text insertions, text deletions and new
+   * participants, tracking the document contents so that they stay valid.
+   */
+  static class DeltaGenerator {
+
+    private final Random random;
+    private final String participantPrefix;
+    private final Map<String, StringBuilder> contents = new HashMap<String, StringBuilder>();
+    private int participants = 0;
+
+    DeltaGenerator(Random random, String participantPrefix) {
+      this.random = random;
+      this.participantPrefix = participantPrefix;
+      for (String id : DOC_IDS) {
+        contents.put(id, new StringBuilder(INITIAL_CONTENT));
+      }
+    }
+
+    WaveletDelta delta(ParticipantId author, int size) {
+      List<WaveletOperation> ops = new ArrayList<WaveletOperation>();
+      for (int i = 0; i < size; ++i) {
+        ops.add(op());
+      }
+      return new WaveletDelta(author, ops);
+    }
+
+    List<WaveletDelta> history(ParticipantId author, int deltas, int deltaSize) {
+      List<WaveletDelta> history = new ArrayList<WaveletDelta>();
+      for (int i = 0; i < deltas; ++i) {
+        history.add(delta(author, deltaSize));
+      }
+      return history;
+    }
+
+    private WaveletOperation op() {
+      if (random.nextInt(10) == 0) {
+        return new AddParticipant(
+            new ParticipantId(participantPrefix + (participants++) + "@" + DOMAIN));
+      }
+      String id = DOC_IDS.get(random.nextInt(DOC_IDS.size()));
+      StringBuilder content = contents.get(id);
+      int length = content.length();
+      int position = random.nextInt(length + 1);
+      DocOpBuilder builder = new DocOpBuilder();
+      if (position > 0) {
+        builder.retain(position);
+      }
+      if (length > position && random.nextBoolean()) {
+        int end = position + 1 + random.nextInt(Math.min(3, length - position));
+        builder.deleteCharacters(content.substring(position, end));
+        content.delete(position, end);
+        length = content.length();
+      } else {
+        String text = Character.toString((char) ('a' + random.nextInt(26)));
+        builder.characters(text);
+        content.insert(position, text);
+        length = content.length();
+        position += text.length();
+      }
+      if (length > position) {
+        builder.retain(length - position);
+      }
+      return new WaveletDocumentOperation(id, builder.build());
+    }
+  }
+
+  public void testMatchesPairwiseTransform() throws Exception {
+    Random random = new Random(42);
+    for (int run = 0; run < 20; ++run) {
+      WaveletDelta clientDelta = new DeltaGenerator(random, "c").delta(CLIENT, 5);
+      List<WaveletDelta> serverDeltas = new DeltaGenerator(random, "s").history(SERVER, 6, 3);
+
+      DeltaTransform.Result result = DeltaTransform.transform(clientDelta, serverDeltas);
+      DeltaTransform.Result expected = pairwiseTransform(clientDelta, serverDeltas);
+
+      assertDeltaEquals(expected.clientDelta(), result.clientDelta());
+      assertEquals(expected.serverDeltas().size(), result.serverDeltas().size());
+      for (int i = 0; i < expected.serverDeltas().size(); ++i) {
+        assertDeltaEquals(expected.serverDeltas().get(i), result.serverDeltas().get(i));
+      }
+
+      // Both orders converge on the same wavelet.
+      WaveletData serverFirst = newWavelet();
+      apply(serverFirst, serverDeltas);
+      apply(serverFirst, Collections.singletonList(result.clientDelta()));
+      WaveletData clientFirst = newWavelet();
+      apply(clientFirst, Collections.singletonList(clientDelta));
+      apply(clientFirst, result.serverDeltas());
+      assertWaveletEquals(serverFirst, clientFirst);
+    }
+  }
+
+  public void testComposedClientTransformHasSameEffect() throws Exception {
+    Random random = new Random(7);
+    for (int run = 0; run < 20; ++run) {
+      WaveletDelta clientDelta = new DeltaGenerator(random, "c").delta(CLIENT, 5);
+      List<WaveletDelta> serverDeltas = new DeltaGenerator(random, "s").history(SERVER, 6, 3);
+
+      WaveletDelta composed = DeltaTransform.transformClientDelta(clientDelta, serverDeltas);
+      WaveletDelta sequential = DeltaTransform.transform(clientDelta, serverDeltas).clientDelta();
+      assertEquals(clientDelta.getOperations().size(), composed.getOperations().size());
+
+      WaveletData expected = newWavelet();
+      apply(expected, serverDeltas);
+      apply(expected, Collections.singletonList(sequential));
+      WaveletData actual = newWavelet();
+      apply(actual, serverDeltas);
+      apply(actual, Collections.singletonList(composed));
+      assertWaveletEquals(expected, actual);
+    }
+  }
+
+  public void testUntouchedServerDeltasAreReused() throws Exception {
+    WaveletDelta clientDelta = new WaveletDelta(CLIENT, Arrays.asList(
+        new WaveletDocumentOperation("a", new DocOpBuilder().characters("x").build())));
+    WaveletDelta serverDelta = new WaveletDelta(SERVER, Arrays.asList(
+        new WaveletDocumentOperation("b", new DocOpBuilder().characters("y").build())));
+
+    DeltaTransform.Result result =
+        DeltaTransform.transform(clientDelta, Collections.singletonList(serverDelta));
+    assertSame(serverDelta, result.serverDeltas().get(0));
+    assertSame(clientDelta.getOperations().get(0), result.clientDelta().getOperations().get(0));
+  }
+
+  public void testRemovedAuthorFails() throws Exception {
+    WaveletDelta clientDelta = new WaveletDelta(CLIENT, Arrays.asList(
+        new WaveletDocumentOperation("a", new DocOpBuilder().characters("x").build())));
+    WaveletDelta serverDelta = new WaveletDelta(SERVER, Arrays.asList(
+        new RemoveParticipant(CLIENT)));
+    try {
+      DeltaTransform.transform(clientDelta, Collections.singletonList(serverDelta));
+      fail("Should have failed since the client's author was removed.");
+    } catch (RemovedAuthorException expected) {
+      // Expected.
+    }
+    try {
+      DeltaTransform.transformClientDelta(clientDelta, Collections.singletonList(serverDelta));
+      fail("Should have failed since the client's author was removed.");
+    } catch (RemovedAuthorException expected) {
+      // Expected.
+    }
+  }
+
+  // Help
+
+  private static DeltaTransform.Result pairwiseTransform(WaveletDelta clientDelta,
+      List<WaveletDelta> serverDeltas) throws TransformException {
+    List<WaveletOperation> clientOps =
+        new ArrayList<WaveletOperation>(clientDelta.getOperations());
+    List<WaveletDelta> transformedDeltas = new ArrayList<WaveletDelta>();
+    for (WaveletDelta serverDelta : serverDeltas) {
+      List<WaveletOperation> transformedOps = new ArrayList<WaveletOperation>();
+      for (WaveletOperation serverOp : serverDelta.getOperations()) {
+        for (int i = 0; i < clientOps.size(); ++i) {
+          OperationPair<WaveletOperation> pair = Transform.transform(clientOps.get(i),
+              clientDelta.getAuthor(), serverOp, serverDelta.getAuthor());
+          clientOps.set(i, pair.clientOp());
+          serverOp = pair.serverOp();
+        }
+        transformedOps.add(serverOp);
+      }
+      transformedDeltas.add(new WaveletDelta(serverDelta.getAuthor(), transformedOps));
+    }
+    return new DeltaTransform.Result(
+        new WaveletDelta(clientDelta.getAuthor(), clientOps), transformedDeltas);
+  }
+
+  private static WaveletData newWavelet() throws OperationException {
+    WaveletData wavelet = new WaveletDataImpl(WAVE_ID, WAVELET_ID);
+    for (String id : DOC_IDS) {
+      wavelet.modifyDocument(id, new DocOpBuilder().characters(INITIAL_CONTENT).build());
+    }
+    return wavelet;
+  }
+
+  private static void apply(WaveletData wavelet, List<WaveletDelta> deltas)
+      throws OperationException {
+    for (WaveletDelta delta : deltas) {
+      for (WaveletOperation op : delta.getOperations()) {
+        op.apply(wavelet);
+      }
+    }
+  }
+
+  private static void assertDeltaEquals(WaveletDelta expected, WaveletDelta actual) {
+    assertEquals(expected.getAuthor(), actual.getAuthor());
+    assertEquals(expected.getOperations().size(), actual.getOperations().size());
+    for (int i = 0; i < expected.getOperations().size(); ++i) {
+      assertTrue(OpComparators.SYNTACTIC_IDENTITY.equal(
+          expected.getOperations().get(i), actual.getOperations().get(i)));
+    }
+  }
+
+  private static void assertWaveletEquals(WaveletData expected, WaveletData actual) {
+    // Concurrent participant additions may land in either order.
+    assertEquals(new HashSet<ParticipantId>(expected.getParticipants()),
+        new HashSet<ParticipantId>(actual.getParticipants()));
+    assertEquals(expected.getDocuments().keySet(), actual.getDocuments().keySet());
+    for (Map.Entry<String, BufferedDocOp> entry : expected.getDocuments().entrySet()) {
+      assertEquals(DocOpUtil.toXmlString(DocOpUtil.asInitialization(entry.getValue())),
+          DocOpUtil.toXmlString(DocOpUtil.asInitialization(
+              actual.getDocuments().get(entry.getKey()))));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2009 Google Inc. All Rights Reserved.
+
+package org.waveprotocol.wave.model.operation.wave;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.impl.AttributesImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBinaryCodec;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for {@link WaveletDeltaBinaryCodec}.
+ *
+ */
+public class WaveletDeltaBinaryCodecTest extends TestCase {
+
+  private static final ParticipantId AUTHOR = new ParticipantId("author@example.com");
+  private static final ParticipantId OTHER = new ParticipantId("other@example.com");
+
+  private final WaveletDelta delta = new WaveletDelta(AUTHOR, Arrays.asList(
+      new AddParticipant(OTHER),
+      new WaveletDocumentOperation("b+1", new DocOpBuilder()
+          .elementStart("body", new AttributesImpl("lang", "en"))
+          .characters("hello")
+          .elementEnd()
+          .build()),
+      NoOp.INSTANCE,
+      new WaveletDocumentOperation("b+1", new DocOpBuilder().retain(7).build()),
+      new RemoveParticipant(OTHER)));
+
+  public void testRoundTrip() throws IOException {
+    assertEquals(delta, WaveletDeltaBinaryCodec.decode(WaveletDeltaBinaryCodec.encode(delta)));
+
+    WaveletDelta empty = new WaveletDelta(AUTHOR, Collections.<WaveletOperation>emptyList());
+    assertEquals(empty, WaveletDeltaBinaryCodec.decode(WaveletDeltaBinaryCodec.encode(empty)));
+  }
+
+  public void testDeltasShareOneStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DocOpBinaryCodec.Writer writer = new DocOpBinaryCodec.Writer(out);
+    WaveletDeltaBinaryCodec.writeDelta(writer, delta);
+    int first = out.size();
+    WaveletDeltaBinaryCodec.writeDelta(writer, delta);
+    assertTrue(out.size() - first < first);
+
+    DocOpBinaryCodec.Reader reader =
+        new DocOpBinaryCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(delta, WaveletDeltaBinaryCodec.readDelta(reader));
+    assertEquals(delta, WaveletDeltaBinaryCodec.readDelta(reader));
+  }
+
+  public void testRejectsOperationCountBeyondInput() {
+    byte[] bytes = WaveletDeltaBinaryCodec.encode(
+        new WaveletDelta(AUTHOR, Collections.<WaveletOperation>emptyList()));
+    // Replace the trailing operation count of zero with Integer.MAX_VALUE.
+    byte[] corrupt = new byte[bytes.length + 4];
+    System.arraycopy(bytes, 0, corrupt, 0, bytes.length - 1);
+    byte[] count = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+    System.arraycopy(count, 0, corrupt, bytes.length - 1, count.length);
+    try {
+      WaveletDeltaBinaryCodec.decode(corrupt);
+      fail("Should have failed since the input has no operations.");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+}
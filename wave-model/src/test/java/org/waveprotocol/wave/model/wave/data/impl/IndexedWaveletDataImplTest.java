@@ -0,0 +1,153 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.wave.data.impl;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.indexed.IndexedDocumentImpl;
+import org.waveprotocol.wave.model.document.operation.BufferedDocOp;
+import org.waveprotocol.wave.model.document.operation.impl.AttributesImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuffer;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link IndexedWaveletDataImpl}.
+ *
+ */
+public class IndexedWaveletDataImplTest extends TestCase {
+
+  private static final String DOMAIN = "example.com";
+  private static final WaveId WAVE_ID = new WaveId(DOMAIN, "hello");
+  private static final WaveletId WAVELET_ID = new WaveletId(DOMAIN, "world");
+  private static final String DOC_ID = "doc";
+
+  private WaveletData wavelet;
+  private WaveletData reference;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    wavelet = new IndexedWaveletDataImpl(WAVE_ID, WAVELET_ID);
+    reference = new WaveletDataImpl(WAVE_ID, WAVELET_ID);
+  }
+
+  public void testModificationsMatchComposition() throws OperationException {
+    DocOpBuffer op = new DocOpBuffer();
+    op.elementStart("body", AttributesImpl.EMPTY_MAP);
+    op.characters("hello");
+    op.elementEnd();
+    apply(op.finish());
+
+    op = new DocOpBuffer();
+    op.retain(6);
+    op.characters(" world");
+    op.retain(1);
+    apply(op.finish());
+
+    op = new DocOpBuffer();
+    op.retain(1);
+    op.deleteCharacters("he");
+    op.retain(10);
+    apply(op.finish());
+
+    assertEquals("<body>llo world</body>", xml(reference));
+    assertEquals(xml(reference), xml(wavelet));
+  }
+
+  public void testSnapshotIsCachedUntilModified() throws OperationException {
+    DocOpBuffer op = new DocOpBuffer();
+    op.characters("hi");
+    wavelet.modifyDocument(DOC_ID, op.finish());
+
+    BufferedDocOp snapshot = wavelet.getDocuments().get(DOC_ID);
+    assertSame(snapshot, wavelet.getDocuments().get(DOC_ID));
+
+    op = new DocOpBuffer();
+    op.retain(2);
+    op.characters("!");
+    wavelet.modifyDocument(DOC_ID, op.finish());
+    assertNotSame(snapshot, wavelet.getDocuments().get(DOC_ID));
+    assertEquals("hi!", xml(wavelet));
+  }
+
+  public void testEmptiedDocumentIsRemoved() throws OperationException {
+    DocOpBuffer op = new DocOpBuffer();
+    op.characters("hi");
+    apply(op.finish());
+    assertTrue(wavelet.getDocuments().containsKey(DOC_ID));
+
+    op = new DocOpBuffer();
+    op.deleteCharacters("hi");
+    apply(op.finish());
+    assertTrue(reference.getDocuments().isEmpty());
+    assertTrue(wavelet.getDocuments().isEmpty());
+    assertNull(wavelet.getDocuments().get(DOC_ID));
+  }
+
+  public void testInvalidOperationLeavesDocumentUnchanged() throws OperationException {
+    DocOpBuffer op = new DocOpBuffer();
+    op.characters("hi");
+    wavelet.modifyDocument(DOC_ID, op.finish());
+
+    op = new DocOpBuffer();
+    op.retain(5);
+    // Operations are validated even when indexed documents skip validation
+    // by default.
+    boolean performValidation = IndexedDocumentImpl.performValidation;
+    IndexedDocumentImpl.performValidation = false;
+    try {
+      wavelet.modifyDocument(DOC_ID, op.finish());
+      fail("Should have failed since the operation is longer than the document.");
+    } catch (OperationException expected) {
+      // Expected.
+    } finally {
+      IndexedDocumentImpl.performValidation = performValidation;
+    }
+    assertEquals("hi", xml(wavelet));
+  }
+
+  public void testDocumentEntries() throws OperationException {
+    DocOpBuffer op = new DocOpBuffer();
+    op.characters("hi");
+    wavelet.modifyDocument(DOC_ID, op.finish());
+
+    Map.Entry<String, BufferedDocOp> entry =
+        wavelet.getDocuments().entrySet().iterator().next();
+    assertEquals(DOC_ID, entry.getKey());
+    assertSame(wavelet.getDocuments().get(DOC_ID), entry.getValue());
+    Map<String, BufferedDocOp> copy = new HashMap<String, BufferedDocOp>(wavelet.getDocuments());
+    assertEquals(copy.entrySet().iterator().next(), entry);
+    assertEquals(copy.entrySet().iterator().next().hashCode(), entry.hashCode());
+  }
+
+  private void apply(BufferedDocOp op) throws OperationException {
+    wavelet.modifyDocument(DOC_ID, op);
+    reference.modifyDocument(DOC_ID, op);
+  }
+
+  private static String xml(WaveletData data) {
+    return DocOpUtil.toXmlString(DocOpUtil.asInitialization(data.getDocuments().get(DOC_ID)));
+  }
+}
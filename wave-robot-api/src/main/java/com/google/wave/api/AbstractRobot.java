@@ -50,29 +50,50 @@ import net.oauth.SimpleOAuthValidator;
 import net.oauth.signature.OAuthSignatureMethod;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServlet;
@@ -121,9 +142,16 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     /** The {@code urlfetch} fetch timeout in ms. */
     private static final int URLFETCH_TIMEOUT_IN_MS = 10 * 1000;
 
+    /** The {@code urlfetch} connect timeout in ms. */
+    private static final int URLFETCH_CONNECT_TIMEOUT_IN_MS = 5 * 1000;
+
     /**
      * Sends a request to the specified URL.
      *
+     * The response is always read until the end and the connection streams
+     * are closed, so that the underlying connection can be kept alive and
+     * reused for subsequent requests to the same server.
+     *
      * @param url the URL to send the request to.
      * @param contentType the content type of the request body.
      * @param body the request body.
@@ -133,39 +161,332 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
      *         HTTP response code is not HTTP OK.
      */
     public String send(String url, String contentType, String body) throws IOException {
-      OutputStreamWriter out = null;
+      final byte[] bytes = body.getBytes(UTF_8);
+      return send(url, contentType, new RequestBody() {
+        @Override
+        public int getContentLength() {
+          return bytes.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+          out.write(bytes);
+        }
+      });
+    }
+
+    /**
+     * Sends a request, whose body is written straight into the connection, to
+     * the given URL. The body is sent with a fixed content length, so that the
+     * connection doesn't buffer it in memory.
+     *
+     * @param url the URL to send the request to.
+     * @param contentType the content type of the request body.
+     * @param body the request body.
+     * @return the response from the server.
+     *
+     * @throws IOException if there is a problem sending the request, or the
+     *         HTTP response code is not HTTP OK.
+     */
+    public String send(String url, String contentType, RequestBody body) throws IOException {
+      // Open the connection.
+      HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+      conn.setConnectTimeout(URLFETCH_CONNECT_TIMEOUT_IN_MS);
+      conn.setReadTimeout(URLFETCH_TIMEOUT_IN_MS);
+
+      // Send the request body.
+      conn.setDoOutput(true);
+      conn.setRequestProperty("Content-Type", contentType);
+      conn.setFixedLengthStreamingMode(body.getContentLength());
+      OutputStream out = conn.getOutputStream();
       try {
-        // Open the connection.
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setReadTimeout(URLFETCH_TIMEOUT_IN_MS);
-
-        // Send the request body.
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", contentType);
-        out = new OutputStreamWriter(conn.getOutputStream(), UTF_8);
-        out.write(body);
+        body.writeTo(out);
         out.flush();
+      } finally {
+        out.close();
+      }
 
-        // Read the response
-        BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-        StringBuilder result = new StringBuilder();
-        String s;
-        while ((s = reader.readLine()) != null) {
-          result.append(s);
-        }
+      // Read the response.
+      int responseCode = conn.getResponseCode();
+      InputStream in = responseCode == HttpURLConnection.HTTP_OK ?
+          conn.getInputStream() : conn.getErrorStream();
+      String result = in != null ? readFully(in) : "";
 
-        // Throw an exception if the response is not OK.
-        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-          LOG.severe("Invalid response: " + result.toString());
-          throw new IOException("HTTP Response code is not OK: " + conn.getResponseCode());
-        }
+      // Throw an exception if the response is not OK.
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        LOG.severe("Invalid response: " + result);
+        throw new IOException("HTTP Response code is not OK: " + responseCode);
+      }
+      return result;
+    }
 
+    /**
+     * Reads the given stream as UTF-8 text until the end, and closes it.
+     *
+     * @param in the stream to read.
+     * @return the content of the stream.
+     *
+     * @throws IOException if there is a problem reading the stream.
+     */
+    private static String readFully(InputStream in) throws IOException {
+      Reader reader = new InputStreamReader(in, UTF_8);
+      try {
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+          result.append(buffer, 0, read);
+        }
         return result.toString();
       } finally {
-        if (out != null) {
-          out.close();
-        }
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * The body of an outgoing HTTP request, that is written straight into the
+   * connection rather than being built as a string first.
+   */
+  interface RequestBody {
+
+    /**
+     * @return the length of the body in bytes.
+     */
+    int getContentLength();
+
+    /**
+     * Writes the body into the given stream.
+     *
+     * @param out the stream to write the body into.
+     *
+     * @throws IOException if there is a problem writing the body.
+     */
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * A request body that contains a list of operations in JSON.
+   *
+   * The OAuth body hash has to be known before the request is sent, so the
+   * operations are serialized twice: once into a digest, to compute the hash
+   * and the length, and once more into the connection. Neither pass holds
+   * more than one serialized operation in memory.
+   */
+  static class OperationsBody implements RequestBody {
+
+    /** The serializer for the operations. */
+    private final Gson serializer;
+
+    /** The operations to be sent. */
+    private final List<OperationRequest> operations;
+
+    /** The SHA-1 hash of the body. */
+    private final byte[] hash;
+
+    /** The length of the body in bytes. */
+    private final int contentLength;
+
+    /**
+     * Constructor.
+     *
+     * @param serializer the serializer for the operations.
+     * @param operations the operations to be sent.
+     *
+     * @throws IOException if there is a problem serializing the operations.
+     */
+    public OperationsBody(Gson serializer, List<OperationRequest> operations) throws IOException {
+      this.serializer = serializer;
+      this.operations = new ArrayList<OperationRequest>(operations);
+
+      MessageDigest md = newBodyDigest();
+      ByteCounter counter = new ByteCounter();
+      write(new DigestOutputStream(counter, md));
+      this.hash = md.digest();
+      this.contentLength = counter.getCount();
+    }
+
+    /**
+     * @return the SHA-1 hash of the body.
+     */
+    public byte[] getHash() {
+      return hash;
+    }
+
+    @Override
+    public int getContentLength() {
+      return contentLength;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      MessageDigest md = newBodyDigest();
+      write(new DigestOutputStream(out, md));
+      if (!MessageDigest.isEqual(hash, md.digest())) {
+        throw new IOException("The operations changed while they were being sent.");
+      }
+    }
+
+    /**
+     * Serializes the operations into the given stream as UTF-8.
+     *
+     * @param out the stream to write the operations into.
+     *
+     * @throws IOException if there is a problem writing the operations.
+     */
+    private void write(OutputStream out) throws IOException {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+      writeOperations(serializer, operations, writer);
+      writer.flush();
+    }
+  }
+
+  /**
+   * An output stream that discards its content, and counts its length.
+   */
+  private static class ByteCounter extends OutputStream {
+
+    /** The number of bytes that have been written. */
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+
+    /**
+     * @return the number of bytes that have been written.
+     *
+     * @throws IOException if the count doesn't fit into a request body.
+     */
+    public int getCount() throws IOException {
+      if (count > Integer.MAX_VALUE) {
+        throw new IOException("Request body is too large: " + count + " bytes.");
+      }
+      return (int) count;
+    }
+  }
+
+  /**
+   * A pending asynchronous submission of operations, that completes once the
+   * batch it belongs to has been sent, and the responses have been received.
+   *
+   * Cancelling a submission only stops callers from waiting for it; its
+   * operations may still be sent with the rest of the batch.
+   */
+  private static class PendingSubmission implements Future<List<JsonRpcResponse>> {
+
+    /** The operations to be submitted. */
+    private final List<OperationRequest> operations;
+
+    /** Released once the submission is completed or cancelled. */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /** The responses, if the submission succeeded. */
+    private List<JsonRpcResponse> responses;
+
+    /** The cause of the failure, if the submission failed. */
+    private Throwable failure;
+
+    /** Whether the submission has been cancelled. */
+    private boolean cancelled;
+
+    /**
+     * Constructor.
+     *
+     * @param operations the operations to be submitted.
+     */
+    public PendingSubmission(List<OperationRequest> operations) {
+      this.operations = operations;
+    }
+
+    /**
+     * @return the operations to be submitted.
+     */
+    public List<OperationRequest> getOperations() {
+      return operations;
+    }
+
+    /**
+     * Completes the submission with the given responses, unless it has been
+     * completed or cancelled already.
+     *
+     * @param responses the responses for the submitted operations.
+     */
+    public synchronized void set(List<JsonRpcResponse> responses) {
+      if (!isDone()) {
+        this.responses = responses;
+        done.countDown();
+      }
+    }
+
+    /**
+     * Fails the submission with the given cause, unless it has been completed
+     * or cancelled already.
+     *
+     * @param t the cause of the failure.
+     */
+    public synchronized void setException(Throwable t) {
+      if (!isDone()) {
+        this.failure = t;
+        done.countDown();
+      }
+    }
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+      if (isDone()) {
+        return false;
+      }
+      cancelled = true;
+      done.countDown();
+      return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public List<JsonRpcResponse> get() throws InterruptedException, ExecutionException {
+      done.await();
+      return getResult();
+    }
+
+    @Override
+    public List<JsonRpcResponse> get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException("The submission has not completed yet.");
+      }
+      return getResult();
+    }
+
+    /**
+     * @return the responses of a completed submission.
+     *
+     * @throws ExecutionException if the submission failed.
+     * @throws CancellationException if the submission has been cancelled.
+     */
+    private synchronized List<JsonRpcResponse> getResult() throws ExecutionException {
+      if (cancelled) {
+        throw new CancellationException("The submission has been cancelled.");
+      }
+      if (failure != null) {
+        throw new ExecutionException(failure);
       }
+      return responses;
     }
   }
 
@@ -251,9 +572,30 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
   private static final Logger LOG = Logger.getLogger(AbstractRobot.class.getName());
   private static final String ACTIVE_API_OPERATION_NAMESPACE = "wave";
 
+  /** The size of the buffer that operations are serialized through. */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** The number of threads of the default asynchronous submission executor. */
+  private static final int DEFAULT_ACTIVE_API_THREADS = 4;
+
+  /**
+   * The types of events that only concern their blip, and whose handlers may
+   * run in parallel. See {@link #setEventDispatchExecutor(Executor)}.
+   */
+  private static final Set<EventType> BLIP_EVENT_TYPES = EnumSet.of(
+      EventType.BLIP_CONTRIBUTORS_CHANGED,
+      EventType.BLIP_SUBMITTED,
+      EventType.DOCUMENT_CHANGED,
+      EventType.FORM_BUTTON_CLICKED,
+      EventType.GADGET_STATE_CHANGED,
+      EventType.ANNOTATED_TEXT_CHANGED);
+
   /** Serializer to serialize events and operations in the event-based mode. */
   private static final Gson SERIALIZER = new GsonFactory().create();
 
+  /** Serializer to deserialize events with lazily materialized blips. */
+  private static final Gson LAZY_BLIPS_SERIALIZER = createLazyBlipsSerializer();
+
   /** Serializer to serialize events and operations in active mode. */
   private static final Gson SERIALIZER_FOR_ACTIVE_API =
       new GsonFactory().create(ACTIVE_API_OPERATION_NAMESPACE);
@@ -270,6 +612,16 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
   /** A map of RPC server URL to its consumer data object. */
   private final Map<String, ConsumerData> consumerData = new HashMap<String, ConsumerData>();
 
+  /** Asynchronous submissions that have not been sent yet, keyed by RPC server URL. */
+  private final Map<String, List<PendingSubmission>> pendingSubmissions =
+      new HashMap<String, List<PendingSubmission>>();
+
+  /** The executor that sends asynchronous submissions. */
+  private Executor activeApiExecutor;
+
+  /** Whether {@link #activeApiExecutor} has been created by this robot. */
+  private boolean ownsActiveApiExecutor;
+
   /** The token used to verify author during the registration process. */
   private String verificationToken;
 
@@ -278,6 +630,18 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
 
   private boolean allowUnsignedRequests = true;
 
+  /** Whether incoming event bundles are parsed straight off the request. */
+  private boolean streamIncomingEvents = false;
+
+  /** Whether the blips of incoming event bundles are materialized lazily. */
+  private boolean deserializeBlipsLazily = false;
+
+  /** Whether outgoing operations are coalesced before they are sent. */
+  private boolean coalesceOperations = false;
+
+  /** The executor that runs event handlers in parallel, or {@code null}. */
+  private Executor eventDispatchExecutor;
+
   /**
    * Constructor.
    */
@@ -316,6 +680,64 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     return responses;
   }
 
+  /**
+   * Submits the pending operations associated with this {@link Wavelet}
+   * asynchronously.
+   *
+   * The pending operations are taken off the wavelet's operation queue
+   * immediately. They are then sent by the Active API executor (see
+   * {@link #setActiveApiExecutor(Executor)}), together with the operations of
+   * any other wavelets that have been submitted asynchronously to the same
+   * RPC server URL in the meantime, as a single JSON-RPC batch.
+   *
+   * @param wavelet the wavelet that contains the operations to be submitted.
+   * @param rpcServerUrl the active gateway to send the operations to.
+   * @return a future of the list of {@link JsonRpcResponse} that represents
+   *     the responses from the server. Like with
+   *     {@link #submit(Wavelet, String)}, the first response is the one for
+   *     the {@code robot.notify()} operation, followed by the responses for
+   *     this wavelet's operations.
+   *
+   * @throws IllegalStateException if this method is called prior to setting
+   *     the proper consumer key, secret, and handler URL.
+   */
+  public Future<List<JsonRpcResponse>> submitAsync(Wavelet wavelet, final String rpcServerUrl) {
+    getConsumerData(rpcServerUrl);
+
+    OperationQueue opQueue = wavelet.getOperationQueue();
+    // Operations are only coalesced within a submission. Merging operations
+    // of different submissions would leave one of them without responses.
+    List<OperationRequest> operations =
+        new ArrayList<OperationRequest>(opQueue.getPendingOperations());
+    if (coalesceOperations) {
+      operations = OperationCoalescer.coalesce(operations);
+    }
+    PendingSubmission submission = new PendingSubmission(operations);
+    opQueue.clear();
+
+    boolean scheduleFlush = false;
+    synchronized (pendingSubmissions) {
+      List<PendingSubmission> batch = pendingSubmissions.get(rpcServerUrl);
+      if (batch == null) {
+        batch = new ArrayList<PendingSubmission>();
+        pendingSubmissions.put(rpcServerUrl, batch);
+        scheduleFlush = true;
+      }
+      batch.add(submission);
+    }
+
+    // Submissions that arrive before the flush runs join the same batch.
+    if (scheduleFlush) {
+      getActiveApiExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          flushSubmissions(rpcServerUrl);
+        }
+      });
+    }
+    return submission;
+  }
+
   /**
    * Returns an empty/blind stub of a wavelet with the given wave id and wavelet
    * id.
@@ -602,6 +1024,18 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     return wavelet;
   }
 
+  @Override
+  public void destroy() {
+    synchronized (this) {
+      if (ownsActiveApiExecutor) {
+        ((ExecutorService) activeApiExecutor).shutdown();
+        activeApiExecutor = null;
+        ownsActiveApiExecutor = false;
+      }
+    }
+    super.destroy();
+  }
+
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
     if (req.getRequestURI().endsWith(RPC_PATH)) {
@@ -727,6 +1161,136 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     return allowUnsignedRequests;
   }
 
+  /**
+   * Sets the executor that runs event handlers in parallel. By default, this
+   * is {@code null}, and events are dispatched one after another on the
+   * servlet thread.
+   *
+   * With an executor, the blip events of a bundle, such as
+   * {@link BlipSubmittedEvent} and {@link DocumentChangedEvent}, that refer to
+   * different blips are handled in parallel, while the events of each blip
+   * are handled in order on one thread. All other events, including wavelet
+   * events, which refer to the root blip but may touch the whole wavelet, are
+   * handled on the servlet thread, after all earlier events, and before any
+   * later ones. The operations of each handler are merged back into the
+   * bundle's operation queue in the order of the events, so the queue looks
+   * the same as if the events had been dispatched one after another.
+   *
+   * This mode is only safe for handlers that are independent per blip. They
+   * may read the wavelet, and modify their event's blip, but must not modify
+   * other blips or the wavelet itself other than through operations. Blips
+   * that a handler creates or deletes are added to, or removed from, the
+   * wavelet's blip map only after all handlers of the same batch have
+   * finished. All blips and blip data of the bundle are materialized before
+   * the handlers run, so lazily deserialized blips (see
+   * {@link #setDeserializeBlipsLazily(boolean)}) are not materialized
+   * concurrently.
+   *
+   * @param executor the executor to run event handlers with, or {@code null}
+   *     to dispatch events sequentially. The caller is responsible for
+   *     shutting it down.
+   */
+  protected void setEventDispatchExecutor(Executor executor) {
+    this.eventDispatchExecutor = executor;
+  }
+
+  /**
+   * @return the executor that runs event handlers in parallel, or
+   *     {@code null} if events are dispatched sequentially.
+   */
+  protected Executor getEventDispatchExecutor() {
+    return eventDispatchExecutor;
+  }
+
+  /**
+   * Sets the executor that sends the operations that are submitted via
+   * {@link #submitAsync(Wavelet, String)}. By default, a fixed pool of
+   * daemon threads is used, and shut down when this servlet is destroyed.
+   *
+   * @param executor the executor to send asynchronous submissions with. The
+   *     caller is responsible for shutting it down.
+   */
+  protected synchronized void setActiveApiExecutor(Executor executor) {
+    if (ownsActiveApiExecutor) {
+      ((ExecutorService) activeApiExecutor).shutdown();
+    }
+    this.activeApiExecutor = executor;
+    this.ownsActiveApiExecutor = false;
+  }
+
+  /**
+   * Sets whether or not incoming event bundles should be deserialized directly
+   * from the request input stream.
+   *
+   * In streaming mode, the request body is decoded and parsed in a single
+   * pass, and the OAuth body hash is computed over the same bytes as they are
+   * read, instead of first copying the whole body into a string. The incoming
+   * JSON is not logged in this mode.
+   *
+   * @param streamIncomingEvents whether or not incoming event bundles should
+   *     be streamed.
+   */
+  protected void setStreamIncomingEvents(boolean streamIncomingEvents) {
+    this.streamIncomingEvents = streamIncomingEvents;
+  }
+
+  /**
+   * @return {@code true} if incoming event bundles are deserialized directly
+   *     from the request input stream.
+   */
+  protected boolean isStreamIncomingEvents() {
+    return streamIncomingEvents;
+  }
+
+  /**
+   * Sets whether or not the blips of incoming event bundles should be
+   * materialized on first access.
+   *
+   * In lazy mode, the raw JSON of each blip in the bundle is retained, and
+   * only turned into a {@link Blip} when the robot looks it up through
+   * {@link Wavelet#getBlip(String)}, {@link Wavelet#getBlips()}, or
+   * {@link Event#getBlip()}. This saves work for robots that receive large
+   * wavelets, but only touch a few of their blips.
+   *
+   * @param deserializeBlipsLazily whether or not blips should be materialized
+   *     lazily.
+   */
+  protected void setDeserializeBlipsLazily(boolean deserializeBlipsLazily) {
+    this.deserializeBlipsLazily = deserializeBlipsLazily;
+  }
+
+  /**
+   * @return {@code true} if the blips of incoming event bundles are
+   *     materialized on first access.
+   */
+  protected boolean isDeserializeBlipsLazily() {
+    return deserializeBlipsLazily;
+  }
+
+  /**
+   * Sets whether or not outgoing operations should be coalesced before they
+   * are sent, in both the event-based and the active mode. See
+   * {@link OperationQueue#coalesce()} for the operations that are merged.
+   *
+   * Robots that read the responses of individual operations should be aware
+   * that merged operations only get a response for the id of the first
+   * operation in the merged run.
+   *
+   * @param coalesceOperations whether or not outgoing operations should be
+   *     coalesced.
+   */
+  protected void setCoalesceOperations(boolean coalesceOperations) {
+    this.coalesceOperations = coalesceOperations;
+  }
+
+  /**
+   * @return {@code true} if outgoing operations are coalesced before they are
+   *     sent.
+   */
+  protected boolean isCoalesceOperations() {
+    return coalesceOperations;
+  }
+
   /**
    * Processes the incoming HTTP request to obtain the verification token.
    *
@@ -885,6 +1449,9 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     processEvents(events);
 
     // Serialize the operations.
+    if (coalesceOperations) {
+      operationQueue.coalesce();
+    }
     serializeOperations(operationQueue.getPendingOperations(), resp);
     operationQueue.clear();
   }
@@ -897,57 +1464,184 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
    * @param events the incoming event bundle.
    */
   protected void processEvents(EventMessageBundle events) {
+    Executor executor = eventDispatchExecutor;
+    if (executor != null) {
+      processEventsInParallel(events, executor);
+      return;
+    }
+    for (Event event : events.getEvents()) {
+      dispatchEvent(event);
+    }
+  }
+
+  /**
+   * Processes the incoming event bundle, by running the handlers of blip
+   * events that refer to different blips in parallel. See
+   * {@link #setEventDispatchExecutor(Executor)}.
+   *
+   * @param events the incoming event bundle.
+   * @param executor the executor to run the handlers with.
+   */
+  private void processEventsInParallel(EventMessageBundle events, Executor executor) {
+    // Materialize all blips and blip data up front, so that the lazy maps of
+    // the wavelet and the bundle are not mutated by concurrent lookups.
+    Wavelet wavelet = events.getWavelet();
+    wavelet.getBlips().entrySet();
+    events.getBlipData().entrySet();
+
+    List<Event> batch = new ArrayList<Event>();
     for (Event event : events.getEvents()) {
-      switch (event.getType()) {
-        case ANNOTATED_TEXT_CHANGED:
-          onAnnotatedTextChanged(AnnotatedTextChangedEvent.as(event));
-          break;
-        case BLIP_CONTRIBUTORS_CHANGED:
-          onBlipContributorsChanged(BlipContributorsChangedEvent.as(event));
-          break;
-        case BLIP_SUBMITTED:
-          onBlipSubmitted(BlipSubmittedEvent.as(event));
-          break;
-        case DOCUMENT_CHANGED:
-          onDocumentChanged(DocumentChangedEvent.as(event));
-          break;
-        case FORM_BUTTON_CLICKED:
-          onFormButtonClicked(FormButtonClickedEvent.as(event));
-          break;
-        case GADGET_STATE_CHANGED:
-          onGadgetStateChanged(GadgetStateChangedEvent.as(event));
-          break;
-        case WAVELET_BLIP_CREATED:
-          onWaveletBlipCreated(WaveletBlipCreatedEvent.as(event));
-          break;
-        case WAVELET_BLIP_REMOVED:
-          onWaveletBlipRemoved(WaveletBlipRemovedEvent.as(event));
-          break;
-        case WAVELET_CREATED:
-          onWaveletCreated(WaveletCreatedEvent.as(event));
-          break;
-        case WAVELET_FETCHED:
-          onWaveletFetched(WaveletFetchedEvent.as(event));
-          break;
-        case WAVELET_PARTICIPANTS_CHANGED:
-          onWaveletParticipantsChanged(WaveletParticipantsChangedEvent.as(event));
-          break;
-        case WAVELET_SELF_ADDED:
-          onWaveletSelfAdded(WaveletSelfAddedEvent.as(event));
-          break;
-        case WAVELET_SELF_REMOVED:
-          onWaveletSelfRemoved(WaveletSelfRemovedEvent.as(event));
-          break;
-        case WAVELET_TAGS_CHANGED:
-          onWaveletTagsChanged(WaveletTagsChangedEvent.as(event));
-          break;
-        case WAVELET_TITLE_CHANGED:
-          onWaveletTitleChanged(WaveletTitleChangedEvent.as(event));
-          break;
-        case OPERATION_ERROR:
-          onOperationError(OperationErrorEvent.as(event));
-          break;
+      if (BLIP_EVENT_TYPES.contains(event.getType()) && event.getBlip() != null) {
+        batch.add(event);
+      } else {
+        // Other events may touch the whole wavelet, even if they refer to the
+        // root blip, so they are handled alone, in order.
+        dispatchBatch(batch, wavelet, executor);
+        batch.clear();
+        dispatchEvent(event);
+      }
+    }
+    dispatchBatch(batch, wavelet, executor);
+  }
+
+  /**
+   * Dispatches a batch of blip events, running the events of
+   * different blips in parallel, and the events of each blip in order. The
+   * operations of the handlers are then merged into the wavelet's operation
+   * queue in the order of the events.
+   *
+   * @param batch the events to be dispatched.
+   * @param wavelet the wavelet of the event bundle.
+   * @param executor the executor to run the handlers with.
+   */
+  private void dispatchBatch(List<Event> batch, Wavelet wavelet, Executor executor) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    final OperationQueue opQueue = wavelet.getOperationQueue();
+
+    // Group the events by blip, in the order of their first event.
+    Map<String, List<Integer>> eventsByBlip = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < batch.size(); ++i) {
+      String blipId = batch.get(i).getBlip().getBlipId();
+      List<Integer> indexes = eventsByBlip.get(blipId);
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>();
+        eventsByBlip.put(blipId, indexes);
+      }
+      indexes.add(i);
+    }
+
+    final Event[] events = batch.toArray(new Event[batch.size()]);
+    final OperationQueue.Capture[] captures = new OperationQueue.Capture[events.length];
+    final Throwable[] failures = new Throwable[events.length];
+    List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(eventsByBlip.size());
+    for (final List<Integer> indexes : eventsByBlip.values()) {
+      FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+        @Override
+        public void run() {
+          for (int index : indexes) {
+            captures[index] = opQueue.startCapture();
+            try {
+              dispatchEvent(events[index]);
+            } catch (RuntimeException e) {
+              failures[index] = e;
+              return;
+            } catch (Error e) {
+              failures[index] = e;
+              return;
+            } finally {
+              OperationQueue.stopCapture();
+            }
+          }
+        }
+      }, null);
+      tasks.add(task);
+      executor.execute(task);
+    }
+
+    // Wait for all handlers, and merge their operations in event order, up to
+    // the first failure.
+    try {
+      for (FutureTask<Void> task : tasks) {
+        task.get();
+      }
+    } catch (InterruptedException e) {
+      for (FutureTask<Void> task : tasks) {
+        task.cancel(true);
       }
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while dispatching events.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to dispatch events.", e.getCause());
+    }
+    for (int i = 0; i < events.length; ++i) {
+      if (captures[i] != null) {
+        opQueue.commit(captures[i]);
+      }
+      if (failures[i] instanceof RuntimeException) {
+        throw (RuntimeException) failures[i];
+      } else if (failures[i] instanceof Error) {
+        throw (Error) failures[i];
+      }
+    }
+  }
+
+  /**
+   * Dispatches an event to its handler, based on the event type.
+   *
+   * @param event the event to be dispatched.
+   */
+  private void dispatchEvent(Event event) {
+    switch (event.getType()) {
+      case ANNOTATED_TEXT_CHANGED:
+        onAnnotatedTextChanged(AnnotatedTextChangedEvent.as(event));
+        break;
+      case BLIP_CONTRIBUTORS_CHANGED:
+        onBlipContributorsChanged(BlipContributorsChangedEvent.as(event));
+        break;
+      case BLIP_SUBMITTED:
+        onBlipSubmitted(BlipSubmittedEvent.as(event));
+        break;
+      case DOCUMENT_CHANGED:
+        onDocumentChanged(DocumentChangedEvent.as(event));
+        break;
+      case FORM_BUTTON_CLICKED:
+        onFormButtonClicked(FormButtonClickedEvent.as(event));
+        break;
+      case GADGET_STATE_CHANGED:
+        onGadgetStateChanged(GadgetStateChangedEvent.as(event));
+        break;
+      case WAVELET_BLIP_CREATED:
+        onWaveletBlipCreated(WaveletBlipCreatedEvent.as(event));
+        break;
+      case WAVELET_BLIP_REMOVED:
+        onWaveletBlipRemoved(WaveletBlipRemovedEvent.as(event));
+        break;
+      case WAVELET_CREATED:
+        onWaveletCreated(WaveletCreatedEvent.as(event));
+        break;
+      case WAVELET_FETCHED:
+        onWaveletFetched(WaveletFetchedEvent.as(event));
+        break;
+      case WAVELET_PARTICIPANTS_CHANGED:
+        onWaveletParticipantsChanged(WaveletParticipantsChangedEvent.as(event));
+        break;
+      case WAVELET_SELF_ADDED:
+        onWaveletSelfAdded(WaveletSelfAddedEvent.as(event));
+        break;
+      case WAVELET_SELF_REMOVED:
+        onWaveletSelfRemoved(WaveletSelfRemovedEvent.as(event));
+        break;
+      case WAVELET_TAGS_CHANGED:
+        onWaveletTagsChanged(WaveletTagsChangedEvent.as(event));
+        break;
+      case WAVELET_TITLE_CHANGED:
+        onWaveletTitleChanged(WaveletTitleChangedEvent.as(event));
+        break;
+      case OPERATION_ERROR:
+        onOperationError(OperationErrorEvent.as(event));
+        break;
     }
   }
 
@@ -1024,10 +1718,26 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
    * @throws IllegalArgumentException if the request is not signed properly.
    */
   private EventMessageBundle deserializeEvents(HttpServletRequest req) throws IOException {
-    String json = readRequestBody(req);
-    LOG.info("Incoming events: " + json);
+    Gson serializer = deserializeBlipsLazily ? LAZY_BLIPS_SERIALIZER : SERIALIZER;
+    EventMessageBundle bundle;
+    byte[] bodyHash;
+    if (streamIncomingEvents) {
+      MessageDigest md = newBodyDigest();
+      InputStream body = new DigestInputStream(req.getInputStream(), md);
+      bundle = serializer.fromJson(new InputStreamReader(body, UTF_8), EventMessageBundle.class);
+
+      // Consume any trailing bytes, so that they are included in the hash.
+      drain(body);
+      bodyHash = md.digest();
+    } else {
+      String json = readRequestBody(req);
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Incoming events: " + json);
+      }
 
-    EventMessageBundle bundle = SERIALIZER.fromJson(json, EventMessageBundle.class);
+      bundle = serializer.fromJson(json, EventMessageBundle.class);
+      bodyHash = newBodyDigest().digest(json.getBytes(UTF_8));
+    }
 
     if (bundle.getRpcServerUrl() == null) {
       throw new IllegalArgumentException("RPC server URL is not set in the event bundle.");
@@ -1046,9 +1756,7 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
         @SuppressWarnings("unchecked")
         Map<String, String[]> parameterMap = req.getParameterMap();
         validateOAuthRequest(req.getRequestURL().toString(), parameterMap,
-            json, consumerDataObj.getConsumerKey(), consumerDataObj.getConsumerSecret());
-      } catch (NoSuchAlgorithmException e) {
-        throw new IllegalArgumentException("Error validating OAuth request", e);
+            bodyHash, consumerDataObj.getConsumerKey(), consumerDataObj.getConsumerSecret());
       } catch (URISyntaxException e) {
         throw new IllegalArgumentException("Error validating OAuth request", e);
       } catch (OAuthException e) {
@@ -1072,29 +1780,46 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
    */
   private List<JsonRpcResponse> makeRpc(OperationQueue opQueue, String rpcServerUrl)
       throws IOException {
-    if (rpcServerUrl == null) {
-      throw new IllegalStateException("RPC Server URL is not set up.");
-    }
+    return makeRpc(opQueue, rpcServerUrl, coalesceOperations);
+  }
 
-    ConsumerData consumerDataObj = consumerData.get(rpcServerUrl);
-    if (consumerDataObj == null) {
-      throw new IllegalStateException("Consumer key, consumer secret, and  JSON-RPC server URL " +
-          "have to be set first, by calling AbstractRobot.setupOAuth(), before invoking " +
-          "AbstractRobot.submit().");
-    }
+  /**
+   * Submits the given operations.
+   *
+   * @param opQueue the operation queue to be submitted.
+   * @param rpcServerUrl the active gateway to send the operations to.
+   * @param coalesce whether to coalesce the operations before they are sent.
+   * @return a list of {@link JsonRpcResponse} that represents the responses
+   *     from the server for all operations that were submitted.
+   *
+   * @throws IllegalStateException if this method is called prior to setting
+   *     the proper consumer key, secret, and handler URL.
+   * @throws IOException if there is a problem submitting the operations.
+   */
+  private List<JsonRpcResponse> makeRpc(OperationQueue opQueue, String rpcServerUrl,
+      boolean coalesce) throws IOException {
+    ConsumerData consumerDataObj = getConsumerData(rpcServerUrl);
 
     opQueue.notifyRobotInformation(PROTOCOL_VERSION, version);
-    String json = SERIALIZER_FOR_ACTIVE_API.toJson(opQueue.getPendingOperations(),
-        new TypeToken<List<OperationRequest>>(){}.getType());
+    if (coalesce) {
+      opQueue.coalesce();
+    }
+    List<OperationRequest> operations = opQueue.getPendingOperations();
+    if (LOG.isLoggable(Level.FINE)) {
+      LOG.fine("JSON request to be sent: " + SERIALIZER_FOR_ACTIVE_API.toJson(operations,
+          new TypeToken<List<OperationRequest>>(){}.getType()));
+    }
+    OperationsBody body = new OperationsBody(SERIALIZER_FOR_ACTIVE_API, operations);
 
     try {
-      String url = createOAuthUrlString(json, consumerDataObj.getRpcServerUrl(),
+      String url = createOAuthUrlString(body.getHash(), consumerDataObj.getRpcServerUrl(),
           consumerDataObj.getConsumerKey(), consumerDataObj.getConsumerSecret());
-      LOG.info("JSON request to be sent: " + json);
 
-      String responseString = httpFetcher.send(url, JSON_MIME_TYPE, json);
+      String responseString = httpFetcher.send(url, JSON_MIME_TYPE, body);
 
-      LOG.info("Response returned: " + responseString);
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Response returned: " + responseString);
+      }
 
       List<JsonRpcResponse> responses = null;
       if (responseString.startsWith("[")) {
@@ -1115,28 +1840,186 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
   }
 
   /**
-   * Serializes the given outgoing operations into a JSON string, and put it in
-   * the given response object.
+   * Returns the consumer data for the given RPC server URL.
+   *
+   * @param rpcServerUrl the active gateway to send operations to.
+   * @return the consumer data that is used to sign the operations.
+   *
+   * @throws IllegalStateException if this method is called prior to setting
+   *     the proper consumer key, secret, and handler URL.
+   */
+  private ConsumerData getConsumerData(String rpcServerUrl) {
+    if (rpcServerUrl == null) {
+      throw new IllegalStateException("RPC Server URL is not set up.");
+    }
+
+    ConsumerData consumerDataObj = consumerData.get(rpcServerUrl);
+    if (consumerDataObj == null) {
+      throw new IllegalStateException("Consumer key, consumer secret, and  JSON-RPC server URL " +
+          "have to be set first, by calling AbstractRobot.setupOAuth(), before invoking " +
+          "AbstractRobot.submit().");
+    }
+    return consumerDataObj;
+  }
+
+  /**
+   * Sends all pending asynchronous submissions for the given RPC server URL
+   * as a single JSON-RPC batch, and completes each submission with the
+   * responses for its operations.
+   *
+   * @param rpcServerUrl the active gateway to send the operations to.
+   */
+  private void flushSubmissions(String rpcServerUrl) {
+    List<PendingSubmission> batch;
+    synchronized (pendingSubmissions) {
+      batch = pendingSubmissions.remove(rpcServerUrl);
+    }
+    if (batch == null) {
+      return;
+    }
+
+    List<OperationRequest> operations = new ArrayList<OperationRequest>();
+    Set<String> operationIds = new HashSet<String>();
+    for (PendingSubmission submission : batch) {
+      for (OperationRequest operation : submission.getOperations()) {
+        operations.add(operation);
+        operationIds.add(operation.getId());
+      }
+    }
+
+    List<JsonRpcResponse> responses;
+    try {
+      // Each submission has been coalesced on its own already.
+      responses = makeRpc(new OperationQueue(operations, null), rpcServerUrl, false);
+    } catch (IOException e) {
+      for (PendingSubmission submission : batch) {
+        submission.setException(e);
+      }
+      return;
+    } catch (RuntimeException e) {
+      for (PendingSubmission submission : batch) {
+        submission.setException(e);
+      }
+      return;
+    }
+
+    // makeRpc() prepends the robot.notify() operation to the batch. Its
+    // response, and the responses that can't be attributed to any operation,
+    // are shared by all submissions.
+    String notifyOperationId = operations.get(0).getId();
+    JsonRpcResponse notifyResponse = null;
+    Map<String, JsonRpcResponse> responsesById = new HashMap<String, JsonRpcResponse>();
+    List<JsonRpcResponse> unattributed = new ArrayList<JsonRpcResponse>();
+    for (JsonRpcResponse response : responses) {
+      if (notifyOperationId.equals(response.getId())) {
+        notifyResponse = response;
+      } else if (operationIds.contains(response.getId())) {
+        responsesById.put(response.getId(), response);
+      } else {
+        unattributed.add(response);
+      }
+    }
+
+    for (PendingSubmission submission : batch) {
+      List<JsonRpcResponse> result = new ArrayList<JsonRpcResponse>();
+      if (notifyResponse != null) {
+        result.add(notifyResponse);
+      }
+      for (OperationRequest operation : submission.getOperations()) {
+        JsonRpcResponse response = responsesById.get(operation.getId());
+        if (response != null) {
+          result.add(response);
+        }
+      }
+      result.addAll(unattributed);
+      submission.set(result);
+    }
+  }
+
+  /**
+   * Returns the executor that sends asynchronous submissions, creating the
+   * default one if none has been set.
+   *
+   * @return the executor for asynchronous submissions.
+   */
+  private synchronized Executor getActiveApiExecutor() {
+    if (activeApiExecutor == null) {
+      activeApiExecutor = Executors.newFixedThreadPool(DEFAULT_ACTIVE_API_THREADS,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "ActiveApi-" + getRobotName());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      ownsActiveApiExecutor = true;
+    }
+    return activeApiExecutor;
+  }
+
+  /**
+   * Serializes the given outgoing operations into JSON, straight into the
+   * given response object's writer.
+   *
+   * The payload is only logged if the logger is enabled for
+   * {@link Level#FINE}, since that requires building the whole string.
    *
    * @param operations the operations to be serialized.
-   * @param resp the response object to flush the output string into.
+   * @param resp the response object to write the operations into.
    */
   private static void serializeOperations(List<OperationRequest> operations,
       HttpServletResponse resp) {
     try {
-      String json = SERIALIZER.toJson(operations,
-          new TypeToken<List<OperationRequest>>(){}.getType());
-      LOG.info("Outgoing operations: " + json);
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Outgoing operations: " + SERIALIZER.toJson(operations,
+            new TypeToken<List<OperationRequest>>(){}.getType()));
+      }
 
+      // The status has to be set before the response is committed by the
+      // writer's buffer filling up.
       resp.setContentType(JSON_MIME_TYPE);
       resp.setCharacterEncoding(UTF_8);
-      resp.getWriter().write(json);
       resp.setStatus(HttpURLConnection.HTTP_OK);
+      writeOperations(SERIALIZER, operations, resp.getWriter());
     } catch (IOException iox) {
       resp.setStatus(HttpURLConnection.HTTP_INTERNAL_ERROR);
     }
   }
 
+  /**
+   * Writes the given operations into the given writer as a JSON array, one
+   * operation at a time, so that the JSON of the whole list is never held in
+   * memory.
+   *
+   * @param serializer the serializer for the operations.
+   * @param operations the operations to be written.
+   * @param writer the writer to write the operations into.
+   *
+   * @throws IOException if there is a problem writing the operations.
+   */
+  static void writeOperations(Gson serializer, List<OperationRequest> operations, Writer writer)
+      throws IOException {
+    writer.write('[');
+    boolean first = true;
+    for (OperationRequest operation : operations) {
+      if (!first) {
+        writer.write(',');
+      }
+      first = false;
+      try {
+        serializer.toJson(operation, OperationRequest.class, writer);
+      } catch (RuntimeException e) {
+        // Gson wraps the writer's exceptions.
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    writer.write(']');
+  }
+
   /**
    * Reads the given HTTP request's input stream into a string.
    *
@@ -1155,18 +2038,56 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     return json.toString();
   }
 
+  /**
+   * Creates a serializer that materializes the blips of incoming event bundles
+   * on first access.
+   *
+   * @return an instance of {@link Gson} for lazy event deserialization.
+   */
+  private static Gson createLazyBlipsSerializer() {
+    GsonFactory factory = new GsonFactory();
+    factory.setDeserializeBlipsLazily(true);
+    return factory.create();
+  }
+
+  /**
+   * Reads the given stream until the end, discarding its content.
+   *
+   * @param in the stream to be drained.
+   *
+   * @throws IOException if there is a problem reading the stream.
+   */
+  private static void drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[1024];
+    while (in.read(buffer) != -1) {
+      // Discard.
+    }
+  }
+
+  /**
+   * Creates a digest that is used to compute the OAuth body hash.
+   *
+   * @return a new SHA-1 message digest.
+   */
+  private static MessageDigest newBodyDigest() {
+    try {
+      return MessageDigest.getInstance(SHA_1);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not supported.", e);
+    }
+  }
 
   /**
    * Creates a URL that contains the necessary OAuth query parameters for the
-   * given JSON string.
+   * given JSON body.
    *
-   * @param jsonBody the JSON string to construct the URL from.
+   * @param bodyHash the SHA-1 hash of the JSON body to construct the URL from.
    * @param rpcServerUrl the URL of the handler that services the JSON-RPC
    *     request.
    * @param consumerKey the OAuth consumerKey.
    * @param consumerSecret the OAuth consumerSecret.
    *
-   * @return a URL for the given JSON string, and the required OAuth parameters:
+   * @return a URL for the given JSON body, and the required OAuth parameters:
    *     <ul>
    *       <li>oauth_body_hash</li>
    *       <li>oauth_consumer_key</li>
@@ -1177,16 +2098,14 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
    *       <li>oauth_signature</li>
    *     </ul>
    */
-  private static String createOAuthUrlString(String jsonBody, String rpcServerUrl,
+  private static String createOAuthUrlString(byte[] bodyHash, String rpcServerUrl,
       String consumerKey, String consumerSecret)
       throws IOException, URISyntaxException, OAuthException {
     OAuthMessage message = new OAuthMessage(POST, rpcServerUrl,
         Collections.<Entry<String, String>>emptyList());
 
-    // Compute the hash of the body.
-    byte[] rawBody = jsonBody.getBytes(UTF_8);
-    byte[] hash = DigestUtils.sha(rawBody);
-    byte[] encodedHash = Base64.encodeBase64(hash);
+    // Add the hash of the body.
+    byte[] encodedHash = Base64.encodeBase64(bodyHash);
     message.addParameter(OAUTH_BODY_HASH, new String(encodedHash, UTF_8));
 
     // Add other parameters.
@@ -1201,13 +2120,11 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     StringBuilder sb = new StringBuilder(rpcServerUrl);
     char connector = '?';
     for (Map.Entry<String, String> p : message.getParameters()) {
-      if (!p.getKey().equals(jsonBody)) {
-        sb.append(connector);
-        sb.append(URLEncoder.encode(p.getKey(), UTF_8));
-        sb.append('=');
-        sb.append(URLEncoder.encode(p.getValue(), UTF_8));
-        connector = '&';
-      }
+      sb.append(connector);
+      sb.append(URLEncoder.encode(p.getKey(), UTF_8));
+      sb.append('=');
+      sb.append(URLEncoder.encode(p.getValue(), UTF_8));
+      connector = '&';
     }
     return sb.toString();
   }
@@ -1216,13 +2133,13 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
    * Validates the incoming HTTP request.
    *
    * @param requestUrl the URL of the request.
-   * @param jsonBody the request body to be validated.
+   * @param bodyHash the SHA-1 hash of the request body to be validated.
    * @param consumerKey the consumer key.
    * @param consumerSecret the consumer secret.
    */
   private static void validateOAuthRequest(String requestUrl, Map<String, String[]> requestParams,
-      String jsonBody, String consumerKey, String consumerSecret)
-      throws NoSuchAlgorithmException, IOException, URISyntaxException, OAuthException {
+      byte[] bodyHash, String consumerKey, String consumerSecret)
+      throws IOException, URISyntaxException, OAuthException {
     List<OAuth.Parameter> params = new ArrayList<OAuth.Parameter>();
     for (Entry<String, String[]> entry : requestParams.entrySet()) {
       for (String value : entry.getValue()) {
@@ -1231,10 +2148,8 @@ public abstract class AbstractRobot extends HttpServlet implements EventHandler
     }
     OAuthMessage message = new OAuthMessage(POST, requestUrl, params);
 
-    // Compute and check the hash of the body.
-    MessageDigest md = MessageDigest.getInstance(SHA_1);
-    byte[] hash = md.digest(jsonBody.getBytes(UTF_8));
-    String encodedHash = new String(Base64.encodeBase64(hash, false), UTF_8);
+    // Check the hash of the body.
+    String encodedHash = new String(Base64.encodeBase64(bodyHash, false), UTF_8);
     if (!encodedHash.equals(message.getParameter(OAUTH_BODY_HASH))) {
       throw new IllegalArgumentException("Body hash does not match. Expected: " + encodedHash
           + ", provided: " + message.getParameter(OAUTH_BODY_HASH));
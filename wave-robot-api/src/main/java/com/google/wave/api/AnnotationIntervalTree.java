@@ -0,0 +1,496 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The ranges of all annotations with the same name, stored in a treap that is
+ * ordered by start position.
+ *
+ * The ranges never overlap, although they may touch, so both the start and
+ * the end positions increase in tree order. This lets adds, deletes and
+ * overlap queries locate the affected ranges in logarithmic time. Position
+ * shifts are applied lazily to whole subtrees, so shifting every range after
+ * a position is logarithmic as well.
+ */
+class AnnotationIntervalTree {
+
+  /** The random generator for the node priorities. */
+  private static final Random PRIORITIES = new Random();
+
+  /**
+   * A node of the treap, that holds one annotation range.
+   */
+  private static final class Node {
+
+    /** The start of the range, with all shifts of the ancestors applied. */
+    private int start;
+
+    /** The end of the range, with all shifts of the ancestors applied. */
+    private int end;
+
+    /** The annotation value. */
+    private final String value;
+
+    /** The heap priority of this node. */
+    private final int priority;
+
+    /** The shift that still has to be applied to the children. */
+    private int pendingShift;
+
+    /** The number of nodes in this subtree. */
+    private int size = 1;
+
+    /** The left child. */
+    private Node left;
+
+    /** The right child. */
+    private Node right;
+
+    /**
+     * Constructor.
+     *
+     * @param value the annotation value.
+     * @param start the start of the range.
+     * @param end the end of the range.
+     */
+    private Node(String value, int start, int end) {
+      this.value = value;
+      this.start = start;
+      this.end = end;
+      this.priority = PRIORITIES.nextInt();
+    }
+  }
+
+  /** The name of the annotations. */
+  private final String name;
+
+  /** The root of the treap. */
+  private Node root;
+
+  /** The annotations in range order, or {@code null} if the tree changed since. */
+  private List<Annotation> cachedList;
+
+  /**
+   * Constructor.
+   *
+   * @param name the name of the annotations.
+   */
+  AnnotationIntervalTree(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the number of annotation ranges.
+   */
+  int size() {
+    return size(root);
+  }
+
+  /**
+   * @return {@code true} if there are no annotation ranges.
+   */
+  boolean isEmpty() {
+    return root == null;
+  }
+
+  /**
+   * Adds an annotation range. Existing ranges with the same value that
+   * overlap or touch the new range are merged with it, and ranges with a
+   * different value are trimmed.
+   *
+   * @param value the annotation value.
+   * @param start the start of the range.
+   * @param end the end of the range.
+   */
+  void add(String value, int start, int end) {
+    Node[] split = splitAround(start, end);
+    Node result = split[0];
+    int mergedStart = start;
+    int mergedEnd = end;
+    Node leftPiece = null;
+    Node rightPiece = null;
+    for (Node existing : toList(split[1])) {
+      if (existing.value.equals(value)) {
+        mergedStart = Math.min(mergedStart, existing.start);
+        mergedEnd = Math.max(mergedEnd, existing.end);
+      } else {
+        if (existing.start < start) {
+          leftPiece = new Node(existing.value, existing.start, start);
+        }
+        if (existing.end > end) {
+          rightPiece = new Node(existing.value, end, existing.end);
+        }
+      }
+    }
+    result = merge(result, leftPiece);
+    result = merge(result, new Node(value, mergedStart, mergedEnd));
+    result = merge(result, rightPiece);
+    root = merge(result, split[2]);
+    cachedList = null;
+  }
+
+  /**
+   * Removes the given range from all annotation ranges.
+   *
+   * @param start the start of the range to be removed.
+   * @param end the end of the range to be removed.
+   */
+  void delete(int start, int end) {
+    Node[] split = splitAround(start, end);
+    Node result = split[0];
+    for (Node existing : toList(split[1])) {
+      if (existing.start < start) {
+        result = merge(result, new Node(existing.value, existing.start, start));
+      }
+      if (existing.end > end) {
+        result = merge(result, new Node(existing.value, end, existing.end));
+      }
+    }
+    root = merge(result, split[2]);
+    cachedList = null;
+  }
+
+  /**
+   * Shifts the start and the end of all ranges that are at or after the given
+   * position, and merges ranges with the same value that end up touching.
+   *
+   * @param position the anchor position.
+   * @param shiftAmount the amount to shift the ranges by.
+   */
+  void shift(int position, int shiftAmount) {
+    if (shiftAmount == 0 || root == null) {
+      return;
+    }
+
+    Node[] split = splitByStart(root, position);
+    Node before = split[0];
+    Node after = split[1];
+    applyShift(after, shiftAmount);
+
+    // When shifting backward, ranges that start in the collapsed region keep
+    // their start, and are reinserted after the shifted ranges are placed.
+    List<Node> collapsed = Collections.emptyList();
+    if (shiftAmount < 0) {
+      split = splitByStart(before, position + shiftAmount);
+      before = split[0];
+      collapsed = toList(split[1]);
+      for (Node node : collapsed) {
+        if (node.end >= position) {
+          node.end += shiftAmount;
+        }
+      }
+    }
+
+    // Only the last range before the position can cover it.
+    Node last = last(before);
+    if (last != null && last.end >= position) {
+      last.end += shiftAmount;
+    }
+
+    // Merge the ranges that now touch.
+    Node first = first(after);
+    if (last != null && first != null && last.end == first.start &&
+        last.value.equals(first.value)) {
+      last.end = first.end;
+      after = removeFirst(after);
+    }
+
+    root = merge(before, after);
+    for (Node node : collapsed) {
+      Node[] parts = splitByStart(root, node.start);
+      node.left = null;
+      node.right = null;
+      node.pendingShift = 0;
+      node.size = 1;
+      root = merge(merge(parts[0], node), parts[1]);
+    }
+    cachedList = null;
+  }
+
+  /**
+   * Returns all annotations in range order.
+   *
+   * @return an unmodifiable list of the annotations.
+   */
+  List<Annotation> asList() {
+    if (cachedList == null) {
+      List<Annotation> annotations = new ArrayList<Annotation>(size());
+      for (Node node : toList(root)) {
+        annotations.add(new Annotation(name, node.value, node.start, node.end));
+      }
+      cachedList = Collections.unmodifiableList(annotations);
+    }
+    return cachedList;
+  }
+
+  /**
+   * Returns the annotations whose range overlaps the given range.
+   *
+   * @param start the start of the range.
+   * @param end the end of the range.
+   * @return the overlapping annotations, in range order.
+   */
+  List<Annotation> getOverlapping(int start, int end) {
+    List<Annotation> result = new ArrayList<Annotation>();
+    collectOverlapping(root, start, end, result);
+    return result;
+  }
+
+  /**
+   * Collects the annotations in the given subtree whose range overlaps the
+   * given range.
+   *
+   * @param node the root of the subtree.
+   * @param start the start of the range.
+   * @param end the end of the range.
+   * @param result the list to add the annotations to.
+   */
+  private void collectOverlapping(Node node, int start, int end, List<Annotation> result) {
+    if (node == null) {
+      return;
+    }
+    push(node);
+    // Since both starts and ends increase in tree order, whole subtrees can
+    // be skipped.
+    if (node.start > start) {
+      collectOverlapping(node.left, start, end, result);
+    }
+    if (node.start < end && node.end > start) {
+      result.add(new Annotation(name, node.value, node.start, node.end));
+    }
+    if (node.start < end) {
+      collectOverlapping(node.right, start, end, result);
+    }
+  }
+
+  /**
+   * Splits the tree into the ranges that are before the given range, the
+   * ranges that overlap or touch it, and the ranges that are after it.
+   *
+   * @param start the start of the range.
+   * @param end the end of the range.
+   * @return the three parts of the tree.
+   */
+  private Node[] splitAround(int start, int end) {
+    Node[] byStart = splitByStart(root, end + 1);
+    Node[] byEnd = splitByEnd(byStart[0], start);
+    return new Node[] {byEnd[0], byEnd[1], byStart[1]};
+  }
+
+  /**
+   * Splits the given subtree into the nodes that start before {@code key},
+   * and the nodes that start at or after {@code key}.
+   *
+   * @param node the root of the subtree.
+   * @param key the start position to split at.
+   * @return the two parts of the subtree.
+   */
+  private static Node[] splitByStart(Node node, int key) {
+    if (node == null) {
+      return new Node[2];
+    }
+    push(node);
+    if (node.start < key) {
+      Node[] parts = splitByStart(node.right, key);
+      node.right = parts[0];
+      update(node);
+      parts[0] = node;
+      return parts;
+    } else {
+      Node[] parts = splitByStart(node.left, key);
+      node.left = parts[1];
+      update(node);
+      parts[1] = node;
+      return parts;
+    }
+  }
+
+  /**
+   * Splits the given subtree into the nodes that end before {@code key}, and
+   * the nodes that end at or after {@code key}.
+   *
+   * @param node the root of the subtree.
+   * @param key the end position to split at.
+   * @return the two parts of the subtree.
+   */
+  private static Node[] splitByEnd(Node node, int key) {
+    if (node == null) {
+      return new Node[2];
+    }
+    push(node);
+    if (node.end < key) {
+      Node[] parts = splitByEnd(node.right, key);
+      node.right = parts[0];
+      update(node);
+      parts[0] = node;
+      return parts;
+    } else {
+      Node[] parts = splitByEnd(node.left, key);
+      node.left = parts[1];
+      update(node);
+      parts[1] = node;
+      return parts;
+    }
+  }
+
+  /**
+   * Merges two subtrees, where all nodes of {@code left} come before all
+   * nodes of {@code right}.
+   *
+   * @param left the left subtree.
+   * @param right the right subtree.
+   * @return the root of the merged tree.
+   */
+  private static Node merge(Node left, Node right) {
+    if (left == null) {
+      return right;
+    }
+    if (right == null) {
+      return left;
+    }
+    if (left.priority > right.priority) {
+      push(left);
+      left.right = merge(left.right, right);
+      update(left);
+      return left;
+    } else {
+      push(right);
+      right.left = merge(left, right.left);
+      update(right);
+      return right;
+    }
+  }
+
+  /**
+   * Removes the first node of the given subtree.
+   *
+   * @param node the root of the subtree.
+   * @return the root of the subtree without its first node.
+   */
+  private static Node removeFirst(Node node) {
+    push(node);
+    if (node.left == null) {
+      return node.right;
+    }
+    node.left = removeFirst(node.left);
+    update(node);
+    return node;
+  }
+
+  /**
+   * Shifts all ranges in the given subtree.
+   *
+   * @param node the root of the subtree.
+   * @param shiftAmount the amount to shift by.
+   */
+  private static void applyShift(Node node, int shiftAmount) {
+    if (node != null) {
+      node.start += shiftAmount;
+      node.end += shiftAmount;
+      node.pendingShift += shiftAmount;
+    }
+  }
+
+  /**
+   * Applies the pending shift of the given node to its children.
+   *
+   * @param node the node.
+   */
+  private static void push(Node node) {
+    if (node.pendingShift != 0) {
+      applyShift(node.left, node.pendingShift);
+      applyShift(node.right, node.pendingShift);
+      node.pendingShift = 0;
+    }
+  }
+
+  /**
+   * Recomputes the subtree size of the given node.
+   *
+   * @param node the node.
+   */
+  private static void update(Node node) {
+    node.size = 1 + size(node.left) + size(node.right);
+  }
+
+  /**
+   * @param node the root of a subtree, or {@code null}.
+   * @return the size of the subtree.
+   */
+  private static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  /**
+   * @param node the root of a subtree, or {@code null}.
+   * @return the first node of the subtree, with its shifts applied.
+   */
+  private static Node first(Node node) {
+    while (node != null) {
+      push(node);
+      if (node.left == null) {
+        return node;
+      }
+      node = node.left;
+    }
+    return null;
+  }
+
+  /**
+   * @param node the root of a subtree, or {@code null}.
+   * @return the last node of the subtree, with its shifts applied.
+   */
+  private static Node last(Node node) {
+    while (node != null) {
+      push(node);
+      if (node.right == null) {
+        return node;
+      }
+      node = node.right;
+    }
+    return null;
+  }
+
+  /**
+   * @param node the root of a subtree, or {@code null}.
+   * @return the nodes of the subtree in order, with their shifts applied.
+   */
+  private static List<Node> toList(Node node) {
+    List<Node> nodes = new ArrayList<Node>(size(node));
+    appendTo(node, nodes);
+    return nodes;
+  }
+
+  /**
+   * Appends the nodes of the given subtree to the list, in order.
+   *
+   * @param node the root of the subtree.
+   * @param nodes the list to append to.
+   */
+  private static void appendTo(Node node, List<Node> nodes) {
+    if (node != null) {
+      push(node);
+      appendTo(node.left, nodes);
+      nodes.add(node);
+      appendTo(node.right, nodes);
+    }
+  }
+}
@@ -16,7 +16,6 @@
 package com.google.wave.api;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,25 +23,25 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 /**
  * A class that models a map of annotations, keyed by the annotation name.
  *
  * Each key maps into a list of {@link Annotation} instances, since one
  * annotation name can exist in different parts (denoted by different ranges) of
- * a blip, each with its own value.
+ * a blip, each with its own value. The annotations of each name are indexed by
+ * range, so that adding, deleting and shifting annotations, and looking up the
+ * annotations that overlap a range, take logarithmic time in the number of
+ * annotations with that name.
  *
  * This class is iterable, but the iterator does not support element removal
  * yet.
  */
 public class Annotations implements Iterable<Annotation> {
 
-  /** A map of annotation name to a list of annotations instances. */
-  private final Map<String, List<Annotation>> store = new HashMap<String, List<Annotation>>();
-
-  /** The total number of annotations. */
-  private int size;
+  /** A map of annotation name to the ranges of the annotations with that name. */
+  private final Map<String, AnnotationIntervalTree> store =
+      new HashMap<String, AnnotationIntervalTree>();
 
   /**
    * Adds a new annotation.
@@ -53,37 +52,12 @@ public class Annotations implements Iterable<Annotation> {
    * @param end the end index of the annotation.
    */
   void add(String name, String value, int start, int end) {
-    if (!store.containsKey(name)) {
-      store.put(name, Arrays.asList(new Annotation(name, value, start, end)));
-      size++;
-      return;
-    }
-
-    int existingSize = store.get(name).size();
-    List<Annotation> newList = new ArrayList<Annotation>();
-    for (Annotation existing : store.get(name)) {
-      if (start > existing.getRange().getEnd() || end < existing.getRange().getStart()) {
-        // Add non-overlapping annotation to the new list as is.
-        newList.add(existing);
-      } else if (existing.getValue().equals(value)) {
-        // Merge the annotation.
-        start = Math.min(existing.getRange().getStart(), start);
-        end = Math.max(existing.getRange().getEnd(), end);
-      } else {
-        // Chop the bits off the existing annotation.
-        if (existing.getRange().getStart() < start) {
-          newList.add(new Annotation(existing.getName(), existing.getValue(),
-              existing.getRange().getStart(), start));
-        }
-        if (existing.getRange().getEnd() > end) {
-          newList.add(new Annotation(existing.getName(), existing.getValue(),
-              end, existing.getRange().getEnd()));
-        }
-      }
+    AnnotationIntervalTree annotations = store.get(name);
+    if (annotations == null) {
+      annotations = new AnnotationIntervalTree(name);
+      store.put(name, annotations);
     }
-    newList.add(new Annotation(name, value, start, end));
-    store.put(name, newList);
-    size += newList.size() - existingSize;
+    annotations.add(value, start, end);
   }
 
   /**
@@ -95,36 +69,15 @@ public class Annotations implements Iterable<Annotation> {
    * @param end the end index of the annotation to be deleted.
    */
   void delete(String name, int start, int end) {
-    if (!store.containsKey(name)) {
+    AnnotationIntervalTree annotations = store.get(name);
+    if (annotations == null) {
       return;
     }
 
-    int existingSize = store.get(name).size();
-    List<Annotation> newList = new ArrayList<Annotation>();
-    for (Annotation existing : store.get(name)) {
-      if (start > existing.getRange().getEnd() || end < existing.getRange().getStart()) {
-        newList.add(existing);
-      } else if (start < existing.getRange().getStart() && end > existing.getRange().getEnd()) {
-        continue;
-      } else {
-        // Chop the bits off the existing annotation.
-        if (existing.getRange().getStart() < start) {
-          newList.add(new Annotation(existing.getName(), existing.getValue(),
-              existing.getRange().getStart(), start));
-        }
-        if (existing.getRange().getEnd() > end) {
-          newList.add(new Annotation(existing.getName(), existing.getValue(),
-              end, existing.getRange().getEnd()));
-        }
-      }
-    }
-
-    if (!newList.isEmpty()) {
-      store.put(name, newList);
-    } else {
+    annotations.delete(start, end);
+    if (annotations.isEmpty()) {
       store.remove(name);
     }
-    size -= existingSize - newList.size();
   }
 
   /**
@@ -135,40 +88,8 @@ public class Annotations implements Iterable<Annotation> {
    * @param shiftAmount the amount to shift the annotation range.
    */
   void shift(int position, int shiftAmount) {
-    for (List<Annotation> annotations : store.values()) {
-      for (Annotation annotation : annotations) {
-        annotation.shift(position, shiftAmount);
-      }
-    }
-
-    // Merge fragmented annotations that should be contiguous, for example:
-    // Annotation("foo", "bar", 1, 2) and Annotation("foo", "bar", 2, 3).
-    for (Entry<String, List<Annotation>> entry : store.entrySet()) {
-      List<Annotation> existingList = entry.getValue();
-      List<Annotation> newList = new ArrayList<Annotation>(existingList.size());
-
-      for (int i = 0; i < existingList.size(); ++i) {
-        Annotation annotation = existingList.get(i);
-        String name = annotation.getName();
-        String value = annotation.getValue();
-        int start = annotation.getRange().getStart();
-        int end = annotation.getRange().getEnd();
-
-        // Find the last end index.
-        for (int j = i + 1; j < existingList.size(); ++j) {
-          if (end < existingList.get(j).getRange().getStart()) {
-            break;
-          }
-
-          if (end == existingList.get(j).getRange().getStart() &&
-              value.equals(existingList.get(j).getValue())) {
-            end = existingList.get(j).getRange().getEnd();
-            existingList.remove(j--);
-          }
-        }
-        newList.add(new Annotation(name, value, start, end));
-      }
-      entry.setValue(newList);
+    for (AnnotationIntervalTree annotations : store.values()) {
+      annotations.shift(position, shiftAmount);
     }
   }
 
@@ -176,11 +97,31 @@ public class Annotations implements Iterable<Annotation> {
    * Returns a list of annotation instances that has the given name.
    *
    * @param name the annotation name.
-   * @return a list of {@link Annotation} instances in the owning blip that has
-   *     the given name.
+   * @return an unmodifiable list of {@link Annotation} instances in the owning
+   *     blip that has the given name, ordered by range, or {@code null} if
+   *     there is none.
    */
   public List<Annotation> get(String name) {
-    return store.get(name);
+    AnnotationIntervalTree annotations = store.get(name);
+    return annotations != null ? annotations.asList() : null;
+  }
+
+  /**
+   * Returns the annotation instances that have the given name, and whose range
+   * overlaps the given range.
+   *
+   * @param name the annotation name.
+   * @param start the start index of the range.
+   * @param end the end index of the range.
+   * @return a list of the overlapping {@link Annotation} instances, ordered by
+   *     range.
+   */
+  public List<Annotation> get(String name, int start, int end) {
+    AnnotationIntervalTree annotations = store.get(name);
+    if (annotations == null) {
+      return Collections.emptyList();
+    }
+    return annotations.getOverlapping(start, end);
   }
 
   /**
@@ -207,11 +148,15 @@ public class Annotations implements Iterable<Annotation> {
    * @return an unmodifiable list of annotations.
    */
   public List<Annotation> asList() {
-    List<Annotation> annotations = new ArrayList<Annotation>(size);
+    int size = 0;
+    for (AnnotationIntervalTree annotations : store.values()) {
+      size += annotations.size();
+    }
+    List<Annotation> result = new ArrayList<Annotation>(size);
     for (Annotation annotation : this) {
-      annotations.add(annotation);
+      result.add(annotation);
     }
-    return Collections.unmodifiableList(annotations);
+    return Collections.unmodifiableList(result);
   }
 
   @Override
@@ -225,17 +170,17 @@ public class Annotations implements Iterable<Annotation> {
    */
   private static class AnnotationIterator implements Iterator<Annotation> {
     private Iterator<Annotation> listIterator;
-    private final Iterator<List<Annotation>> mapIterator;
+    private final Iterator<AnnotationIntervalTree> mapIterator;
 
     /**
      * Constructor.
      *
-     * @param store a map of annotation name to a list of annotations instances.
+     * @param store a map of annotation name to the annotations with that name.
      */
-    private AnnotationIterator(Map<String, List<Annotation>> store) {
+    private AnnotationIterator(Map<String, AnnotationIntervalTree> store) {
       mapIterator = store.values().iterator();
       if (!store.isEmpty()) {
-        listIterator = mapIterator.next().iterator();
+        listIterator = mapIterator.next().asList().iterator();
       }
     }
 
@@ -247,7 +192,7 @@ public class Annotations implements Iterable<Annotation> {
     @Override
     public Annotation next() {
       if (!listIterator.hasNext() && mapIterator.hasNext()) {
-        listIterator = mapIterator.next().iterator();
+        listIterator = mapIterator.next().asList().iterator();
       }
       return listIterator.next();
     }
@@ -78,11 +78,8 @@ public class Blip {
   /** The operation queue to queue operation to the robot proxy. */
   @NonJsonSerializable private final OperationQueue operationQueue;
 
-  /** The blip content. */
-  private String content;
-
-  /** The element contents of this blip. */
-  private SortedMap<Integer, Element> elements;
+  /** The text content and the elements of this blip. */
+  private final BlipDocument document;
 
   /**
    * Constructor.
@@ -97,10 +94,10 @@ public class Blip {
         parentBlipId, new ArrayList<Annotation>(), new TreeMap<Integer, Element>(), wavelet);
 
     // Make sure that initial content is valid, and starts with newline.
-    if (this.content == null || this.content.isEmpty()) {
-      this.content = "\n";
-    } else if (!this.content.startsWith("\n")) {
-      this.content = "\n" + this.content;
+    if (document.length() == 0) {
+      document.setText("\n");
+    } else if (document.charAt(0) != '\n') {
+      document.setText("\n" + document.getText());
     }
   }
 
@@ -125,7 +122,7 @@ public class Blip {
     this.blipId = blipId;
     this.waveId = wavelet.getWaveId();
     this.waveletId = wavelet.getWaveletId();
-    this.content = content;
+    this.document = new BlipDocument(content, elements);
     this.childBlipIds = new ArrayList<String>(childBlipIds);
     this.contributors = new ArrayList<String>(contributors);
     this.creator = creator;
@@ -139,7 +136,6 @@ public class Blip {
           annotation.getRange().getStart(), annotation.getRange().getEnd());
     }
 
-    this.elements = new TreeMap<Integer, Element>(elements);
     this.wavelet = wavelet;
     this.operationQueue = wavelet.getOperationQueue();
   }
@@ -155,14 +151,13 @@ public class Blip {
     this.waveId = other.waveId;
     this.waveletId = other.waveletId;
     this.childBlipIds = other.childBlipIds;
-    this.content = other.content;
+    this.document = other.document;
     this.contributors = other.contributors;
     this.creator = other.creator;
     this.lastModifiedTime = other.lastModifiedTime;
     this.version = other.version;
     this.parentBlipId = other.parentBlipId;
     this.annotations = other.annotations;
-    this.elements = other.elements;
     this.wavelet = other.wavelet;
     this.operationQueue = operationQueue;
   }
@@ -301,7 +296,7 @@ public class Blip {
    * @return the blip's elements.
    */
   public SortedMap<Integer, Element> getElements() {
-    return elements;
+    return document.getElements();
   }
 
   /**
@@ -310,7 +305,18 @@ public class Blip {
    * @return blip's content.
    */
   public String getContent() {
-    return content;
+    return document.getText();
+  }
+
+  /**
+   * Returns a part of the text content of this blip.
+   *
+   * @param start the start index, inclusive.
+   * @param end the end index, exclusive.
+   * @return the content between {@code start} and {@code end}.
+   */
+  String getContent(int start, int end) {
+    return document.substring(start, end);
   }
 
   /**
@@ -322,7 +328,7 @@ public class Blip {
     if (!content.startsWith("\n")) {
       content = "\n" + content;
     }
-    this.content = content;
+    document.setText(content);
   }
 
   /**
@@ -332,7 +338,7 @@ public class Blip {
    * @return the size of the blip.
    */
   public int length() {
-    return content.length();
+    return document.length();
   }
 
   /**
@@ -492,7 +498,7 @@ public class Blip {
    * @return an instance of {@link Blip} that represents the new inline blip.
    */
   public Blip insertInlineBlip(int position) {
-    if (position <= 0 || position > content.length()) {
+    if (position <= 0 || position > document.length()) {
       throw new IllegalArgumentException("Illegal inline blip position: " + position +
           ". Position has to be greater than 0 and less than or equal to length.");
     }
@@ -503,9 +509,8 @@ public class Blip {
     // Insert the inline blip element.
     Element element = new Element(ElementType.INLINE_BLIP);
     element.setProperty(INLINE_BLIP_ELEMENT_ID_KEY, inlineBlip.getBlipId());
-    content = content.substring(0, position) + " " + content.substring(position);
-    shift(position, 1);
-    elements.put(position, element);
+    replaceContent(position, position, " ");
+    document.getElements().put(position, element);
 
     return inlineBlip;
   }
@@ -517,7 +522,7 @@ public class Blip {
    */
   public void appendMarkup(String markup) {
     operationQueue.appendMarkupToDocument(this, markup);
-    this.content += convertToPlainText(markup);
+    document.replace(document.length(), document.length(), convertToPlainText(markup));
   }
 
   /**
@@ -573,15 +578,61 @@ public class Blip {
    *    position.
    */
   protected void shift(int position, int shiftAmount) {
-    SortedMap<Integer, Element> newElements =
-        new TreeMap<Integer, Element>(elements.headMap(position));
-    for (Entry<Integer, Element> element : elements.tailMap(position).entrySet()) {
-      newElements.put(element.getKey() + shiftAmount, element.getValue());
-    }
-    this.elements = newElements;
+    document.shiftElements(position, shiftAmount);
     this.annotations.shift(position, shiftAmount);
   }
 
+  /**
+   * Replaces the text content between {@code start} and {@code end} with the
+   * given text, and moves all elements and annotations after {@code end} by
+   * the difference in length. Like {@link #setContent(String)}, this makes
+   * sure that the content still starts with a newline.
+   *
+   * @param start the start index, inclusive.
+   * @param end the end index, exclusive.
+   * @param text the replacement text.
+   */
+  void replaceContent(int start, int end, String text) {
+    annotations.shift(end, text.length() + start - end);
+    document.replace(start, end, text);
+    if (document.length() == 0 || document.charAt(0) != '\n') {
+      document.setText("\n" + document.getText());
+    }
+  }
+
+  /**
+   * Deletes all elements that are between {@code start} and {@code end}.
+   *
+   * @param start the start position, inclusive.
+   * @param end the end position, exclusive.
+   */
+  void deleteElements(int start, int end) {
+    document.deleteElements(start, end);
+  }
+
+  /**
+   * Returns the index of the first occurrence of {@code target} in the text
+   * content of this blip, starting at {@code fromIndex}.
+   *
+   * @param target the text to search for.
+   * @param fromIndex the index to start the search from.
+   * @return the index of the first occurrence, or -1 if there is none.
+   */
+  int indexOf(String target, int fromIndex) {
+    return document.indexOf(target, fromIndex);
+  }
+
+  /**
+   * Returns the position of the first element at or after the given
+   * position.
+   *
+   * @param position the position to start from.
+   * @return the position of the next element, or -1 if there is none.
+   */
+  int getNextElementPosition(int position) {
+    return document.nextElementPosition(position);
+  }
+
   /**
    * Deletes all annotations that span from {@code start} to {@code end}.
    *
@@ -640,12 +691,12 @@ public class Blip {
     blipData.setCreator(creator);
     blipData.setLastModifiedTime(lastModifiedTime);
     blipData.setVersion(version);
-    blipData.setContent(content);
+    blipData.setContent(document.getText());
 
     // Add list and map properties.
     blipData.setChildBlipIds(childBlipIds);
     blipData.setContributors(contributors);
-    blipData.setElements(elements);
+    blipData.setElements(new TreeMap<Integer, Element>(document.getElements()));
 
     // Add annotations.
     List<Annotation> annotations = new ArrayList<Annotation>();
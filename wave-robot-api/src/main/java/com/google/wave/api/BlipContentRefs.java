@@ -100,7 +100,7 @@ public class BlipContentRefs implements Iterable<Range> {
    */
   public static BlipContentRefs all(Blip blip) {
     return new BlipContentRefs(blip,
-        new BlipIterator.SingleshotIterator(blip, 0, blip.getContent().length()));
+        new BlipIterator.SingleshotIterator(blip, 0, blip.length()));
   }
 
   /**
@@ -199,7 +199,7 @@ public class BlipContentRefs implements Iterable<Range> {
           if (end - start == 1 && blip.getElements().containsKey(start)) {
             source = blip.getElements().get(start);
           } else {
-            source = Plaintext.of(blip.getContent().substring(start, end));
+            source = Plaintext.of(blip.getContent(start, end));
           }
           // Compute the new content.
           next = ((Function) next).call(source);
@@ -218,18 +218,11 @@ public class BlipContentRefs implements Iterable<Range> {
           }
 
           // Delete all elements that fall into this range.
-          Iterator<Integer> elementIterator =
-              blip.getElements().subMap(start, end).keySet().iterator();
-          while(elementIterator.hasNext()) {
-            elementIterator.next();
-            elementIterator.remove();
-          }
+          blip.deleteElements(start, end);
 
           blip.deleteAnnotations(start, end);
-          blip.shift(end, start - end);
           iterator.shift(-1);
-          blip.setContent(blip.getContent().substring(0, start) +
-              blip.getContent().substring(end));
+          blip.replaceContent(start, end, "");
           break;
         case ANNOTATE:
           Annotation annotation = Annotation.class.cast(next);
@@ -271,9 +264,7 @@ public class BlipContentRefs implements Iterable<Range> {
             blip.deleteAnnotations(start + text.length(), end);
           }
 
-          blip.shift(end, text.length() + start - end);
-          blip.setContent(blip.getContent().substring(0, start) + text +
-              blip.getContent().substring(end));
+          blip.replaceContent(start, end, text);
 
           if (next instanceof Element) {
             blip.getElements().put(start, Element.class.cast(next));
@@ -677,7 +668,7 @@ public class BlipContentRefs implements Iterable<Range> {
           blip.getElements().containsKey(range.getStart())) {
         result.add(blip.getElements().get(range.getStart()));
       } else {
-        result.add(Plaintext.of(blip.getContent().substring(range.getStart(), range.getEnd())));
+        result.add(Plaintext.of(blip.getContent(range.getStart(), range.getEnd())));
       }
     }
     iterator.reset();
@@ -697,7 +688,7 @@ public class BlipContentRefs implements Iterable<Range> {
           blip.getElements().containsKey(range.getStart())) {
         result = blip.getElements().get(range.getStart());
       } else {
-        result = Plaintext.of(blip.getContent().substring(range.getStart(), range.getEnd()));
+        result = Plaintext.of(blip.getContent(range.getStart(), range.getEnd()));
       }
     }
     iterator.reset();
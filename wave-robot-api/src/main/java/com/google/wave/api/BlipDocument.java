@@ -0,0 +1,463 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The text content and the elements of a blip, stored in a gap buffer.
+ *
+ * Text edits are applied at the gap, so their cost is proportional to the
+ * size of the edit, plus the distance the gap has to move from the previous
+ * edit. A sequence of edits that runs from the start to the end of the blip,
+ * such as a bulk replace, is therefore linear in the size of the blip.
+ *
+ * Element positions are anchored at a split position in the same way.
+ * Elements before the split are keyed by their absolute position, and
+ * elements at or after the split are keyed relative to a movable origin, so
+ * that shifting all of them only updates that origin. Only the elements that
+ * the split moves over are re-keyed.
+ */
+final class BlipDocument {
+
+  /** The minimum size of the gap after the buffer grows. */
+  private static final int MIN_GAP_SIZE = 16;
+
+  /** The buffer that holds the text, with a gap at the last edit position. */
+  private char[] buffer;
+
+  /** The start index of the gap in {@link #buffer}. */
+  private int gapStart;
+
+  /** The end index (exclusive) of the gap in {@link #buffer}. */
+  private int gapEnd;
+
+  /** The cached text content, or {@code null} if it has been edited since. */
+  private String text;
+
+  /** The elements before {@link #split}, keyed by position. */
+  private final TreeMap<Integer, Element> head = new TreeMap<Integer, Element>();
+
+  /**
+   * The elements at or after {@link #split}, keyed by {@link #tailOrigin}
+   * minus their position, and ordered by position.
+   */
+  private final TreeMap<Integer, Element> tail =
+      new TreeMap<Integer, Element>(Collections.<Integer>reverseOrder());
+
+  /** The position that separates {@link #head} and {@link #tail}. */
+  private int split = Integer.MAX_VALUE;
+
+  /** The origin that the keys of {@link #tail} are relative to. */
+  private int tailOrigin;
+
+  /** The sorted map view of the elements. */
+  private final SortedMap<Integer, Element> elements = new ElementMap();
+
+  /**
+   * Constructor.
+   *
+   * @param content the initial text content.
+   * @param elements the initial elements, keyed by position.
+   */
+  BlipDocument(String content, Map<Integer, Element> elements) {
+    setText(content);
+    if (elements != null) {
+      head.putAll(elements);
+    }
+  }
+
+  /**
+   * @return the length of the text content.
+   */
+  int length() {
+    return buffer.length - (gapEnd - gapStart);
+  }
+
+  /**
+   * Returns the character at the given index.
+   *
+   * @param index the index of the character.
+   * @return the character at {@code index}.
+   */
+  char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length());
+    }
+    return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+  }
+
+  /**
+   * @return the text content.
+   */
+  String getText() {
+    if (text == null) {
+      text = new StringBuilder(length())
+          .append(buffer, 0, gapStart)
+          .append(buffer, gapEnd, buffer.length - gapEnd)
+          .toString();
+    }
+    return text;
+  }
+
+  /**
+   * Replaces the text content, leaving the elements untouched.
+   *
+   * @param content the new text content.
+   */
+  void setText(String content) {
+    if (content == null) {
+      content = "";
+    }
+    buffer = new char[content.length() + MIN_GAP_SIZE];
+    content.getChars(0, content.length(), buffer, 0);
+    gapStart = content.length();
+    gapEnd = buffer.length;
+    text = content;
+  }
+
+  /**
+   * Returns a part of the text content.
+   *
+   * @param start the start index, inclusive.
+   * @param end the end index, exclusive.
+   * @return the text between {@code start} and {@code end}.
+   */
+  String substring(int start, int end) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException("Range: [" + start + ", " + end + "), length: " +
+          length());
+    }
+    if (text != null) {
+      return text.substring(start, end);
+    }
+    StringBuilder result = new StringBuilder(end - start);
+    if (start < gapStart) {
+      result.append(buffer, start, Math.min(end, gapStart) - start);
+    }
+    if (end > gapStart) {
+      int from = Math.max(start, gapStart);
+      result.append(buffer, from + gapEnd - gapStart, end - from);
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns the index of the first occurrence of {@code target} in the text
+   * content, starting at {@code fromIndex}, with the same semantics as
+   * {@link String#indexOf(String, int)}.
+   *
+   * @param target the text to search for.
+   * @param fromIndex the index to start the search from.
+   * @return the index of the first occurrence, or -1 if there is none.
+   */
+  int indexOf(String target, int fromIndex) {
+    if (text != null) {
+      return text.indexOf(target, fromIndex);
+    }
+    int length = length();
+    int targetLength = target.length();
+    if (fromIndex < 0) {
+      fromIndex = 0;
+    }
+    if (targetLength == 0) {
+      return Math.min(fromIndex, length);
+    }
+    char first = target.charAt(0);
+    for (int i = fromIndex; i <= length - targetLength; ++i) {
+      if (charAt(i) != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < targetLength && charAt(i + j) == target.charAt(j)) {
+        j++;
+      }
+      if (j == targetLength) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Replaces the text between {@code start} and {@code end} with
+   * {@code replacement}, and shifts the elements at or after {@code end} by
+   * the difference in length.
+   *
+   * @param start the start index, inclusive.
+   * @param end the end index, exclusive.
+   * @param replacement the replacement text.
+   */
+  void replace(int start, int end, String replacement) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException("Range: [" + start + ", " + end + "), length: " +
+          length());
+    }
+    shiftElements(end, replacement.length() - (end - start));
+
+    moveGap(start);
+    gapEnd += end - start;
+    ensureGap(replacement.length());
+    replacement.getChars(0, replacement.length(), buffer, gapStart);
+    gapStart += replacement.length();
+    text = null;
+  }
+
+  /**
+   * Shifts all elements at or after {@code position} by {@code shiftAmount}.
+   * When shifting backward, a shifted element replaces any existing element
+   * at its new position.
+   *
+   * @param position the anchor position.
+   * @param shiftAmount the amount to shift the elements by.
+   */
+  void shiftElements(int position, int shiftAmount) {
+    if (shiftAmount == 0) {
+      return;
+    }
+    moveSplit(position);
+    tailOrigin += shiftAmount;
+    if (shiftAmount < 0) {
+      // The elements before the old split that are at or after the new split
+      // keep their position, but have to move to the tail.
+      int newSplit = position + shiftAmount;
+      SortedMap<Integer, Element> overlapping = head.tailMap(newSplit);
+      for (Map.Entry<Integer, Element> entry : overlapping.entrySet()) {
+        Integer key = tailOrigin - entry.getKey();
+        if (!tail.containsKey(key)) {
+          tail.put(key, entry.getValue());
+        }
+      }
+      overlapping.clear();
+      split = newSplit;
+    }
+  }
+
+  /**
+   * Deletes all elements between {@code start} and {@code end}.
+   *
+   * @param start the start position, inclusive.
+   * @param end the end position, exclusive.
+   */
+  void deleteElements(int start, int end) {
+    if (start >= end) {
+      return;
+    }
+    moveSplit(end);
+    head.subMap(start, end).clear();
+  }
+
+  /**
+   * Returns the position of the first element at or after the given
+   * position.
+   *
+   * @param position the position to start from.
+   * @return the position of the next element, or -1 if there is none.
+   */
+  int nextElementPosition(int position) {
+    if (position < split) {
+      SortedMap<Integer, Element> after = head.tailMap(position);
+      if (!after.isEmpty()) {
+        return after.firstKey();
+      }
+      position = split;
+    }
+    SortedMap<Integer, Element> after = tail.tailMap(tailOrigin - position);
+    return after.isEmpty() ? -1 : tailOrigin - after.firstKey();
+  }
+
+  /**
+   * Returns a sorted map view of the elements, keyed by position.
+   *
+   * Point lookups and updates on the view run in logarithmic time. The
+   * iteration, and the submaps of the view, reflect the elements until the
+   * next edit of the text content.
+   *
+   * @return the elements.
+   */
+  SortedMap<Integer, Element> getElements() {
+    return elements;
+  }
+
+  /**
+   * Moves the gap in the text buffer to the given index.
+   *
+   * @param index the new start index of the gap.
+   */
+  private void moveGap(int index) {
+    if (index < gapStart) {
+      int count = gapStart - index;
+      System.arraycopy(buffer, index, buffer, gapEnd - count, count);
+      gapStart -= count;
+      gapEnd -= count;
+    } else if (index > gapStart) {
+      int count = index - gapStart;
+      System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+      gapStart += count;
+      gapEnd += count;
+    }
+  }
+
+  /**
+   * Grows the text buffer, if needed, so that the gap can hold the given
+   * number of characters.
+   *
+   * @param size the required size of the gap.
+   */
+  private void ensureGap(int size) {
+    if (gapEnd - gapStart >= size) {
+      return;
+    }
+    int afterGap = buffer.length - gapEnd;
+    int newLength = Math.max(buffer.length * 2, length() + size + MIN_GAP_SIZE);
+    char[] newBuffer = new char[newLength];
+    System.arraycopy(buffer, 0, newBuffer, 0, gapStart);
+    System.arraycopy(buffer, gapEnd, newBuffer, newLength - afterGap, afterGap);
+    buffer = newBuffer;
+    gapEnd = newLength - afterGap;
+  }
+
+  /**
+   * Moves the split between {@link #head} and {@link #tail} to the given
+   * position, re-keying the elements that the split moves over.
+   *
+   * @param position the new split position.
+   */
+  private void moveSplit(int position) {
+    if (position > split) {
+      Iterator<Map.Entry<Integer, Element>> iterator = tail.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<Integer, Element> entry = iterator.next();
+        int elementPosition = tailOrigin - entry.getKey();
+        if (elementPosition >= position) {
+          break;
+        }
+        head.put(elementPosition, entry.getValue());
+        iterator.remove();
+      }
+    } else if (position < split) {
+      SortedMap<Integer, Element> moved = head.tailMap(position);
+      for (Map.Entry<Integer, Element> entry : moved.entrySet()) {
+        tail.put(tailOrigin - entry.getKey(), entry.getValue());
+      }
+      moved.clear();
+    }
+    split = position;
+  }
+
+  /**
+   * Moves all elements to {@link #head}.
+   *
+   * @return {@link #head}, that contains all elements keyed by position.
+   */
+  private SortedMap<Integer, Element> settle() {
+    moveSplit(Integer.MAX_VALUE);
+    return head;
+  }
+
+  /**
+   * A sorted map view of the elements, keyed by position.
+   */
+  private class ElementMap extends AbstractMap<Integer, Element>
+      implements SortedMap<Integer, Element> {
+
+    @Override
+    public Element get(Object key) {
+      if (!(key instanceof Integer)) {
+        return null;
+      }
+      int position = (Integer) key;
+      return position < split ? head.get(position) : tail.get(tailOrigin - position);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      if (!(key instanceof Integer)) {
+        return false;
+      }
+      int position = (Integer) key;
+      return position < split ? head.containsKey(position) :
+          tail.containsKey(tailOrigin - position);
+    }
+
+    @Override
+    public Element put(Integer key, Element value) {
+      return key < split ? head.put(key, value) : tail.put(tailOrigin - key, value);
+    }
+
+    @Override
+    public Element remove(Object key) {
+      if (!(key instanceof Integer)) {
+        return null;
+      }
+      int position = (Integer) key;
+      return position < split ? head.remove(position) : tail.remove(tailOrigin - position);
+    }
+
+    @Override
+    public int size() {
+      return head.size() + tail.size();
+    }
+
+    @Override
+    public void clear() {
+      head.clear();
+      tail.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, Element>> entrySet() {
+      return settle().entrySet();
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+      return null;
+    }
+
+    @Override
+    public SortedMap<Integer, Element> subMap(Integer fromKey, Integer toKey) {
+      return settle().subMap(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<Integer, Element> headMap(Integer toKey) {
+      return settle().headMap(toKey);
+    }
+
+    @Override
+    public SortedMap<Integer, Element> tailMap(Integer fromKey) {
+      return settle().tailMap(fromKey);
+    }
+
+    @Override
+    public Integer firstKey() {
+      return settle().firstKey();
+    }
+
+    @Override
+    public Integer lastKey() {
+      return settle().lastKey();
+    }
+  }
+}
@@ -139,7 +139,6 @@ public abstract class BlipIterator<T> implements Iterator<Range> {
      */
     public SingleshotIterator(Blip blip, int start, int end) {
       super(blip, null, 1, end - start);
-      int length = blip.getContent().length();
       this.start = start;
     }
 
@@ -167,7 +166,7 @@ public abstract class BlipIterator<T> implements Iterator<Range> {
 
     @Override
     protected int getNextIndex() {
-      return blip.getContent().indexOf(target, position + 1);
+      return blip.indexOf(target, position + 1);
     }
   }
 
@@ -196,12 +195,9 @@ public abstract class BlipIterator<T> implements Iterator<Range> {
 
     @Override
     protected int getNextIndex() {
-      int index = -1;
-      for (Entry<Integer, Element> entry : blip.getElements().tailMap(position + 1).entrySet()) {
-        if (match(entry.getValue())) {
-          index = entry.getKey();
-          break;
-        }
+      int index = blip.getNextElementPosition(position + 1);
+      while (index != -1 && !match(blip.getElements().get(index))) {
+        index = blip.getNextElementPosition(index + 1);
       }
       return index;
     }
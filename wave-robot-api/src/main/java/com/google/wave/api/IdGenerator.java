@@ -0,0 +1,91 @@
+/* Copyright (c) 2009 Google Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.google.wave.api;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe source of operation ids and temporary blip and wave ids.
+ *
+ * Ids are taken from atomic counters, so concurrent callers never block each
+ * other, and never receive the same id. Temporary ids start at a random value,
+ * so that different robot instances are unlikely to hand out the same ones.
+ */
+final class IdGenerator {
+
+  /** The prefix of operation ids. */
+  private static final String OP_ID_PREFIX = "op";
+
+  /** The prefix of the unique part of temporary ids. */
+  private static final String TEMP_ID_PREFIX = "TBD_";
+
+  /** The next operation id. */
+  private final AtomicLong nextOpId;
+
+  /** The next unique part of a temporary id. */
+  private final AtomicInteger nextTempId;
+
+  /**
+   * Constructor.
+   *
+   * @param firstOpId the first operation id to hand out.
+   * @param firstTempId the first unique part of temporary ids to hand out.
+   */
+  IdGenerator(long firstOpId, int firstTempId) {
+    this.nextOpId = new AtomicLong(firstOpId);
+    this.nextTempId = new AtomicInteger(firstTempId);
+  }
+
+  /**
+   * Constructor that starts operation ids at 1, and temporary ids at a random
+   * value.
+   */
+  IdGenerator() {
+    this(1, new Random().nextInt());
+  }
+
+  /**
+   * @return a new operation id, of the form {@code op<number>}.
+   */
+  String newOpId() {
+    return OP_ID_PREFIX + nextOpId.getAndIncrement();
+  }
+
+  /**
+   * Returns a new temporary blip id.
+   *
+   * @param waveletId the serialized id of the wavelet that the blip belongs
+   *     to.
+   * @return a new temporary blip id, of the form
+   *     {@code TBD_<waveletId>_<number>}.
+   */
+  String newTempBlipId(String waveletId) {
+    return TEMP_ID_PREFIX + waveletId + '_' + nextTempId.getAndIncrement();
+  }
+
+  /**
+   * Returns a new temporary wave id.
+   *
+   * @param domain the domain of the wave.
+   * @return a new temporary wave id, of the form
+   *     {@code <domain>!TBD_<number>}.
+   */
+  String newTempWaveId(String domain) {
+    return domain + '!' + TEMP_ID_PREFIX + nextTempId.getAndIncrement();
+  }
+}
@@ -0,0 +1,352 @@
+/* Copyright (c) 2009 Google Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.google.wave.api;
+
+import com.google.wave.api.JsonRpcConstant.ParamsProperty;
+import com.google.wave.api.OperationRequest.Parameter;
+import com.google.wave.api.impl.DocumentModifyAction;
+import com.google.wave.api.impl.DocumentModifyAction.BundledAnnotation;
+import com.google.wave.api.impl.DocumentModifyAction.ModifyHow;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Rewrites a list of pending operations into a shorter list that has the same
+ * effect on the server, so that robots that modify a document in a loop don't
+ * send one operation per call.
+ *
+ * Only operations that are next to each other in the queue are merged, and
+ * only if the server would apply them identically:
+ * <ul>
+ *   <li>Every {@code robot.notify} operation after the first one is dropped.
+ *       </li>
+ *   <li>Consecutive {@code wavelet.setTitle} operations on the same wavelet
+ *       are folded into the last one.</li>
+ *   <li>Consecutive {@code wavelet.modifyTag} operations on the same wavelet
+ *       are folded into the last one for each tag.</li>
+ *   <li>Consecutive {@code document.modify} operations on the same blip are
+ *       merged when they annotate or clear the same key over touching ranges,
+ *       delete touching ranges, or insert plain text right after the text
+ *       that the previous one inserted.</li>
+ * </ul>
+ * Merged operations keep the id of the first operation of their run, so the
+ * server only returns a response for that id.
+ */
+final class OperationCoalescer {
+
+  /**
+   * Coalesces the given operations. The given list and its operations are not
+   * modified.
+   *
+   * @param operations the operations to be coalesced.
+   * @return the coalesced operations.
+   */
+  static List<OperationRequest> coalesce(List<OperationRequest> operations) {
+    List<OperationRequest> result = new ArrayList<OperationRequest>(operations.size());
+    boolean seenNotify = false;
+    for (int i = 0; i < operations.size(); ++i) {
+      OperationRequest operation = operations.get(i);
+      String method = operation.getMethod();
+      if (isNotify(method)) {
+        if (!seenNotify) {
+          result.add(operation);
+          seenNotify = true;
+        }
+      } else if (OperationType.WAVELET_MODIFY_TAG.method().equals(method)) {
+        // Collect the run of tag modifications, keeping the last one per tag.
+        Map<Object, OperationRequest> lastByTag = new LinkedHashMap<Object, OperationRequest>();
+        int end = i;
+        while (end < operations.size() &&
+            OperationType.WAVELET_MODIFY_TAG.method().equals(operations.get(end).getMethod()) &&
+            isSameTarget(operation, operations.get(end))) {
+          Object tag = operations.get(end).getParameter(ParamsProperty.NAME);
+          lastByTag.remove(tag);
+          lastByTag.put(tag, operations.get(end));
+          end++;
+        }
+        result.addAll(lastByTag.values());
+        i = end - 1;
+      } else if (!result.isEmpty()) {
+        OperationRequest merged = merge(result.get(result.size() - 1), operation);
+        if (merged != null) {
+          result.set(result.size() - 1, merged);
+        } else {
+          result.add(operation);
+        }
+      } else {
+        result.add(operation);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Merges two consecutive operations.
+   *
+   * @param previous the earlier operation.
+   * @param next the later operation.
+   * @return an operation that has the same effect as both, or {@code null} if
+   *     they can't be merged.
+   */
+  private static OperationRequest merge(OperationRequest previous, OperationRequest next) {
+    if (!previous.getMethod().equals(next.getMethod()) || !isSameTarget(previous, next)) {
+      return null;
+    }
+    if (OperationType.WAVELET_SET_TITLE.method().equals(next.getMethod())) {
+      return copyOf(next, previous.getId());
+    }
+    if (OperationType.DOCUMENT_MODIFY.method().equals(next.getMethod())) {
+      return mergeDocumentModify(previous, next);
+    }
+    return null;
+  }
+
+  /**
+   * Merges two consecutive {@code document.modify} operations on the same
+   * blip.
+   *
+   * @param previous the earlier operation.
+   * @param next the later operation.
+   * @return an operation that has the same effect as both, or {@code null} if
+   *     they can't be merged.
+   */
+  private static OperationRequest mergeDocumentModify(OperationRequest previous,
+      OperationRequest next) {
+    // Only operations that address the same explicit range, or the whole
+    // document, and that don't carry any other parameters are merged.
+    for (ParamsProperty property : previous.getParams().keySet()) {
+      if (property != ParamsProperty.RANGE && property != ParamsProperty.MODIFY_ACTION &&
+          property != ParamsProperty.PROXYING_FOR) {
+        return null;
+      }
+    }
+    if (previous.getParams().size() != next.getParams().size() ||
+        !next.getParams().keySet().containsAll(previous.getParams().keySet())) {
+      return null;
+    }
+
+    DocumentModifyAction first =
+        (DocumentModifyAction) previous.getParameter(ParamsProperty.MODIFY_ACTION);
+    DocumentModifyAction second =
+        (DocumentModifyAction) next.getParameter(ParamsProperty.MODIFY_ACTION);
+    if (first == null || second == null || first.getModifyHow() != second.getModifyHow() ||
+        first.isUseMarkup() || second.isUseMarkup()) {
+      return null;
+    }
+
+    Range firstRange = (Range) previous.getParameter(ParamsProperty.RANGE);
+    Range secondRange = (Range) next.getParameter(ParamsProperty.RANGE);
+    if (firstRange == null) {
+      // Both operations apply to the whole document, which can only be merged
+      // for consecutive appends.
+      if (first.getModifyHow() != ModifyHow.INSERT_AFTER || !isPlainText(first) ||
+          !isPlainText(second) || !isSameAnnotations(first, second)) {
+        return null;
+      }
+      return withAction(previous, null, insertText(first, second));
+    }
+
+    switch (first.getModifyHow()) {
+      case ANNOTATE:
+        if (!isSameKey(first, second) || !isSingleValue(first) || !isSingleValue(second)) {
+          return null;
+        }
+        if (covers(secondRange, firstRange)) {
+          return withAction(previous, secondRange, second);
+        }
+        if (first.getValue(0).equals(second.getValue(0)) && touches(firstRange, secondRange)) {
+          return withAction(previous, union(firstRange, secondRange), first);
+        }
+        return null;
+      case CLEAR_ANNOTATION:
+        if (!isSameKey(first, second) || !touches(firstRange, secondRange)) {
+          return null;
+        }
+        return withAction(previous, union(firstRange, secondRange), first);
+      case DELETE:
+        // The second range is in the coordinates after the first deletion, so
+        // the deletions are contiguous if the second range touches the point
+        // where the first one collapsed.
+        int deleted = firstRange.getEnd() - firstRange.getStart();
+        if (firstRange.getStart() < 1 || secondRange.getStart() < 1 ||
+            secondRange.getStart() > firstRange.getStart() ||
+            secondRange.getEnd() < firstRange.getStart()) {
+          return null;
+        }
+        return withAction(previous,
+            new Range(secondRange.getStart(), secondRange.getEnd() + deleted), first);
+      case INSERT:
+        if (!isPlainText(first) || !isPlainText(second) || !isSameAnnotations(first, second) ||
+            secondRange.getStart() != firstRange.getStart() + first.getValue(0).length()) {
+          return null;
+        }
+        return withAction(previous, firstRange, insertText(first, second));
+      case INSERT_AFTER:
+        if (!isPlainText(first) || !isPlainText(second) || !isSameAnnotations(first, second) ||
+            secondRange.getEnd() != firstRange.getEnd() + first.getValue(0).length()) {
+          return null;
+        }
+        return withAction(previous, firstRange, insertText(first, second));
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return {@code true} if the given method notifies the robot information.
+   */
+  private static boolean isNotify(String method) {
+    return OperationType.ROBOT_NOTIFY.method().equals(method) ||
+        OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH.method().equals(method);
+  }
+
+  /**
+   * @return {@code true} if both operations apply to the same wave, wavelet,
+   *     and blip, on behalf of the same participant.
+   */
+  private static boolean isSameTarget(OperationRequest a, OperationRequest b) {
+    return equal(a.getWaveId(), b.getWaveId()) && equal(a.getWaveletId(), b.getWaveletId()) &&
+        equal(a.getBlipId(), b.getBlipId()) &&
+        equal(a.getParameter(ParamsProperty.PROXYING_FOR),
+            b.getParameter(ParamsProperty.PROXYING_FOR));
+  }
+
+  /**
+   * @return {@code true} if both actions apply to the same annotation key.
+   */
+  private static boolean isSameKey(DocumentModifyAction a, DocumentModifyAction b) {
+    return a.getAnnotationKey() != null && a.getAnnotationKey().equals(b.getAnnotationKey());
+  }
+
+  /**
+   * @return {@code true} if the action has exactly one value.
+   */
+  private static boolean isSingleValue(DocumentModifyAction action) {
+    return action.getValues() != null && action.getValues().size() == 1 &&
+        action.getValue(0) != null;
+  }
+
+  /**
+   * @return {@code true} if the action inserts a single piece of plain text.
+   */
+  private static boolean isPlainText(DocumentModifyAction action) {
+    if (!isSingleValue(action)) {
+      return false;
+    }
+    List<Element> elements = action.getElements();
+    return elements == null || elements.isEmpty() ||
+        (elements.size() == 1 && elements.get(0) == null);
+  }
+
+  /**
+   * @return {@code true} if both actions apply the same bundled annotations
+   *     to the text they insert.
+   */
+  private static boolean isSameAnnotations(DocumentModifyAction a, DocumentModifyAction b) {
+    List<BundledAnnotation> first = a.getBundledAnnotations();
+    List<BundledAnnotation> second = b.getBundledAnnotations();
+    if (first == null || first.isEmpty()) {
+      return second == null || second.isEmpty();
+    }
+    if (second == null || first.size() != second.size()) {
+      return false;
+    }
+    for (int i = 0; i < first.size(); ++i) {
+      if (!equal(first.get(i).key, second.get(i).key) ||
+          !equal(first.get(i).value, second.get(i).value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return an action that inserts the text of both actions.
+   */
+  private static DocumentModifyAction insertText(DocumentModifyAction first,
+      DocumentModifyAction second) {
+    List<String> values = new ArrayList<String>(1);
+    values.add(first.getValue(0) + second.getValue(0));
+    return new DocumentModifyAction(first.getModifyHow(), values, null, first.getElements(),
+        first.getBundledAnnotations(), false);
+  }
+
+  /**
+   * @return {@code true} if the outer range contains the inner range.
+   */
+  private static boolean covers(Range outer, Range inner) {
+    return outer.getStart() <= inner.getStart() && outer.getEnd() >= inner.getEnd();
+  }
+
+  /**
+   * @return {@code true} if the ranges overlap or are adjacent.
+   */
+  private static boolean touches(Range a, Range b) {
+    return a.getStart() <= b.getEnd() && b.getStart() <= a.getEnd();
+  }
+
+  /**
+   * @return the smallest range that contains both ranges.
+   */
+  private static Range union(Range a, Range b) {
+    return new Range(Math.min(a.getStart(), b.getStart()), Math.max(a.getEnd(), b.getEnd()));
+  }
+
+  /**
+   * Returns a copy of the given operation with a new range and action.
+   *
+   * @param operation the operation to copy.
+   * @param range the new range, or {@code null} if the operation has none.
+   * @param action the new action.
+   * @return the new operation.
+   */
+  private static OperationRequest withAction(OperationRequest operation, Range range,
+      DocumentModifyAction action) {
+    OperationRequest result = copyOf(operation, operation.getId());
+    if (range != null) {
+      result.addParameter(Parameter.of(ParamsProperty.RANGE, range));
+    }
+    result.addParameter(Parameter.of(ParamsProperty.MODIFY_ACTION, action));
+    return result;
+  }
+
+  /**
+   * Returns a copy of the given operation with the given id.
+   *
+   * @param operation the operation to copy.
+   * @param id the id of the copy.
+   * @return the new operation.
+   */
+  private static OperationRequest copyOf(OperationRequest operation, String id) {
+    OperationRequest result = new OperationRequest(operation.getMethod(), id,
+        operation.getWaveId(), operation.getWaveletId(), operation.getBlipId());
+    for (Entry<ParamsProperty, Object> entry : operation.getParams().entrySet()) {
+      result.addParameter(Parameter.of(entry.getKey(), entry.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * @return {@code true} if both objects are {@code null}, or equal.
+   */
+  private static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
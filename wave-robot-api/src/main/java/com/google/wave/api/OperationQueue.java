@@ -26,7 +26,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 /**
@@ -45,23 +44,57 @@ import java.util.Set;
  */
 public class OperationQueue {
 
-  /** A random number generator for the temporary ids. */
-  private static final Random ID_GENERATOR = new Random();
+  /**
+   * The operations and local wavelet changes that a handler has made on one
+   * thread, while events are dispatched in parallel.
+   */
+  static final class Capture {
 
-  /** The format of temporary blip ids. */
-  private static final String TEMP_BLIP_ID_FORMAT = "TBD_%s_%s";
+    /** The operation list that is captured. */
+    private final List<OperationRequest> target;
 
-  /** The format of temporary wave ids. */
-  private static final String TEMP_WAVE_ID_FORMAT = "%s!TBD_%s";
+    /** The captured operations to be added to the front of the queue. */
+    private final List<OperationRequest> prepended = new ArrayList<OperationRequest>();
 
-  /** The format of wavelet ids. */
-  private static final String TEMP_WAVELET_ID_FORMAT = "%s!conv+root";
+    /** The captured operations to be added to the end of the queue. */
+    private final List<OperationRequest> appended = new ArrayList<OperationRequest>();
 
-  /** The format of new operation ids. */
-  private static final String OP_ID_FORMAT = "op%d";
+    /** The captured changes to the local copy of the wavelet. */
+    private final List<Runnable> localChanges = new ArrayList<Runnable>();
 
-  /** Some class global counters. */
-  private static long nextOpId = 1;
+    /**
+     * Constructor.
+     *
+     * @param target the operation list that is captured.
+     */
+    private Capture(List<OperationRequest> target) {
+      this.target = target;
+    }
+
+    /**
+     * Captures an operation.
+     *
+     * @param operation the operation.
+     * @param prepend whether the operation was added to the front of the
+     *     queue.
+     */
+    private void add(OperationRequest operation, boolean prepend) {
+      if (prepend) {
+        prepended.add(0, operation);
+      } else {
+        appended.add(operation);
+      }
+    }
+  }
+
+  /** The generator of operation ids and temporary ids, shared by all queues. */
+  private static final IdGenerator ID_GENERATOR = new IdGenerator();
+
+  /** The suffix of the ids of new wavelets, after the domain. */
+  private static final String TEMP_WAVELET_ID_SUFFIX = "!conv+root";
+
+  /** The capture of the current thread, while events are dispatched in parallel. */
+  private static final ThreadLocal<Capture> CAPTURE = new ThreadLocal<Capture>();
 
   /** The id that can be set for {@code proxyingFor} parameter. */
   private final String proxyForId;
@@ -142,6 +175,23 @@ public class OperationQueue {
     pendingOperations.clear();
   }
 
+  /**
+   * Coalesces the pending operations, by dropping redundant
+   * {@code robot.notify} operations, folding repeated wavelet title and tag
+   * changes, and merging adjacent document modifications of the same blip
+   * that can be applied as one. Merged operations keep the id of the first
+   * operation that they replace.
+   *
+   * This is safe to call before the operations are submitted, but the server
+   * will not return a response for the ids of the operations that have been
+   * merged away.
+   */
+  public void coalesce() {
+    List<OperationRequest> coalesced = OperationCoalescer.coalesce(pendingOperations);
+    pendingOperations.clear();
+    pendingOperations.addAll(coalesced);
+  }
+
   /**
    * Appends a blip to a wavelet.
    *
@@ -290,7 +340,12 @@ public class OperationQueue {
    * @param other the other operation queue to merge this operation queue with.
    */
   public void submitWith(OperationQueue other) {
-    other.pendingOperations.addAll(this.pendingOperations);
+    Capture capture = other.getCapture();
+    if (capture != null) {
+      capture.appended.addAll(this.pendingOperations);
+    } else {
+      other.pendingOperations.addAll(this.pendingOperations);
+    }
     this.pendingOperations = other.pendingOperations;
   }
 
@@ -387,7 +442,7 @@ public class OperationQueue {
    */
   OperationRequest appendOperation(OperationType opType, WaveId waveId, WaveletId waveletId,
       String blipId, Parameter... parameters) {
-    return addOperation(opType, waveId, waveletId, blipId, pendingOperations.size(), parameters);
+    return addOperation(opType, waveId, waveletId, blipId, false, parameters);
   }
 
   /**
@@ -406,7 +461,7 @@ public class OperationQueue {
    */
   OperationRequest prependOperation(OperationType opType, WaveId waveId, WaveletId waveletId,
       String blipId, Parameter... parameters) {
-    return addOperation(opType, waveId, waveletId, blipId, 0, parameters);
+    return addOperation(opType, waveId, waveletId, blipId, true, parameters);
   }
 
   /**
@@ -418,15 +473,15 @@ public class OperationQueue {
    *     should be applied to.
    * @param blipId the optional blip id of the given wave in which the operation
    *     should be applied to. Not all operations require blip id.
-   * @param index the index where this new operation should be added to in the
-   *     queue.
+   * @param prepend whether the operation should be added to the front of the
+   *     queue, rather than to the end.
    * @param parameters the parameters that should be added as a property of
    *     the operation.
    * @return an instance of {@link OperationRequest} that represents the queued
    *     operation.
    */
   OperationRequest addOperation(OperationType opType, WaveId waveId, WaveletId waveletId,
-      String blipId, int index, Parameter... parameters) {
+      String blipId, boolean prepend, Parameter... parameters) {
     String waveIdString = null;
     if (waveId != null) {
       waveIdString = waveId.serialise();
@@ -438,7 +493,7 @@ public class OperationQueue {
     }
 
     OperationRequest operation = new OperationRequest(opType.method(),
-        String.format(OP_ID_FORMAT, nextOpId++),
+        ID_GENERATOR.newOpId(),
         waveIdString, waveletIdString, blipId, parameters);
 
     // Set the proxying for parameter, if necessary.
@@ -446,10 +501,81 @@ public class OperationQueue {
       operation.addParameter(Parameter.of(ParamsProperty.PROXYING_FOR, proxyForId));
     }
 
-    pendingOperations.add(index, operation);
+    Capture capture = getCapture();
+    if (capture != null) {
+      capture.add(operation, prepend);
+    } else if (prepend) {
+      pendingOperations.add(0, operation);
+    } else {
+      pendingOperations.add(operation);
+    }
     return operation;
   }
 
+  /**
+   * Applies a change to the robot's local copy of a wavelet, such as adding
+   * or removing a blip. While events are dispatched in parallel, and the
+   * operations of the given queue are being captured on the current thread,
+   * the change is deferred until the captured operations are committed, so
+   * that handlers on different threads never modify a wavelet's blip map at
+   * the same time. Otherwise, the change is applied immediately.
+   *
+   * @param queue the queue that the operations of the change were added to.
+   * @param change the change to be applied.
+   */
+  static void applyLocalChange(OperationQueue queue, Runnable change) {
+    Capture capture = queue.getCapture();
+    if (capture != null) {
+      capture.localChanges.add(change);
+    } else {
+      change.run();
+    }
+  }
+
+  /**
+   * Starts capturing the operations that are added to this queue, or to any
+   * queue that shares its operation list, on the current thread. Captured
+   * operations are not added to the queue until {@link #commit(Capture)} is
+   * called.
+   *
+   * @return the capture.
+   */
+  Capture startCapture() {
+    Capture capture = new Capture(pendingOperations);
+    CAPTURE.set(capture);
+    return capture;
+  }
+
+  /**
+   * Stops capturing operations on the current thread.
+   */
+  static void stopCapture() {
+    CAPTURE.remove();
+  }
+
+  /**
+   * Adds the captured operations to this queue, as if they had been added
+   * directly, and applies the captured local changes.
+   *
+   * @param capture the capture to be committed.
+   */
+  void commit(Capture capture) {
+    pendingOperations.addAll(0, capture.prepended);
+    pendingOperations.addAll(capture.appended);
+    for (Runnable change : capture.localChanges) {
+      change.run();
+    }
+  }
+
+  /**
+   * @return the capture of the current thread, if it captures the operations
+   *     of this queue, or {@code null}.
+   */
+  private Capture getCapture() {
+    Capture capture = CAPTURE.get();
+    return capture != null && capture.target == pendingOperations ? capture : null;
+  }
+
   /**
    * Creates a new {@code Blip} object used for this session. A temporary
    * id will be assigned to the newly created {@code Blip} object.
@@ -458,7 +584,7 @@ public class OperationQueue {
    * @param initialContent the initial content of the new blip.
    * @return an instance of new {@code Blip} object used for this session.
    */
-  private static Blip newBlip(Wavelet wavelet, String initialContent) {
+  private Blip newBlip(Wavelet wavelet, String initialContent) {
     return newBlip(wavelet, initialContent, null);
   }
 
@@ -471,17 +597,22 @@ public class OperationQueue {
    * @param parentBlipId the parent of this blip.
    * @return an instance of new {@code Blip} object used for this session.
    */
-  private static Blip newBlip(Wavelet wavelet, String initialContent, String parentBlipId) {
-    String tempBlipId = String.format(TEMP_BLIP_ID_FORMAT, wavelet.getWaveletId().serialise(),
-        ID_GENERATOR.nextInt());
-    Blip newBlip = new Blip(tempBlipId, initialContent, parentBlipId, wavelet);
-    if (parentBlipId != null) {
-      Blip parentBlip = wavelet.getBlips().get(parentBlipId);
-      if (parentBlip != null) {
-        parentBlip.getChildBlipIds().add(newBlip.getBlipId());
+  private Blip newBlip(final Wavelet wavelet, String initialContent,
+      final String parentBlipId) {
+    String tempBlipId = ID_GENERATOR.newTempBlipId(wavelet.getWaveletId().serialise());
+    final Blip newBlip = new Blip(tempBlipId, initialContent, parentBlipId, wavelet);
+    applyLocalChange(this, new Runnable() {
+      @Override
+      public void run() {
+        if (parentBlipId != null) {
+          Blip parentBlip = wavelet.getBlips().get(parentBlipId);
+          if (parentBlip != null) {
+            parentBlip.getChildBlipIds().add(newBlip.getBlipId());
+          }
+        }
+        wavelet.getBlips().put(newBlip.getBlipId(), newBlip);
       }
-    }
-    wavelet.getBlips().put(newBlip.getBlipId(), newBlip);
+    });
     return newBlip;
   }
 
@@ -503,12 +634,10 @@ public class OperationQueue {
       participants = Collections.emptySet();
     }
 
-    WaveId waveId = WaveId.deserialise(String.format(TEMP_WAVE_ID_FORMAT, domain,
-        ID_GENERATOR.nextInt()));
-    WaveletId waveletId = WaveletId.deserialise(String.format(TEMP_WAVELET_ID_FORMAT, domain));
+    WaveId waveId = WaveId.deserialise(ID_GENERATOR.newTempWaveId(domain));
+    WaveletId waveletId = WaveletId.deserialise(domain + TEMP_WAVELET_ID_SUFFIX);
 
-    String rootBlipId = String.format(TEMP_BLIP_ID_FORMAT, waveletId.serialise(),
-        ID_GENERATOR.nextInt());
+    String rootBlipId = ID_GENERATOR.newTempBlipId(waveletId.serialise());
     Map<String, Blip> blips = new HashMap<String, Blip>();
     Map<String, String> roles = new HashMap<String, String>();
     Wavelet wavelet = new Wavelet(
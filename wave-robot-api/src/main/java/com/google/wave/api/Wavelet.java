@@ -422,8 +422,13 @@ public class Wavelet {
       throw new IllegalArgumentException("Initial content should start with a newline character");
     }
 
-    Blip blip = operationQueue.appendBlipToWavelet(this, initialContent);
-    blips.put(blip.getBlipId(), blip);
+    final Blip blip = operationQueue.appendBlipToWavelet(this, initialContent);
+    OperationQueue.applyLocalChange(operationQueue, new Runnable() {
+      @Override
+      public void run() {
+        blips.put(blip.getBlipId(), blip);
+      }
+    });
     return blip;
   }
 
@@ -441,17 +446,22 @@ public class Wavelet {
    *
    * @param blipId the id of the blip to be removed.
    */
-  public void delete(String blipId) {
+  public void delete(final String blipId) {
     operationQueue.deleteBlip(this, blipId);
-    Blip removed = blips.remove(blipId);
-
-    // Remove the reference to this blip from its parent.
-    if (removed != null) {
-      Blip parentBlip = removed.getParentBlip();
-      if (parentBlip != null) {
-        parentBlip.deleteChildBlipId(blipId);
+    OperationQueue.applyLocalChange(operationQueue, new Runnable() {
+      @Override
+      public void run() {
+        Blip removed = blips.remove(blipId);
+
+        // Remove the reference to this blip from its parent.
+        if (removed != null) {
+          Blip parentBlip = removed.getParentBlip();
+          if (parentBlip != null) {
+            parentBlip.deleteChildBlipId(blipId);
+          }
+        }
       }
-    }
+    });
   }
 
   /**
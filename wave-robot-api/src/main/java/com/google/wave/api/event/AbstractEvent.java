@@ -74,6 +74,17 @@ public abstract class AbstractEvent implements Event {
     this(null, null, null, null, -1, null);
   }
 
+  /**
+   * Constructor for deserialization.
+   *
+   * @param eventType the type of the event.
+   * @param header the properties that are common to all events.
+   */
+  AbstractEvent(EventType eventType, EventHeader header) {
+    this(eventType, header.getWavelet(), header.getBundle(), header.getModifiedBy(),
+        header.getTimestamp(), header.getBlipId());
+  }
+
   @Override
   public EventType getType() {
     return type;
@@ -89,6 +100,15 @@ public abstract class AbstractEvent implements Event {
     return wavelet.getBlip(blipId);
   }
 
+  /**
+   * Returns the id of the blip in which this event occurs.
+   *
+   * @return the blip id, or {@code null} for events that don't have one.
+   */
+  String getBlipId() {
+    return blipId;
+  }
+
   @Override
   public String getModifiedBy() {
     return modifiedBy;
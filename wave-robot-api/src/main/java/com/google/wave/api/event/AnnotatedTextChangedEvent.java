@@ -49,10 +49,15 @@ public class AnnotatedTextChangedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param name the name of the annotation.
+   * @param value the value of the annotation.
    */
-  AnnotatedTextChangedEvent() {
-    this.name = null;
-    this.value = null;
+  AnnotatedTextChangedEvent(EventHeader header, String name, String value) {
+    super(EventType.ANNOTATED_TEXT_CHANGED, header);
+    this.name = name;
+    this.value = value;
   }
 
   /**
@@ -54,10 +54,16 @@ public class BlipContributorsChangedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param contributorsAdded the contributors that were added.
+   * @param contributorsRemoved the contributors that were removed.
    */
-  BlipContributorsChangedEvent() {
-    this.contributorsAdded = null;
-    this.contributorsRemoved = null;
+  BlipContributorsChangedEvent(EventHeader header, List<String> contributorsAdded,
+      List<String> contributorsRemoved) {
+    super(EventType.BLIP_CONTRIBUTORS_CHANGED, header);
+    this.contributorsAdded = contributorsAdded;
+    this.contributorsRemoved = contributorsRemoved;
   }
 
   /**
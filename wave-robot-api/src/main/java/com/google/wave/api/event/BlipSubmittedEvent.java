@@ -39,8 +39,12 @@ public class BlipSubmittedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
    */
-  BlipSubmittedEvent() {}
+  BlipSubmittedEvent(EventHeader header) {
+    super(EventType.BLIP_SUBMITTED, header);
+  }
 
   /**
    * Helper method for type conversion.
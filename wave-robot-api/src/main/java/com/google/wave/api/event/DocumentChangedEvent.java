@@ -39,8 +39,12 @@ public class DocumentChangedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
    */
-  DocumentChangedEvent() {}
+  DocumentChangedEvent(EventHeader header) {
+    super(EventType.DOCUMENT_CHANGED, header);
+  }
 
   /**
    * Helper method for type conversion.
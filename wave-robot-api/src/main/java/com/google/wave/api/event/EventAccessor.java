@@ -0,0 +1,374 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api.event;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import com.google.wave.api.BlipData;
+import com.google.wave.api.impl.WaveletData;
+
+import java.lang.reflect.Type;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Constructs and reads the type specific properties of one kind of
+ * {@link Event}, so that {@link EventSerializer} doesn't have to inspect the
+ * event classes with reflection on every call.
+ *
+ * There is one accessor per {@link EventType}, built once when this class is
+ * loaded. New event types must register an accessor in the table below.
+ *
+ * @param <E> the type of the event.
+ */
+abstract class EventAccessor<E extends AbstractEvent> {
+
+  /** The generic types of the event properties. */
+  private static final Type STRING_LIST_TYPE = new TypeToken<List<String>>(){}.getType();
+  private static final Type STRING_MAP_TYPE = new TypeToken<Map<String, String>>(){}.getType();
+  private static final Type BLIP_DATA_MAP_TYPE =
+      new TypeToken<Map<String, BlipData>>(){}.getType();
+
+  /** The accessors, keyed by event type. */
+  private static final Map<EventType, EventAccessor<?>> ACCESSORS =
+      new EnumMap<EventType, EventAccessor<?>>(EventType.class);
+
+  static {
+    register(EventType.WAVELET_BLIP_CREATED,
+        new EventAccessor<WaveletBlipCreatedEvent>(WaveletBlipCreatedEvent.class) {
+          @Override
+          WaveletBlipCreatedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletBlipCreatedEvent(header,
+                getString(properties, "newBlipId"));
+          }
+
+          @Override
+          void getProperties(WaveletBlipCreatedEvent event, Map<String, Object> properties) {
+            properties.put("newBlipId", event.getNewBlipId());
+          }
+        });
+    register(EventType.WAVELET_BLIP_REMOVED,
+        new EventAccessor<WaveletBlipRemovedEvent>(WaveletBlipRemovedEvent.class) {
+          @Override
+          WaveletBlipRemovedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletBlipRemovedEvent(header,
+                getString(properties, "removedBlipId"));
+          }
+
+          @Override
+          void getProperties(WaveletBlipRemovedEvent event, Map<String, Object> properties) {
+            properties.put("removedBlipId", event.getRemovedBlipId());
+          }
+        });
+    register(EventType.WAVELET_PARTICIPANTS_CHANGED,
+        new EventAccessor<WaveletParticipantsChangedEvent>(
+            WaveletParticipantsChangedEvent.class) {
+          @Override
+          WaveletParticipantsChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            List<String> participantsAdded =
+                get(properties, "participantsAdded", STRING_LIST_TYPE, context);
+            List<String> participantsRemoved =
+                get(properties, "participantsRemoved", STRING_LIST_TYPE, context);
+            return new WaveletParticipantsChangedEvent(header, participantsAdded,
+                participantsRemoved);
+          }
+
+          @Override
+          void getProperties(WaveletParticipantsChangedEvent event,
+              Map<String, Object> properties) {
+            properties.put("participantsAdded", event.getParticipantsAdded());
+            properties.put("participantsRemoved", event.getParticipantsRemoved());
+          }
+        });
+    register(EventType.WAVELET_SELF_ADDED,
+        new EventAccessor<WaveletSelfAddedEvent>(WaveletSelfAddedEvent.class) {
+          @Override
+          WaveletSelfAddedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletSelfAddedEvent(header);
+          }
+        });
+    register(EventType.WAVELET_SELF_REMOVED,
+        new EventAccessor<WaveletSelfRemovedEvent>(WaveletSelfRemovedEvent.class) {
+          @Override
+          WaveletSelfRemovedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletSelfRemovedEvent(header);
+          }
+        });
+    register(EventType.WAVELET_TITLE_CHANGED,
+        new EventAccessor<WaveletTitleChangedEvent>(WaveletTitleChangedEvent.class) {
+          @Override
+          WaveletTitleChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletTitleChangedEvent(header, getString(properties, "title"));
+          }
+
+          @Override
+          void getProperties(WaveletTitleChangedEvent event, Map<String, Object> properties) {
+            properties.put("title", event.getTitle());
+          }
+        });
+    register(EventType.WAVELET_CREATED,
+        new EventAccessor<WaveletCreatedEvent>(WaveletCreatedEvent.class) {
+          @Override
+          WaveletCreatedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletCreatedEvent(header, getString(properties, "message"),
+                getString(properties, "waveId"), getString(properties, "waveletId"));
+          }
+
+          @Override
+          void getProperties(WaveletCreatedEvent event, Map<String, Object> properties) {
+            properties.put("message", event.getMessage());
+            properties.put("waveId", event.getWaveId());
+            properties.put("waveletId", event.getWaveletId());
+          }
+        });
+    register(EventType.WAVELET_FETCHED,
+        new EventAccessor<WaveletFetchedEvent>(WaveletFetchedEvent.class) {
+          @Override
+          WaveletFetchedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            WaveletData waveletData = get(properties, "waveletData", WaveletData.class, context);
+            Map<String, BlipData> blips = get(properties, "blips", BLIP_DATA_MAP_TYPE, context);
+            return new WaveletFetchedEvent(header, getString(properties, "message"), waveletData,
+                blips);
+          }
+
+          @Override
+          void getProperties(WaveletFetchedEvent event, Map<String, Object> properties) {
+            properties.put("message", event.getMessage());
+            properties.put("waveletData", event.getWaveletData());
+            properties.put("blips", event.getBlips());
+          }
+        });
+    register(EventType.WAVELET_TAGS_CHANGED,
+        new EventAccessor<WaveletTagsChangedEvent>(WaveletTagsChangedEvent.class) {
+          @Override
+          WaveletTagsChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new WaveletTagsChangedEvent(header);
+          }
+        });
+    register(EventType.BLIP_CONTRIBUTORS_CHANGED,
+        new EventAccessor<BlipContributorsChangedEvent>(BlipContributorsChangedEvent.class) {
+          @Override
+          BlipContributorsChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            List<String> contributorsAdded =
+                get(properties, "contributorsAdded", STRING_LIST_TYPE, context);
+            List<String> contributorsRemoved =
+                get(properties, "contributorsRemoved", STRING_LIST_TYPE, context);
+            return new BlipContributorsChangedEvent(header, contributorsAdded,
+                contributorsRemoved);
+          }
+
+          @Override
+          void getProperties(BlipContributorsChangedEvent event, Map<String, Object> properties) {
+            properties.put("contributorsAdded", event.getContributorsAdded());
+            properties.put("contributorsRemoved", event.getContributorsRemoved());
+          }
+        });
+    register(EventType.BLIP_SUBMITTED,
+        new EventAccessor<BlipSubmittedEvent>(BlipSubmittedEvent.class) {
+          @Override
+          BlipSubmittedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new BlipSubmittedEvent(header);
+          }
+        });
+    register(EventType.DOCUMENT_CHANGED,
+        new EventAccessor<DocumentChangedEvent>(DocumentChangedEvent.class) {
+          @Override
+          DocumentChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new DocumentChangedEvent(header);
+          }
+        });
+    register(EventType.FORM_BUTTON_CLICKED,
+        new EventAccessor<FormButtonClickedEvent>(FormButtonClickedEvent.class) {
+          @Override
+          FormButtonClickedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new FormButtonClickedEvent(header, getString(properties, "buttonName"));
+          }
+
+          @Override
+          void getProperties(FormButtonClickedEvent event, Map<String, Object> properties) {
+            properties.put("buttonName", event.getButtonName());
+          }
+        });
+    register(EventType.GADGET_STATE_CHANGED,
+        new EventAccessor<GadgetStateChangedEvent>(GadgetStateChangedEvent.class) {
+          @Override
+          GadgetStateChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            Integer index = get(properties, "index", Integer.class, context);
+            Map<String, String> oldState = get(properties, "oldState", STRING_MAP_TYPE, context);
+            return new GadgetStateChangedEvent(header, index, oldState);
+          }
+
+          @Override
+          void getProperties(GadgetStateChangedEvent event, Map<String, Object> properties) {
+            properties.put("index", event.getIndex());
+            properties.put("oldState", event.getOldState());
+          }
+        });
+    register(EventType.ANNOTATED_TEXT_CHANGED,
+        new EventAccessor<AnnotatedTextChangedEvent>(AnnotatedTextChangedEvent.class) {
+          @Override
+          AnnotatedTextChangedEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new AnnotatedTextChangedEvent(header, getString(properties, "name"),
+                getString(properties, "value"));
+          }
+
+          @Override
+          void getProperties(AnnotatedTextChangedEvent event, Map<String, Object> properties) {
+            properties.put("name", event.getName());
+            properties.put("value", event.getValue());
+          }
+        });
+    register(EventType.OPERATION_ERROR,
+        new EventAccessor<OperationErrorEvent>(OperationErrorEvent.class) {
+          @Override
+          OperationErrorEvent deserialize(EventHeader header, JsonObject properties,
+              JsonDeserializationContext context) {
+            return new OperationErrorEvent(header, getString(properties, "operationId"),
+                getString(properties, "message"));
+          }
+
+          @Override
+          void getProperties(OperationErrorEvent event, Map<String, Object> properties) {
+            properties.put("operationId", event.getOperationId());
+            properties.put("message", event.getMessage());
+          }
+        });
+  }
+
+  /** The class of the events that this accessor handles. */
+  private final Class<E> clazz;
+
+  /**
+   * Constructor.
+   *
+   * @param clazz the class of the events that this accessor handles.
+   */
+  EventAccessor(Class<E> clazz) {
+    this.clazz = clazz;
+  }
+
+  /**
+   * Returns the accessor for the given event type.
+   *
+   * @param type the type of the event.
+   * @return the accessor, or {@code null} if the type has none, such as
+   *     {@link EventType#UNKNOWN}.
+   */
+  static EventAccessor<?> of(EventType type) {
+    return ACCESSORS.get(type);
+  }
+
+  /**
+   * Constructs an event from its common properties and its JSON properties
+   * object.
+   *
+   * @param header the properties that are common to all events.
+   * @param properties the JSON object that holds the type specific properties.
+   * @param context the deserialization context.
+   * @return the new event.
+   */
+  abstract E deserialize(EventHeader header, JsonObject properties,
+      JsonDeserializationContext context);
+
+  /**
+   * Puts the type specific properties of the given event into the map, in the
+   * order the event class declares them. The default implementation is for
+   * events that don't have any.
+   *
+   * @param event the event whose properties will be read.
+   * @param properties the map to put the properties into.
+   */
+  void getProperties(E event, Map<String, Object> properties) {
+  }
+
+  /**
+   * Puts the type specific properties of the given event into the map.
+   *
+   * @param event the event whose properties will be read.
+   * @param properties the map to put the properties into.
+   *
+   * @throws ClassCastException if the event is not handled by this accessor.
+   */
+  void readProperties(Event event, Map<String, Object> properties) {
+    getProperties(clazz.cast(event), properties);
+  }
+
+  /**
+   * Registers an accessor.
+   *
+   * @param type the event type that the accessor handles.
+   * @param accessor the accessor.
+   */
+  private static void register(EventType type, EventAccessor<?> accessor) {
+    if (type.getClazz() != accessor.clazz) {
+      throw new IllegalArgumentException("Accessor for " + accessor.clazz + " can't handle " +
+          type);
+    }
+    ACCESSORS.put(type, accessor);
+  }
+
+  /**
+   * Deserializes a property of the given JSON object.
+   *
+   * @param properties the JSON object that holds the property.
+   * @param name the name of the property.
+   * @param type the type of the property.
+   * @param context the deserialization context.
+   * @return the property value, or {@code null} if it is absent.
+   */
+  private static <T> T get(JsonObject properties, String name, Type type,
+      JsonDeserializationContext context) {
+    JsonElement element = properties.get(name);
+    if (element == null || element instanceof JsonNull) {
+      return null;
+    }
+    return context.<T>deserialize(element, type);
+  }
+
+  /**
+   * Returns a string property of the given JSON object.
+   *
+   * @param properties the JSON object that holds the property.
+   * @param name the name of the property.
+   * @return the property value, or {@code null} if it is absent.
+   */
+  private static String getString(JsonObject properties, String name) {
+    JsonElement element = properties.get(name);
+    if (element == null || element instanceof JsonNull) {
+      return null;
+    }
+    return element.getAsString();
+  }
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api.event;
+
+import com.google.wave.api.Wavelet;
+import com.google.wave.api.impl.EventMessageBundle;
+
+/**
+ * The properties that are common to all events, used to construct an event
+ * during deserialization.
+ */
+final class EventHeader {
+
+  /** The wavelet in which the event occurs. */
+  private final Wavelet wavelet;
+
+  /** The message bundle the event belongs to. */
+  private final EventMessageBundle bundle;
+
+  /** The id of the participant that triggered the event. */
+  private final String modifiedBy;
+
+  /** The timestamp of the event. */
+  private final long timestamp;
+
+  /** The id of the blip in which the event occurs. */
+  private final String blipId;
+
+  /**
+   * Constructor.
+   *
+   * @param wavelet the wavelet in which the event occurs.
+   * @param bundle the message bundle the event belongs to.
+   * @param modifiedBy the id of the participant that triggered the event.
+   * @param timestamp the timestamp of the event.
+   * @param blipId the id of the blip in which the event occurs.
+   */
+  EventHeader(Wavelet wavelet, EventMessageBundle bundle, String modifiedBy, long timestamp,
+      String blipId) {
+    this.wavelet = wavelet;
+    this.bundle = bundle;
+    this.modifiedBy = modifiedBy;
+    this.timestamp = timestamp;
+    this.blipId = blipId;
+  }
+
+  /**
+   * @return the wavelet in which the event occurs.
+   */
+  Wavelet getWavelet() {
+    return wavelet;
+  }
+
+  /**
+   * @return the message bundle the event belongs to.
+   */
+  EventMessageBundle getBundle() {
+    return bundle;
+  }
+
+  /**
+   * @return the id of the participant that triggered the event.
+   */
+  String getModifiedBy() {
+    return modifiedBy;
+  }
+
+  /**
+   * @return the timestamp of the event.
+   */
+  long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return the id of the blip in which the event occurs.
+   */
+  String getBlipId() {
+    return blipId;
+  }
+}
@@ -25,11 +25,10 @@ import com.google.wave.api.Wavelet;
 import com.google.wave.api.JsonRpcConstant.ParamsProperty;
 import com.google.wave.api.impl.EventMessageBundle;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 /**
  * Object that is responsible for serializing and deserializing implementors
@@ -58,9 +57,7 @@ public class EventSerializer {
   private static final String MODIFIED_BY = "modifiedBy";
   private static final String TIMESTAMP = "timestamp";
   private static final String BLIP_ID = "blipId";
-  private static final String WAVELET = "wavelet";
   private static final String PROPERTIES = "properties";
-  private static final String BUNDLE = "bundle";
 
   /**
    * Serializes the given {@link Event} into a {@link JsonObject}.
@@ -82,27 +79,14 @@ public class EventSerializer {
 
     // Construct a properties object.
     JsonObject properties = new JsonObject();
-
-    try {
-      // Serialize the blip id.
-      Field blipIdField = AbstractEvent.class.getDeclaredField(BLIP_ID);
-      blipIdField.setAccessible(true);
-      properties.addProperty(BLIP_ID, (String) blipIdField.get(event));
-
-      // Serialize event specific properties.
-      for (Field field : event.getClass().getDeclaredFields()) {
-        field.setAccessible(true);
-        properties.add(field.getName(), context.serialize(field.get(event)));
-      }
-    } catch (IllegalArgumentException e) {
-      throw new EventSerializationException("Unable to serialize event: " + BLIP_ID +
-          " in " +  event.getClass() + " is not accessible.");
-    } catch (IllegalAccessException e) {
-      throw new EventSerializationException("Unable to serialize event: " + BLIP_ID +
-          " in " +  event.getClass() + " is not accessible.");
-    } catch (NoSuchFieldException e) {
-      throw new EventSerializationException("Unable to serialize event: " + BLIP_ID +
-          " in " +  event.getClass() + " is not accessible.");
+    AbstractEvent abstractEvent = asAbstractEvent(event);
+    properties.addProperty(BLIP_ID, abstractEvent.getBlipId());
+
+    // Serialize event specific properties.
+    Map<String, Object> eventProperties = new LinkedHashMap<String, Object>();
+    getAccessor(event).readProperties(event, eventProperties);
+    for (Entry<String, Object> entry : eventProperties.entrySet()) {
+      properties.add(entry.getKey(), context.serialize(entry.getValue()));
     }
 
     result.add(PROPERTIES, properties);
@@ -133,52 +117,20 @@ public class EventSerializer {
 
     // Parse the generic parameters.
     String modifiedBy = json.get(MODIFIED_BY).getAsString();
-    Long timestamp = json.get(TIMESTAMP).getAsLong();
+    long timestamp = json.get(TIMESTAMP).getAsLong();
 
-    // Construct the event object.
-    Class<? extends Event> clazz = type.getClazz();
-    Constructor<? extends Event> ctor;
     try {
-      ctor = clazz.getDeclaredConstructor();
-      ctor.setAccessible(true);
-      Event event = ctor.newInstance();
-
-      // Set the default fields from AbstractEvent.
-      Class<?> rootClass = AbstractEvent.class;
-      setField(event, rootClass.getDeclaredField(WAVELET), wavelet);
-      setField(event, rootClass.getDeclaredField(MODIFIED_BY), modifiedBy);
-      setField(event, rootClass.getDeclaredField(TIMESTAMP), timestamp);
-      setField(event, rootClass.getDeclaredField(TYPE), type);
-      setField(event, rootClass.getDeclaredField(BUNDLE), bundle);
-
       JsonObject properties = json.get(PROPERTIES).getAsJsonObject();
 
-      // Set the blip id field, that can be null for certain events, such as
-      // OPERATION_ERROR.
-      JsonElement blipId = properties.get(BLIP_ID);
-      if (blipId != null && !(blipId instanceof JsonNull)) {
-        setField(event, rootClass.getDeclaredField(BLIP_ID), blipId.getAsString());
+      // The blip id can be null for certain events, such as OPERATION_ERROR.
+      String blipId = null;
+      JsonElement blipIdElement = properties.get(BLIP_ID);
+      if (blipIdElement != null && !(blipIdElement instanceof JsonNull)) {
+        blipId = blipIdElement.getAsString();
       }
 
-      // Set the additional fields.
-      for (Field field : clazz.getDeclaredFields()) {
-        String fieldName = field.getName();
-        if (properties.has(fieldName)) {
-          setField(event, field, context.deserialize(properties.get(fieldName),
-              field.getGenericType()));
-        }
-      }
-      return event;
-    } catch (NoSuchMethodException e) {
-      throw new EventSerializationException("Unable to deserialize event JSON: " + json, json);
-    } catch (NoSuchFieldException e) {
-      throw new EventSerializationException("Unable to deserialize event JSON: " + json, json);
-    } catch (InstantiationException e) {
-      throw new EventSerializationException("Unable to deserialize event JSON: " + json, json);
-    } catch (IllegalAccessException e) {
-      throw new EventSerializationException("Unable to deserialize event JSON: " + json, json);
-    } catch (InvocationTargetException e) {
-      throw new EventSerializationException("Unable to deserialize event JSON: " + json, json);
+      EventHeader header = new EventHeader(wavelet, bundle, modifiedBy, timestamp, blipId);
+      return EventAccessor.of(type).deserialize(header, properties, context);
     } catch (JsonParseException e) {
       throw new EventSerializationException("Unable to deserialize event JSON: " + json, json);
     }
@@ -241,39 +193,48 @@ public class EventSerializer {
    */
   private static <T> Map<T, Object> extractProperties(Event event, KeyConverter<T> keyConverter)
       throws EventSerializationException {
-    Field[] fields = event.getClass().getDeclaredFields();
-    Map<T, Object> data = new HashMap<T, Object>(fields.length + 1);
-    try {
-      for (Field field : fields) {
-        field.setAccessible(true);
-        data.put(keyConverter.convert(field.getName()), field.get(event));
-      }
+    Map<String, Object> properties = new LinkedHashMap<String, Object>();
+    getAccessor(event).readProperties(event, properties);
+    properties.put(BLIP_ID, asAbstractEvent(event).getBlipId());
 
-      Field field = AbstractEvent.class.getDeclaredField(BLIP_ID);
-      field.setAccessible(true);
-      data.put(keyConverter.convert(BLIP_ID), field.get(event));
-    } catch (IllegalArgumentException e) {
-      throw new EventSerializationException(e.getMessage());
-    } catch (IllegalAccessException e) {
-      throw new EventSerializationException(e.getMessage());
-    } catch (NoSuchFieldException e) {
-      throw new EventSerializationException(e.getMessage());
+    Map<T, Object> data = new HashMap<T, Object>(properties.size());
+    for (Entry<String, Object> entry : properties.entrySet()) {
+      data.put(keyConverter.convert(entry.getKey()), entry.getValue());
     }
     return data;
   }
 
   /**
-   * Sets the field of the given {@link Event} object.
+   * Returns the accessor that handles the given event.
    *
-   * @param event the {@link Event} object whose field will be set.
-   * @param field the {@link Field} object that represents the field.
-   * @param value the value to be set to the field.
+   * @param event the event.
+   * @return the accessor for the event's type.
    *
-   * @throws IllegalAccessException if the field is not accessible.
+   * @throws EventSerializationException if the event's type has no accessor.
    */
-  private static void setField(Event event, Field field, Object value)
-      throws IllegalAccessException {
-    field.setAccessible(true);
-    field.set(event, value);
+  private static EventAccessor<?> getAccessor(Event event) throws EventSerializationException {
+    EventAccessor<?> accessor = EventAccessor.of(event.getType());
+    if (accessor == null) {
+      throw new EventSerializationException("Unable to serialize event of type " +
+          event.getType() + ": " + event.getClass());
+    }
+    return accessor;
+  }
+
+  /**
+   * Casts the given event to {@link AbstractEvent}, which carries the blip id.
+   *
+   * @param event the event.
+   * @return the event as an {@link AbstractEvent}.
+   *
+   * @throws EventSerializationException if the event doesn't extend
+   *     {@link AbstractEvent}.
+   */
+  private static AbstractEvent asAbstractEvent(Event event) throws EventSerializationException {
+    if (!(event instanceof AbstractEvent)) {
+      throw new EventSerializationException("Unable to serialize event: " + event.getClass() +
+          " doesn't extend " + AbstractEvent.class.getSimpleName());
+    }
+    return (AbstractEvent) event;
   }
 }
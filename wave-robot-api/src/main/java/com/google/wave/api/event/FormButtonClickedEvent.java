@@ -44,9 +44,13 @@ public class FormButtonClickedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param buttonName the name of the button that was clicked.
    */
-  FormButtonClickedEvent() {
-    this.buttonName = null;
+  FormButtonClickedEvent(EventHeader header, String buttonName) {
+    super(EventType.FORM_BUTTON_CLICKED, header);
+    this.buttonName = buttonName;
   }
 
   /**
@@ -52,10 +52,15 @@ public class GadgetStateChangedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param index the index of the gadget.
+   * @param oldState the old state of the gadget.
    */
-  GadgetStateChangedEvent() {
-    this.index = null;
-    this.oldState = null;
+  GadgetStateChangedEvent(EventHeader header, Integer index, Map<String, String> oldState) {
+    super(EventType.GADGET_STATE_CHANGED, header);
+    this.index = index;
+    this.oldState = oldState;
   }
 
   /**
@@ -49,10 +49,15 @@ public class OperationErrorEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param operationId the id of the operation that failed.
+   * @param message the error message.
    */
-  OperationErrorEvent() {
-    this.operationId = null;
-    this.message = null;
+  OperationErrorEvent(EventHeader header, String operationId, String message) {
+    super(EventType.OPERATION_ERROR, header);
+    this.operationId = operationId;
+    this.message = message;
   }
 
   /**
@@ -45,9 +45,13 @@ public class WaveletBlipCreatedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param newBlipId the id of the new blip.
    */
-  WaveletBlipCreatedEvent() {
-    this.newBlipId = null;
+  WaveletBlipCreatedEvent(EventHeader header, String newBlipId) {
+    super(EventType.WAVELET_BLIP_CREATED, header);
+    this.newBlipId = newBlipId;
   }
 
   /**
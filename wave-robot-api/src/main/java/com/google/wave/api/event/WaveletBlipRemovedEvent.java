@@ -45,9 +45,13 @@ public class WaveletBlipRemovedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param removedBlipId the id of the removed blip.
    */
-  WaveletBlipRemovedEvent() {
-    this.removedBlipId = null;
+  WaveletBlipRemovedEvent(EventHeader header, String removedBlipId) {
+    super(EventType.WAVELET_BLIP_REMOVED, header);
+    this.removedBlipId = removedBlipId;
   }
 
   /**
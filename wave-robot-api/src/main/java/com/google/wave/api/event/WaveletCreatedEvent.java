@@ -59,11 +59,17 @@ public class WaveletCreatedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param message the message that was passed when the wavelet was created.
+   * @param waveId the id of the new wave.
+   * @param waveletId the id of the new wavelet.
    */
-  WaveletCreatedEvent() {
-    this.message = null;
-    this.waveId = null;
-    this.waveletId = null;
+  WaveletCreatedEvent(EventHeader header, String message, String waveId, String waveletId) {
+    super(EventType.WAVELET_CREATED, header);
+    this.message = message;
+    this.waveId = waveId;
+    this.waveletId = waveletId;
   }
 
   /**
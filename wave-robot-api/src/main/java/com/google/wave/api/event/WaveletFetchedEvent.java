@@ -62,11 +62,18 @@ public class WaveletFetchedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param message the message that was passed when the wavelet was fetched.
+   * @param waveletData the data of the fetched wavelet.
+   * @param blips the data of the blips of the fetched wavelet.
    */
-  WaveletFetchedEvent() {
-    this.message = null;
-    this.waveletData = null;
-    this.blips = null;
+  WaveletFetchedEvent(EventHeader header, String message, WaveletData waveletData,
+      Map<String, BlipData> blips) {
+    super(EventType.WAVELET_FETCHED, header);
+    this.message = message;
+    this.waveletData = waveletData;
+    this.blips = blips;
   }
 
   /**
@@ -54,10 +54,16 @@ public class WaveletParticipantsChangedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param participantsAdded the participants that were added.
+   * @param participantsRemoved the participants that were removed.
    */
-  WaveletParticipantsChangedEvent() {
-    this.participantsAdded = null;
-    this.participantsRemoved = null;
+  WaveletParticipantsChangedEvent(EventHeader header, List<String> participantsAdded,
+      List<String> participantsRemoved) {
+    super(EventType.WAVELET_PARTICIPANTS_CHANGED, header);
+    this.participantsAdded = participantsAdded;
+    this.participantsRemoved = participantsRemoved;
   }
 
   /**
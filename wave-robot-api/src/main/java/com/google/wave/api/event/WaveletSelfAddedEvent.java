@@ -39,8 +39,12 @@ public class WaveletSelfAddedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
    */
-  WaveletSelfAddedEvent() {}
+  WaveletSelfAddedEvent(EventHeader header) {
+    super(EventType.WAVELET_SELF_ADDED, header);
+  }
 
   /**
    * Helper method for type conversion.
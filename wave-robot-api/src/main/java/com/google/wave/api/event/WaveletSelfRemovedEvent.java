@@ -39,8 +39,12 @@ public class WaveletSelfRemovedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
    */
-  WaveletSelfRemovedEvent() {}
+  WaveletSelfRemovedEvent(EventHeader header) {
+    super(EventType.WAVELET_SELF_REMOVED, header);
+  }
 
   /**
    * Helper method for type conversion.
@@ -38,10 +38,19 @@ public class WaveletTagsChangedEvent extends AbstractEvent {
   }
 
   /**
-   * Constructor for deserialization.
+   * Constructor.
    */
   public WaveletTagsChangedEvent() {}
 
+  /**
+   * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   */
+  WaveletTagsChangedEvent(EventHeader header) {
+    super(EventType.WAVELET_TAGS_CHANGED, header);
+  }
+
   /**
    * Helper method for type conversion.
    *
@@ -44,9 +44,13 @@ public class WaveletTitleChangedEvent extends AbstractEvent {
 
   /**
    * Constructor for deserialization.
+   *
+   * @param header the properties that are common to all events.
+   * @param title the new title.
    */
-  WaveletTitleChangedEvent() {
-    this.title = null;
+  WaveletTitleChangedEvent(EventHeader header, String title) {
+    super(EventType.WAVELET_TITLE_CHANGED, header);
+    this.title = title;
   }
 
   /**
@@ -58,6 +58,30 @@ public class EventMessageBundleGsonAdaptor implements
   private static final String ROBOT_ADDRESS_TAG = "robotAddress";
   private static final String RPC_SERVER_URL_TAG = "rpcServerUrl";
 
+  /** Whether blips are deserialized on first access, or up front. */
+  private final boolean lazyBlips;
+
+  /**
+   * Constructor that creates an adaptor that deserializes all blips up front.
+   */
+  public EventMessageBundleGsonAdaptor() {
+    this(false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param lazyBlips whether or not the blips of an incoming bundle should be
+   *     deserialized on first access. If {@code true}, the raw JSON of each
+   *     blip is retained, and only turned into a {@link BlipData} and a
+   *     {@link Blip} when it is looked up through {@link Wavelet#getBlip} or
+   *     {@link Wavelet#getBlips}, or through
+   *     {@link EventMessageBundle#getBlipData}.
+   */
+  public EventMessageBundleGsonAdaptor(boolean lazyBlips) {
+    this.lazyBlips = lazyBlips;
+  }
+
   @Override
   public EventMessageBundle createInstance(Type type) {
     return new EventMessageBundle("", "http://opensocial.example.com");
@@ -117,18 +141,30 @@ public class EventMessageBundleGsonAdaptor implements
     // Deserialize wavelet.
     WaveletData waveletData = context.deserialize(jsonObj.get(WAVELET_TAG), WaveletData.class);
     result.setWaveletData(waveletData);
-    Map<String, Blip> blips = new HashMap<String, Blip>();
-    Wavelet wavelet = Wavelet.deserialize(operationQueue, blips, waveletData);
-    wavelet.setRobotAddress(robotAddress);
-    result.setWavelet(wavelet);
-    Type blipMapType = new TypeToken<Map<String, BlipData>>(){}.getType();
+    Wavelet wavelet;
 
     // Deserialize blips.
-    Map<String, BlipData> blipDatas = context.deserialize(jsonObj.get(BLIPS_TAG), blipMapType);
-    result.setBlipData(blipDatas);
-    for(Entry<String, BlipData> entry : blipDatas.entrySet()) {
-      blips.put(entry.getKey(), Blip.deserialize(operationQueue, wavelet, entry.getValue()));
+    if (lazyBlips) {
+      LazyBlipStore store = new LazyBlipStore(context, operationQueue);
+      wavelet = Wavelet.deserialize(operationQueue, store.getBlips(), waveletData);
+      store.setWavelet(wavelet);
+      JsonObject blipsObj = jsonObj.get(BLIPS_TAG).getAsJsonObject();
+      for (Entry<String, JsonElement> entry : blipsObj.entrySet()) {
+        store.putRaw(entry.getKey(), entry.getValue());
+      }
+      result.setBlipData(store.getBlipDatas());
+    } else {
+      Map<String, Blip> blips = new HashMap<String, Blip>();
+      wavelet = Wavelet.deserialize(operationQueue, blips, waveletData);
+      Type blipMapType = new TypeToken<Map<String, BlipData>>(){}.getType();
+      Map<String, BlipData> blipDatas = context.deserialize(jsonObj.get(BLIPS_TAG), blipMapType);
+      result.setBlipData(blipDatas);
+      for(Entry<String, BlipData> entry : blipDatas.entrySet()) {
+        blips.put(entry.getKey(), Blip.deserialize(operationQueue, wavelet, entry.getValue()));
+      }
     }
+    wavelet.setRobotAddress(robotAddress);
+    result.setWavelet(wavelet);
 
     // Deserialize events.
     JsonArray eventsArray = jsonObj.get(EVENTS_TAG).getAsJsonArray();
@@ -43,6 +43,9 @@ public class GsonFactory {
   /** Additional type adapters. */
   private final Map<Type, Object> customTypeAdapters = new LinkedHashMap<Type, Object>();
 
+  /** Whether the blips of an event bundle are deserialized on first access. */
+  private boolean deserializeBlipsLazily = false;
+
   /**
    * Registers a custom type adapter.
    * 
@@ -54,6 +57,18 @@ public class GsonFactory {
     customTypeAdapters.put(type, typeAdapter);
   }
   
+  /**
+   * Sets whether the blips of a deserialized {@link EventMessageBundle} should
+   * be materialized on first access, instead of up front.
+   *
+   * @param deserializeBlipsLazily whether or not blips should be deserialized
+   *     lazily.
+   * @see EventMessageBundleGsonAdaptor#EventMessageBundleGsonAdaptor(boolean)
+   */
+  public void setDeserializeBlipsLazily(boolean deserializeBlipsLazily) {
+    this.deserializeBlipsLazily = deserializeBlipsLazily;
+  }
+
   /**
    * Creates a {@link Gson} instance, with additional type adapters for these
    * types:
@@ -87,7 +102,8 @@ public class GsonFactory {
     ElementGsonAdaptor elementGsonAdaptor = new ElementGsonAdaptor();
     GsonBuilder builder = new GsonBuilder()
         .setExclusionStrategies(new NonSerializableExclusionStrategy())
-        .registerTypeAdapter(EventMessageBundle.class, new EventMessageBundleGsonAdaptor())
+        .registerTypeAdapter(EventMessageBundle.class,
+            new EventMessageBundleGsonAdaptor(deserializeBlipsLazily))
         .registerTypeAdapter(OperationRequest.class, new OperationRequestGsonAdaptor(opNamespace))
         .registerTypeAdapter(Element.class, elementGsonAdaptor)
         .registerTypeAdapter(Attachment.class, elementGsonAdaptor)
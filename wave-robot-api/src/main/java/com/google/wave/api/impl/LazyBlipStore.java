@@ -0,0 +1,226 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api.impl;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.wave.api.Blip;
+import com.google.wave.api.BlipData;
+import com.google.wave.api.OperationQueue;
+import com.google.wave.api.Wavelet;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A store that retains the raw JSON of the blips in an event bundle, and only
+ * deserializes a blip into a {@link BlipData} and a {@link Blip} the first
+ * time it is accessed.
+ *
+ * The store exposes two independent map views, one of {@link Blip}s for the
+ * wavelet, and one of {@link BlipData}s for the event bundle. Point lookups,
+ * such as {@code get}, {@code containsKey}, and {@code remove}, only
+ * deserialize the blip that is asked for. Any iteration over a view
+ * deserializes all remaining blips of that view.
+ */
+class LazyBlipStore {
+
+  /**
+   * A map view that materializes its values from the retained JSON on first
+   * access.
+   *
+   * @param <V> the type of the map values.
+   */
+  abstract class LazyView<V> extends AbstractMap<String, V> {
+
+    /** The ids of the entries that have not been materialized yet. */
+    private final Set<String> pending = new LinkedHashSet<String>();
+
+    /** The entries that have been materialized. */
+    private final Map<String, V> values = new HashMap<String, V>();
+
+    /**
+     * Materializes the value with the given id from the retained JSON.
+     *
+     * @param id the id of the blip.
+     * @return the materialized value.
+     */
+    protected abstract V materialize(String id);
+
+    /**
+     * Checks whether the entry with the given id has been materialized.
+     *
+     * @param id the id of the blip.
+     * @return {@code true} if the entry has been materialized.
+     */
+    boolean isMaterialized(String id) {
+      return values.containsKey(id);
+    }
+
+    @Override
+    public V get(Object key) {
+      if (pending.remove(key)) {
+        String id = (String) key;
+        values.put(id, materialize(id));
+      }
+      return values.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return values.containsKey(key) || pending.contains(key);
+    }
+
+    @Override
+    public V put(String key, V value) {
+      V previous = get(key);
+      values.put(key, value);
+      return previous;
+    }
+
+    @Override
+    public V remove(Object key) {
+      V previous = get(key);
+      values.remove(key);
+      return previous;
+    }
+
+    @Override
+    public int size() {
+      return values.size() + pending.size();
+    }
+
+    @Override
+    public void clear() {
+      pending.clear();
+      values.clear();
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+      for (String id : new ArrayList<String>(pending)) {
+        get(id);
+      }
+      return values.entrySet();
+    }
+  }
+
+  /** The context that is used to deserialize the raw blips. */
+  private final JsonDeserializationContext context;
+
+  /** The operation queue of the blips. */
+  private final OperationQueue operationQueue;
+
+  /**
+   * The retained JSON of the blips that have not been deserialized yet, keyed
+   * by blip id.
+   */
+  private final Map<String, JsonElement> rawBlips = new HashMap<String, JsonElement>();
+
+  /** The blip data that have been deserialized from the retained JSON. */
+  private final Map<String, BlipData> deserialized = new HashMap<String, BlipData>();
+
+  /** The view of the blips. */
+  private final LazyView<Blip> blips = new LazyView<Blip>() {
+    @Override
+    protected Blip materialize(String id) {
+      return Blip.deserialize(operationQueue, wavelet, deserialize(id));
+    }
+  };
+
+  /** The view of the blip data. */
+  private final LazyView<BlipData> blipDatas = new LazyView<BlipData>() {
+    @Override
+    protected BlipData materialize(String id) {
+      return deserialize(id);
+    }
+  };
+
+  /** The wavelet that owns the blips. */
+  private Wavelet wavelet;
+
+  /**
+   * Constructor.
+   *
+   * @param context the context that is used to deserialize the raw blips.
+   * @param operationQueue the operation queue of the blips.
+   */
+  LazyBlipStore(JsonDeserializationContext context, OperationQueue operationQueue) {
+    this.context = context;
+    this.operationQueue = operationQueue;
+  }
+
+  /**
+   * Sets the wavelet that owns the blips. This has to be called before any
+   * blip is materialized.
+   *
+   * @param wavelet the wavelet that owns the blips.
+   */
+  void setWavelet(Wavelet wavelet) {
+    this.wavelet = wavelet;
+  }
+
+  /**
+   * Adds the raw JSON of a blip, to be deserialized on first access.
+   *
+   * @param blipId the id of the blip.
+   * @param json the JSON representation of the blip's {@link BlipData}.
+   */
+  void putRaw(String blipId, JsonElement json) {
+    rawBlips.put(blipId, json);
+    deserialized.remove(blipId);
+    blips.values.remove(blipId);
+    blips.pending.add(blipId);
+    blipDatas.values.remove(blipId);
+    blipDatas.pending.add(blipId);
+  }
+
+  /**
+   * @return the map view of blip id to {@link Blip}.
+   */
+  Map<String, Blip> getBlips() {
+    return blips;
+  }
+
+  /**
+   * @return the map view of blip id to {@link BlipData}.
+   */
+  Map<String, BlipData> getBlipDatas() {
+    return blipDatas;
+  }
+
+  /**
+   * Deserializes the retained JSON of the blip with the given id into a
+   * {@link BlipData}. The result is shared by both views, and the retained
+   * JSON is dropped once it has been deserialized.
+   *
+   * @param blipId the id of the blip.
+   * @return the deserialized blip data.
+   */
+  private BlipData deserialize(String blipId) {
+    BlipData blipData = deserialized.get(blipId);
+    if (blipData == null) {
+      blipData = context.deserialize(rawBlips.get(blipId), BlipData.class);
+      deserialized.put(blipId, blipData);
+      rawBlips.remove(blipId);
+    }
+    return blipData;
+  }
+}
@@ -23,10 +23,15 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
 import com.google.wave.api.AbstractRobot.HttpFetcher;
+import com.google.wave.api.AbstractRobot.OperationsBody;
+import com.google.wave.api.AbstractRobot.RequestBody;
 import com.google.wave.api.JsonRpcConstant.ParamsProperty;
 import com.google.wave.api.JsonRpcConstant.RequestProperty;
 import com.google.wave.api.OperationRequest.Parameter;
@@ -38,22 +43,52 @@ import com.google.wave.api.event.WaveletTagsChangedEvent;
 import com.google.wave.api.impl.EventMessageBundle;
 import com.google.wave.api.impl.GsonFactory;
 import com.google.wave.api.impl.WaveletData;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 import junit.framework.TestCase;
 
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+
+import org.apache.commons.codec.binary.Base64;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -106,19 +141,34 @@ public class AbstractRobotTest extends TestCase {
 
   private static class MockWriter extends PrintWriter {
 
-    private String string;
+    private final StringWriter string;
 
     public MockWriter() {
-      super(new StringWriter());
+      this(new StringWriter());
     }
 
-    @Override
-    public void write(String string) {
+    private MockWriter(StringWriter string) {
+      super(string);
       this.string = string;
     }
 
     public String getString() {
-      return string;
+      flush();
+      return string.toString();
+    }
+  }
+
+  private static class MockServletInputStream extends ServletInputStream {
+
+    private final InputStream in;
+
+    public MockServletInputStream(byte[] bytes) {
+      this.in = new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int read() throws IOException {
+      return in.read();
     }
   }
 
@@ -128,7 +178,7 @@ public class AbstractRobotTest extends TestCase {
     HttpFetcher fetcher = mock(HttpFetcher.class);
     when(fetcher.send(contains("http://gmodules.com/api/rpc"),
         eq(AbstractRobot.JSON_MIME_TYPE),
-        contains("wave.robot.notifyCapabilitiesHash")))
+        any(RequestBody.class)))
         .thenReturn("[{\"id\":\"op1\",\"data\":{}}]");
 
     AbstractRobot robot = new MockRobot(fetcher);
@@ -143,7 +193,293 @@ public class AbstractRobotTest extends TestCase {
     assertEquals(1, opQueue.getPendingOperations().size());
     robot.submit(wavelet, "http://gmodules.com/api/rpc");
     assertEquals(0, opQueue.getPendingOperations().size());
-    verify(fetcher, times(1)).send(any(String.class), any(String.class), any(String.class));
+    ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+    verify(fetcher, times(1)).send(any(String.class), any(String.class), body.capture());
+    assertTrue(readBody(body.getValue()).contains("wave.robot.notifyCapabilitiesHash"));
+  }
+
+  public void testSubmitAsyncBatchesSubmissions() throws Exception {
+    HttpFetcher fetcher = newEchoingFetcher();
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    AbstractRobot robot = new MockRobot(fetcher);
+    robot.setActiveApiExecutor(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    });
+    robot.setupOAuth("consumerKey", "consumerSecret", "http://gmodules.com/api/rpc");
+
+    OperationQueue opQueue1 = new OperationQueue();
+    opQueue1.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+        Parameter.of(ParamsProperty.CAPABILITIES_HASH, "123"));
+    Wavelet wavelet1 = mock(Wavelet.class);
+    when(wavelet1.getOperationQueue()).thenReturn(opQueue1);
+    String opId1 = opQueue1.getPendingOperations().get(0).getId();
+
+    OperationQueue opQueue2 = new OperationQueue();
+    opQueue2.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+        Parameter.of(ParamsProperty.CAPABILITIES_HASH, "456"));
+    opQueue2.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+        Parameter.of(ParamsProperty.CAPABILITIES_HASH, "789"));
+    Wavelet wavelet2 = mock(Wavelet.class);
+    when(wavelet2.getOperationQueue()).thenReturn(opQueue2);
+    String opId2 = opQueue2.getPendingOperations().get(0).getId();
+    String opId3 = opQueue2.getPendingOperations().get(1).getId();
+
+    Future<List<JsonRpcResponse>> future1 =
+        robot.submitAsync(wavelet1, "http://gmodules.com/api/rpc");
+    Future<List<JsonRpcResponse>> future2 =
+        robot.submitAsync(wavelet2, "http://gmodules.com/api/rpc");
+    assertEquals(0, opQueue1.getPendingOperations().size());
+    assertEquals(0, opQueue2.getPendingOperations().size());
+    assertEquals(1, tasks.size());
+    assertFalse(future1.isDone());
+
+    tasks.get(0).run();
+    verify(fetcher, times(1)).send(any(String.class), any(String.class), any(RequestBody.class));
+
+    List<JsonRpcResponse> responses1 = future1.get();
+    assertEquals(2, responses1.size());
+    assertEquals(opId1, responses1.get(1).getId());
+
+    List<JsonRpcResponse> responses2 = future2.get();
+    assertEquals(3, responses2.size());
+    assertEquals(responses1.get(0).getId(), responses2.get(0).getId());
+    assertEquals(opId2, responses2.get(1).getId());
+    assertEquals(opId3, responses2.get(2).getId());
+  }
+
+  public void testSubmitAsyncCoalescesEachSubmissionSeparately() throws Exception {
+    HttpFetcher fetcher = newEchoingFetcher();
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    AbstractRobot robot = new MockRobot(fetcher);
+    robot.setActiveApiExecutor(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    });
+    robot.setupOAuth("consumerKey", "consumerSecret", "http://gmodules.com/api/rpc");
+    robot.setCoalesceOperations(true);
+
+    Wavelet target = mock(Wavelet.class);
+    when(target.getWaveId()).thenReturn(WaveId.deserialise("google.com!wave1"));
+    when(target.getWaveletId()).thenReturn(WaveletId.deserialise("google.com!wavelet1"));
+
+    // Both submissions set the title of the same wavelet, which would be
+    // folded into one operation if they were coalesced together.
+    OperationQueue opQueue1 = new OperationQueue();
+    opQueue1.setTitleOfWavelet(target, "Title 1");
+    opQueue1.setTitleOfWavelet(target, "Title 2");
+    Wavelet wavelet1 = mock(Wavelet.class);
+    when(wavelet1.getOperationQueue()).thenReturn(opQueue1);
+    String opId1 = opQueue1.getPendingOperations().get(0).getId();
+
+    OperationQueue opQueue2 = new OperationQueue();
+    opQueue2.setTitleOfWavelet(target, "Title 3");
+    Wavelet wavelet2 = mock(Wavelet.class);
+    when(wavelet2.getOperationQueue()).thenReturn(opQueue2);
+    String opId2 = opQueue2.getPendingOperations().get(0).getId();
+
+    Future<List<JsonRpcResponse>> future1 =
+        robot.submitAsync(wavelet1, "http://gmodules.com/api/rpc");
+    Future<List<JsonRpcResponse>> future2 =
+        robot.submitAsync(wavelet2, "http://gmodules.com/api/rpc");
+    assertFalse(future1 instanceof Runnable);
+    tasks.get(0).run();
+
+    ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+    verify(fetcher, times(1)).send(any(String.class), any(String.class), body.capture());
+    String request = readBody(body.getValue());
+    assertFalse(request.contains("Title 1"));
+    assertTrue(request.contains("Title 2"));
+    assertTrue(request.contains("Title 3"));
+
+    List<JsonRpcResponse> responses1 = future1.get();
+    assertEquals(2, responses1.size());
+    assertEquals(opId1, responses1.get(1).getId());
+
+    List<JsonRpcResponse> responses2 = future2.get(1, TimeUnit.SECONDS);
+    assertEquals(2, responses2.size());
+    assertEquals(opId2, responses2.get(1).getId());
+  }
+
+  public void testSubmitAsyncCanBeCancelled() throws Exception {
+    HttpFetcher fetcher = newEchoingFetcher();
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    AbstractRobot robot = new MockRobot(fetcher);
+    robot.setActiveApiExecutor(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    });
+    robot.setupOAuth("consumerKey", "consumerSecret", "http://gmodules.com/api/rpc");
+
+    OperationQueue opQueue = new OperationQueue();
+    opQueue.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+        Parameter.of(ParamsProperty.CAPABILITIES_HASH, "123"));
+    Wavelet wavelet = mock(Wavelet.class);
+    when(wavelet.getOperationQueue()).thenReturn(opQueue);
+
+    Future<List<JsonRpcResponse>> future =
+        robot.submitAsync(wavelet, "http://gmodules.com/api/rpc");
+    try {
+      future.get(0, TimeUnit.MILLISECONDS);
+      fail("Should have timed out since the submission has not been sent.");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    assertTrue(future.cancel(false));
+    assertTrue(future.isCancelled());
+    assertTrue(future.isDone());
+
+    tasks.get(0).run();
+    assertTrue(future.isCancelled());
+    try {
+      future.get();
+      fail("Should have failed since the submission has been cancelled.");
+    } catch (CancellationException e) {
+      // Expected.
+    }
+  }
+
+  public void testSubmitAsyncPropagatesFailures() throws Exception {
+    HttpFetcher fetcher = mock(HttpFetcher.class);
+    when(fetcher.send(any(String.class), any(String.class), any(RequestBody.class)))
+        .thenThrow(new IOException("Connection refused"));
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    AbstractRobot robot = new MockRobot(fetcher);
+    robot.setActiveApiExecutor(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    });
+    robot.setupOAuth("consumerKey", "consumerSecret", "http://gmodules.com/api/rpc");
+
+    OperationQueue opQueue = new OperationQueue();
+    opQueue.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+        Parameter.of(ParamsProperty.CAPABILITIES_HASH, "123"));
+    Wavelet wavelet = mock(Wavelet.class);
+    when(wavelet.getOperationQueue()).thenReturn(opQueue);
+
+    Future<List<JsonRpcResponse>> future =
+        robot.submitAsync(wavelet, "http://gmodules.com/api/rpc");
+    tasks.get(0).run();
+    try {
+      future.get();
+      fail("Should have failed with the fetcher's IOException.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    try {
+      robot.submitAsync(wavelet, "http://unknown.com/api/rpc");
+      fail("Should have failed since OAuth is not set up for the URL.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  public void testHttpFetcherPreservesResponseBody() throws Exception {
+    HttpServer server = startServer(HttpURLConnection.HTTP_OK, "[{\"id\":\"op1\"},\n" +
+        "{\"id\":\"op2\",\"data\":{\"content\":\"\u00e9t\u00e9\"}}]\n");
+    try {
+      String response = new HttpFetcher().send(
+          "http://localhost:" + server.getAddress().getPort() + "/rpc",
+          AbstractRobot.JSON_MIME_TYPE, "[]");
+      assertEquals("[{\"id\":\"op1\"},\n" +
+          "{\"id\":\"op2\",\"data\":{\"content\":\"\u00e9t\u00e9\"}}]\n", response);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  public void testHttpFetcherFailsOnErrorResponse() throws Exception {
+    HttpServer server = startServer(HttpURLConnection.HTTP_INTERNAL_ERROR, "Oops");
+    try {
+      new HttpFetcher().send("http://localhost:" + server.getAddress().getPort() + "/rpc",
+          AbstractRobot.JSON_MIME_TYPE, "[]");
+      fail("Should have failed since the response code is not OK.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("500"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  public void testWriteOperationsMatchesListSerialization() throws Exception {
+    OperationQueue opQueue = new OperationQueue();
+    opQueue.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+        Parameter.of(ParamsProperty.CAPABILITIES_HASH, "123"));
+    for (int i = 0; i < 100; ++i) {
+      opQueue.appendOperation(OperationType.DOCUMENT_APPEND_MARKUP,
+          Parameter.of(ParamsProperty.CONTENT, "<p>\u00e9t\u00e9 " + i + "</p>"));
+    }
+    List<OperationRequest> operations = opQueue.getPendingOperations();
+    Gson gson = new GsonFactory().create();
+
+    StringWriter writer = new StringWriter();
+    AbstractRobot.writeOperations(gson, operations, writer);
+    assertEquals(gson.toJson(operations, new TypeToken<List<OperationRequest>>(){}.getType()),
+        writer.toString());
+
+    writer = new StringWriter();
+    AbstractRobot.writeOperations(gson, new ArrayList<OperationRequest>(), writer);
+    assertEquals("[]", writer.toString());
+  }
+
+  public void testOperationsBodyHashesWhatItWrites() throws Exception {
+    OperationQueue opQueue = new OperationQueue();
+    for (int i = 0; i < 100; ++i) {
+      opQueue.appendOperation(OperationType.DOCUMENT_APPEND_MARKUP,
+          Parameter.of(ParamsProperty.CONTENT, "<p>\u00e9t\u00e9 " + i + "</p>"));
+    }
+    OperationsBody body = new OperationsBody(new GsonFactory().create(),
+        opQueue.getPendingOperations());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    body.writeTo(out);
+    assertEquals(out.size(), body.getContentLength());
+    assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-1").digest(out.toByteArray()),
+        body.getHash()));
+  }
+
+  public void testHttpFetcherStreamsRequestBody() throws Exception {
+    final String[] received = new String[1];
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          body.write(buffer, 0, read);
+        }
+        received[0] = body.toString("UTF-8");
+        byte[] response = "[]".getBytes("UTF-8");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+        exchange.getResponseBody().write(response);
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      OperationQueue opQueue = new OperationQueue();
+      opQueue.appendOperation(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH,
+          Parameter.of(ParamsProperty.CAPABILITIES_HASH, "\u00e9t\u00e9"));
+      Gson gson = new GsonFactory().create();
+      new HttpFetcher().send("http://localhost:" + server.getAddress().getPort() + "/rpc",
+          AbstractRobot.JSON_MIME_TYPE, new OperationsBody(gson, opQueue.getPendingOperations()));
+      assertEquals(gson.toJson(opQueue.getPendingOperations(),
+          new TypeToken<List<OperationRequest>>(){}.getType()), received[0]);
+    } finally {
+      server.stop(0);
+    }
   }
 
   public void testServiceCapabilitiesRequest() throws Exception {
@@ -276,6 +612,172 @@ public class AbstractRobotTest extends TestCase {
     assertEquals("hash1", params.get(ParamsProperty.CAPABILITIES_HASH.key()).getAsString());
   }
 
+  public void testServiceStreamedEventMessageBundleRequest() throws Exception {
+    AbstractRobot robot = new MockRobot();
+    robot.setStreamIncomingEvents(true);
+
+    WaveletData waveletData = new WaveletData("google.com!wave1", "google.com!conv+root", "blip1",
+        Arrays.asList("foo@google.com"));
+    EventMessageBundle bundle = new EventMessageBundle("Foo", "http://gmodules.com/api/rpc");
+    bundle.addEvent(new BlipSubmittedEvent(null, null, "foo@test.com", 1l, "blip1"));
+    bundle.addEvent(new DocumentChangedEvent(null, null, "foo@test.com", 1l, "blip1"));
+    bundle.setWaveletData(waveletData);
+    String json = new GsonFactory().create().toJson(bundle) + "\n";
+
+    MockWriter mockWriter = new MockWriter();
+    robot.doPost(makeMockRequest(JSONRPC_PATH, json.getBytes("UTF-8")),
+        makeMockResponse(mockWriter));
+
+    assertEquals(2, calledEvents.size());
+    assertEquals(EventType.BLIP_SUBMITTED, calledEvents.get(0));
+    assertEquals(EventType.DOCUMENT_CHANGED, calledEvents.get(1));
+
+    JsonArray ops = new JsonParser().parse(mockWriter.getString()).getAsJsonArray();
+    assertEquals(1, ops.size());
+  }
+
+  public void testStreamedEventMessageBundleRequestChecksBodyHash() throws Exception {
+    AbstractRobot robot = new MockRobot();
+    robot.setupOAuth("consumerKey", "consumerSecret", "http://gmodules.com/api/rpc");
+    robot.setStreamIncomingEvents(true);
+
+    EventMessageBundle bundle = new EventMessageBundle("Foo", "http://gmodules.com/api/rpc");
+    bundle.setWaveletData(new WaveletData("google.com!wave1", "google.com!conv+root", "blip1",
+        Arrays.asList("foo@google.com")));
+    String json = new GsonFactory().create().toJson(bundle);
+
+    HttpServletRequest request = makeMockRequest(JSONRPC_PATH, json.getBytes("UTF-8"));
+    when(request.getRequestURL()).thenReturn(new StringBuffer("http://foo.com" + JSONRPC_PATH));
+    when(request.getParameterMap()).thenReturn(new HashMap<String, String[]>());
+    try {
+      robot.doPost(request, makeMockResponse(new MockWriter()));
+      fail("Should have failed since the request does not carry a body hash.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Body hash does not match."));
+    }
+    assertTrue(calledEvents.isEmpty());
+  }
+
+  public void testStreamedEventMessageBundleRequestWithValidSignature() throws Exception {
+    AbstractRobot robot = new MockRobot();
+    robot.setupOAuth("consumerKey", "consumerSecret", "http://gmodules.com/api/rpc");
+    robot.setStreamIncomingEvents(true);
+
+    EventMessageBundle bundle = new EventMessageBundle("Foo", "http://gmodules.com/api/rpc");
+    bundle.addEvent(new BlipSubmittedEvent(null, null, "foo@test.com", 1l, "blip1"));
+    bundle.setWaveletData(new WaveletData("google.com!wave1", "google.com!conv+root", "blip1",
+        Arrays.asList("foo@google.com")));
+    // Trailing bytes after the JSON value are part of the signed body too.
+    byte[] body = (new GsonFactory().create().toJson(bundle) + "\n  ").getBytes("UTF-8");
+
+    // Sign the request the way the robot proxy does.
+    String requestUrl = "http://foo.com" + JSONRPC_PATH;
+    OAuthMessage message = new OAuthMessage("POST", requestUrl,
+        Collections.<Map.Entry<String, String>>emptyList());
+    message.addParameter(AbstractRobot.OAUTH_BODY_HASH,
+        new String(Base64.encodeBase64(MessageDigest.getInstance("SHA-1").digest(body)), "UTF-8"));
+    OAuthConsumer consumer = new OAuthConsumer(null, "consumerKey", "consumerSecret", null);
+    consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1);
+    message.addRequiredParameters(new OAuthAccessor(consumer));
+    Map<String, String[]> parameters = new HashMap<String, String[]>();
+    for (Map.Entry<String, String> parameter : message.getParameters()) {
+      parameters.put(parameter.getKey(), new String[] {parameter.getValue()});
+    }
+
+    HttpServletRequest request = makeMockRequest(JSONRPC_PATH, body);
+    when(request.getRequestURL()).thenReturn(new StringBuffer(requestUrl));
+    when(request.getParameterMap()).thenReturn(parameters);
+    MockWriter mockWriter = new MockWriter();
+    robot.doPost(request, makeMockResponse(mockWriter));
+
+    assertEquals(1, calledEvents.size());
+    assertEquals(EventType.BLIP_SUBMITTED, calledEvents.get(0));
+    assertEquals(1, new JsonParser().parse(mockWriter.getString()).getAsJsonArray().size());
+  }
+
+  public void testParallelEventDispatchKeepsOperationOrder() throws Exception {
+    final Thread servletThread = Thread.currentThread();
+    final List<Thread> waveletEventThreads = new ArrayList<Thread>();
+    AbstractRobot robot = new AbstractRobot() {
+      @Override
+      protected String getRobotName() {
+        return "Foo";
+      }
+
+      @Override
+      public String getRobotProfilePageUrl() {
+        return "http://code.google.com/apis/wave/";
+      }
+
+      @Override
+      public void onBlipSubmitted(BlipSubmittedEvent e) {
+        if (e.getBlip().getBlipId().equals("blip1")) {
+          // Let the handlers of the other blip finish first.
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        e.getBlip().append(" submitted");
+      }
+
+      @Override
+      public void onWaveletTagsChanged(WaveletTagsChangedEvent e) {
+        waveletEventThreads.add(Thread.currentThread());
+        e.getWavelet().setTitle("Tagged");
+      }
+
+      @Override
+      protected String computeHash() {
+        return "hash1";
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    robot.setEventDispatchExecutor(executor);
+
+    EventMessageBundle bundle = new EventMessageBundle("Foo", "http://gmodules.com/api/rpc");
+    bundle.setWaveletData(new WaveletData("google.com!wave1", "google.com!conv+root", "blip1",
+        Arrays.asList("foo@google.com")));
+    for (String blipId : Arrays.asList("blip1", "blip2")) {
+      BlipData blipData = new BlipData("google.com!wave1", "google.com!conv+root", blipId, "\n");
+      blipData.setBlipId(blipId);
+      bundle.addBlip(blipId, blipData);
+    }
+    bundle.addEvent(new BlipSubmittedEvent(null, null, "foo@test.com", 1l, "blip1"));
+    bundle.addEvent(new BlipSubmittedEvent(null, null, "foo@test.com", 1l, "blip2"));
+    // Like real bundles, wavelet events refer to the root blip.
+    bundle.addEvent(new WaveletTagsChangedEvent(null, null, "foo@test.com", 1l, "blip1"));
+    bundle.addEvent(new BlipSubmittedEvent(null, null, "foo@test.com", 1l, "blip2"));
+    String json = new GsonFactory().create().toJson(bundle);
+
+    MockWriter mockWriter = new MockWriter();
+    try {
+      robot.doPost(
+          makeMockRequest(JSONRPC_PATH, new BufferedReader(new StringReader(json))),
+          makeMockResponse(mockWriter));
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(Arrays.asList(servletThread), waveletEventThreads);
+
+    // The operations are in the order of the events, after robot.notify().
+    JsonArray ops = new JsonParser().parse(mockWriter.getString()).getAsJsonArray();
+    assertEquals(5, ops.size());
+    String[][] expected = {
+        {OperationType.DOCUMENT_MODIFY.method(), "blip1"},
+        {OperationType.DOCUMENT_MODIFY.method(), "blip2"},
+        {OperationType.WAVELET_SET_TITLE.method(), null},
+        {OperationType.DOCUMENT_MODIFY.method(), "blip2"}};
+    for (int i = 0; i < expected.length; ++i) {
+      JsonObject op = ops.get(i + 1).getAsJsonObject();
+      assertEquals(expected[i][0], op.get(RequestProperty.METHOD.key()).getAsString());
+      JsonElement blipId = op.get(RequestProperty.PARAMS.key()).getAsJsonObject()
+          .get(ParamsProperty.BLIP_ID.key());
+      assertEquals(expected[i][1], blipId == null ? null : blipId.getAsString());
+    }
+  }
+
   public void testBlindWavelet() throws Exception {
     AbstractRobot robot = new MockRobot();
     Wavelet blindWavelet = robot.blindWavelet(WaveId.deserialise("test.com!wave1"),
@@ -320,6 +822,13 @@ public class AbstractRobotTest extends TestCase {
     return request;
   }
 
+  private HttpServletRequest makeMockRequest(String path, byte[] body) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRequestURI()).thenReturn(path);
+    when(request.getInputStream()).thenReturn(new MockServletInputStream(body));
+    return request;
+  }
+
   private HttpServletRequest makeMockRequest(String path, String parameterKey,
       String parameterValue) {
     HttpServletRequest request = mock(HttpServletRequest.class);
@@ -334,9 +843,61 @@ public class AbstractRobotTest extends TestCase {
     return request;
   }
 
+  private static HttpServer startServer(final int responseCode, String response)
+      throws IOException {
+    final byte[] bytes = response.getBytes("UTF-8");
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/rpc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        while (in.read() != -1) {
+          // Consume the request body.
+        }
+        exchange.sendResponseHeaders(responseCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    server.start();
+    return server;
+  }
+
   private HttpServletResponse makeMockResponse(MockWriter writer) throws IOException {
     HttpServletResponse response = mock(HttpServletResponse.class);
     when(response.getWriter()).thenReturn(writer);
     return response;
   }
+
+  /**
+   * @return a mock fetcher that answers each operation with an empty response.
+   */
+  private static HttpFetcher newEchoingFetcher() throws IOException {
+    HttpFetcher fetcher = mock(HttpFetcher.class);
+    when(fetcher.send(any(String.class), any(String.class), any(RequestBody.class))).thenAnswer(
+        new Answer<String>() {
+          @Override
+          public String answer(InvocationOnMock invocation) throws IOException {
+            String body = readBody((RequestBody) invocation.getArguments()[2]);
+            JsonArray requests = new JsonParser().parse(body).getAsJsonArray();
+            JsonArray responses = new JsonArray();
+            for (JsonElement request : requests) {
+              JsonObject response = new JsonObject();
+              response.add("id", request.getAsJsonObject().get("id"));
+              response.add("data", new JsonObject());
+              responses.add(response);
+            }
+            return responses.toString();
+          }
+        });
+    return fetcher;
+  }
+
+  private static String readBody(RequestBody body) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    body.writeTo(out);
+    assertEquals(out.size(), body.getContentLength());
+    return out.toString("UTF-8");
+  }
 }
@@ -0,0 +1,200 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api;
+
+import org.junit.Ignore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Code that compares the interval-indexed {@link Annotations} with the
+ * original list-based implementation, on blips that carry an annotation on
+ * every word, for profiling purposes. Not really a test case.
+ */
+// Not really a test case, but presubmit fails without this annotation.
+@Ignore
+public class AnnotationsPerformanceTest {
+
+  static final int[] WORD_COUNTS = {1000, 5000, 20000};
+  static final int WORD_LENGTH = 6;
+  static final int NUM_EDITS = 2000;
+  static final String[] NAMES = {"spell/suggestion", "link/auto"};
+
+  /**
+   * The operations that are benchmarked.
+   */
+  interface AnnotationStore {
+    void add(String name, String value, int start, int end);
+    void delete(String name, int start, int end);
+    void shift(int position, int shiftAmount);
+  }
+
+  public void testPerformance() {
+    for (int wordCount : WORD_COUNTS) {
+      for (int i = 0; i < 3; i++) {
+        long list = run(new ListAnnotations(), wordCount, new Random(i));
+        long tree = run(new TreeAnnotations(), wordCount, new Random(i));
+        System.err.println("words=" + wordCount + ", run " + i + ": list=" + list + "ms, tree=" +
+            tree + "ms");
+      }
+    }
+  }
+
+  long run(AnnotationStore store, int wordCount, Random random) {
+    long startTime = System.currentTimeMillis();
+    for (String name : NAMES) {
+      for (int i = 0; i < wordCount; i++) {
+        store.add(name, "v" + (i % 3), i * WORD_LENGTH, i * WORD_LENGTH + WORD_LENGTH - 1);
+      }
+    }
+
+    int length = wordCount * WORD_LENGTH;
+    for (int i = 0; i < NUM_EDITS; i++) {
+      int position = random.nextInt(length);
+      switch (random.nextInt(3)) {
+        case 0:
+          store.shift(position, WORD_LENGTH);
+          length += WORD_LENGTH;
+          break;
+        case 1:
+          int end = Math.min(length, position + WORD_LENGTH);
+          for (String name : NAMES) {
+            store.delete(name, position, end);
+          }
+          store.shift(end, position - end);
+          length -= end - position;
+          break;
+        case 2:
+          store.add(NAMES[0], "fix", position, Math.min(length, position + WORD_LENGTH));
+          break;
+      }
+    }
+    return System.currentTimeMillis() - startTime;
+  }
+
+  /**
+   * The store backed by {@link Annotations}.
+   */
+  static class TreeAnnotations implements AnnotationStore {
+    private final Annotations annotations = new Annotations();
+
+    @Override
+    public void add(String name, String value, int start, int end) {
+      annotations.add(name, value, start, end);
+    }
+
+    @Override
+    public void delete(String name, int start, int end) {
+      annotations.delete(name, start, end);
+    }
+
+    @Override
+    public void shift(int position, int shiftAmount) {
+      annotations.shift(position, shiftAmount);
+    }
+  }
+
+  /**
+   * The original list-based implementation of {@link Annotations}.
+   */
+  static class ListAnnotations implements AnnotationStore {
+    private final Map<String, List<Annotation>> store = new HashMap<String, List<Annotation>>();
+
+    @Override
+    public void add(String name, String value, int start, int end) {
+      List<Annotation> newList = new ArrayList<Annotation>();
+      if (store.containsKey(name)) {
+        for (Annotation existing : store.get(name)) {
+          if (start > existing.getRange().getEnd() || end < existing.getRange().getStart()) {
+            newList.add(existing);
+          } else if (existing.getValue().equals(value)) {
+            start = Math.min(existing.getRange().getStart(), start);
+            end = Math.max(existing.getRange().getEnd(), end);
+          } else {
+            if (existing.getRange().getStart() < start) {
+              newList.add(new Annotation(existing.getName(), existing.getValue(),
+                  existing.getRange().getStart(), start));
+            }
+            if (existing.getRange().getEnd() > end) {
+              newList.add(new Annotation(existing.getName(), existing.getValue(),
+                  end, existing.getRange().getEnd()));
+            }
+          }
+        }
+      }
+      newList.add(new Annotation(name, value, start, end));
+      store.put(name, newList);
+    }
+
+    @Override
+    public void delete(String name, int start, int end) {
+      if (!store.containsKey(name)) {
+        return;
+      }
+      List<Annotation> newList = new ArrayList<Annotation>();
+      for (Annotation existing : store.get(name)) {
+        if (start > existing.getRange().getEnd() || end < existing.getRange().getStart()) {
+          newList.add(existing);
+        } else if (start < existing.getRange().getStart() &&
+            end > existing.getRange().getEnd()) {
+          continue;
+        } else {
+          if (existing.getRange().getStart() < start) {
+            newList.add(new Annotation(existing.getName(), existing.getValue(),
+                existing.getRange().getStart(), start));
+          }
+          if (existing.getRange().getEnd() > end) {
+            newList.add(new Annotation(existing.getName(), existing.getValue(),
+                end, existing.getRange().getEnd()));
+          }
+        }
+      }
+      store.put(name, newList);
+    }
+
+    @Override
+    public void shift(int position, int shiftAmount) {
+      for (Map.Entry<String, List<Annotation>> entry : store.entrySet()) {
+        List<Annotation> existingList = entry.getValue();
+        for (Annotation annotation : existingList) {
+          annotation.shift(position, shiftAmount);
+        }
+        List<Annotation> newList = new ArrayList<Annotation>(existingList.size());
+        for (int i = 0; i < existingList.size(); ++i) {
+          Annotation annotation = existingList.get(i);
+          int end = annotation.getRange().getEnd();
+          for (int j = i + 1; j < existingList.size(); ++j) {
+            if (end < existingList.get(j).getRange().getStart()) {
+              break;
+            }
+            if (end == existingList.get(j).getRange().getStart() &&
+                annotation.getValue().equals(existingList.get(j).getValue())) {
+              end = existingList.get(j).getRange().getEnd();
+              existingList.remove(j--);
+            }
+          }
+          newList.add(new Annotation(annotation.getName(), annotation.getValue(),
+              annotation.getRange().getStart(), end));
+        }
+        entry.setValue(newList);
+      }
+    }
+  }
+}
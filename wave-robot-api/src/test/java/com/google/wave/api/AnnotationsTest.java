@@ -17,6 +17,12 @@ package com.google.wave.api;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 /**
  * Test cases for {@link Annotation}.
  */
@@ -34,14 +40,14 @@ public class AnnotationsTest extends TestCase {
 
     annotations.add("name", "value", 4, 7);
     assertEquals(3, annotations.get("name").size());
-    assertEquals(new Range(3, 7), annotations.get("name").get(2).getRange());
+    assertEquals(new Range(3, 7), annotations.get("name").get(1).getRange());
 
     annotations.add("name", "value2", 6, 7);
     assertEquals(4, annotations.get("name").size());
-    assertEquals(new Range(3, 6), annotations.get("name").get(2).getRange());
-    assertEquals("value", annotations.get("name").get(2).getValue());
-    assertEquals(new Range(6, 7), annotations.get("name").get(3).getRange());
-    assertEquals("value2", annotations.get("name").get(3).getValue());
+    assertEquals(new Range(3, 6), annotations.get("name").get(1).getRange());
+    assertEquals("value", annotations.get("name").get(1).getValue());
+    assertEquals(new Range(6, 7), annotations.get("name").get(2).getRange());
+    assertEquals("value2", annotations.get("name").get(2).getValue());
   }
 
   public void testDelete() throws Exception {
@@ -80,4 +86,107 @@ public class AnnotationsTest extends TestCase {
     assertEquals(1, annotations.get("name").size());
     assertEquals(new Range(1, 6), annotations.get("name").get(0).getRange());
   }
+
+  public void testGetOverlapping() throws Exception {
+    Annotations annotations = new Annotations();
+    annotations.add("name", "value", 1, 3);
+    annotations.add("name", "value2", 3, 5);
+    annotations.add("name", "value", 10, 15);
+
+    List<Annotation> overlapping = annotations.get("name", 2, 11);
+    assertEquals(3, overlapping.size());
+    assertEquals(new Range(1, 3), overlapping.get(0).getRange());
+    assertEquals(new Range(10, 15), overlapping.get(2).getRange());
+
+    overlapping = annotations.get("name", 5, 10);
+    assertTrue(overlapping.isEmpty());
+    assertTrue(annotations.get("unknown", 0, 20).isEmpty());
+  }
+
+  public void testRandomOperationsMatchPositionModel() throws Exception {
+    Random random = new Random(7);
+    String[] names = {"a", "b", "c"};
+    String[] values = {"x", "y"};
+    int length = 100;
+    List<Map<String, String>> model = new ArrayList<Map<String, String>>();
+    for (int i = 0; i < length; ++i) {
+      model.add(new HashMap<String, String>());
+    }
+    Annotations annotations = new Annotations();
+
+    for (int i = 0; i < 3000; ++i) {
+      int start = random.nextInt(length);
+      int end = start + 1 + random.nextInt(Math.min(10, length - start));
+      String name = names[random.nextInt(names.length)];
+      switch (random.nextInt(4)) {
+        case 0:
+          String value = values[random.nextInt(values.length)];
+          annotations.add(name, value, start, end);
+          for (int j = start; j < end; ++j) {
+            model.get(j).put(name, value);
+          }
+          break;
+        case 1:
+          annotations.delete(name, start, end);
+          for (int j = start; j < end; ++j) {
+            model.get(j).remove(name);
+          }
+          break;
+        case 2:
+          // Insert text, the way a blip does.
+          int inserted = end - start;
+          annotations.shift(start, inserted);
+          for (int j = 0; j < inserted; ++j) {
+            Map<String, String> cell = new HashMap<String, String>();
+            if (start > 0) {
+              cell.putAll(model.get(start - 1));
+            }
+            model.add(start, cell);
+          }
+          length += inserted;
+          break;
+        case 3:
+          // Delete text, the way a blip does.
+          for (String each : annotations.namesSet()) {
+            annotations.delete(each, start, end);
+          }
+          annotations.shift(end, start - end);
+          model.subList(start, end).clear();
+          length -= end - start;
+          break;
+      }
+      if (length < 20) {
+        annotations.shift(length, 50);
+        for (int j = 0; j < 50; ++j) {
+          model.add(new HashMap<String, String>(model.get(length - 1)));
+        }
+        length += 50;
+      }
+      assertMatchesModel(model, annotations);
+    }
+  }
+
+  private static void assertMatchesModel(List<Map<String, String>> model,
+      Annotations annotations) {
+    List<Map<String, String>> actual = new ArrayList<Map<String, String>>();
+    for (int i = 0; i < model.size(); ++i) {
+      actual.add(new HashMap<String, String>());
+    }
+    for (String name : annotations.namesSet()) {
+      Annotation previous = null;
+      for (Annotation annotation : annotations.get(name)) {
+        Range range = annotation.getRange();
+        if (previous != null) {
+          assertTrue(previous.getRange().getEnd() <= range.getStart());
+          assertFalse(previous.getRange().getEnd() == range.getStart() &&
+              previous.getValue().equals(annotation.getValue()));
+        }
+        for (int i = range.getStart(); i < range.getEnd(); ++i) {
+          actual.get(i).put(name, annotation.getValue());
+        }
+        previous = annotation;
+      }
+    }
+    assertEquals(model, actual);
+  }
 }
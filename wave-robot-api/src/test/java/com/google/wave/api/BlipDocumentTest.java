@@ -0,0 +1,132 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+/**
+ * Test cases for {@link BlipDocument}.
+ */
+public class BlipDocumentTest extends TestCase {
+
+  public void testReplace() throws Exception {
+    BlipDocument document = new BlipDocument("\nhello world", null);
+    document.replace(1, 6, "goodbye");
+    assertEquals("\ngoodbye world", document.getText());
+    document.replace(8, 14, "");
+    assertEquals("\ngoodbye", document.getText());
+    document.replace(8, 8, "!");
+    assertEquals("\ngoodbye!", document.getText());
+    assertEquals(9, document.length());
+    assertEquals("bye", document.substring(5, 8));
+    assertEquals('!', document.charAt(8));
+  }
+
+  public void testSearchAcrossGap() throws Exception {
+    BlipDocument document = new BlipDocument("\nfoo bar foo", null);
+    document.replace(4, 4, "d");
+    assertEquals(1, document.indexOf("food", 0));
+    assertEquals(-1, document.indexOf("food", 2));
+    assertEquals(10, document.indexOf("foo", 2));
+    assertEquals("od b", document.substring(3, 7));
+  }
+
+  public void testElementsAreShiftedByEdits() throws Exception {
+    SortedMap<Integer, Element> elements = new TreeMap<Integer, Element>();
+    Element first = new Gadget("http://a/1.xml");
+    Element second = new Gadget("http://a/2.xml");
+    elements.put(2, first);
+    elements.put(6, second);
+    BlipDocument document = new BlipDocument("\n0 2 4 6", elements);
+
+    document.replace(4, 4, "xyz");
+    assertSame(first, document.getElements().get(2));
+    assertSame(second, document.getElements().get(9));
+    assertEquals(9, document.nextElementPosition(3));
+    assertEquals(-1, document.nextElementPosition(10));
+
+    document.replace(0, 1, "");
+    assertSame(first, document.getElements().get(1));
+    assertSame(second, document.getElements().get(8));
+    assertEquals(2, document.getElements().size());
+
+    document.deleteElements(0, 5);
+    assertEquals(1, document.getElements().size());
+    assertEquals(Integer.valueOf(8), document.getElements().firstKey());
+  }
+
+  public void testRandomEditsMatchStringModel() throws Exception {
+    Random random = new Random(42);
+    String expectedText = "\nabcdefghijklmnopqrstuvwxyz";
+    SortedMap<Integer, Element> expectedElements = new TreeMap<Integer, Element>();
+    for (int i = 2; i < expectedText.length(); i += 5) {
+      expectedElements.put(i, new Element(ElementType.LINE));
+    }
+    BlipDocument document = new BlipDocument(expectedText, expectedElements);
+
+    for (int i = 0; i < 2000; ++i) {
+      int start = random.nextInt(expectedText.length() + 1);
+      int end = start + random.nextInt(expectedText.length() - start + 1);
+      switch (random.nextInt(4)) {
+        case 0:
+          String text = "0123456789".substring(random.nextInt(10));
+          expectedElements = shift(expectedElements, end, text.length() + start - end);
+          expectedText = expectedText.substring(0, start) + text + expectedText.substring(end);
+          document.replace(start, end, text);
+          break;
+        case 1:
+          expectedElements.subMap(start, end).clear();
+          document.deleteElements(start, end);
+          break;
+        case 2:
+          Element element = new Element(ElementType.LINE);
+          expectedElements.put(start, element);
+          document.getElements().put(start, element);
+          break;
+        case 3:
+          assertEquals(expectedText.indexOf("5", start), document.indexOf("5", start));
+          assertEquals(expectedText.substring(start, end), document.substring(start, end));
+          SortedMap<Integer, Element> after = expectedElements.tailMap(start);
+          assertEquals(after.isEmpty() ? -1 : after.firstKey(),
+              document.nextElementPosition(start));
+          assertEquals(expectedElements.get(start), document.getElements().get(start));
+          break;
+      }
+      assertEquals(expectedText.length(), document.length());
+      assertEquals(expectedElements.size(), document.getElements().size());
+    }
+    assertEquals(expectedText, document.getText());
+    assertEquals(expectedElements, document.getElements());
+  }
+
+  /**
+   * Shifts the elements the same way as the original {@link Blip}
+   * implementation, by rebuilding the map.
+   */
+  private static SortedMap<Integer, Element> shift(SortedMap<Integer, Element> elements,
+      int position, int shiftAmount) {
+    SortedMap<Integer, Element> result = new TreeMap<Integer, Element>(elements.headMap(position));
+    for (Entry<Integer, Element> entry : elements.tailMap(position).entrySet()) {
+      result.put(entry.getKey() + shiftAmount, entry.getValue());
+    }
+    return result;
+  }
+}
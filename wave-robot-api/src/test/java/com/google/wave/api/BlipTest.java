@@ -521,6 +521,25 @@ public class BlipTest extends TestCase {
     assertEquals(ElementType.INLINE_BLIP, blip.getElements().get(3).getType());
   }
 
+  public void testBulkReplaceOnLargeBlip() throws Exception {
+    StringBuilder content = new StringBuilder("\n");
+    StringBuilder expected = new StringBuilder("\n");
+    while (content.length() < 100 * 1024) {
+      content.append("foo baz ");
+      expected.append("quux baz ");
+    }
+    Blip blip = newBlip(content.toString(), Collections.<Annotation>emptyList());
+    int lastElementPosition = blip.length() - 1;
+    blip.getElements().put(lastElementPosition, new Gadget("http://a/c.xml"));
+
+    blip.all("foo").replace("quux");
+    assertEquals(expected.toString(), blip.getContent());
+    int matches = (content.length() - 1) / 8;
+    assertEquals(ElementType.GADGET,
+        blip.getElements().get(lastElementPosition + matches).getType());
+    assertEquals(1, wavelet.getOperationQueue().getPendingOperations().size());
+  }
+
   private static void assertEquals(Annotation one, Annotation two) {
     assertEquals(one.getName(), two.getName());
     assertEquals(one.getValue(), two.getValue());
@@ -0,0 +1,126 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test cases for {@link IdGenerator}.
+ */
+public class IdGeneratorTest extends TestCase {
+
+  private static final int NUM_THREADS = 8;
+  private static final int IDS_PER_THREAD = 20000;
+
+  public void testIdFormats() throws Exception {
+    IdGenerator generator = new IdGenerator(5, -2);
+    assertEquals("op5", generator.newOpId());
+    assertEquals("op6", generator.newOpId());
+    assertEquals("TBD_google.com!conv+root_-2",
+        generator.newTempBlipId("google.com!conv+root"));
+    assertEquals("google.com!TBD_-1", generator.newTempWaveId("google.com"));
+  }
+
+  public void testIdsAreUniqueUnderContention() throws Exception {
+    final IdGenerator generator = new IdGenerator();
+    List<String> ids = runConcurrently(new Callable<List<String>>() {
+      @Override
+      public List<String> call() {
+        List<String> result = new ArrayList<String>(IDS_PER_THREAD * 2);
+        for (int i = 0; i < IDS_PER_THREAD; ++i) {
+          result.add(generator.newOpId());
+          result.add(generator.newTempBlipId("google.com!conv+root"));
+        }
+        return result;
+      }
+    });
+    assertEquals(NUM_THREADS * IDS_PER_THREAD * 2, ids.size());
+    assertEquals(ids.size(), new HashSet<String>(ids).size());
+  }
+
+  public void testOperationQueuesHaveUniqueIdsUnderContention() throws Exception {
+    final Wavelet wavelet = mock(Wavelet.class);
+    when(wavelet.getWaveId()).thenReturn(WaveId.deserialise("google.com!wave1"));
+    when(wavelet.getWaveletId()).thenReturn(WaveletId.deserialise("google.com!wavelet1"));
+    when(wavelet.getBlips()).thenReturn(Collections.synchronizedMap(new HashMap<String, Blip>()));
+
+    List<String> ids = runConcurrently(new Callable<List<String>>() {
+      @Override
+      public List<String> call() {
+        OperationQueue queue = new OperationQueue();
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < IDS_PER_THREAD / 10; ++i) {
+          result.add(queue.appendBlipToWavelet(wavelet, "").getBlipId());
+          result.add(queue.createWavelet("google.com", null).getWaveId().serialise());
+        }
+        for (OperationRequest operation : queue.getPendingOperations()) {
+          result.add(operation.getId());
+        }
+        return result;
+      }
+    });
+    assertEquals(NUM_THREADS * IDS_PER_THREAD / 10 * 4, ids.size());
+    assertEquals(ids.size(), new HashSet<String>(ids).size());
+  }
+
+  /**
+   * Runs the given task on several threads at once, and returns the
+   * concatenation of their results.
+   */
+  private static List<String> runConcurrently(final Callable<List<String>> task)
+      throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+      for (int i = 0; i < NUM_THREADS; ++i) {
+        futures.add(executor.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() throws Exception {
+            start.await();
+            return task.call();
+          }
+        }));
+      }
+      start.countDown();
+
+      List<String> ids = new ArrayList<String>();
+      for (Future<List<String>> future : futures) {
+        ids.addAll(future.get());
+      }
+      return ids;
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -28,6 +28,7 @@ public class MediumTests extends TestSuite {
   public static Test suite() {
     TestSuite suite = new TestSuite();
     suite.addTestSuite(AbstractRobotTest.class);
+    suite.addTestSuite(IdGeneratorTest.class);
     return suite;
   }
 }
@@ -19,16 +19,20 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.wave.api.JsonRpcConstant.ParamsProperty;
+import com.google.wave.api.impl.DocumentModifyAction;
+import com.google.wave.api.impl.DocumentModifyAction.ModifyHow;
 
 import junit.framework.TestCase;
 
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Test cases for {@link OperationQueue}.
@@ -101,4 +105,127 @@ public class OperationQueueTest extends TestCase {
     assertEquals(blip, newBlip.getParentBlip());
     assertEquals(2, blips.size());
   }
+
+  public void testLocalChangesDeferredOnlyForCapturedQueue() throws Exception {
+    Blip blip = mock(Blip.class);
+    when(blip.getBlipId()).thenReturn("blip1");
+    when(blip.getWavelet()).thenReturn(wavelet);
+
+    Map<String, Blip> blips = new HashMap<String, Blip>();
+    blips.put("blip1", blip);
+    when(wavelet.getBlips()).thenReturn(blips);
+
+    OperationQueue queue = new OperationQueue();
+    OperationQueue other = new OperationQueue();
+    OperationQueue.Capture capture = other.startCapture();
+    try {
+      queue.createChildOfBlip(blip);
+      assertEquals(2, blips.size());
+    } finally {
+      OperationQueue.stopCapture();
+    }
+
+    capture = queue.startCapture();
+    try {
+      queue.proxyFor("foo").createChildOfBlip(blip);
+      assertEquals(2, blips.size());
+    } finally {
+      OperationQueue.stopCapture();
+    }
+    queue.commit(capture);
+    assertEquals(3, blips.size());
+  }
+
+  public void testCoalesceFoldsWaveletChanges() throws Exception {
+    OperationQueue queue = new OperationQueue();
+    queue.setTitleOfWavelet(wavelet, "Title 1");
+    queue.setTitleOfWavelet(wavelet, "Title 2");
+    queue.modifyTagOfWavelet(wavelet, "a", null);
+    queue.modifyTagOfWavelet(wavelet, "b", null);
+    queue.modifyTagOfWavelet(wavelet, "a", "remove");
+    queue.notifyRobotInformation("0.21", "hash1");
+    queue.notifyRobotInformation("0.21", "hash1");
+    String titleId = queue.getPendingOperations().get(2).getId();
+
+    queue.coalesce();
+    List<OperationRequest> ops = queue.getPendingOperations();
+    assertEquals(4, ops.size());
+    assertEquals(OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH.method(), ops.get(0).getMethod());
+
+    assertEquals(OperationType.WAVELET_SET_TITLE.method(), ops.get(1).getMethod());
+    assertEquals(titleId, ops.get(1).getId());
+    assertEquals("Title 2", ops.get(1).getParameter(ParamsProperty.WAVELET_TITLE));
+
+    assertEquals("b", ops.get(2).getParameter(ParamsProperty.NAME));
+    assertEquals("a", ops.get(3).getParameter(ParamsProperty.NAME));
+    assertEquals("remove", ops.get(3).getParameter(ParamsProperty.MODIFY_HOW));
+  }
+
+  public void testCoalesceMergesDocumentModifications() throws Exception {
+    OperationQueue queue = new OperationQueue();
+    Blip blip = newBlip(queue, "\nhello world");
+
+    for (int i = 1; i < 6; ++i) {
+      blip.at(i).annotate("style/fontWeight", "bold");
+    }
+    blip.append("foo");
+    blip.append("bar");
+    for (int i = 0; i < 3; ++i) {
+      blip.range(3, 4).delete();
+    }
+    blip.at(1).insert("ab");
+    blip.at(3).insert("cd");
+    String firstId = queue.getPendingOperations().get(0).getId();
+
+    queue.coalesce();
+    List<OperationRequest> ops = queue.getPendingOperations();
+    assertEquals(4, ops.size());
+
+    assertEquals(firstId, ops.get(0).getId());
+    assertEquals(new Range(1, 6), ops.get(0).getParameter(ParamsProperty.RANGE));
+    DocumentModifyAction action = getAction(ops.get(0));
+    assertEquals(ModifyHow.ANNOTATE, action.getModifyHow());
+    assertEquals("style/fontWeight", action.getAnnotationKey());
+    assertEquals(Arrays.asList("bold"), action.getValues());
+
+    assertNull(ops.get(1).getParameter(ParamsProperty.RANGE));
+    assertEquals(ModifyHow.INSERT_AFTER, getAction(ops.get(1)).getModifyHow());
+    assertEquals(Arrays.asList("foobar"), getAction(ops.get(1)).getValues());
+
+    assertEquals(new Range(3, 6), ops.get(2).getParameter(ParamsProperty.RANGE));
+    assertEquals(ModifyHow.DELETE, getAction(ops.get(2)).getModifyHow());
+
+    assertEquals(new Range(1, 2), ops.get(3).getParameter(ParamsProperty.RANGE));
+    assertEquals(ModifyHow.INSERT, getAction(ops.get(3)).getModifyHow());
+    assertEquals(Arrays.asList("abcd"), getAction(ops.get(3)).getValues());
+  }
+
+  public void testCoalesceKeepsIncompatibleModifications() throws Exception {
+    OperationQueue queue = new OperationQueue();
+    Blip blip = newBlip(queue, "\nhello world");
+
+    blip.range(1, 3).annotate("style/fontWeight", "bold");
+    blip.range(3, 5).annotate("style/fontStyle", "italic");
+    blip.range(5, 7).annotate("style/fontWeight", "bold");
+    blip.range(9, 11).annotate("style/fontWeight", "bold");
+    blip.range(1, 3).annotate("style/fontWeight", "normal");
+    blip.all("world").annotate("style/fontWeight", "bold");
+    blip.all("world").annotate("style/fontWeight", "bold");
+    blip.at(1).insert("ab");
+    blip.at(1).insert("cd");
+
+    queue.coalesce();
+    assertEquals(9, queue.getPendingOperations().size());
+  }
+
+  private Blip newBlip(OperationQueue queue, String content) {
+    when(wavelet.getOperationQueue()).thenReturn(queue);
+    return new Blip("b+43", Collections.<String>emptyList(), content,
+        Arrays.asList("robot@test.com"), "robot@test.com", 1000l, 123l, null,
+        Collections.<Annotation>emptyList(), new TreeMap<Integer, Element>(), wavelet);
+  }
+
+  private static DocumentModifyAction getAction(OperationRequest op) {
+    return (DocumentModifyAction) op.getParameter(ParamsProperty.MODIFY_ACTION);
+  }
 }
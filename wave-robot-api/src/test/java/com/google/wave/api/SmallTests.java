@@ -16,6 +16,7 @@
 package com.google.wave.api;
 
 import com.google.wave.api.event.EventSerializerTest;
+import com.google.wave.api.impl.EventMessageBundleGsonAdaptorTest;
 import com.google.wave.api.impl.JsonRpcResponseGsonAdaptorTest;
 import com.google.wave.api.impl.OperationRequestGsonAdaptorTest;
 import com.google.wave.api.impl.TupleTest;
@@ -37,6 +38,7 @@ public class SmallTests extends TestSuite {
     // Add all small tests from com.google.wave.api package.
     suite.addTestSuite(AnnotationsTest.class);
     suite.addTestSuite(AnnotationTest.class);
+    suite.addTestSuite(BlipDocumentTest.class);
     suite.addTestSuite(BlipIteratorTest.class);
     suite.addTestSuite(BlipTest.class);
     suite.addTestSuite(ElementTest.class);
@@ -52,6 +54,7 @@ public class SmallTests extends TestSuite {
     suite.addTestSuite(EventSerializerTest.class);
 
     // Add all small tests from com.google.wave.api.impl package.
+    suite.addTestSuite(EventMessageBundleGsonAdaptorTest.class);
     suite.addTestSuite(JsonRpcResponseGsonAdaptorTest.class);
     suite.addTestSuite(OperationRequestGsonAdaptorTest.class);
     suite.addTestSuite(TupleTest.class);
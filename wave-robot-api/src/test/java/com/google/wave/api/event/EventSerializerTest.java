@@ -159,22 +159,46 @@ public class EventSerializerTest extends TestCase {
     assertEquals(expected, actual);
   }
 
-  public void testAllEventClassesHaveTheAppropriateConstructor() throws Exception {
+  public void testAllEventTypesHaveAnAccessor() throws Exception {
     for (EventType eventType : EventType.values()) {
       if (eventType == EventType.UNKNOWN) {
         continue;
       }
-
-      try {
-        Class<? extends Event> clazz = eventType.getClazz();
-        clazz.getDeclaredConstructor();
-      } catch (NoSuchMethodException e) {
-        fail(eventType.getClazz().getName() + " should implement a no-arg constructor that will " +
-            "be used for deserialization.");
-      }
+      assertNotNull(eventType.getClazz().getName() + " should register an EventAccessor that " +
+          "will be used for serialization.", EventAccessor.of(eventType));
     }
   }
 
+  public void testSerializeAndDeserializeEventWithoutProperties() throws Exception {
+    Blip blip = mock(Blip.class);
+    when(blip.getBlipId()).thenReturn("blip123");
+    Wavelet wavelet = mock(Wavelet.class);
+    when(wavelet.getBlip("blip123")).thenReturn(blip);
+    EventMessageBundle bundle = new EventMessageBundle("http://10.1.1.1",
+        "http://wave-active-api.example.com");
+
+    DocumentChangedEvent expected = new DocumentChangedEvent(wavelet, bundle,
+        "foo@google.com", 123l, "blip123");
+    Context context = new Context();
+    Event actual = EventSerializer.deserialize(wavelet, bundle,
+        EventSerializer.serialize(expected, context),
+        context);
+    assertEquals(expected, actual);
+  }
+
+  public void testExtractProperties() throws Exception {
+    Wavelet wavelet = mock(Wavelet.class);
+    WaveletCreatedEvent event = new WaveletCreatedEvent(wavelet, null, "foo@google.com", 123l,
+        "blip123", "hello", "wave1", "wavelet1");
+
+    Map<String, Object> properties = EventSerializer.extractPropertiesToStringMap(event);
+    assertEquals(4, properties.size());
+    assertEquals("blip123", properties.get("blipId"));
+    assertEquals("hello", properties.get("message"));
+    assertEquals("wave1", properties.get("waveId"));
+    assertEquals("wavelet1", properties.get("waveletId"));
+  }
+
   public void testAllEventClassesHaveConversionStaticMethod() throws Exception {
     for (EventType eventType : EventType.values()) {
       if (eventType == EventType.UNKNOWN) {
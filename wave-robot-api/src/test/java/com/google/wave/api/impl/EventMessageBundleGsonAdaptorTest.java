@@ -0,0 +1,128 @@
+/* Copyright (c) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wave.api.impl;
+
+import com.google.gson.Gson;
+import com.google.wave.api.Blip;
+import com.google.wave.api.BlipData;
+import com.google.wave.api.Wavelet;
+import com.google.wave.api.event.BlipSubmittedEvent;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Test cases for {@link EventMessageBundleGsonAdaptor}.
+ */
+public class EventMessageBundleGsonAdaptorTest extends TestCase {
+
+  private static final String WAVE_ID = "google.com!wave1";
+  private static final String WAVELET_ID = "google.com!conv+root";
+
+  private String json;
+
+  @Override
+  protected void setUp() throws Exception {
+    EventMessageBundle bundle = new EventMessageBundle("foo@appspot.com",
+        "http://gmodules.com/api/rpc");
+    bundle.setWaveletData(new WaveletData(WAVE_ID, WAVELET_ID, "blip1",
+        Arrays.asList("foo@google.com")));
+    bundle.addBlip("blip1", newBlipData("blip1", "\nroot", null));
+    bundle.addBlip("blip2", newBlipData("blip2", "\nfirst reply", "blip1"));
+    bundle.addBlip("blip3", newBlipData("blip3", "\nsecond reply", "blip1"));
+    bundle.addEvent(new BlipSubmittedEvent(null, null, "foo@google.com", 1l, "blip2"));
+    json = new GsonFactory().create().toJson(bundle);
+  }
+
+  public void testDeserializeLazily() throws Exception {
+    EventMessageBundle bundle = createGson(true).fromJson(json, EventMessageBundle.class);
+    Wavelet wavelet = bundle.getWavelet();
+    LazyBlipStore.LazyView<?> store = (LazyBlipStore.LazyView<?>) wavelet.getBlips();
+
+    assertFalse(store.isMaterialized("blip1"));
+    assertFalse(store.isMaterialized("blip2"));
+    assertFalse(store.isMaterialized("blip3"));
+    assertEquals(3, wavelet.getBlips().size());
+    assertTrue(wavelet.getBlips().containsKey("blip3"));
+    assertFalse(store.isMaterialized("blip3"));
+
+    Blip blip = bundle.getEvents().get(0).getBlip();
+    assertEquals("blip2", blip.getBlipId());
+    assertEquals("\nfirst reply", blip.getContent());
+    assertSame(blip, wavelet.getBlip("blip2"));
+    assertTrue(store.isMaterialized("blip2"));
+    assertFalse(store.isMaterialized("blip1"));
+    assertFalse(store.isMaterialized("blip3"));
+
+    assertEquals("blip1", blip.getParentBlip().getBlipId());
+    assertTrue(store.isMaterialized("blip1"));
+    assertFalse(store.isMaterialized("blip3"));
+
+    assertEquals(3, new ArrayList<Blip>(wavelet.getBlips().values()).size());
+    assertTrue(store.isMaterialized("blip3"));
+    assertNull(wavelet.getBlip("unknown"));
+  }
+
+  public void testLazyAndEagerDeserializationAreEquivalent() throws Exception {
+    EventMessageBundle eager = createGson(false).fromJson(json, EventMessageBundle.class);
+    EventMessageBundle lazy = createGson(true).fromJson(json, EventMessageBundle.class);
+
+    assertEquals(eager.getBlipData().keySet(), lazy.getBlipData().keySet());
+    assertEquals(eager.getWavelet().getBlips().keySet(), lazy.getWavelet().getBlips().keySet());
+    for (Blip expected : eager.getWavelet().getBlips().values()) {
+      Blip actual = lazy.getWavelet().getBlip(expected.getBlipId());
+      assertEquals(expected.getContent(), actual.getContent());
+      assertEquals(expected.getParentBlipId(), actual.getParentBlipId());
+      assertEquals(expected.getChildBlipIds(), actual.getChildBlipIds());
+    }
+  }
+
+  public void testLazyBlipMapSupportsMutation() throws Exception {
+    EventMessageBundle bundle = createGson(true).fromJson(json, EventMessageBundle.class);
+    Wavelet wavelet = bundle.getWavelet();
+
+    wavelet.delete("blip3");
+    assertFalse(wavelet.getBlips().containsKey("blip3"));
+    assertEquals(2, wavelet.getBlips().size());
+    assertFalse(wavelet.getRootBlip().getChildBlipIds().contains("blip3"));
+
+    // The bundle's blip data should not be affected by wavelet mutations.
+    assertTrue(bundle.hasBlipId("blip3"));
+    assertEquals("\nsecond reply", bundle.getBlipData().get("blip3").getContent());
+
+    Blip reply = wavelet.reply("\nthird reply");
+    assertSame(reply, wavelet.getBlip(reply.getBlipId()));
+    assertEquals(3, wavelet.getBlips().size());
+  }
+
+  private static Gson createGson(boolean lazyBlips) {
+    GsonFactory factory = new GsonFactory();
+    factory.setDeserializeBlipsLazily(lazyBlips);
+    return factory.create();
+  }
+
+  private static BlipData newBlipData(String blipId, String content, String parentBlipId) {
+    BlipData blipData = new BlipData(WAVE_ID, WAVELET_ID, blipId, content);
+    blipData.setBlipId(blipId);
+    blipData.setParentBlipId(parentBlipId);
+    if (parentBlipId == null) {
+      blipData.setChildBlipIds(Arrays.asList("blip2", "blip3"));
+    }
+    return blipData;
+  }
+}